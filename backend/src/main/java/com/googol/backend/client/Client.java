@@ -84,7 +84,7 @@ public class Client {
     private static final String[] COMMANDS_DESCRIPTION = {  "Display available commands",
                                                             "Clear screen",
                                                             "Index a provided Url (i.e \"index https://example.com\")",
-                                                            "Search Urls by word(s) (i.e \"search word1 word2\")",
+                                                            "Search Urls by word(s), with OR, -word, parentheses, quoted phrases and site: (i.e \"search word1 word2 OR word3 -word4 site:example.com\")",
                                                             "Get father urls of the provided url (i.e \"fathers https://example.com\")",
                                                             "Close client",
                                                             "Get system status"
@@ -191,12 +191,15 @@ public class Client {
         ArrayList<ArrayList<String>> response = null;
         ArrayList<ArrayList<String>> fatherUrls = null;
 
-        // get all searched words
-        ArrayList<String> words = new ArrayList<>(Arrays.asList(providedWords).subList(1, providedWords.length));
+        // get the searched query (words, OR, -word, parentheses, quoted phrases and sites)
+        String query = String.join(" ", Arrays.asList(providedWords).subList(1, providedWords.length));
 
         int page = 0;
         final int pageSize = 10;
         Scanner pageScanner = new Scanner(System.in);
+        // cursor of each page reached by following the pages from the first one (which has none), the other pages are searched by number
+        ArrayList<String> cursors = new ArrayList<>();
+        cursors.add(null);
 
         while(keepPaginating){
             int start = page * pageSize;
@@ -215,11 +218,8 @@ public class Client {
                 boolean success = false;
                 for (int i = 0; i < maxRetries; i++) {
                     try {
-                        if (words.size() > 1) {
-                            response = gatewayRemote.searchWordSet(words, page, pageSize, isFreshSearch);
-                        } else {
-                            response = gatewayRemote.searchWord(words.get(0), page, pageSize, isFreshSearch);
-                        }
+                        if(page < cursors.size()) response = gatewayRemote.searchAfter(query, cursors.get(page), pageSize, isFreshSearch);
+                        else response = gatewayRemote.search(query, page, pageSize, isFreshSearch);
                         success = true;
                         break;
                     } catch (ConnectException e) {
@@ -239,7 +239,9 @@ public class Client {
 
 
             isFreshSearch = false;
-            int totalPagesNum = Integer.parseInt(response.get(response.size()-1).get(0));
+            ArrayList<String> lastRow = response.get(response.size()-1);
+            int totalPagesNum = Integer.parseInt(lastRow.get(0));
+            if(lastRow.size() > 1 && page + 1 == cursors.size()) cursors.add(lastRow.get(1)); // cursor of the next page
 
             System.out.println("-----PAGE " + (page+1) + " of " + totalPagesNum + "-----");
             if(showFatherUrls){
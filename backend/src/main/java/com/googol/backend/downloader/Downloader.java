@@ -3,15 +3,12 @@ package com.googol.backend.downloader;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.*;
-import java.nio.*;
-import java.nio.charset.StandardCharsets;
 import java.rmi.ConnectException;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.text.Collator;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.io.IOException;
@@ -24,6 +21,8 @@ import org.jsoup.nodes.Document;
 
 import com.googol.backend.gateway.GatewayRemote;
 import com.googol.backend.model.RawUrl;
+import com.googol.backend.protocol.Frame;
+import com.googol.backend.protocol.FrameCodec;
 
 
 /**
@@ -91,7 +90,38 @@ public class Downloader{
     private static MulticastSocket socket;
     private static int maxRetries = 5;
     private static int retryDelay = 1000; // 1 second
-    private static char DELIMITER;
+    /**
+     * Codec used to encode the frames sent to the barrels (only used by the main thread)
+     */
+    private static FrameCodec frameCodec;
+    /**
+     * Number of sent datagrams kept to answer the barrels retransmission requests
+     * Defaults to 1024 if it's not on the properties file or if it's invalid
+     */
+    private static int retransmitBufferSize = 1024;
+    /**
+     * Ring with the last sent datagrams, indexed by their sequence number
+     */
+    private static RetransmitRing retransmitRing;
+    /**
+     * Unicast socket where the barrels send their NACKs and receive the retransmitted datagrams
+     */
+    private static DatagramSocket nackSocket;
+    /**
+     * Barrels ingest pressure (0 to 1) above which the crawling is slowed down
+     * Defaults to 0.75 if it's not on the properties file or if it's invalid
+     */
+    private static double pressureThreshold = 0.75;
+    /**
+     * Maximum delay between urls when the barrels are under pressure
+     * Defaults to 5000 if it's not on the properties file or if it's invalid
+     */
+    private static int maxThrottleDelay = 5000; // 5 seconds
+    /**
+     * Maximum number of characters of the page text sent to the barrels, to build the search snippets
+     * Defaults to 4096 if it's not on the properties file or if it's invalid
+     */
+    private static int maxTextLength = 4096;
     private static GatewayRemote gatewayRemote;
     private static String gatewayEndpoint;
 
@@ -101,9 +131,8 @@ public class Downloader{
     }
 
 
-    private static ArrayList<String>[] parseRawUrl(RawUrl url){
+    private static Frame[] parseRawUrl(RawUrl url){
         String link = url.url;
-        if(link.contains(String.valueOf(DELIMITER))) return null;
 
         int depth = url.depth;
         if(depth > crawlingMaxDepth) { // if depth exceeds crawling max depth skip
@@ -125,15 +154,13 @@ public class Downloader{
             // get all urls inside the url and put it in the queue
             Elements subUrls = doc.select("a[href]");
             ArrayList<RawUrl> rawUrls = new ArrayList<>();
-            ArrayList<String> fatherUrls = new ArrayList<>();
-            fatherUrls.add("FATHER_URLS"); // FATHER_URLS for the barrels to know what to do
-            fatherUrls.add(link); // url for the barrel to add to as father url to all the following urls
+            String[] childUrls = new String[subUrls.size()]; // urls for the barrel to add the current url as their father url
 
+            int childUrlsNum = 0;
             for(Element subUrl : subUrls){
                 String href = subUrl.attr("abs:href");
-                if(href.contains(String.valueOf(DELIMITER))) continue;
 
-                fatherUrls.add(href + DELIMITER);
+                childUrls[childUrlsNum++] = href;
                 try{
                     if(depth+1 > crawlingMaxDepth) continue;
                     RawUrl rawUrl = new RawUrl(href, depth+1);
@@ -175,20 +202,29 @@ public class Downloader{
             //String countryCode = parts.length > 1 ? parts[1] : "";
 
             // get page title, description, keywords and text
-            String title = doc.title().replaceAll(String.valueOf(DELIMITER), "");
-            System.out.println("raw title: " + doc.title() + " - processed title: " + title);
-            String description = doc.select("meta[name=description]").attr("content").replaceAll(String.valueOf(DELIMITER), "");
+            // (fields are length prefixed on the wire, so no character needs to be stripped from them)
+            String title = doc.title();
+            String description = doc.select("meta[name=description]").attr("content");
             //String keywords = doc.select("meta[name=keywords]").attr("content");
-            String text = doc.body().text().replaceAll(String.valueOf(DELIMITER), ""); // remove | from the text to prevent conflicts
+            String text = doc.body().text();
+            String pageText = text.length() > maxTextLength ? text.substring(0, maxTextLength) : text; // original text, for the snippets
             text = text.toLowerCase(locale);
 
             if(link == null || title == null || description == null || text == null) return null;
-            ArrayList<String> parsedUrlInfo = new ArrayList<>();
-            parsedUrlInfo.add(link);
-            parsedUrlInfo.add(title);
-            parsedUrlInfo.add(description);
-            parsedUrlInfo.addAll(getUniqueWordsFromText(text));
-            return new ArrayList[]{parsedUrlInfo, fatherUrls}; // return father urls and parsedUrlInfo;
+            ArrayList<int[]> positions = new ArrayList<>();
+            String[] terms = getUniqueWordsFromText(text, positions);
+            int[] frequencies = new int[terms.length];
+            int documentLength = 0;
+            for(int i = 0; i < terms.length; i++){
+                frequencies[i] = positions.get(i).length;
+                documentLength += frequencies[i];
+            }
+            Frame page = Frame.page(link, title, description, terms, frequencies, positions.toArray(new int[0][]), documentLength);
+            if(maxTextLength > 0) page.text = pageText;
+            page.crawlVersion = System.currentTimeMillis(); // lets the barrels replace the terms of a recrawled page
+            Frame fatherUrls = Frame.fatherUrls(link, childUrls);
+            fatherUrls.entriesNum = childUrlsNum;
+            return new Frame[]{page, fatherUrls}; // return page and father urls frames
         } catch (IOException e) { // TODO notify user that the url he requested is invalid
             return null;
         } catch (Exception e){
@@ -197,19 +233,30 @@ public class Downloader{
     }
 
 
-    private static ArrayList<String> getUniqueWordsFromText(String text){
-        ArrayList<String> buffer = new ArrayList<>();
-
-        // hashset to keep track of unique words
-        HashSet<String> wordsSet = new HashSet<>();
+    /**
+     * Get the unique words of the text, in order of first appearance, along with the positions where each one appears.
+     *
+     * @param text the text
+     * @param positions list where the positions of each word are added, in the same order of the returned words
+     * @return the unique words
+     */
+    private static String[] getUniqueWordsFromText(String text, ArrayList<int[]> positions){
+        // linked hashmap to keep track of unique words (and their positions) while preserving their order
+        LinkedHashMap<String, ArrayList<Integer>> wordsPositions = new LinkedHashMap<>();
 
-        // append all unique words to the buffer
+        // append all unique words to the map, with the position of each occurrence
+        int position = 0;
         for(String word : text.replaceAll("\\p{Punct}", " ").trim().split("\\s+")){
-            if(wordsSet.add(word + DELIMITER))
-                buffer.add(word + DELIMITER);
+            if(word.isEmpty()) continue;
+            wordsPositions.computeIfAbsent(word, k -> new ArrayList<>()).add(position++);
         }
 
-        return buffer;
+        for(ArrayList<Integer> wordPositions : wordsPositions.values()){
+            int[] wordPositionsArray = new int[wordPositions.size()];
+            for(int i = 0; i < wordPositionsArray.length; i++) wordPositionsArray[i] = wordPositions.get(i);
+            positions.add(wordPositionsArray);
+        }
+        return wordsPositions.keySet().toArray(new String[0]);
     }
 
 
@@ -244,129 +291,106 @@ public class Downloader{
     }
 
 
-    private static void transmitUrlInfoToBarrels(ArrayList<String> buffer, MulticastSocket socket) {
-        // 65535bytes ip packet - 20bytes ip header - 8bytes udp header
-        final int MAX_PACKET_SIZE = 65507;
-
-        String url = buffer.get(0);
-        String title = buffer.get(1);
-        String description = buffer.get(2);
+    private static void transmitFrameToBarrels(Frame frame, MulticastSocket socket) throws IOException {
+        InetAddress group = InetAddress.getByName(multicastAddress);
 
-        BiConsumer<ByteBuffer, Integer> sendPacket = (byteBuffer, size) -> {
+        int skippedEntries = frameCodec.encode(frame, (data, size) -> {
+            // keep a copy before sending, so a NACK that arrives right after can already be answered
+            retransmitRing.put(FrameCodec.peekSequence(data), data, size);
             try {
-                InetAddress group = InetAddress.getByName(multicastAddress);
-                DatagramPacket packet = new DatagramPacket(byteBuffer.array(), size, group, port);
+                DatagramPacket packet = new DatagramPacket(data, size, group, port);
                 socket.send(packet);
             } catch (IOException e) {
                 log("Error transmitting to barrels. Retrying in " + retryDelay + "s...");
                 try {
                     Thread.sleep(retryDelay); // wait before retrying
-                    InetAddress group = InetAddress.getByName(multicastAddress);
-                    DatagramPacket packet = new DatagramPacket(byteBuffer.array(), size, group, port);
+                    DatagramPacket packet = new DatagramPacket(data, size, group, port);
                     socket.send(packet);
                 } catch (InterruptedException ie) {
                     Thread.currentThread().interrupt();
                     log("Interrupted during retry wait! Interrupting...");
-                    //interrupt();
-                } catch (IOException ex) {
-                    throw new RuntimeException(e);
                 }
             }
-        };
-
-        ByteBuffer dataBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
-        int currentSize = 0;
-
-        byte[] urlBytes = (url + DELIMITER).getBytes(StandardCharsets.UTF_8);
-        byte[] titleBytes = (title + DELIMITER).getBytes(StandardCharsets.UTF_8);
-        byte[] descriptionBytes = (description + DELIMITER).getBytes(StandardCharsets.UTF_8);
-
-        dataBuffer.put(urlBytes);
-        dataBuffer.put(titleBytes);
-        dataBuffer.put(descriptionBytes);
-        currentSize = urlBytes.length + titleBytes.length + descriptionBytes.length;
-        // TODO improve this, when a a packet is larger than MAX_PACKET_SIZE and needs to be segmented, the title and description dont need to be transmitted again
-        for(int i=3; i<buffer.size(); i++){
-            byte[] messageBytes = buffer.get(i).getBytes(StandardCharsets.UTF_8);
-            if (currentSize + messageBytes.length > MAX_PACKET_SIZE) {
-                // Send current buffer and reset for next chunk
-                sendPacket.accept(dataBuffer, currentSize);
-                dataBuffer.clear();
-                dataBuffer.put(urlBytes);
-                dataBuffer.put(titleBytes);
-                dataBuffer.put(descriptionBytes);
-                currentSize = urlBytes.length + titleBytes.length + descriptionBytes.length;
-            }
-            dataBuffer.put(messageBytes);
-            currentSize += messageBytes.length;
-        }
+        });
+        if(skippedEntries > 0) log("Skipped " + skippedEntries + " entries of " + frame.url + " too large for a datagram!");
+    }
 
-        // Send any remaining data
-        if (currentSize > 0) {
-            sendPacket.accept(dataBuffer, currentSize);
-        }
 
+    /**
+     * Setup the unicast socket where the barrels send their NACKs, on an ephemeral port
+     * @return socket if successful, null otherwise
+     */
+    private static DatagramSocket setupNackSocket(){
+        try{
+            return new DatagramSocket();
+        } catch (SocketException e){
+            log("Error setting up NACK socket: " + e.getMessage());
+            return null;
+        }
     }
 
 
-    private static void transmitFatherUrlsToBarrels(ArrayList<String> buffer, MulticastSocket socket) {
-        // 65535bytes ip packet - 20bytes ip header - 8bytes udp header
-        final int MAX_PACKET_SIZE = 65507;
+    /**
+     * Answer the NACKs sent by the barrels, retransmitting the requested datagrams (if still in the ring)
+     * through unicast to the barrel that requested them, so the other barrels don't receive duplicates.
+     */
+    private static void answerNacks(){
+        byte[] nackBuffer = new byte[64];
+        long senderId = uuid.getMostSignificantBits();
 
-        String fatherUrlIdentifier = buffer.get(0);
-        String fatherUrl = buffer.get(1);
+        while(!Thread.currentThread().isInterrupted() && !nackSocket.isClosed()){
+            DatagramPacket nackPacket = new DatagramPacket(nackBuffer, nackBuffer.length);
+            try{
+                nackSocket.receive(nackPacket);
+            } catch (IOException e){
+                if(nackSocket.isClosed()) break;
+                log("Error receiving NACK: " + e.getMessage());
+                continue;
+            }
 
-        BiConsumer<ByteBuffer, Integer> sendPacket = (byteBuffer, size) -> {
-            try {
-                InetAddress group = InetAddress.getByName(multicastAddress);
-                DatagramPacket packet = new DatagramPacket(byteBuffer.array(), size, group, port);
-                socket.send(packet);
-            } catch (IOException e) {
-                log("Error transmitting to barrels. Retrying in " + retryDelay + "s...");
-                try {
-                    Thread.sleep(retryDelay); // wait before retrying
-                    InetAddress group = InetAddress.getByName(multicastAddress);
-                    DatagramPacket packet = new DatagramPacket(byteBuffer.array(), size, group, port);
-                    socket.send(packet);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    log("Interrupted during retry wait! Interrupting...");
-                    //interrupt();
-                } catch (IOException ex) {
-                    throw new RuntimeException(e);
+            long[] nack = FrameCodec.decodeNack(nackPacket.getData(), nackPacket.getLength());
+            if(nack == null || nack[0] != senderId) continue;
+
+            // never retransmit more than what the ring can hold
+            long fromSequence = Math.max(nack[1], nack[2] - retransmitRing.getCapacity() + 1);
+            int retransmitted = 0;
+            for(long sequence = fromSequence; sequence <= nack[2]; sequence++){
+                byte[] datagram = retransmitRing.get(sequence);
+                if(datagram == null) continue; // already overwritten, the barrel will give up on it
+
+                try{
+                    nackSocket.send(new DatagramPacket(datagram, datagram.length, nackPacket.getSocketAddress()));
+                    retransmitted++;
+                } catch (IOException e){
+                    log("Error retransmitting datagram " + sequence + ": " + e.getMessage());
                 }
             }
-        };
-
-        ByteBuffer dataBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
-        int currentSize = 0;
-
-        byte[] fatherUrlIdentifierBytes = (fatherUrlIdentifier + DELIMITER).getBytes(StandardCharsets.UTF_8);
-        byte[] fatherUrlBytes = (fatherUrl + DELIMITER).getBytes(StandardCharsets.UTF_8);
-
-        dataBuffer.put(fatherUrlIdentifierBytes);
-        dataBuffer.put(fatherUrlBytes);
-        currentSize = fatherUrlIdentifierBytes.length + fatherUrlBytes.length;
-        // TODO improve this, when a a packet is larger than MAX_PACKET_SIZE and needs to be segmented, the title and description dont need to be transmitted again
-        for(int i=2; i<buffer.size(); i++){
-            byte[] messageBytes = buffer.get(i).getBytes(StandardCharsets.UTF_8);
-            if (currentSize + messageBytes.length > MAX_PACKET_SIZE) {
-                // Send current buffer and reset for next chunk
-                sendPacket.accept(dataBuffer, currentSize);
-                dataBuffer.clear();
-                dataBuffer.put(fatherUrlIdentifierBytes);
-                dataBuffer.put(fatherUrlBytes);
-                currentSize = fatherUrlIdentifierBytes.length + fatherUrlBytes.length;
-            }
-            dataBuffer.put(messageBytes);
-            currentSize += messageBytes.length;
+            if(verbosity) log("Retransmitted " + retransmitted + " datagrams to " + nackPacket.getSocketAddress());
         }
+    }
+
 
-        // Send any remaining data
-        if (currentSize > 0) {
-            sendPacket.accept(dataBuffer, currentSize);
+    /**
+     * Slow down the crawling when the barrels can't keep up with it.
+     * The delay grows linearly from 0, at the pressure threshold, to the max throttle delay, when the
+     * most loaded barrel ingest queue is full.
+     */
+    private static void throttleOnBarrelsPressure(){
+        double pressure;
+        try{
+            pressure = gatewayRemote.getBarrelsIngestPressure();
+        } catch (RemoteException e){
+            return; // don't stop crawling because of the pressure check, the next gateway call handles the reconnection
         }
+        if(pressure <= pressureThreshold) return;
 
+        long delay = (long) (maxThrottleDelay * Math.min(1, (pressure - pressureThreshold) / (1 - pressureThreshold)));
+        if(verbosity) log("Barrels under pressure (" + String.format("%.2f", pressure) + "), waiting " + delay + "ms");
+        try{
+            Thread.sleep(delay);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
     }
 
 
@@ -374,7 +398,6 @@ public class Downloader{
         while(true){
             try {
                 GatewayRemote gateway = (GatewayRemote) Naming.lookup(gatewayEndpoint);
-                DELIMITER = gateway.getParsingDelimiter();
                 crawlingMaxDepth = gateway.getCrawlingMaxDepth();
                 multicastAddress = gateway.getMulticastAddress();
                 port = gateway.getMulticastPort();
@@ -488,6 +511,79 @@ public class Downloader{
 
             }
 
+            // load pressure threshold
+            String pressureThresholdConfig = DownloaderConfigLoader.getProperty("downloader.pressureThreshold");
+            if(pressureThresholdConfig == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Pressure Threshold property not found in property file! Defaulting to " + pressureThreshold + "...");
+            } else { // if found, check it
+                try {
+                    double pressureThresholdDouble = Double.parseDouble(pressureThresholdConfig);
+                    if (pressureThresholdDouble >= 0 && pressureThresholdDouble < 1) { // if pressure threshold is valid
+                        pressureThreshold = pressureThresholdDouble;
+                        if(verbosity) System.out.println("Pressure Threshold: " + pressureThreshold);
+                    } else { // if pressure threshold is not valid, set it to default (defined on top of the class)
+                        System.out.println("Pressure Threshold must be between 0 and 1 (exclusive)! Defaulting to " + pressureThreshold + "...");
+                    }
+                } catch (NumberFormatException e){
+                    System.err.println("Pressure Threshold is not a number! Defaulting to " + pressureThreshold + "...");
+                }
+            }
+
+            // load max throttle delay
+            String maxThrottleDelayConfig = DownloaderConfigLoader.getProperty("downloader.maxThrottleDelay");
+            if(maxThrottleDelayConfig == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Max Throttle Delay property not found in property file! Defaulting to " + maxThrottleDelay + "...");
+            } else { // if found, check it
+                try {
+                    int maxThrottleDelayInt = Integer.parseInt(maxThrottleDelayConfig);
+                    if (maxThrottleDelayInt >= 0) { // if max throttle delay is valid
+                        maxThrottleDelay = maxThrottleDelayInt;
+                        if(verbosity) System.out.println("Max Throttle Delay: " + maxThrottleDelay);
+                    } else { // if max throttle delay is not valid, set it to default (defined on top of the class)
+                        System.out.println("Max Throttle Delay cannot be negative! Defaulting to " + maxThrottleDelay + "...");
+                    }
+                } catch (NumberFormatException e){
+                    System.err.println("Max Throttle Delay is not a number! Defaulting to " + maxThrottleDelay + "...");
+                }
+            }
+
+            // load max text length
+            String maxTextLengthConfig = DownloaderConfigLoader.getProperty("downloader.maxTextLength");
+            if(maxTextLengthConfig == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Max Text Length property not found in property file! Defaulting to " + maxTextLength + "...");
+            } else { // if found, check it
+                try {
+                    int maxTextLengthInt = Integer.parseInt(maxTextLengthConfig);
+                    if (maxTextLengthInt >= 0) { // if max text length is valid
+                        maxTextLength = maxTextLengthInt;
+                        if(verbosity) System.out.println("Max Text Length: " + maxTextLength);
+                    } else { // if max text length is not valid, set it to default (defined on top of the class)
+                        System.out.println("Max Text Length cannot be negative! Defaulting to " + maxTextLength + "...");
+                    }
+                } catch (NumberFormatException e){
+                    System.err.println("Max Text Length is not a number! Defaulting to " + maxTextLength + "...");
+                }
+            }
+
+            // load retransmit buffer size
+            String retransmitBufferSizeConfig = DownloaderConfigLoader.getProperty("downloader.retransmitBufferSize");
+            if(retransmitBufferSizeConfig == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Retransmit Buffer Size property not found in property file! Defaulting to " + retransmitBufferSize + "...");
+            } else { // if found, check it
+                try {
+                    int retransmitBufferSizeInt = Integer.parseInt(retransmitBufferSizeConfig);
+                    if (retransmitBufferSizeInt > 0) { // if retransmit buffer size is valid
+                        retransmitBufferSize = retransmitBufferSizeInt;
+                        if(verbosity) System.out.println("Retransmit Buffer Size: " + retransmitBufferSize);
+                    } else { // if retransmit buffer size is not valid, set it to default (defined on top of the class)
+                        System.out.println("Retransmit Buffer Size cannot be lower or equal to 0! Defaulting to " + retransmitBufferSize + "...");
+                    }
+                } catch (NumberFormatException e){
+                    System.err.println("Retransmit Buffer Size is not a number! Defaulting to " + retransmitBufferSize + "...");
+                }
+
+            }
+
             // load max retries num
             String  maxRetriesConfig = DownloaderConfigLoader.getProperty("downloader.maxRetries");
             if(maxRetriesConfig == null){ // if not found, set to default (defined on top of the class)
@@ -558,6 +654,9 @@ public class Downloader{
         if (socket != null && !socket.isClosed()) {
             socket.close();
         }
+        if (nackSocket != null && !nackSocket.isClosed()) {
+            nackSocket.close();
+        }
 
         System.exit(1);
     }
@@ -590,10 +689,20 @@ public class Downloader{
         if(socket == null) return;
         log("Successfully connected to multicast server!");
 
+        // setup the retransmission side channel
+        nackSocket = setupNackSocket();
+        if(nackSocket == null) return;
+        retransmitRing = new RetransmitRing(retransmitBufferSize);
+        frameCodec = new FrameCodec(uuid.getMostSignificantBits(), nackSocket.getLocalPort());
+        new Thread(Downloader::answerNacks).start();
+        log("Accepting NACKs on port " + nackSocket.getLocalPort());
+
 
         boolean interrupted = false;
         while(!interrupted){
             try{
+                throttleOnBarrelsPressure();
+
                 // get raw url from deque and parse it
                 RawUrl rawUrl;
                 try {
@@ -606,23 +715,23 @@ public class Downloader{
                     continue;
                 }
 
-                ArrayList<String>[] parsedInfo = parseRawUrl(rawUrl);
+                Frame[] parsedInfo = parseRawUrl(rawUrl);
                 if(parsedInfo == null) continue;
 
-                ArrayList<String> parsedUrlInfo = parsedInfo[0];
-                ArrayList<String> fatherUrls = parsedInfo[1];
+                Frame page = parsedInfo[0];
+                Frame fatherUrls = parsedInfo[1];
 
-                // transmit buffer through multicast
+                // transmit frames through multicast
                 try{
-                    transmitUrlInfoToBarrels(parsedUrlInfo, socket);
-                    transmitFatherUrlsToBarrels(fatherUrls, socket);
+                    transmitFrameToBarrels(page, socket);
+                    transmitFrameToBarrels(fatherUrls, socket);
                 } catch (Exception e){
                     log("Error transmitting to barrels. Skipping...");
                     log(e.getMessage());
                     continue;
                 }
 
-                System.out.println("Parsed and sent " + parsedUrlInfo.get(0));
+                System.out.println("Parsed and sent " + page.url);
 
             } catch ( Exception ignored){} // catches malformed url and invalid url depth exceptions
         }
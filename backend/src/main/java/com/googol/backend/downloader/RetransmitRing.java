@@ -0,0 +1,66 @@
+package com.googol.backend.downloader;
+
+import java.util.Arrays;
+
+/**
+ * Bounded ring of the last datagrams sent by a downloader, indexed by their sequence number.
+ * Used to answer the NACKs of the barrels that missed a datagram. Once the ring wraps around,
+ * the oldest datagrams are overwritten and can no longer be retransmitted.
+ */
+public class RetransmitRing {
+    /**
+     * Datagram copies, stored at the position sequence % capacity
+     */
+    private final byte[][] datagrams;
+    /**
+     * Sequence number of the datagram stored in each position (-1 if empty)
+     */
+    private final long[] sequences;
+
+    /**
+     * Instantiates a new Retransmit ring.
+     *
+     * @param capacity maximum number of datagrams kept
+     */
+    public RetransmitRing(int capacity){
+        if(capacity <= 0) throw new IllegalArgumentException("Capacity must be greater than 0.");
+        this.datagrams = new byte[capacity][];
+        this.sequences = new long[capacity];
+        Arrays.fill(sequences, -1);
+    }
+
+    /**
+     * Store a copy of the sent datagram.
+     *
+     * @param sequence sequence number of the datagram
+     * @param data     datagram bytes
+     * @param length   number of valid bytes
+     */
+    public synchronized void put(long sequence, byte[] data, int length){
+        int slot = (int) (sequence % datagrams.length);
+        datagrams[slot] = Arrays.copyOf(data, length);
+        sequences[slot] = sequence;
+    }
+
+    /**
+     * Get the datagram with the provided sequence number.
+     *
+     * @param sequence sequence number
+     * @return the datagram bytes, or null if it was already overwritten
+     */
+    public synchronized byte[] get(long sequence){
+        if(sequence < 0) return null;
+        int slot = (int) (sequence % datagrams.length);
+        if(sequences[slot] != sequence) return null;
+        return datagrams[slot];
+    }
+
+    /**
+     * Get the ring capacity.
+     *
+     * @return the capacity
+     */
+    public int getCapacity(){
+        return datagrams.length;
+    }
+}
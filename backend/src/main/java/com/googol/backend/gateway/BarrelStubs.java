@@ -0,0 +1,143 @@
+package com.googol.backend.gateway;
+
+import com.googol.backend.storage.IndexStorageBarrelRemote;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <H1>Cache of the RMI stubs of the barrels</H1>
+ * The stub of a barrel is looked up in the RMI registry once and reused by every call to the barrel, so the searches
+ * don't pay a registry round trip. A stub is only looked up again when a call through it throws a RemoteException
+ * (the barrel restarted and was bound again, or the connection broke), and the call is then retried once with the new
+ * stub.
+ * <p>
+ * The gateway also probes the barrels in the background with {@link #probe}, evicting the ones that stop answering.
+ */
+public class BarrelStubs {
+    private final Lookup lookup;
+    private final ConcurrentHashMap<String, IndexStorageBarrelRemote> stubs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> failedProbes = new ConcurrentHashMap<>();
+
+
+    /**
+     * Instantiates a new Barrel stubs cache, looking up the stubs in the RMI registry.
+     */
+    public BarrelStubs(){
+        this(endpoint -> (IndexStorageBarrelRemote) Naming.lookup(endpoint));
+    }
+
+
+    BarrelStubs(Lookup lookup){
+        this.lookup = lookup;
+    }
+
+
+    /**
+     * Get the stub of a barrel, looking it up if it isn't cached.
+     *
+     * @param endpoint the barrel endpoint
+     * @return the stub
+     * @throws RemoteException if the stub couldn't be looked up
+     */
+    public IndexStorageBarrelRemote get(String endpoint) throws RemoteException {
+        IndexStorageBarrelRemote stub = stubs.get(endpoint);
+        if(stub != null) return stub;
+        try{
+            stub = lookup.lookup(endpoint);
+        } catch (NotBoundException | MalformedURLException e){
+            throw new RemoteException("Error looking up barrel " + endpoint, e);
+        }
+        IndexStorageBarrelRemote cachedStub = stubs.putIfAbsent(endpoint, stub);
+        return cachedStub != null ? cachedStub : stub;
+    }
+
+
+    /**
+     * Call a barrel through its cached stub, looking it up again and retrying once if the call throws a RemoteException.
+     *
+     * @param endpoint the barrel endpoint
+     * @param call     the call
+     * @param <T>      the result type
+     * @return the result of the call
+     * @throws RemoteException if the call failed with the refreshed stub too, or the stub couldn't be looked up
+     */
+    public <T> T call(String endpoint, BarrelCall<T> call) throws RemoteException {
+        IndexStorageBarrelRemote stub = get(endpoint);
+        try{
+            return call.call(stub);
+        } catch (RemoteException e){
+            stubs.remove(endpoint, stub); // stale, unless another thread already refreshed it
+            return call.call(get(endpoint));
+        }
+    }
+
+
+    /**
+     * Probe a barrel, checking if it still answers.
+     *
+     * @param endpoint    the barrel endpoint
+     * @param maxFailures the number of failed probes in a row after which the barrel is considered dead
+     * @return false if the barrel failed the last maxFailures probes, true otherwise
+     */
+    public boolean probe(String endpoint, int maxFailures){
+        try{
+            call(endpoint, IndexStorageBarrelRemote::getAvailability);
+            failedProbes.remove(endpoint);
+            return true;
+        } catch (RemoteException e){
+            return failedProbes.merge(endpoint, 1, Integer::sum) < maxFailures;
+        }
+    }
+
+
+    /**
+     * Remove the stub of a barrel (unregistered, evicted or registered again after a restart).
+     *
+     * @param endpoint the barrel endpoint
+     */
+    public void remove(String endpoint){
+        stubs.remove(endpoint);
+        failedProbes.remove(endpoint);
+    }
+
+
+    /**
+     * Get the number of cached stubs.
+     *
+     * @return the number of stubs
+     */
+    public int size(){
+        return stubs.size();
+    }
+
+
+    /**
+     * Call to a barrel through its stub.
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    public interface BarrelCall<T> {
+        /**
+         * Call the barrel.
+         *
+         * @param barrel the barrel stub
+         * @return the result
+         * @throws RemoteException the remote exception
+         */
+        T call(IndexStorageBarrelRemote barrel) throws RemoteException;
+    }
+
+
+    /**
+     * Lookup of the stub of a barrel.
+     */
+    @FunctionalInterface
+    interface Lookup {
+        IndexStorageBarrelRemote lookup(String endpoint) throws RemoteException, NotBoundException, MalformedURLException;
+    }
+}
@@ -1,9 +1,11 @@
 package com.googol.backend.gateway;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.rmi.Naming;
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
@@ -11,11 +13,17 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import com.googol.backend.model.RawUrl;
+import com.googol.backend.protocol.Query;
+import com.googol.backend.protocol.TermPartitioner;
 import com.googol.backend.strategy.CrawlingStrategy;
 import com.googol.backend.strategy.BFSStartegy;
 import com.googol.backend.strategy.DFSStartegy;
@@ -81,6 +89,8 @@ class GatewayConfigLoader {
 
 /**
  * Class that keeps track of a barrel availability and average response time.
+ * The values reported by the barrel heartbeats are written by RMI threads and read by the searches, so they're
+ * volatile.
  */
 class BarrelMetrics {
     /**
@@ -97,7 +107,19 @@ class BarrelMetrics {
      * 0 - not available
      * 1 - 100% available
      */
-    private double availability = 0;
+    private volatile double availability = 0;
+    /**
+     * Index partitions owned by this barrel
+     */
+    private HashSet<Integer> ownedPartitions = new HashSet<>();
+    /**
+     * Ingest queue counters: depth, capacity, dropped messages and lag (in milliseconds)
+     */
+    private volatile long[] ingestStats = new long[4]; // replaced as a whole, never modified
+    /**
+     * Recent search latency reported by the barrel, in milliseconds
+     */
+    private volatile long recentLatency = 0;
 
     /**
      * Update barrel metrics.
@@ -142,6 +164,82 @@ class BarrelMetrics {
     public long getRequestCount() {
         return requestCount;
     }
+
+    /**
+     * Sets the ingest queue counters.
+     *
+     * @param ingestStats depth, capacity, dropped messages and lag (in milliseconds)
+     */
+    public void setIngestStats(List<Long> ingestStats) {
+        long[] newIngestStats = new long[4];
+        for(int i = 0; i < Math.min(4, ingestStats.size()); i++) newIngestStats[i] = ingestStats.get(i);
+        this.ingestStats = newIngestStats;
+    }
+
+    /**
+     * Gets the ingest queue counters.
+     *
+     * @return depth, capacity, dropped messages and lag (in milliseconds)
+     */
+    public long[] getIngestStats() {
+        return ingestStats;
+    }
+
+    /**
+     * Sets the recent search latency reported by the barrel.
+     *
+     * @param recentLatency the recent latency, in milliseconds
+     */
+    public void setRecentLatency(long recentLatency) {
+        this.recentLatency = recentLatency;
+    }
+
+    /**
+     * Gets the recent search latency reported by the barrel.
+     *
+     * @return the recent latency, in milliseconds
+     */
+    public long getRecentLatency() {
+        return recentLatency;
+    }
+
+    /**
+     * Gets the ingest pressure, the fraction of the ingest queue in use.
+     *
+     * @return the pressure, between 0 and 1
+     */
+    public double getIngestPressure() {
+        long[] stats = ingestStats;
+        return stats[1] == 0 ? 0 : (double) stats[0] / stats[1];
+    }
+
+    /**
+     * Sets the partitions owned by the barrel.
+     *
+     * @param ownedPartitions the owned partitions
+     */
+    public void setOwnedPartitions(Collection<Integer> ownedPartitions) {
+        this.ownedPartitions = new HashSet<>(ownedPartitions);
+    }
+
+    /**
+     * Gets the partitions owned by the barrel.
+     *
+     * @return the owned partitions
+     */
+    public HashSet<Integer> getOwnedPartitions() {
+        return ownedPartitions;
+    }
+
+    /**
+     * Check if the barrel owns the provided partition.
+     *
+     * @param partition the partition
+     * @return true if owned, false otherwise
+     */
+    public boolean ownsPartition(int partition) {
+        return ownedPartitions.contains(partition);
+    }
 }
 
 
@@ -196,11 +294,59 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      * This delimiter will be removed from all the text so there isn't any conflicts on the parsing
      */
     public static char parsingDelimiter = '|'; // default
+    /**
+     * Number of partitions the index terms are hashed into. Each barrel owns some of them.
+     * With a single partition every barrel holds the full index.
+     * Defaults to 1 if it's not on the properties file or if it's invalid
+     */
+    public static int partitionsNum = 1; // default
+    /**
+     * File of the table that maps an url to its id, so every barrel uses the same id for the same url, even after a
+     * restart of the gateway
+     * Defaults to "url_ids.table" if it's not on the properties file or if it's invalid
+     */
+    private static String urlIdsFile = "url_ids.table"; // default
+    /**
+     * Persistent table that maps an url to its id, opened at startup
+     */
+    private static UrlIdTable urlIds;
+    /**
+     * Thread pool used to query the barrels in parallel when a search spans several partitions
+     */
+    private static final ExecutorService searchExecutor = Executors.newCachedThreadPool();
     /**
      * Delay between system info display
      * Defaults to 5000 if it's not on the properties file or if it's invalid
      */
     private static int infoDelay = 5000; // default
+    /**
+     * Delay between the health checks of the online barrels, in milliseconds
+     * Defaults to 5000 if it's not on the properties file or if it's invalid
+     */
+    private static int healthCheckInterval = 5000; // default 5 seconds
+    /**
+     * Time a warming barrel can go without reporting its recovery status before it's expired, in milliseconds
+     * Defaults to 60000 if it's not on the properties file or if it's invalid
+     */
+    private static int warmingTimeout = 60000; // default 1 minute
+    /**
+     * Number of failed health checks in a row after which a barrel is evicted
+     */
+    private static final int MAX_FAILED_HEALTH_CHECKS = 3;
+    /**
+     * Minimum delay between the broadcasts of the system info to the clients, in milliseconds
+     * Defaults to 1000 if it's not on the properties file or if it's invalid
+     */
+    private static int broadcastInterval = 1000; // default 1 second
+    /**
+     * Time a client has to receive the system info before it's dropped, in milliseconds
+     * Defaults to 2000 if it's not on the properties file or if it's invalid
+     */
+    private static int callbackTimeout = 2000; // default 2 seconds
+    /**
+     * Cached RMI stubs of the barrels, so the searches don't look them up in the registry
+     */
+    private static final BarrelStubs barrelStubs = new BarrelStubs();
     /**
      * Double ended blocking queue that will contain all urls (int this case, the RawUrl objects).
      * The reason for it to be a double ended queue is for the crawling strategy.
@@ -215,38 +361,46 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      */
     private static final ConcurrentHashMap<String, String> barrelsOnline = new ConcurrentHashMap<>();
     /**
-     * HashMap that maps a barrel endpoint to its BarrelMetrics object.
+     * Concurrent Hash Map to keep track of the barrels that are still recovering their index after a restart.
+     * Each entry's key is the barrel endpoint and its value the last recovery status reported by the barrel.
+     * These barrels aren't online yet, so no searches (nor syncs) are routed to them.
+     */
+    private static final ConcurrentHashMap<String, String> barrelsWarming = new ConcurrentHashMap<>();
+    /**
+     * Concurrent Hash Map with the time of the last recovery status reported by each warming barrel, so the barrels
+     * that crash while warming are expired
+     */
+    private static final ConcurrentHashMap<String, Long> warmingReportTimes = new ConcurrentHashMap<>();
+    /**
+     * Concurrent Hash Map that maps a barrel endpoint to its BarrelMetrics object.
      * Used to retrieve and get or update the provided barrels metrics.
+     * The barrels are evicted at any time by the health checks, so a barrel picked from the online barrels may no
+     * longer have metrics.
      */
-    private static final HashMap<String, BarrelMetrics> barrelMetricsMap = new HashMap<>();
+    private static final ConcurrentHashMap<String, BarrelMetrics> barrelMetricsMap = new ConcurrentHashMap<>();
     /**
-     * Hashmap that maps a searched string to it's number of search counts.
+     * Concurrent Hash Map that maps a searched string to it's number of search counts.
      * This is so the top 10 searches can be tracked.
      */
-    private static final HashMap<String, Integer> searchedStrings = new HashMap<>();
-    private static final ArrayList<UpdateCallback> clients = new ArrayList<>();
+    private static final ConcurrentHashMap<String, Integer> searchedStrings = new ConcurrentHashMap<>();
+    /**
+     * Broadcaster of the system info to the registered clients, created when the gateway RMI is set up
+     */
+    private static StatusBroadcaster statusBroadcaster;
 
     @Override
-    public synchronized void registerUpdateCallback(UpdateCallback client) throws RemoteException {
-        clients.add(client);
+    public void registerUpdateCallback(UpdateCallback client) throws RemoteException {
+        statusBroadcaster.register(client);
     }
 
     @Override
-    public synchronized void unregisterUpdateCallback(UpdateCallback client) throws RemoteException {
-        clients.remove(client);
+    public void unregisterUpdateCallback(UpdateCallback client) throws RemoteException {
+        statusBroadcaster.unregister(client);
     }
 
-    // notify all registered clients
-    private static void notifyClients(ArrayList<ArrayList<String>> message) {
-        synchronized (clients) {
-            for (UpdateCallback client : clients) {
-                try {
-                    client.onUpdate(message);
-                } catch (RemoteException e) {
-                    System.out.println("Error notifying client: " + e.getMessage());
-                }
-            }
-        }
+    // notify all registered clients that the system info changed, without waiting for them (see StatusBroadcaster)
+    private static void notifyClients() {
+        if(statusBroadcaster != null) statusBroadcaster.publish();
     }
 
 
@@ -415,11 +569,64 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     }
 
 
+    /**
+     * Get the id of the provided url via RMI, assigning a new one if the url doesn't have it yet.
+     * @param url the url
+     * @return url id
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public long getOrAssignUrlId(String url) throws RemoteException{
+        try {
+            long id = urlIds.getOrAssign(url);
+            PARSED_URLS.accumulateAndGet(id, Math::max);
+            return id;
+        } catch (IOException e) {
+            throw new RemoteException("Error assigning the url id", e);
+        }
+    }
+
+
+    /**
+     * Open the url id table, resuming the numbering of the ids where it stopped.
+     * @return true if successful, false otherwise
+     */
+    private static boolean openUrlIds(){
+        try {
+            urlIds = new UrlIdTable(new File(urlIdsFile));
+            PARSED_URLS.set(urlIds.getLastId());
+            System.out.println("Url ids loaded: " + urlIds.size() + " urls, last id " + urlIds.getLastId());
+        } catch (IOException e) {
+            System.out.println("Error opening the url ids table: " + e.getMessage());
+            return false;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                urlIds.close();
+            } catch (IOException e) {
+                System.out.println("Error closing the url ids table: " + e.getMessage());
+            }
+        }));
+        return true;
+    }
+
+
+    /**
+     * Return the number of index partitions via RMI.
+     * @return number of partitions
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public int getPartitionsNum() throws RemoteException{
+        return partitionsNum;
+    }
+
+
     @Override
     public void registerDownloader(String downloaderUUID) throws RemoteException {
         downloadersOnline.put(downloaderUUID, downloaderUUID);
         System.out.println("\nDownloader registered: " + downloaderUUID);
-        notifyClients(getSystemInfo());
+        notifyClients();
     }
 
 
@@ -427,7 +634,7 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     public void unregisterDownloader(String downloaderUUID) throws RemoteException {
         downloadersOnline.remove(downloaderUUID);
         System.out.println("\nDownloader unregistered: " + downloaderUUID);
-        notifyClients(getSystemInfo());
+        notifyClients();
     }
 
 
@@ -437,6 +644,22 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     }
 
 
+    /**
+     * Get the ingest pressure of the most loaded online barrel, from the last pulled counters.
+     * @return pressure between 0 (empty ingest queue) and 1 (full ingest queue)
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public double getBarrelsIngestPressure() throws RemoteException {
+        double highestPressure = 0;
+        for(String barrel: barrelsOnline.values()){
+            BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrel);
+            if(barrelMetrics != null) highestPressure = Math.max(highestPressure, barrelMetrics.getIngestPressure());
+        }
+        return highestPressure;
+    }
+
+
     /**
      * Register a barrel in the online barrels hash map, using the provided barrel endpoint
      * as its identifier. And log the registering.
@@ -445,10 +668,85 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      */
     @Override
     public void registerBarrel(String barrelEndpoint) throws RemoteException {
+        ArrayList<Integer> allPartitions = new ArrayList<>();
+        for(int i=0; i<partitionsNum; i++) allPartitions.add(i);
+        registerBarrel(barrelEndpoint, allPartitions);
+    }
+
+
+    /**
+     * Register a barrel that only owns some of the index partitions.
+     * @param barrelEndpoint the barrel endpoint
+     * @param ownedPartitions the partitions owned by the barrel
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public void registerBarrel(String barrelEndpoint, ArrayList<Integer> ownedPartitions) throws RemoteException {
+        BarrelMetrics barrelMetrics = new BarrelMetrics();
+        barrelMetrics.setOwnedPartitions(ownedPartitions);
+        barrelMetricsMap.put(barrelEndpoint, barrelMetrics);
+        barrelStubs.remove(barrelEndpoint); // it may have restarted, with a new stub
         barrelsOnline.put(barrelEndpoint, barrelEndpoint);
-        barrelMetricsMap.put(barrelEndpoint, new BarrelMetrics());
-        System.out.println("\nBarrel registered: " + barrelEndpoint);
-        notifyClients(getSystemInfo());
+        barrelsWarming.remove(barrelEndpoint);
+        warmingReportTimes.remove(barrelEndpoint);
+        System.out.println("\nBarrel registered: " + barrelEndpoint + " (partitions " + ownedPartitions + ")");
+        notifyClients();
+    }
+
+
+    /**
+     * Register a barrel that is still recovering its index, so it's shown in the system info but no searches are
+     * routed to it until it registers again with {@link #registerBarrel(String, ArrayList)}.
+     * @param barrelEndpoint the barrel endpoint
+     * @param ownedPartitions the partitions owned by the barrel
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public void registerWarmingBarrel(String barrelEndpoint, ArrayList<Integer> ownedPartitions) throws RemoteException {
+        barrelsOnline.remove(barrelEndpoint);
+        BarrelMetrics barrelMetrics = new BarrelMetrics();
+        barrelMetrics.setOwnedPartitions(ownedPartitions);
+        barrelMetricsMap.put(barrelEndpoint, barrelMetrics);
+        barrelsWarming.put(barrelEndpoint, "warming");
+        warmingReportTimes.put(barrelEndpoint, System.currentTimeMillis());
+        System.out.println("\nBarrel warming: " + barrelEndpoint + " (partitions " + ownedPartitions + ")");
+        notifyClients();
+    }
+
+
+    /**
+     * Update the recovery status of a warming barrel.
+     * @param barrelEndpoint the barrel endpoint
+     * @param status the recovery status
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public void updateBarrelRecoveryStatus(String barrelEndpoint, String status) throws RemoteException {
+        if(barrelsWarming.replace(barrelEndpoint, status) == null) return; // not warming (anymore)
+        warmingReportTimes.put(barrelEndpoint, System.currentTimeMillis());
+        if(verbosity) System.out.println("Barrel " + barrelEndpoint + " recovery: " + status);
+    }
+
+
+    /**
+     * Receive the heartbeat of a barrel, keeping its metrics in memory for the routing of the searches.
+     * The heartbeats of warming barrels are ignored, they report their recovery status instead.
+     * @param barrelEndpoint the barrel endpoint
+     * @param availability the barrel availability
+     * @param ingestStats the ingest queue counters: depth, capacity, dropped messages and lag (in milliseconds)
+     * @param recentLatency the recent search latency of the barrel, in milliseconds
+     * @return false if the barrel isn't registered, so it must register again
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public boolean barrelHeartbeat(String barrelEndpoint, double availability, ArrayList<Long> ingestStats, long recentLatency) throws RemoteException {
+        if(barrelsWarming.containsKey(barrelEndpoint)) return true;
+        BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrelEndpoint);
+        if(barrelMetrics == null || !barrelsOnline.containsKey(barrelEndpoint)) return false; // evicted, or the gateway restarted
+        barrelMetrics.setAvailability(availability);
+        barrelMetrics.setIngestStats(ingestStats);
+        barrelMetrics.setRecentLatency(recentLatency);
+        return true;
     }
 
 
@@ -461,9 +759,49 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     @Override
     public void unregisterBarrel(String barrelEndpoint) throws RemoteException {
         barrelsOnline.remove(barrelEndpoint);
+        barrelsWarming.remove(barrelEndpoint);
+        warmingReportTimes.remove(barrelEndpoint);
         barrelMetricsMap.remove(barrelEndpoint);
+        barrelStubs.remove(barrelEndpoint);
         System.out.println("\nBarrel unregistered: " + barrelEndpoint);
-        notifyClients(getSystemInfo());
+        notifyClients();
+    }
+
+
+    /**
+     * Periodically probe the online barrels through their cached stubs, evicting the ones that fail
+     * {@link #MAX_FAILED_HEALTH_CHECKS} probes in a row (crashed without unregistering), so no more searches are
+     * routed to them. An evicted barrel is routed to again once it registers again.
+     * The warming barrels aren't bound in the RMI registry until they're recovered, so instead of probed they're
+     * expired when they stop reporting their recovery status for {@link #warmingTimeout} milliseconds.
+     */
+    private static void periodicBarrelHealthChecks(){
+        while(true){
+            try {
+                Thread.sleep(healthCheckInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for(String barrelEndpoint: barrelsOnline.values()){
+                BarrelMetrics probedMetrics = barrelMetricsMap.get(barrelEndpoint);
+                if(barrelStubs.probe(barrelEndpoint, MAX_FAILED_HEALTH_CHECKS)) continue;
+                if(probedMetrics == null || !barrelMetricsMap.remove(barrelEndpoint, probedMetrics)) continue; // registered again meanwhile
+                barrelsOnline.remove(barrelEndpoint);
+                barrelStubs.remove(barrelEndpoint);
+                System.out.println("\nBarrel evicted after " + MAX_FAILED_HEALTH_CHECKS + " failed health checks: " + barrelEndpoint);
+                notifyClients();
+            }
+            long now = System.currentTimeMillis();
+            for(Map.Entry<String, Long> warmingEntry: warmingReportTimes.entrySet()){
+                String barrelEndpoint = warmingEntry.getKey();
+                if(now - warmingEntry.getValue() < warmingTimeout) continue;
+                if(!warmingReportTimes.remove(barrelEndpoint, warmingEntry.getValue())) continue; // reported meanwhile
+                barrelsWarming.remove(barrelEndpoint);
+                barrelMetricsMap.remove(barrelEndpoint);
+                System.out.println("\nWarming barrel expired after " + warmingTimeout + "ms without reporting: " + barrelEndpoint);
+                notifyClients();
+            }
+        }
     }
 
 
@@ -511,6 +849,31 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     }
 
 
+    /**
+     * Get the most available registered barrel that owns exactly the provided partitions.
+     * Used by the barrels to sync with another one holding the same part of the index.
+     * @param callingBarrel the calling barrel (as to not return itself)
+     * @param partitions the partitions
+     * @return most available barrel
+     */
+    @Override
+    public String getMostAvailableBarrelRemote(String callingBarrel, ArrayList<Integer> partitions){
+        HashSet<Integer> partitionsSet = new HashSet<>(partitions);
+        String mostAvailableBarrel = null;
+        double highestAvailability = 0.0;
+        for(String barrel: barrelsOnline.values()){ // for each online barrel
+            if(barrel.equals(callingBarrel)) continue; // if barrel is the same as the calling barrel, skip it
+            BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrel);
+            if(barrelMetrics == null || !barrelMetrics.getOwnedPartitions().equals(partitionsSet)) continue; // skip barrels holding other partitions
+            if(barrelMetrics.getAvailability() >= highestAvailability){ // if barrel availability bigger than the highest availability up until now
+                highestAvailability = barrelMetrics.getAvailability(); // update the highest availability
+                mostAvailableBarrel = barrel; // update most available barrel
+            }
+        }
+        return mostAvailableBarrel; // return the most available barrel if found, otherwise null
+    }
+
+
     /**
      * Get the most available registered barrel.
      * @return most available barrel
@@ -526,7 +889,7 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      * @param search the search
      */
     public static void countSearch(String search) {
-        searchedStrings.put(search, searchedStrings.getOrDefault(search, 0) + 1);
+        searchedStrings.merge(search, 1, Integer::sum); // atomic, the searches are counted by concurrent RMI threads
     }
 
     /**
@@ -536,24 +899,57 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      * @return array string with the top 10 searches (or less if there are less than 10 distinct searches)
      */
     public static ArrayList<String> getTopTenSearchs() {
+        return getTopSearchEntries(10).stream()
+                .map(entry -> normalizeSearch(entry.getKey()) + "|" + entry.getValue()) // return the search and its count
+                .collect(Collectors.toCollection(ArrayList::new)); // collect the transformed stream elements into an array of strings
+    }
+
+
+    /**
+     * Get the most searched queries, used by the barrels to warm up after a restart.
+     * @param searchesNum the maximum number of searches
+     * @return the searches, most searched first, as queries that can be parsed
+     */
+    @Override
+    public ArrayList<String> getTopSearches(int searchesNum){
+        if(searchesNum <= 0) return new ArrayList<>();
+        return getTopSearchEntries(searchesNum).stream()
+                .map(entry -> normalizeSearch(entry.getKey()))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+
+    /**
+     * Get the most searched strings and their counts.
+     * The existing searches are sorted in a priority queue and the top ones are returned
+     * @param searchesNum the maximum number of searches
+     * @return the searches and their counts, most searched first
+     */
+    private static List<Map.Entry<String, Integer>> getTopSearchEntries(int searchesNum) {
         // create a priority queue that orders its elements according to their frequency, in descending order.
         // 'a' and 'b' are entries of the map where each entry consists of a String (barrel identifier) and an Integer (search count).
         // the comparison is made on the search counts
         PriorityQueue<Map.Entry<String, Integer>> pq = new PriorityQueue<>((a, b) -> b.getValue().compareTo(a.getValue()));
 
-        // add all entries of the map to the priority queue
-        pq.addAll(searchedStrings.entrySet());
-
-        // return the top 10 most searched words
-        return pq.stream()
-                .limit(10) // take only the top 10 entries
-                .map(entry -> {
-                    // remove leading and trailing brackets and replace commas with spaces because the keys have brackets and commas
-                    // TODO fix the root cause of this (the searched strings should be treated before being inserted in the map)
-                    String phrase = entry.getKey().replaceAll("^\\[|\\]$", "").replace(", ", " ");
-                    return phrase + "|" + entry.getValue(); // return the search and its count
-                })
-                .collect(Collectors.toCollection(ArrayList::new)); // collect the transformed stream elements into an array of strings
+        // add a snapshot of all entries of the map to the priority queue, so the counts don't change while it's ordered
+        searchedStrings.forEach((search, count) -> pq.add(Map.entry(search, count)));
+
+        // take only the top entries, in order (the stream of a priority queue isn't sorted)
+        List<Map.Entry<String, Integer>> topSearches = new ArrayList<>();
+        while(!pq.isEmpty() && topSearches.size() < searchesNum) topSearches.add(pq.poll());
+        return topSearches;
+    }
+
+
+    /**
+     * Normalize a searched string into the text of its query.
+     * @param search the searched string
+     * @return the query text
+     */
+    private static String normalizeSearch(String search) {
+        // remove leading and trailing brackets and replace commas with spaces because the keys have brackets and commas
+        // TODO fix the root cause of this (the searched strings should be treated before being inserted in the map)
+        return search.replaceAll("^\\[|\\]$", "").replace(", ", " ");
     }
 
 
@@ -569,6 +965,12 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
             barrelInfo += String.format("%.4f", value.getAverageResponseTime() / 1_000_000_000.0) + "s|";
             barrelInfo += value.getAvailability() + "|";
             barrelInfo += value.getRequestCount() + "|";
+            long[] ingestStats = value.getIngestStats();
+            barrelInfo += ingestStats[0] + "/" + ingestStats[1] + "|"; // ingest queue depth/capacity
+            barrelInfo += ingestStats[2] + "|"; // dropped messages
+            barrelInfo += ingestStats[3] + "ms|"; // ingest lag
+            barrelInfo += barrelsWarming.getOrDefault(key, "online") + "|"; // recovery status
+            barrelInfo += value.getRecentLatency() + "ms|"; // recent latency reported by the barrel
             barrelsInfo.add(barrelInfo);
         });
 
@@ -577,13 +979,13 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
 
 
     /**
-     * Set availability of provided barrel
-     * @param barrelEndpoint the barrel to set the availability
-     * @param availability availability
+     * Record the response time of a barrel in its metrics, if it's still registered
+     * @param barrelEndpoint the barrel
+     * @param responseTime the response time, in nanoseconds
      */
-    private static void setBarrelAvailability(String barrelEndpoint, double availability) {
-        // get barrel from barrel metrics map and set its availability
-        barrelMetricsMap.get(barrelEndpoint).setAvailability(availability);
+    private static void recordResponseTime(String barrelEndpoint, double responseTime) {
+        BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrelEndpoint);
+        if(barrelMetrics != null) barrelMetrics.updateMetrics(responseTime);
     }
 
 
@@ -607,8 +1009,11 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
         String mostAvailableBarrel = null;
         double highestAvailability = 0.0;
         for(String barrel: barrelsOnline.values()){ // for each online barrel
-            if(barrelMetricsMap.get(barrel).getAvailability() >= highestAvailability){ // if barrel availability bigger than the highest availability up until now
-                highestAvailability = barrelMetricsMap.get(barrel).getAvailability(); // update the highest availability
+            BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrel);
+            if(barrelMetrics == null) continue; // evicted meanwhile
+            double availability = barrelMetrics.getAvailability();
+            if(availability >= highestAvailability){ // if barrel availability bigger than the highest availability up until now
+                highestAvailability = availability; // update the highest availability
                 mostAvailableBarrel = barrel; // update most available barrel
             }
         }
@@ -626,8 +1031,11 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
         double highestAvailability = 0.0;
         for(String barrel: barrelsOnline.values()){ // for each online barrel
             if(barrel.equals(excludedBarrel)) continue; // if barrel is the same as the excluded barrel, skip it
-            if(barrelMetricsMap.get(barrel).getAvailability() >= highestAvailability){ // if barrel availability bigger than the highest availability up until now
-                highestAvailability = barrelMetricsMap.get(barrel).getAvailability(); // update the highest availability
+            BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrel);
+            if(barrelMetrics == null) continue; // evicted meanwhile
+            double availability = barrelMetrics.getAvailability();
+            if(availability >= highestAvailability){ // if barrel availability bigger than the highest availability up until now
+                highestAvailability = availability; // update the highest availability
                 mostAvailableBarrel = barrel; // update most available barrel
             }
         }
@@ -636,19 +1044,75 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
 
 
     /**
-     * Update the availability of all the online barrels by going over each online barrel
-     * and connecting to its RMI and pulling its availability
+     * Get the most available barrel that owns the provided partition
+     * @param partition the partition
+     * @return most available owner rmi endpoint if there's one online, else null
      */
-    private static void updateBarrelsAvailability(){
-        for(String barrelEndpoint: barrelsOnline.values()) { // for each online barrel
-            IndexStorageBarrelRemote barrelRemote; // create a new barrel remote interface
-            try {
-                barrelRemote = (IndexStorageBarrelRemote) Naming.lookup(barrelEndpoint); // lookup barrel
-                setBarrelAvailability(barrelEndpoint, barrelRemote.getAvailability()); // set the barrel availability, providing the current barrel rmi endpoint and its availability (pulled using RMI)
-            } catch (Exception e) {
-                System.out.println("Error looking up barrel: " + e.getMessage());
+    private static String getMostAvailableBarrel(int partition){
+        return getMostAvailableOwner(partition, barrelsOnline.values(), barrelMetricsMap);
+    }
+
+
+    /**
+     * Get the most available of the provided barrels that owns the provided partition
+     * @param partition the partition
+     * @param barrels the online barrels
+     * @param metrics the metrics of the barrels
+     * @return most available owner rmi endpoint if there's one, else null
+     */
+    static String getMostAvailableOwner(int partition, Collection<String> barrels, Map<String, BarrelMetrics> metrics){
+        String mostAvailableBarrel = null;
+        double highestAvailability = 0.0;
+        for(String barrel: barrels){ // for each online barrel
+            BarrelMetrics barrelMetrics = metrics.get(barrel);
+            if(barrelMetrics == null || !barrelMetrics.ownsPartition(partition)) continue; // if barrel doesn't own the partition, skip it
+            if(barrelMetrics.getAvailability() >= highestAvailability){ // if barrel availability bigger than the highest availability up until now
+                highestAvailability = barrelMetrics.getAvailability(); // update the highest availability
+                mostAvailableBarrel = barrel; // update most available barrel
+            }
+        }
+        return mostAvailableBarrel; // return the most available barrel if found, otherwise null
+    }
+
+
+    /**
+     * Get the most available barrel (barrel with the highest availability) that owns all the provided partitions
+     * @param partitions the partitions
+     * @return most available owner rmi endpoint if there's one online, else null
+     */
+    private static String getMostAvailableBarrel(Set<Integer> partitions){
+        String mostAvailableBarrel = null;
+        double highestAvailability = 0.0;
+        barrels:
+        for(String barrel: barrelsOnline.values()){ // for each online barrel
+            BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrel);
+            if(barrelMetrics == null) continue;
+            for(int partition: partitions){
+                if(!barrelMetrics.ownsPartition(partition)) continue barrels; // if barrel doesn't own a partition, skip it
+            }
+            if(barrelMetrics.getAvailability() >= highestAvailability){ // if barrel availability bigger than the highest availability up until now
+                highestAvailability = barrelMetrics.getAvailability(); // update the highest availability
+                mostAvailableBarrel = barrel; // update most available barrel
             }
         }
+        return mostAvailableBarrel; // return the most available barrel if found, otherwise null
+    }
+
+
+    /**
+     * Check if a barrel is online and owns all the provided partitions
+     * @param barrelEndpoint the barrel rmi endpoint
+     * @param partitions the partitions
+     * @return true if the barrel is online and owns the partitions
+     */
+    private static boolean ownsPartitions(String barrelEndpoint, Set<Integer> partitions){
+        if(!barrelsOnline.containsValue(barrelEndpoint)) return false;
+        BarrelMetrics barrelMetrics = barrelMetricsMap.get(barrelEndpoint);
+        if(barrelMetrics == null) return false;
+        for(int partition: partitions){
+            if(!barrelMetrics.ownsPartition(partition)) return false;
+        }
+        return true;
     }
 
 
@@ -659,8 +1123,6 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      */
     @Override
     public ArrayList<ArrayList<String>> getSystemInfo(){
-        updateBarrelsAvailability(); // update all registered barrels availability
-
         // add all registered barrels and their respective response times
         ArrayList<ArrayList<String>> systemInfo = new ArrayList<>();
         systemInfo.add(getBarrelsInfo());
@@ -679,7 +1141,7 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
 
 
     /**
-     * Search a single word in the most available barrel
+     * Search a single word in the most available barrel that owns the word partition
      * @param word          the word to search
      * @param page          the page number
      * @param pageSize      the page size
@@ -690,36 +1152,27 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     @Override
     public ArrayList<ArrayList<String>> searchWord(String word, int page, int pageSize, boolean isFreshSearch) throws RemoteException{
         if(isFreshSearch) countSearch(word); // if the call is from a search and not from a page change, count it as a search
-        updateBarrelsAvailability(); // update all registered barrels availability
-
-        String bestBarrel = getMostAvailableBarrel(); // get most available barrel
+        String bestBarrel = getMostAvailableBarrel(TermPartitioner.partitionOf(word, partitionsNum)); // get most available barrel owning the word
         if(verbosity) System.out.println("CHOSEN BARREL: " + bestBarrel);
         if (bestBarrel == null) return null; // if no barrel is available, return null
 
-        IndexStorageBarrelRemote barrel;
-        try {
-            barrel = (IndexStorageBarrelRemote) Naming.lookup(bestBarrel); // lookup most available barrel
-        } catch (Exception e) {
-            System.out.println("Error looking up barrel: " + e.getMessage());
-            return null; // return null if lookup fails
-        }
-
         /* count elapsed time */
         long start = System.nanoTime();
-        ArrayList<ArrayList<String>> response = barrel.searchWord(word, page, pageSize);
+        ArrayList<ArrayList<String>> response = barrelStubs.call(bestBarrel, barrel -> barrel.searchWord(word, page, pageSize)); // through the cached stub
         long end = System.nanoTime();
         double elapsedTime = end - start;
 
         if(verbosity) System.out.println("Elapsed time: " + elapsedTime / 1_000_000_000.0 + "s");
 
-        barrelMetricsMap.get(bestBarrel).updateMetrics(elapsedTime); // update barrel average time response
-        notifyClients(getSystemInfo());
+        recordResponseTime(bestBarrel, elapsedTime); // update barrel average time response, unless it was evicted meanwhile
+        notifyClients();
         return response;
     }
 
 
     /**
-     * Search a set of words in the most available barrel
+     * Search a set of words in the most available barrel that owns all of them, or in
+     * the owners of each partition when the words span several partitions
      * @param words         the words to search
      * @param page          the page number
      * @param pageSize      the page size
@@ -730,32 +1183,297 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     @Override
     public ArrayList<ArrayList<String>> searchWordSet(ArrayList<String> words, int page, int pageSize, boolean isFreshSearch) throws RemoteException{
         if(isFreshSearch) countSearch(String.valueOf(words)); // if the call is from a search and not from a page change, count it as a search
-        updateBarrelsAvailability(); // update all registered barrels availability
+        // group the words by partition
+        HashMap<Integer, ArrayList<String>> wordsByPartition = new HashMap<>();
+        for(String word: words){
+            wordsByPartition.computeIfAbsent(TermPartitioner.partitionOf(word, partitionsNum), key -> new ArrayList<>()).add(word);
+        }
+        // if the words span several partitions, the postings must be gathered from their owners
+        if(wordsByPartition.size() > 1) return scatterGatherSearch(wordsByPartition, page, pageSize);
 
-        String bestBarrel = getMostAvailableBarrel(); // get most available barrel
+        String bestBarrel = getMostAvailableBarrel(wordsByPartition.keySet().iterator().next()); // get most available barrel owning the words
         if(verbosity) System.out.println("CHOSEN BARREL: " + bestBarrel);
         if (bestBarrel == null) return null; // if no barrel is available, return null
 
-        IndexStorageBarrelRemote barrel;
+        /* count elapsed time */
+        long start = System.nanoTime();
+        ArrayList<ArrayList<String>> response = barrelStubs.call(bestBarrel, barrel -> barrel.searchWordSet(words, page, pageSize)); // through the cached stub
+        long end = System.nanoTime();
+        double elapsedTime = end - start;
+
+        recordResponseTime(bestBarrel, elapsedTime); // update barrel average time response, unless it was evicted meanwhile
+        notifyClients();
+        return response;
+    }
+
+
+    /**
+     * Search a query in the most available barrel that owns the partitions of all its words.
+     * The query is parsed once here and sent to the barrel as a compact tree. Queries that are only a set of
+     * words (without sites) take the plain search path, which can also span partitions owned by different barrels
+     * @param query         the query
+     * @param page          the page number
+     * @param pageSize      the page size
+     * @param isFreshSearch is this a fresh search (to prevent keep counting the search if the client is only changing the pages)
+     * @return array list that contains arrays that contain the search results -> (url - title - description), or null if error or invalid query
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public ArrayList<ArrayList<String>> search(String query, int page, int pageSize, boolean isFreshSearch) throws RemoteException{
+        Query parsedQuery;
         try {
-            barrel = (IndexStorageBarrelRemote) Naming.lookup(bestBarrel); // lookup most available barrel
-        } catch (Exception e) {
-            System.out.println("Error looking up barrel: " + e.getMessage());
-            return null; // return null if lookup fails
+            parsedQuery = Query.parse(query);
+        } catch (IllegalArgumentException e) {
+            if(verbosity) System.out.println("Invalid query \"" + query + "\": " + e.getMessage());
+            return null;
+        }
+
+        ArrayList<String> words = parsedQuery.getConjunctiveTerms();
+        if(words != null && parsedQuery.getSites().length == 0){ // only words, all required
+            if(words.size() == 1) return searchWord(words.get(0), page, pageSize, isFreshSearch);
+            return searchWordSet(words, page, pageSize, isFreshSearch);
+        }
+
+        if(isFreshSearch) countSearch(parsedQuery.toString()); // if the call is from a search and not from a page change, count it as a search
+        Set<Integer> partitions = new HashSet<>();
+        for(String word: parsedQuery.getTerms()) partitions.add(TermPartitioner.partitionOf(word, partitionsNum));
+        String bestBarrel = getMostAvailableBarrel(partitions); // get most available barrel owning all the words
+        if(verbosity) System.out.println("CHOSEN BARREL: " + bestBarrel);
+        if (bestBarrel == null){ // the operators are evaluated by a single barrel
+            System.out.println("No barrel online owns all the partitions " + partitions + " of the query");
+            return null;
         }
 
         /* count elapsed time */
         long start = System.nanoTime();
-        ArrayList<ArrayList<String>> response = barrel.searchWordSet(words, page, pageSize);
+        ArrayList<ArrayList<String>> response = barrelStubs.call(bestBarrel, barrel -> barrel.searchQuery(parsedQuery, page, pageSize)); // through the cached stub
         long end = System.nanoTime();
         double elapsedTime = end - start;
 
-        barrelMetricsMap.get(bestBarrel).updateMetrics(elapsedTime); // update barrel average time response
-        notifyClients(getSystemInfo());
+        recordResponseTime(bestBarrel, elapsedTime); // update barrel average time response, unless it was evicted meanwhile
+        notifyClients();
         return response;
     }
 
 
+    /**
+     * Search a query a page at a time, continuing after the page of the provided cursor.
+     * The gateway cursor wraps the cursor of the barrel with the endpoint of that barrel, so the next pages go to the
+     * same barrel while it's online and owns the partitions of the query (another owner continues the search on its
+     * live index). Searches of words spanning partitions owned by different barrels are paged by number, their cursor
+     * only carries the next page
+     * @param query         the query
+     * @param cursor        the cursor returned with the previous page (null for the first page)
+     * @param pageSize      the page size
+     * @param isFreshSearch is this a fresh search (to prevent keep counting the search if the client is only changing the pages)
+     * @return array list that contains arrays that contain the search results -> (url - title - description), followed by a row with the total number of pages and the cursor of the next page, or null if error, invalid query or invalid cursor
+     * @throws RemoteException RMI Exception
+     */
+    @Override
+    public ArrayList<ArrayList<String>> searchAfter(String query, String cursor, int pageSize, boolean isFreshSearch) throws RemoteException{
+        Query parsedQuery;
+        try {
+            parsedQuery = Query.parse(query);
+        } catch (IllegalArgumentException e) {
+            if(verbosity) System.out.println("Invalid query \"" + query + "\": " + e.getMessage());
+            return null;
+        }
+        String[] decodedCursor = null;
+        if(cursor != null){
+            decodedCursor = decodeSearchCursor(cursor);
+            if(decodedCursor == null) return null; // not a cursor of this gateway
+        }
+
+        // if the call is from a search and not from a page change, count it as a search (the same way as the page searches)
+        ArrayList<String> words = parsedQuery.getSites().length == 0 ? parsedQuery.getConjunctiveTerms() : null; // the sites are filtered by a single barrel
+        if(isFreshSearch) countSearch(words == null ? parsedQuery.toString() : words.size() == 1 ? words.get(0) : String.valueOf(words));
+        HashMap<Integer, ArrayList<String>> wordsByPartition = new HashMap<>();
+        for(String word: parsedQuery.getTerms()){
+            wordsByPartition.computeIfAbsent(TermPartitioner.partitionOf(word, partitionsNum), key -> new ArrayList<>()).add(word);
+        }
+        if(words != null && wordsByPartition.size() > 1){ // the postings must be gathered from several barrels, page by number
+            int page;
+            try {
+                page = decodedCursor == null ? 0 : Integer.parseInt(decodedCursor[1]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if(page < 0) return null;
+            ArrayList<ArrayList<String>> response = scatterGatherSearch(wordsByPartition, page, pageSize);
+            if(response == null) return null;
+            ArrayList<String> lastRow = response.get(response.size() - 1);
+            if(page + 1 < Integer.parseInt(lastRow.get(0))) lastRow.add(encodeSearchCursor("", String.valueOf(page + 1)));
+            return response;
+        }
+
+        // continue on the barrel of the previous page when possible, so its snapshot is used
+        String bestBarrel = decodedCursor != null && ownsPartitions(decodedCursor[0], wordsByPartition.keySet()) ? decodedCursor[0] : getMostAvailableBarrel(wordsByPartition.keySet());
+        if(verbosity) System.out.println("CHOSEN BARREL: " + bestBarrel);
+        if (bestBarrel == null){ // the query is evaluated by a single barrel
+            System.out.println("No barrel online owns all the partitions " + wordsByPartition.keySet() + " of the query");
+            return null;
+        }
+
+        /* count elapsed time */
+        long start = System.nanoTime();
+        String barrelCursor = decodedCursor == null || decodedCursor[0].isEmpty() ? null : decodedCursor[1];
+        ArrayList<ArrayList<String>> response = barrelStubs.call(bestBarrel, barrel -> barrel.searchAfter(parsedQuery, barrelCursor, pageSize)); // through the cached stub
+        long end = System.nanoTime();
+        double elapsedTime = end - start;
+
+        recordResponseTime(bestBarrel, elapsedTime); // update barrel average time response, unless it was evicted meanwhile
+        notifyClients();
+        if(response == null) return null;
+
+        // wrap the barrel cursor with the barrel endpoint
+        ArrayList<String> lastRow = response.get(response.size() - 1);
+        if(lastRow.size() > 1) lastRow.set(1, encodeSearchCursor(bestBarrel, lastRow.get(1)));
+        return response;
+    }
+
+
+    /**
+     * Encode a search cursor of the gateway, opaque to the clients
+     * @param barrelEndpoint the barrel that answered the page (empty for the searches paged by number)
+     * @param barrelCursor the cursor of the barrel (or the next page number)
+     * @return the cursor
+     */
+    private static String encodeSearchCursor(String barrelEndpoint, String barrelCursor){
+        String cursor = barrelEndpoint + "\n" + barrelCursor;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Decode a search cursor of the gateway
+     * @param cursor the cursor
+     * @return the barrel endpoint and the barrel cursor, or null if the cursor isn't valid
+     */
+    private static String[] decodeSearchCursor(String cursor){
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf('\n');
+            if(separator < 0) return null;
+            return new String[]{decoded.substring(0, separator), decoded.substring(separator + 1)};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Search a set of words that span several partitions.
+     * The words of each partition are sent, in parallel, to the most available barrel that owns it (a barrel
+     * owning several of the partitions gets a single request). The returned pages of each word are intersected,
+     * adding the BM25 scores of the words, and the page of results is ranked and built by the most available barrel,
+     * as every barrel knows all the urls and their inlinks.
+     * @param wordsByPartition the words to search, grouped by partition
+     * @param page the page number
+     * @param pageSize the page size
+     * @return array list that contains arrays that contain the search results -> (url - title - description), or null if error
+     */
+    private ArrayList<ArrayList<String>> scatterGatherSearch(HashMap<Integer, ArrayList<String>> wordsByPartition, int page, int pageSize){
+        // pick the owner of each partition, grouping the words by owner
+        HashMap<String, ArrayList<String>> wordsByBarrel = groupWordsByOwner(wordsByPartition, barrelsOnline.values(), barrelMetricsMap);
+        if(wordsByBarrel == null) return null;
+        if(verbosity) System.out.println("CHOSEN BARRELS: " + wordsByBarrel.keySet());
+
+        // scatter
+        ArrayList<Future<ArrayList<HashMap<Long, Double>>>> futures = new ArrayList<>();
+        for(Map.Entry<String, ArrayList<String>> entry: wordsByBarrel.entrySet()){
+            String barrelEndpoint = entry.getKey();
+            ArrayList<String> barrelWords = entry.getValue();
+            futures.add(searchExecutor.submit(() -> {
+                /* count elapsed time */
+                long start = System.nanoTime();
+                ArrayList<HashMap<Long, Double>> termScores = barrelStubs.call(barrelEndpoint, barrel -> barrel.getTermScores(barrelWords)); // through the cached stub
+                long end = System.nanoTime();
+                recordResponseTime(barrelEndpoint, end - start); // update barrel average time response, unless it was evicted meanwhile
+                return termScores;
+            }));
+        }
+
+        // gather, intersecting the pages of all the words and adding their scores
+        HashMap<Long, Double> commonScores = null;
+        for(Future<ArrayList<HashMap<Long, Double>>> future: futures){
+            ArrayList<HashMap<Long, Double>> termScores;
+            try {
+                termScores = future.get();
+            } catch (ExecutionException e) {
+                System.out.println("Error searching barrel: " + e.getCause().getMessage());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if(termScores == null) return null;
+
+            commonScores = intersectScores(commonScores, termScores);
+            if(commonScores == null) return null;
+        }
+        if(commonScores == null) return null;
+
+        // build the page of results
+        String bestBarrel = getMostAvailableBarrel();
+        if(bestBarrel == null) return null;
+        try {
+            ArrayList<String> words = new ArrayList<>();
+            for(ArrayList<String> partitionWords: wordsByPartition.values()) words.addAll(partitionWords);
+            HashMap<Long, Double> scores = commonScores;
+            ArrayList<ArrayList<String>> response = barrelStubs.call(bestBarrel, barrel -> barrel.getRankedResultsPage(scores, words, page, pageSize)); // through the cached stub
+            notifyClients();
+            return response;
+        } catch (Exception e) {
+            System.out.println("Error building results page: " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Pick the most available owner of each partition, grouping the words of the partitions by owner, so each barrel
+     * is asked once for all its words
+     * @param wordsByPartition the words of the search by partition
+     * @param barrels the online barrels
+     * @param metrics the metrics of the barrels
+     * @return the words by owner rmi endpoint, or null if a partition has no owner online
+     */
+    static HashMap<String, ArrayList<String>> groupWordsByOwner(Map<Integer, ArrayList<String>> wordsByPartition, Collection<String> barrels, Map<String, BarrelMetrics> metrics){
+        HashMap<String, ArrayList<String>> wordsByBarrel = new HashMap<>();
+        for(Map.Entry<Integer, ArrayList<String>> entry: wordsByPartition.entrySet()){
+            String owner = getMostAvailableOwner(entry.getKey(), barrels, metrics);
+            if(owner == null){
+                System.out.println("No barrel online owns partition " + entry.getKey());
+                return null;
+            }
+            wordsByBarrel.computeIfAbsent(owner, key -> new ArrayList<>()).addAll(entry.getValue());
+        }
+        return wordsByBarrel;
+    }
+
+
+    /**
+     * Intersect the pages of the words gathered so far with the pages of more words, adding their scores
+     * @param commonScores the score of each page with all the words gathered so far (null if none was)
+     * @param termScores the score of each page of each of the new words
+     * @return the score of each page with all the words, or null if there's none
+     */
+    static HashMap<Long, Double> intersectScores(HashMap<Long, Double> commonScores, ArrayList<HashMap<Long, Double>> termScores){
+        for(HashMap<Long, Double> wordScores: termScores){
+            if(wordScores == null || wordScores.isEmpty()) return null; // a word without results means no results
+            if(commonScores == null){
+                commonScores = new HashMap<>(wordScores);
+            } else {
+                HashMap<Long, Double> scores = commonScores;
+                scores.keySet().retainAll(wordScores.keySet());
+                scores.replaceAll((id, score) -> score + wordScores.get(id));
+            }
+            if(commonScores.isEmpty()) return null;
+        }
+        return commonScores;
+    }
+
+
     // TODO implement response times in father urls?
     /**
      * Get father urls of the provided urls list from the most available barrel
@@ -765,21 +1483,11 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      */
     @Override
     public ArrayList<ArrayList<String>> getFatherUrls(ArrayList<String> urls) throws RemoteException {
-        updateBarrelsAvailability(); // update all registered barrels availability
-
         String bestBarrel = getMostAvailableBarrel(); // get most available barrel
         if(verbosity) System.out.println("CHOSEN BARREL: " + bestBarrel);
         if (bestBarrel == null) return null; // if no barrel is available, return null
 
-        IndexStorageBarrelRemote barrel;
-        try {
-            barrel = (IndexStorageBarrelRemote) Naming.lookup(bestBarrel); // lookup most available barrel
-        } catch (Exception e) {
-            System.out.println("Error looking up barrel: " + e.getMessage());
-            return null; // return null if lookup fails
-        }
-
-        return barrel.getFatherUrls(urls); // return the result of the getFatherUrls call
+        return barrelStubs.call(bestBarrel, barrel -> barrel.getFatherUrls(urls)); // return the result of the getFatherUrls call, through the cached stub
     }
 
 
@@ -791,21 +1499,11 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
      */
     @Override
     public ArrayList<String> getFatherUrls(String url) throws RemoteException {
-        updateBarrelsAvailability(); // update all registered barrels availability
-
         String bestBarrel = getMostAvailableBarrel(); // get most available barrel
         if(verbosity) System.out.println("CHOSEN BARREL: " + bestBarrel);
         if (bestBarrel == null) return null; // if no barrel is available, return null
 
-        IndexStorageBarrelRemote barrel;
-        try {
-            barrel = (IndexStorageBarrelRemote) Naming.lookup(bestBarrel); // lookup most available barrel
-        } catch (Exception e) {
-            System.out.println("Error looking up barrel: " + e.getMessage());
-            return null; // return null if lookup fails
-        }
-
-        return barrel.getFatherUrls(url); // return the result of the getFatherUrls call
+        return barrelStubs.call(bestBarrel, barrel -> barrel.getFatherUrls(url)); // return the result of the getFatherUrls call, through the cached stub
     }
 
 
@@ -816,6 +1514,8 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
     private static boolean setupGatewayRMI(){
         try {
             Gateway gateway = new Gateway();
+            statusBroadcaster = new StatusBroadcaster(gateway::getSystemInfo, broadcastInterval, callbackTimeout);
+            statusBroadcaster.start();
             LocateRegistry.createRegistry(rmiPort);
             Naming.rebind(rmiEndpoint, gateway);
             System.out.println("Gateway Service bound in registry");
@@ -989,6 +1689,33 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
                 }
             }
 
+            // load partitions number
+            String partitionsNumConfig = GatewayConfigLoader.getProperty("gateway.partitions");
+            if(partitionsNumConfig == null){
+                System.out.println("Partitions property not found in property file! Defaulting to "+ partitionsNum + "...");
+            } else {
+                try{
+                    int partitionsNumInt = Integer.parseInt(partitionsNumConfig);
+                    if (partitionsNumInt >= 1) {
+                        partitionsNum = partitionsNumInt;
+                        if(verbosity) System.out.println("Partitions: " + partitionsNum);
+                    } else {
+                        System.out.println("Partitions must be greater or equal to 1. Defaulting to " + partitionsNum + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Partitions must be a number! Defaulting to " + partitionsNum + "...");
+                }
+            }
+
+            // load url ids file
+            String urlIdsFileConfig = GatewayConfigLoader.getProperty("gateway.urlIdsFile");
+            if(urlIdsFileConfig == null || urlIdsFileConfig.isBlank()){
+                System.out.println("Url Ids File property not found in property file! Defaulting to "+ urlIdsFile + "...");
+            } else {
+                urlIdsFile = urlIdsFileConfig.trim();
+                if(verbosity) System.out.println("Url Ids File: " + urlIdsFile);
+            }
+
             // load info delay
             String infoDelayConfig = GatewayConfigLoader.getProperty("gateway.infoDelay");
             if(infoDelayConfig == null){
@@ -1006,6 +1733,78 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
                     System.err.println("Info Delay must be a number! Defaulting to " + infoDelay + "...");
                 }
             }
+
+            // load health check interval
+            String healthCheckIntervalConfig = GatewayConfigLoader.getProperty("gateway.healthCheckInterval");
+            if(healthCheckIntervalConfig == null){
+                System.out.println("Health Check Interval property not found in property file! Defaulting to "+ healthCheckInterval + "...");
+            } else {
+                try{
+                    int healthCheckIntervalInt = Integer.parseInt(healthCheckIntervalConfig);
+                    if (healthCheckIntervalInt >= 500) { // prevent busy waiting
+                        healthCheckInterval = healthCheckIntervalInt;
+                        if(verbosity) System.out.println("Health Check Interval: " + healthCheckInterval);
+                    } else {
+                        System.out.println("Health Check Interval must be greater or equal to 500. Defaulting to " + healthCheckInterval + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Health Check Interval must be a number! Defaulting to " + healthCheckInterval + "...");
+                }
+            }
+
+            // load warming timeout
+            String warmingTimeoutConfig = GatewayConfigLoader.getProperty("gateway.warmingTimeout");
+            if(warmingTimeoutConfig == null){
+                System.out.println("Warming Timeout property not found in property file! Defaulting to "+ warmingTimeout + "...");
+            } else {
+                try{
+                    int warmingTimeoutInt = Integer.parseInt(warmingTimeoutConfig);
+                    if (warmingTimeoutInt >= 1000) { // the barrels report their status every second by default
+                        warmingTimeout = warmingTimeoutInt;
+                        if(verbosity) System.out.println("Warming Timeout: " + warmingTimeout);
+                    } else {
+                        System.out.println("Warming Timeout must be greater or equal to 1000. Defaulting to " + warmingTimeout + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Warming Timeout must be a number! Defaulting to " + warmingTimeout + "...");
+                }
+            }
+
+            // load broadcast interval
+            String broadcastIntervalConfig = GatewayConfigLoader.getProperty("gateway.broadcastInterval");
+            if(broadcastIntervalConfig == null){
+                System.out.println("Broadcast Interval property not found in property file! Defaulting to "+ broadcastInterval + "...");
+            } else {
+                try{
+                    int broadcastIntervalInt = Integer.parseInt(broadcastIntervalConfig);
+                    if (broadcastIntervalInt >= 100) { // prevent flooding the clients
+                        broadcastInterval = broadcastIntervalInt;
+                        if(verbosity) System.out.println("Broadcast Interval: " + broadcastInterval);
+                    } else {
+                        System.out.println("Broadcast Interval must be greater or equal to 100. Defaulting to " + broadcastInterval + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Broadcast Interval must be a number! Defaulting to " + broadcastInterval + "...");
+                }
+            }
+
+            // load callback timeout
+            String callbackTimeoutConfig = GatewayConfigLoader.getProperty("gateway.callbackTimeout");
+            if(callbackTimeoutConfig == null){
+                System.out.println("Callback Timeout property not found in property file! Defaulting to "+ callbackTimeout + "...");
+            } else {
+                try{
+                    int callbackTimeoutInt = Integer.parseInt(callbackTimeoutConfig);
+                    if (callbackTimeoutInt > 0) {
+                        callbackTimeout = callbackTimeoutInt;
+                        if(verbosity) System.out.println("Callback Timeout: " + callbackTimeout);
+                    } else {
+                        System.out.println("Callback Timeout must be greater than 0. Defaulting to " + callbackTimeout + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Callback Timeout must be a number! Defaulting to " + callbackTimeout + "...");
+                }
+            }
         } catch (GatewayConfigLoader.ConfigurationException e){
             System.err.println("Failed to load configuration file: " + e.getMessage());
             System.err.println("Exiting...");
@@ -1031,12 +1830,13 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
         System.getProperties().put("java.rmi.server.hostname", host);
         System.setSecurityManager(new RMISecurityManager());
 
+        if(!openUrlIds()) System.exit(1); // open url ids before the barrels can ask for them, exit if failed
         if(!setupGatewayRMI()) System.exit(1); // setup gateway RMI, exit if failed
 
         // notify frontend sessions with system info as soon as the system boots
-        try{
-            notifyClients(new Gateway().getSystemInfo());
-        } catch (Exception ignored){}
+        notifyClients();
+
+        new Thread(Gateway::periodicBarrelHealthChecks).start(); // evict the barrels that crash without unregistering
 
         // info loop
         while(true){
@@ -1047,9 +1847,11 @@ public class Gateway extends UnicastRemoteObject implements GatewayRemote {
             System.out.flush();
 
             // print info
-            System.out.print("\rBarrel - Availability - Average Latency");
+            System.out.print("\rBarrel - Availability - Average Latency - Ingest Queue - Dropped - Lag");
             for(Map.Entry<String, BarrelMetrics> barrelEntry : barrelMetricsMap.entrySet()){
-                System.out.print("\n" + barrelEntry.getKey() + ": " + barrelEntry.getValue().getAvailability() + " - " + barrelEntry.getValue().getAverageResponseTime()/1_000_000 + "ms");
+                long[] ingestStats = barrelEntry.getValue().getIngestStats();
+                System.out.print("\n" + barrelEntry.getKey() + ": " + barrelEntry.getValue().getAvailability() + " - " + barrelEntry.getValue().getAverageResponseTime()/1_000_000 + "ms"
+                        + " - " + ingestStats[0] + "/" + ingestStats[1] + " - " + ingestStats[2] + " - " + ingestStats[3] + "ms");
             }
             System.out.println("\n");
             System.out.println("Urls in queue: " + urlsDeque.size());
@@ -104,9 +104,33 @@ public interface GatewayRemote extends Remote{
      */
     long incrementAndGetParsedUrls() throws RemoteException;
 
+    /**
+     * Get the id of the provided url, assigning a new one if the url doesn't have it yet.
+     * All the barrels get the same id for the same url, so their postings can be merged.
+     * @param url the url
+     * @return url id
+     * @throws RemoteException RMI Exception
+     */
+    long getOrAssignUrlId(String url) throws RemoteException;
+
+    /**
+     * Get the number of partitions the terms of the index are hashed into.
+     * @return number of partitions
+     * @throws RemoteException RMI Exception
+     */
+    int getPartitionsNum() throws RemoteException;
+
     void registerDownloader(String downloaderUUID) throws RemoteException;
     void unregisterDownloader(String downloaderUUID) throws RemoteException;
     ArrayList<String> getRegisteredDownloaders() throws RemoteException;
+    /**
+     * Get the ingest pressure of the most loaded online barrel.
+     * Used by the downloaders to slow down the crawling when the barrels can't keep up.
+     * @return pressure between 0 (empty ingest queue) and 1 (full ingest queue)
+     * @throws RemoteException RMI Exception
+     */
+    double getBarrelsIngestPressure() throws RemoteException;
+
     /**
      * Register a barrel in the online barrels hash map, using the provided barrel endpoint
      * as its identifier. And log the registering.
@@ -115,6 +139,42 @@ public interface GatewayRemote extends Remote{
      */
     void registerBarrel(String barrelEndpoint) throws RemoteException;
 
+    /**
+     * Register a barrel that only owns some of the index partitions.
+     * @param barrelEndpoint the barrel endpoint
+     * @param ownedPartitions the partitions owned by the barrel
+     * @throws RemoteException RMI Exception
+     */
+    void registerBarrel(String barrelEndpoint, ArrayList<Integer> ownedPartitions) throws RemoteException;
+
+    /**
+     * Register a barrel that is still recovering its index, so it's shown in the system info but no searches are
+     * routed to it until it registers again with {@link #registerBarrel(String, ArrayList)}.
+     * @param barrelEndpoint the barrel endpoint
+     * @param ownedPartitions the partitions owned by the barrel
+     * @throws RemoteException RMI Exception
+     */
+    void registerWarmingBarrel(String barrelEndpoint, ArrayList<Integer> ownedPartitions) throws RemoteException;
+
+    /**
+     * Update the recovery status of a warming barrel.
+     * @param barrelEndpoint the barrel endpoint
+     * @param status the recovery status
+     * @throws RemoteException RMI Exception
+     */
+    void updateBarrelRecoveryStatus(String barrelEndpoint, String status) throws RemoteException;
+
+    /**
+     * Receive the heartbeat of a barrel, with its current load, so the searches are routed without polling the barrels.
+     * @param barrelEndpoint the barrel endpoint
+     * @param availability the barrel availability
+     * @param ingestStats the ingest queue counters: depth, capacity, dropped messages and lag (in milliseconds)
+     * @param recentLatency the recent search latency of the barrel, in milliseconds
+     * @return false if the barrel isn't registered (e.g. evicted or the gateway restarted), so it must register again
+     * @throws RemoteException RMI Exception
+     */
+    boolean barrelHeartbeat(String barrelEndpoint, double availability, ArrayList<Long> ingestStats, long recentLatency) throws RemoteException;
+
     /**
      * Unregister a barrel from the online barrels hash map, using the provided barrel endpoint.
      * And log the unregistering.
@@ -151,6 +211,14 @@ public interface GatewayRemote extends Remote{
      */
     String getMostAvailableBarrelRemote(String callingBarrel) throws RemoteException;
 
+    /**
+     * Get the most available registered barrel that owns exactly the provided partitions.
+     * @param callingBarrel the calling barrel (as to not return itself)
+     * @param partitions the partitions
+     * @return most available barrel
+     */
+    String getMostAvailableBarrelRemote(String callingBarrel, ArrayList<Integer> partitions) throws RemoteException;
+
     /**
      * Get the most available registered barrel.
      * @return most available barrel
@@ -179,6 +247,31 @@ public interface GatewayRemote extends Remote{
      */
     ArrayList<ArrayList<String>> searchWordSet(ArrayList<String> words, int page, int pageSize, boolean isFreshSearch) throws RemoteException;
 
+    /**
+     * Search a query in the most available barrel. Besides the words, that must all be present in the results,
+     * the query can use OR, exclusions (-word), parentheses and quoted phrases
+     * @param query         the query
+     * @param page          the page number
+     * @param pageSize      the page size
+     * @param isFreshSearch is this a fresh search (to prevent keep counting the search if the client is only changing the pages)
+     * @return array list that contains arrays that contain the search results -> (url - title - description), or null if error or invalid query
+     * @throws RemoteException RMI Exception
+     */
+    ArrayList<ArrayList<String>> search(String query, int page, int pageSize, boolean isFreshSearch) throws RemoteException;
+
+    /**
+     * Search a query a page at a time, continuing after the page of the provided cursor. The pages after the first
+     * one are served by the barrel that answered it, from a short lived snapshot of its results, so they stay
+     * consistent while the index changes
+     * @param query         the query
+     * @param cursor        the cursor returned with the previous page (null for the first page)
+     * @param pageSize      the page size
+     * @param isFreshSearch is this a fresh search (to prevent keep counting the search if the client is only changing the pages)
+     * @return array list that contains arrays that contain the search results -> (url - title - description), followed by a row with the total number of pages and the cursor of the next page (absent on the last page), or null if error, invalid query or invalid cursor
+     * @throws RemoteException RMI Exception
+     */
+    ArrayList<ArrayList<String>> searchAfter(String query, String cursor, int pageSize, boolean isFreshSearch) throws RemoteException;
+
     /**
      * Get system info. Namely, each registered barrel, and it's availability and average response time,
      * and the top 10 searches
@@ -186,6 +279,14 @@ public interface GatewayRemote extends Remote{
      */
     ArrayList<ArrayList<String>> getSystemInfo() throws RemoteException;
 
+    /**
+     * Get the most searched queries, used by the barrels to warm up after a restart.
+     * @param searchesNum the maximum number of searches
+     * @return the searches, most searched first, as queries that can be parsed
+     * @throws RemoteException RMI Exception
+     */
+    ArrayList<String> getTopSearches(int searchesNum) throws RemoteException;
+
     /**
      * Get father urls of the provided urls list from the most available barrel
      * @param urls the urls
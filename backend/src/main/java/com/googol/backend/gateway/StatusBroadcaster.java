@@ -0,0 +1,171 @@
+package com.googol.backend.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * <H1>Broadcaster of the system status to the clients</H1>
+ * The searches and (un)registrations only publish that the status changed, which returns immediately, and a
+ * dedicated thread sends the status to the registered callbacks:
+ * <ul>
+ *     <li>the changes published while a broadcast is running, or less than the interval after it, are coalesced into
+ *     a single broadcast of the latest status, built when it's sent;</li>
+ *     <li>the callbacks are called concurrently, each with a timeout, so a slow client doesn't delay the others;</li>
+ *     <li>a callback that fails or times out is dropped, the client registers it again when it reconnects.</li>
+ * </ul>
+ * The status is built on the broadcaster thread, so it must only read state that is safe to read concurrently with
+ * its writers (the gateway keeps it in concurrent maps). A broadcast whose status couldn't be built is retried.
+ */
+public class StatusBroadcaster {
+    private final Supplier<ArrayList<ArrayList<String>>> status;
+    private final long interval;
+    private final long timeout;
+    private final CopyOnWriteArrayList<UpdateCallback> callbacks = new CopyOnWriteArrayList<>();
+    private final ExecutorService deliveryExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "status-delivery");
+        thread.setDaemon(true); // an unresponsive client can't keep the gateway from exiting
+        return thread;
+    });
+    private final Object lock = new Object();
+    private boolean isPublished = false;
+    private long broadcastsNum = 0;
+
+
+    /**
+     * Instantiates a new Status broadcaster.
+     *
+     * @param status   the supplier of the current status
+     * @param interval the minimum time between broadcasts, in milliseconds
+     * @param timeout  the time a callback has to receive the status before it's dropped, in milliseconds
+     */
+    public StatusBroadcaster(Supplier<ArrayList<ArrayList<String>>> status, long interval, long timeout){
+        this.status = status;
+        this.interval = interval;
+        this.timeout = timeout;
+    }
+
+
+    /**
+     * Start the broadcaster thread.
+     */
+    public void start(){
+        Thread broadcaster = new Thread(this::broadcastLoop, "status-broadcaster");
+        broadcaster.setDaemon(true);
+        broadcaster.start();
+    }
+
+
+    /**
+     * Register a callback.
+     *
+     * @param callback the callback
+     */
+    public void register(UpdateCallback callback){
+        callbacks.addIfAbsent(callback);
+    }
+
+
+    /**
+     * Unregister a callback.
+     *
+     * @param callback the callback
+     */
+    public void unregister(UpdateCallback callback){
+        callbacks.remove(callback);
+    }
+
+
+    /**
+     * Get the number of registered callbacks.
+     *
+     * @return the callbacks num
+     */
+    public int getCallbacksNum(){
+        return callbacks.size();
+    }
+
+
+    /**
+     * Get the number of broadcasts sent so far.
+     *
+     * @return the broadcasts num
+     */
+    public long getBroadcastsNum(){
+        synchronized (lock){
+            return broadcastsNum;
+        }
+    }
+
+
+    /**
+     * Publish that the status changed, so it's broadcast to the clients (without waiting for it).
+     */
+    public void publish(){
+        synchronized (lock){
+            isPublished = true;
+            lock.notifyAll();
+        }
+    }
+
+
+    private void broadcastLoop(){
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                synchronized (lock){
+                    while(!isPublished) lock.wait();
+                    isPublished = false; // the changes published from now on go in the next broadcast
+                }
+                try {
+                    broadcast();
+                } catch (RuntimeException e) {
+                    System.out.println("Error broadcasting the status: " + e.getMessage());
+                    publish(); // retry after the interval, so the clients don't miss the change
+                }
+                Thread.sleep(interval); // coalesce the changes published meanwhile
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Send the current status to every callback, dropping the ones that fail or don't answer in time.
+     */
+    private void broadcast() throws InterruptedException {
+        List<UpdateCallback> receivers = new ArrayList<>(callbacks);
+        synchronized (lock){
+            broadcastsNum++;
+        }
+        if(receivers.isEmpty()) return;
+
+        ArrayList<ArrayList<String>> message = status.get();
+        List<Future<?>> deliveries = new ArrayList<>();
+        for(UpdateCallback callback : receivers){
+            deliveries.add(deliveryExecutor.submit(() -> {
+                callback.onUpdate(message);
+                return null;
+            }));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for(int i = 0; i < receivers.size(); i++){
+            Future<?> delivery = deliveries.get(i);
+            try {
+                delivery.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) { // failed or timed out
+                delivery.cancel(true);
+                callbacks.remove(receivers.get(i));
+                System.out.println("Dropped unresponsive client: " + (e.getCause() != null ? e.getCause().getMessage() : "timed out"));
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.googol.backend.gateway;
+
+import com.googol.backend.protocol.Hashing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <H1>Persistent table of the url ids</H1>
+ * Every barrel must give a url the same id, so their postings can be intersected by the gateway, and the ids must
+ * stay dense because the barrels index their document arrays by id. So the gateway assigns the ids in order, and
+ * keeps them in this table, which survives its restarts.
+ * <p>
+ * The table is an open addressing hash table of (hash of the url, id) slots, in a file mapped in memory: it holds no
+ * url strings and nothing on the heap, so it grows with the disk and the page cache instead of the gateway heap.
+ * The header keeps the last assigned id, so the numbering resumes after a restart. When the table is half full it's
+ * rewritten with twice the slots into a temporary file, which then atomically replaces the table.
+ * <p>
+ * Two urls with the same 64 bit hash would share an id, which is negligible for fewer than billions of urls.
+ */
+public class UrlIdTable implements Closeable {
+    /**
+     * Number of slots of a new table
+     */
+    public static final long INITIAL_CAPACITY = 1 << 16;
+    private static final long MAGIC = 0x55524C4944533031L; // "URLIDS01"
+    private static final int HEADER_BYTES = 32; // magic, capacity, size and last id
+    private static final int SLOT_BYTES = 16; // url hash and id
+    private static final int MAX_CHUNK_SLOTS_SHIFT = 22; // 4M slots, 64 MB per mapping (a mapping is limited to 2 GB)
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] chunks;
+    private int chunkSlotsShift;
+    private long capacity;
+    private long size;
+    private long lastId;
+
+
+    /**
+     * Open the table of the provided file, creating it if it doesn't exist.
+     *
+     * @param file the table file
+     * @throws IOException if the file couldn't be opened or isn't a table
+     */
+    public UrlIdTable(File file) throws IOException {
+        this(file, INITIAL_CAPACITY);
+    }
+
+
+    UrlIdTable(File file, long initialCapacity) throws IOException {
+        if(Long.bitCount(initialCapacity) != 1) throw new IllegalArgumentException("The capacity must be a power of 2.");
+        this.file = file;
+        Files.deleteIfExists(temporaryFile().toPath()); // left by an interrupted resize
+        open(initialCapacity);
+    }
+
+
+    /**
+     * Get the id of the provided url, assigning the next one if the url doesn't have it yet.
+     *
+     * @param url the url
+     * @return the url id
+     * @throws IOException if the table couldn't be resized
+     */
+    public synchronized long getOrAssign(String url) throws IOException {
+        long key = keyOf(url);
+        long slot = find(key);
+        if(readKey(slot) == key) return readId(slot);
+
+        if(2 * (size + 1) > capacity){
+            resize(capacity * 2);
+            slot = find(key);
+        }
+        long id = ++lastId;
+        writeSlot(slot, key, id);
+        size++;
+        header.putLong(16, size);
+        header.putLong(24, lastId);
+        return id;
+    }
+
+
+    /**
+     * Get the last assigned id.
+     *
+     * @return the last id (0 if none was assigned)
+     */
+    public synchronized long getLastId(){
+        return lastId;
+    }
+
+
+    /**
+     * Get the number of urls with an id.
+     *
+     * @return the size
+     */
+    public synchronized long size(){
+        return size;
+    }
+
+
+    /**
+     * Write the table to the disk and close it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+
+    private void open(long initialCapacity) throws IOException {
+        boolean exists = file.exists() && file.length() >= HEADER_BYTES;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        if(exists){
+            if(header.getLong(0) != MAGIC) throw new IOException("Not a url id table: " + file);
+            capacity = header.getLong(8);
+            size = header.getLong(16);
+            lastId = header.getLong(24);
+        } else {
+            capacity = initialCapacity;
+            size = 0;
+            lastId = 0;
+            header.putLong(0, MAGIC);
+            header.putLong(8, capacity);
+            header.putLong(16, size);
+            header.putLong(24, lastId);
+        }
+
+        chunkSlotsShift = Math.min(Long.numberOfTrailingZeros(capacity), MAX_CHUNK_SLOTS_SHIFT);
+        long chunkSlots = 1L << chunkSlotsShift;
+        chunks = new MappedByteBuffer[(int) (capacity / chunkSlots)];
+        for(int chunk = 0; chunk < chunks.length; chunk++){
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + chunk * chunkSlots * SLOT_BYTES, chunkSlots * SLOT_BYTES);
+        }
+    }
+
+
+    /**
+     * Rewrite the table with more slots, replacing the file once the new one is complete.
+     */
+    private void resize(long newCapacity) throws IOException {
+        File temporaryFile = temporaryFile();
+        Files.deleteIfExists(temporaryFile.toPath());
+        try(UrlIdTable resized = new UrlIdTable(temporaryFile, newCapacity)){
+            for(long slot = 0; slot < capacity; slot++){
+                long key = readKey(slot);
+                if(key != 0) resized.writeSlot(resized.find(key), key, readId(slot));
+            }
+            resized.size = size;
+            resized.lastId = lastId;
+            resized.header.putLong(16, size);
+            resized.header.putLong(24, lastId);
+        }
+        channel.close();
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open(newCapacity);
+    }
+
+
+    /**
+     * Find the slot of a key, or the empty slot where it goes.
+     */
+    private long find(long key){
+        long mask = capacity - 1;
+        long slot = key & mask;
+        while(true){
+            long slotKey = readKey(slot);
+            if(slotKey == 0 || slotKey == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+
+    private long readKey(long slot){
+        return chunks[(int) (slot >>> chunkSlotsShift)].getLong(offsetOf(slot));
+    }
+
+
+    private long readId(long slot){
+        return chunks[(int) (slot >>> chunkSlotsShift)].getLong(offsetOf(slot) + 8);
+    }
+
+
+    private void writeSlot(long slot, long key, long id){
+        MappedByteBuffer chunk = chunks[(int) (slot >>> chunkSlotsShift)];
+        chunk.putLong(offsetOf(slot) + 8, id);
+        chunk.putLong(offsetOf(slot), key); // the key last, so a slot is never seen without its id
+    }
+
+
+    private int offsetOf(long slot){
+        return (int) (slot & ((1L << chunkSlotsShift) - 1)) * SLOT_BYTES;
+    }
+
+
+    private void force(){
+        header.force();
+        for(MappedByteBuffer chunk : chunks) chunk.force();
+    }
+
+
+    private File temporaryFile(){
+        return new File(file.getPath() + ".tmp");
+    }
+
+
+    /**
+     * Hash a url into a key, 0 marks the empty slots.
+     */
+    private static long keyOf(String url){
+        long key = Hashing.hash(url);
+        return key == 0 ? 1 : key;
+    }
+}
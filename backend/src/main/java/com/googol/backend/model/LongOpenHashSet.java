@@ -0,0 +1,134 @@
+package com.googol.backend.model;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs, using open addressing with linear probing.
+ * <p>
+ * Much more compact than a collection of boxed Longs and with O(1) amortized add and contains.
+ * Only non negative values are supported (the ids of the urls), as -1 marks the empty slots.
+ * Not thread safe, the owner must synchronize the access.
+ */
+public class LongOpenHashSet implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final long EMPTY = -1;
+    private static final int MIN_CAPACITY = 4;
+
+    /**
+     * Slots of the table, with EMPTY on the free ones. The length is always a power of two
+     */
+    private long[] slots;
+    /**
+     * Number of values in the set
+     */
+    private int size = 0;
+
+
+    /**
+     * Instantiates a new empty set.
+     */
+    public LongOpenHashSet(){
+        this.slots = new long[MIN_CAPACITY];
+        Arrays.fill(slots, EMPTY);
+    }
+
+
+    /**
+     * Add a value to the set.
+     *
+     * @param value the value (must not be negative)
+     * @return true if the value was added, false if it already existed
+     */
+    public boolean add(long value){
+        if(value < 0) throw new IllegalArgumentException("Value cannot be negative.");
+
+        // keep the load factor at or below 0.5, so the probe sequences stay short
+        if((size + 1) * 2 > slots.length) rehash(slots.length * 2);
+
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while(slots[slot] != EMPTY){
+            if(slots[slot] == value) return false;
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+        size++;
+        return true;
+    }
+
+
+    /**
+     * Check if the set contains a value.
+     *
+     * @param value the value
+     * @return true if it contains, false otherwise
+     */
+    public boolean contains(long value){
+        if(value < 0) return false;
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+        while(slots[slot] != EMPTY){
+            if(slots[slot] == value) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+
+    /**
+     * Get the number of values in the set.
+     *
+     * @return the size
+     */
+    public int size(){
+        return size;
+    }
+
+
+    /**
+     * Copy the values of the set to an array list (in no particular order).
+     *
+     * @return the array list
+     */
+    public ArrayList<Long> toArrayList(){
+        ArrayList<Long> values = new ArrayList<>(size);
+        for(long value : slots){
+            if(value != EMPTY) values.add(value);
+        }
+        return values;
+    }
+
+
+    /**
+     * Move all the values to a new table with the provided capacity.
+     * @param capacity new capacity (power of two)
+     */
+    private void rehash(int capacity){
+        long[] oldSlots = slots;
+        slots = new long[capacity];
+        Arrays.fill(slots, EMPTY);
+        int mask = capacity - 1;
+        for(long value : oldSlots){
+            if(value == EMPTY) continue;
+            int slot = hash(value) & mask;
+            while(slots[slot] != EMPTY) slot = (slot + 1) & mask;
+            slots[slot] = value;
+        }
+    }
+
+
+    /**
+     * Spread the bits of the value, as consecutive ids would otherwise fill consecutive slots.
+     * @param value the value
+     * @return the hash
+     */
+    private static int hash(long value){
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
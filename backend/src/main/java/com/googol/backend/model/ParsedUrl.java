@@ -3,6 +3,7 @@ package com.googol.backend.model;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The type Parsed url.
@@ -10,7 +11,7 @@ import java.util.ArrayList;
 // TODO make this object concurrent
 public class ParsedUrl implements Serializable {
     @Serial
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     /**
      * The Url.
@@ -32,7 +33,26 @@ public class ParsedUrl implements Serializable {
      * The Text.
      */
     public String text;
-    private final ArrayList<Long> fatherUrls;
+    /**
+     * Number of words of the page text (0 if unknown)
+     */
+    public int documentLength;
+    /**
+     * Version of the crawl the page content comes from (time it was crawled, in milliseconds, 0 if unknown)
+     */
+    public long crawlVersion;
+    /**
+     * Version of the indexed content, incremented every time the page is recrawled
+     */
+    public int version;
+    /**
+     * Ids of the urls that link to this one
+     */
+    private final LongOpenHashSet fatherUrls;
+    /**
+     * Number of father urls, kept apart so the ranking can read it without locking
+     */
+    private final AtomicInteger fatherUrlsCount;
 
 
     /**
@@ -50,7 +70,8 @@ public class ParsedUrl implements Serializable {
         this.title = title;
         this.description = description;
         this.text = text;
-        this.fatherUrls = new ArrayList<>();
+        this.fatherUrls = new LongOpenHashSet();
+        this.fatherUrlsCount = new AtomicInteger(0);
     }
 
     /**
@@ -66,15 +87,24 @@ public class ParsedUrl implements Serializable {
      * @param id the id
      */
     public synchronized void addFatherUrl(long id){
-        if(!fatherUrls.contains(id)) this.fatherUrls.add(id);
+        if(fatherUrls.add(id)) fatherUrlsCount.incrementAndGet();
     }
 
     /**
-     * Get father urls array list.
+     * Get a copy of the father urls ids.
      *
      * @return the array list
      */
-    public ArrayList<Long> getFatherUrls(){
-        return this.fatherUrls;
+    public synchronized ArrayList<Long> getFatherUrls(){
+        return this.fatherUrls.toArrayList();
+    }
+
+    /**
+     * Get the number of father urls, without locking.
+     *
+     * @return the father urls count
+     */
+    public int getFatherUrlsCount(){
+        return this.fatherUrlsCount.get();
     }
 }
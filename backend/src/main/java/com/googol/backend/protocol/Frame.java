@@ -0,0 +1,169 @@
+package com.googol.backend.protocol;
+
+/**
+ * Decoded multicast frame exchanged between the Downloaders and the Barrels.
+ * <p>
+ * A frame always carries a message type and a document key (the url). Page frames also carry the
+ * title and description of the page (only on the first part of a document) and a list of terms.
+ * Father urls frames carry the list of urls found inside the page identified by the key.
+ */
+public class Frame {
+    /**
+     * Page message type, carrying the title, description and terms of a page
+     */
+    public static final byte PAGE = 1;
+    /**
+     * Father urls message type, carrying the urls found inside a page
+     */
+    public static final byte FATHER_URLS = 2;
+
+    /**
+     * Message type (PAGE or FATHER_URLS)
+     */
+    public byte type;
+    /**
+     * Id of the sender of the datagram that carried this frame
+     */
+    public long senderId;
+    /**
+     * Per sender sequence number of the datagram that carried this frame
+     */
+    public long sequence;
+    /**
+     * Index of this part, when a document doesn't fit in a single datagram
+     */
+    public int partIndex;
+    /**
+     * Whether this is the last part of the document
+     */
+    public boolean isLastPart;
+    /**
+     * Document key (url)
+     */
+    public String url;
+    /**
+     * Page title, only present on the first part of a page frame
+     */
+    public String title;
+    /**
+     * Page description, only present on the first part of a page frame
+     */
+    public String description;
+    /**
+     * Terms (PAGE) or child urls (FATHER_URLS)
+     */
+    public String[] entries;
+    /**
+     * Number of valid entries in the entries array
+     */
+    public int entriesNum;
+    /**
+     * Positions (token offsets in the page text, ascending) of each term of a page frame.
+     * Null if the sender didn't collect positions, in which case only the terms are sent
+     */
+    public int[][] positions;
+    /**
+     * Number of occurrences of each term of a page frame in the page text.
+     * Null if the sender didn't count them, in which case every term counts once
+     */
+    public int[] frequencies;
+    /**
+     * Number of words of the page text, only present on the first part of a page frame with frequencies
+     */
+    public int documentLength;
+    /**
+     * Text of the page (possibly truncated), used by the barrels to build the search snippets.
+     * Only present on the first part of a page frame, null if not sent
+     */
+    public String text;
+    /**
+     * Version of the crawl of the page (time it was crawled by the sender, in milliseconds), the same on every part.
+     * 0 if unknown, in which case the parts are never considered stale
+     */
+    public long crawlVersion;
+
+
+    /**
+     * Instantiates a new empty Frame.
+     */
+    public Frame(){}
+
+
+    /**
+     * Create a page frame.
+     *
+     * @param url         the url
+     * @param title       the title
+     * @param description the description
+     * @param terms       the terms
+     * @return the frame
+     */
+    public static Frame page(String url, String title, String description, String[] terms){
+        Frame frame = new Frame();
+        frame.type = PAGE;
+        frame.url = url;
+        frame.title = title;
+        frame.description = description;
+        frame.entries = terms;
+        frame.entriesNum = terms.length;
+        frame.isLastPart = true;
+        return frame;
+    }
+
+
+    /**
+     * Create a page frame with the positions of each term.
+     *
+     * @param url         the url
+     * @param title       the title
+     * @param description the description
+     * @param terms       the terms
+     * @param positions   the positions of each term, in the same order of the terms
+     * @return the frame
+     */
+    public static Frame page(String url, String title, String description, String[] terms, int[][] positions){
+        if(positions != null && positions.length < terms.length) throw new IllegalArgumentException("Every term must have its positions.");
+        Frame frame = page(url, title, description, terms);
+        frame.positions = positions;
+        return frame;
+    }
+
+
+    /**
+     * Create a page frame with the frequency and positions of each term and the length of the page.
+     *
+     * @param url            the url
+     * @param title          the title
+     * @param description    the description
+     * @param terms          the terms
+     * @param frequencies    the number of occurrences of each term, in the same order of the terms
+     * @param positions      the positions of each term, in the same order of the terms (or null)
+     * @param documentLength the number of words of the page
+     * @return the frame
+     */
+    public static Frame page(String url, String title, String description, String[] terms, int[] frequencies, int[][] positions, int documentLength){
+        if(frequencies != null && frequencies.length < terms.length) throw new IllegalArgumentException("Every term must have its frequency.");
+        Frame frame = page(url, title, description, terms, positions);
+        frame.frequencies = frequencies;
+        frame.documentLength = documentLength;
+        return frame;
+    }
+
+
+    /**
+     * Create a father urls frame.
+     *
+     * @param fatherUrl the url of the page where the child urls were found
+     * @param childUrls the child urls
+     * @return the frame
+     */
+    public static Frame fatherUrls(String fatherUrl, String[] childUrls){
+        Frame frame = new Frame();
+        frame.type = FATHER_URLS;
+        frame.url = fatherUrl;
+        frame.entries = childUrls;
+        frame.entriesNum = childUrls.length;
+        frame.isLastPart = true;
+        return frame;
+    }
+}
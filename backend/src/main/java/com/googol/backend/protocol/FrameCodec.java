@@ -0,0 +1,683 @@
+package com.googol.backend.protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <H1>Binary framed wire protocol between the Downloaders and the Barrels</H1>
+ * <pre>
+ *       *********************************************************************************
+ *       *                               FRAME STRUCTURE                                 *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *   | magic | version | type | flags | senderId | sequence | nackPort |       |  *
+ *       *   | partIndex | key | [crawlVersion] | [title | description |            |  *
+ *       *   | [documentLength] | [text]]                                           |  *
+ *       *   | entriesNum | entries                                                   |  *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *                                                                               *
+ *       *   magic: BYTE (0x47)                                                          *
+ *       *   version: BYTE                                                               *
+ *       *   type: BYTE (1 - PAGE, 2 - FATHER_URLS)                                      *
+ *       *   flags: BYTE (bit 0 - last part, bit 1 - has title and description,          *
+ *       *          bit 2 - has positions, bit 3 - has frequencies, bit 4 - has text,    *
+ *       *          bit 5 - has crawl version)                                           *
+ *       *   senderId: LONG (8 Bytes)                                                    *
+ *       *   sequence: LONG (8 Bytes), per sender datagram sequence number               *
+ *       *   nackPort: SHORT (2 Bytes), unicast port where the sender accepts NACKs      *
+ *       *   partIndex: VARINT                                                           *
+ *       *   key, title, description, text: VARINT length + UTF-8 bytes                  *
+ *       *   crawlVersion: VARLONG, crawl time of the page (on every part of a page)     *
+ *       *   documentLength: VARINT, number of words of the page (with frequencies)      *
+ *       *   entriesNum: VARINT (always padded to 3 bytes)                               *
+ *       *   entries: entriesNum * (VARINT length + UTF-8 bytes [+ VARINT frequency]     *
+ *       *            [+ positions])                                                     *
+ *       *   positions: VARINT count + count * VARINT (gap to the previous position)     *
+ *       *                                                                               *
+ *       *********************************************************************************
+ * </pre>
+ * <p>
+ * The encoder writes the frame in a single pass straight into a reusable datagram buffer, splitting the
+ * document into several parts whenever it doesn't fit in a single UDP packet. As the number of entries of a
+ * part is only known once the part is full, its varint is written padded to a fixed width.
+ * The decoder reads the fields directly from the received bytes, without any regex or intermediate lists.
+ * <p>
+ * Page frames may carry the positions of each term in the page text, right after the term, so the barrels can
+ * build a positional index. They are delta encoded (gaps between consecutive positions), which keeps most of
+ * them in a single byte. At most {@link #MAX_POSITIONS_PER_ENTRY} positions are sent per term.
+ * They may also carry the number of occurrences of each term and the number of words of the page, used by the
+ * barrels to rank the results, and the text of the page (truncated by the sender) used to build the snippets.
+ * Every part of a page carries the same crawl version, so the barrels can tell the parts of a recrawl from the
+ * late parts of an older crawl.
+ * <p>
+ * Every datagram is stamped with the id of its sender and a per sender sequence number, at fixed offsets so
+ * the receiver can check them without decoding the frame. Receivers that detect a gap in the sequence ask the
+ * sender to retransmit the missing datagrams with a NACK message:
+ * <pre>
+ *       | magic | version | type (3 - NACK) | senderId (8 Bytes) | fromSequence (8 Bytes) | toSequence (8 Bytes) |
+ * </pre>
+ */
+public class FrameCodec {
+    /**
+     * Maximum datagram payload (65535 bytes ip packet - 20 bytes ip header - 8 bytes udp header)
+     */
+    public static final int MAX_PACKET_SIZE = 65507;
+    /**
+     * Magic byte that starts every frame
+     */
+    public static final byte MAGIC = 0x47;
+    /**
+     * Current protocol version
+     */
+    public static final byte VERSION = 6;
+    /**
+     * NACK message type, sent by the receivers to request the retransmission of a range of sequences
+     */
+    public static final byte NACK = 3;
+    /**
+     * Maximum number of positions sent for a single term, the following ones are discarded
+     */
+    public static final int MAX_POSITIONS_PER_ENTRY = 1024;
+
+    private static final int FLAG_LAST_PART = 1;
+    private static final int FLAG_HAS_FIELDS = 1 << 1;
+    private static final int FLAG_HAS_POSITIONS = 1 << 2;
+    private static final int FLAG_HAS_FREQUENCIES = 1 << 3;
+    private static final int FLAG_HAS_TEXT = 1 << 4;
+    private static final int FLAG_HAS_CRAWL_VERSION = 1 << 5;
+    private static final int FLAGS_OFFSET = 3;
+    private static final int SENDER_ID_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 12;
+    private static final int NACK_PORT_OFFSET = 20;
+    private static final int FIXED_HEADER_SIZE = 22;
+    private static final int NACK_SIZE = 27;
+    private static final int PADDED_COUNT_BYTES = 3;
+    private static final int MAX_FIELDS_BYTES = MAX_PACKET_SIZE / 2; // shared by the url, title, description and text
+
+    /**
+     * Reusable datagram buffer
+     */
+    private final byte[] buffer;
+    private int position;
+    /**
+     * Id of the sender that owns this codec
+     */
+    private final long senderId;
+    /**
+     * Unicast port where the sender accepts NACKs (0 if retransmissions are not supported)
+     */
+    private final int nackPort;
+    /**
+     * Sequence number of the next datagram sent by this codec
+     */
+    private long nextSequence = 0;
+
+
+    /**
+     * Sink that receives each encoded datagram.
+     */
+    public interface PacketSink {
+        /**
+         * Send the encoded packet.
+         *
+         * @param data   packet bytes (only valid until this method returns)
+         * @param length number of valid bytes
+         * @throws IOException IO Exception if the packet couldn't be sent
+         */
+        void send(byte[] data, int length) throws IOException;
+    }
+
+
+    /**
+     * Exception thrown when a received packet isn't a valid frame.
+     */
+    public static class FrameFormatException extends RuntimeException {
+        /**
+         * Instantiates a new Frame format exception.
+         *
+         * @param message the message
+         */
+        public FrameFormatException(String message) {
+            super(message);
+        }
+    }
+
+
+    /**
+     * Instantiates a new Frame codec with its own datagram buffer, for a sender that doesn't support retransmissions.
+     * Encoding is not thread safe, each sender thread must use its own codec.
+     */
+    public FrameCodec(){
+        this(0, 0);
+    }
+
+
+    /**
+     * Instantiates a new Frame codec with its own datagram buffer.
+     * Encoding is not thread safe, each sender thread must use its own codec.
+     *
+     * @param senderId id of the sender, stamped on every datagram
+     * @param nackPort unicast port where the sender accepts NACKs
+     */
+    public FrameCodec(long senderId, int nackPort){
+        this.buffer = new byte[MAX_PACKET_SIZE];
+        this.senderId = senderId;
+        this.nackPort = nackPort;
+    }
+
+
+    /**
+     * Encode the provided frame into one or more datagrams, handing each one to the sink as soon as it is full.
+     *
+     * The url, title, description and text share half of the first datagram, the text being truncated first, so the
+     * header always fits. An entry that doesn't fit in the first part even when it has no entries yet goes to the
+     * next part, which only carries the url. Entries that don't fit even in an empty continuation part are skipped,
+     * and counted so the caller can report them.
+     *
+     * @param frame the frame
+     * @param sink  the packet sink
+     * @return the number of skipped entries (0 if every entry was encoded)
+     * @throws IOException IO Exception if the sink failed to send a packet
+     */
+    public int encode(Frame frame, PacketSink sink) throws IOException {
+        int partIndex = 0;
+        int skippedEntries = 0;
+        int countPosition = writeHeader(frame, partIndex);
+        int entriesInPart = 0;
+        boolean hasPositions = hasPositions(frame);
+        boolean hasFrequencies = hasFrequencies(frame);
+
+        for(int i = 0; i < frame.entriesNum; i++){
+            String entry = frame.entries[i];
+            if(entry == null) continue;
+
+            int entryLength = utf8Length(entry);
+            int entrySize = varintSize(entryLength) + entryLength;
+            if(hasFrequencies) entrySize += varintSize(frame.frequencies[i]);
+            if(hasPositions) entrySize += positionsSize(frame.positions[i]);
+            if(position + entrySize > MAX_PACKET_SIZE){
+                if(entriesInPart > 0 || partIndex == 0){ // flush the current part and continue in a new one
+                    writePaddedVarint(countPosition, entriesInPart);
+                    send(sink);
+                    partIndex++;
+                    countPosition = writeHeader(frame, partIndex);
+                    entriesInPart = 0;
+                }
+                if(position + entrySize > MAX_PACKET_SIZE){ // doesn't fit even in an empty continuation part, skip it
+                    skippedEntries++;
+                    continue;
+                }
+            }
+
+            writeVarint(entryLength);
+            writeUtf8(entry);
+            if(hasFrequencies) writeVarint(frame.frequencies[i]);
+            if(hasPositions) writePositions(frame.positions[i]);
+            entriesInPart++;
+        }
+
+        // mark the last part and send it
+        buffer[FLAGS_OFFSET] |= FLAG_LAST_PART;
+        writePaddedVarint(countPosition, entriesInPart);
+        send(sink);
+        return skippedEntries;
+    }
+
+
+    /**
+     * Check if the positions of the frame terms must be encoded.
+     * @param frame the frame
+     * @return true if it's a page frame with positions, false otherwise
+     */
+    private static boolean hasPositions(Frame frame){
+        return frame.type == Frame.PAGE && frame.positions != null;
+    }
+
+
+    /**
+     * Check if the frequencies of the frame terms must be encoded.
+     * @param frame the frame
+     * @return true if it's a page frame with frequencies, false otherwise
+     */
+    private static boolean hasFrequencies(Frame frame){
+        return frame.type == Frame.PAGE && frame.frequencies != null;
+    }
+
+
+    /**
+     * Compute the encoded size of the positions of a term.
+     * @param positions the positions (null is encoded as no positions)
+     * @return number of bytes
+     */
+    private static int positionsSize(int[] positions){
+        if(positions == null) return 1;
+        int count = Math.min(positions.length, MAX_POSITIONS_PER_ENTRY);
+        int size = varintSize(count);
+        int previous = 0;
+        for(int i = 0; i < count; i++){
+            size += varintSize(positions[i] - previous);
+            previous = positions[i];
+        }
+        return size;
+    }
+
+
+    /**
+     * Write the positions of a term as a count followed by the gaps between consecutive positions.
+     * @param positions the positions, ascending (null is written as no positions)
+     */
+    private void writePositions(int[] positions){
+        if(positions == null){
+            writeVarint(0);
+            return;
+        }
+        int count = Math.min(positions.length, MAX_POSITIONS_PER_ENTRY);
+        writeVarint(count);
+        int previous = 0;
+        for(int i = 0; i < count; i++){
+            writeVarint(positions[i] - previous);
+            previous = positions[i];
+        }
+    }
+
+
+    /**
+     * Stamp the next sequence number on the current datagram and hand it to the sink.
+     * @param sink the packet sink
+     * @throws IOException IO Exception if the sink failed to send the packet
+     */
+    private void send(PacketSink sink) throws IOException {
+        putLong(buffer, SEQUENCE_OFFSET, nextSequence++);
+        sink.send(buffer, position);
+    }
+
+
+    /**
+     * Write the frame header of the provided part into the buffer.
+     * @param frame the frame
+     * @param partIndex the part index
+     * @return position of the padded entries count, to be filled when the part is complete
+     */
+    private int writeHeader(Frame frame, int partIndex){
+        boolean hasFields = frame.type == Frame.PAGE && partIndex == 0;
+        boolean hasText = hasFields && frame.text != null;
+        boolean hasCrawlVersion = frame.type == Frame.PAGE && frame.crawlVersion > 0;
+
+        position = 0;
+        buffer[position++] = MAGIC;
+        buffer[position++] = VERSION;
+        buffer[position++] = frame.type;
+        buffer[position++] = (byte) ((hasFields ? FLAG_HAS_FIELDS : 0) | (hasPositions(frame) ? FLAG_HAS_POSITIONS : 0) | (hasFrequencies(frame) ? FLAG_HAS_FREQUENCIES : 0) | (hasText ? FLAG_HAS_TEXT : 0) | (hasCrawlVersion ? FLAG_HAS_CRAWL_VERSION : 0));
+        putLong(buffer, SENDER_ID_OFFSET, senderId);
+        putLong(buffer, SEQUENCE_OFFSET, 0); // stamped when the datagram is sent
+        buffer[NACK_PORT_OFFSET] = (byte) (nackPort >>> 8);
+        buffer[NACK_PORT_OFFSET + 1] = (byte) nackPort;
+        position = FIXED_HEADER_SIZE;
+        writeVarint(partIndex);
+        String url = capField(frame.url);
+        writeString(url);
+        if(hasCrawlVersion) writeVarLong(frame.crawlVersion);
+        if(hasFields){
+            // the fields share a budget, the title and description take their part of it before the text
+            int budget = MAX_FIELDS_BYTES - utf8Length(url);
+            String title = truncate(capField(frame.title), budget);
+            budget -= utf8Length(title);
+            String description = truncate(capField(frame.description), budget);
+            budget -= utf8Length(description);
+            writeString(title);
+            writeString(description);
+            if(hasFrequencies(frame)) writeVarint(Math.max(frame.documentLength, 0));
+            if(hasText) writeString(truncate(capField(frame.text), budget));
+        }
+
+        int countPosition = position;
+        position += PADDED_COUNT_BYTES;
+        return countPosition;
+    }
+
+
+    /**
+     * Truncate a header field if it doesn't fit in a quarter of a packet.
+     * @param string the field (null is taken as an empty string)
+     * @return the field, truncated if needed
+     */
+    private static String capField(String string){
+        if(string == null) return "";
+        if(utf8Length(string) <= MAX_PACKET_SIZE / 4) return string;
+        return truncate(string, MAX_PACKET_SIZE / 16);
+    }
+
+
+    /**
+     * Get the longest prefix of a string that fits in the provided number of UTF-8 bytes, without splitting a
+     * surrogate pair.
+     * @param string the string
+     * @param maxBytes the maximum number of bytes
+     * @return the prefix
+     */
+    private static String truncate(String string, int maxBytes){
+        int length = 0;
+        for(int i = 0; i < string.length(); i++){
+            char c = string.charAt(i);
+            int charBytes;
+            if(c < 0x80) charBytes = 1;
+            else if(c < 0x800) charBytes = 2;
+            else if(Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) charBytes = 4;
+            else if(Character.isSurrogate(c)) charBytes = 1;
+            else charBytes = 3;
+            if(length + charBytes > maxBytes) return string.substring(0, i);
+            length += charBytes;
+            if(charBytes == 4) i++;
+        }
+        return string;
+    }
+
+
+    /**
+     * Write a length prefixed string.
+     * @param string the string
+     */
+    private void writeString(String string){
+        writeVarint(utf8Length(string));
+        writeUtf8(string);
+    }
+
+
+    private void writeVarint(int value){
+        while((value & ~0x7F) != 0){
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+
+    private void writeVarLong(long value){
+        while((value & ~0x7FL) != 0){
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+
+    /**
+     * Write a varint padded to a fixed width, so it can be filled after the following bytes were written.
+     * @param at position in the buffer
+     * @param value value to write (must fit in 21 bits)
+     */
+    private void writePaddedVarint(int at, int value){
+        for(int i = 0; i < PADDED_COUNT_BYTES - 1; i++){
+            buffer[at + i] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[at + PADDED_COUNT_BYTES - 1] = (byte) (value & 0x7F);
+    }
+
+
+    /**
+     * Encode the string as UTF-8 straight into the buffer
+     * @param string the string
+     */
+    private void writeUtf8(String string){
+        for(int i = 0; i < string.length(); i++){
+            char c = string.charAt(i);
+            if(c < 0x80){
+                buffer[position++] = (byte) c;
+            } else if(c < 0x800){
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if(Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if(Character.isSurrogate(c)){
+                buffer[position++] = '?'; // unpaired surrogate, same replacement as String.getBytes
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+
+    /**
+     * Compute the UTF-8 length of a string without encoding it
+     * @param string the string
+     * @return number of UTF-8 bytes
+     */
+    private static int utf8Length(String string){
+        int length = 0;
+        for(int i = 0; i < string.length(); i++){
+            char c = string.charAt(i);
+            if(c < 0x80) length++;
+            else if(c < 0x800) length += 2;
+            else if(Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))){
+                length += 4;
+                i++;
+            } else if(Character.isSurrogate(c)) length++;
+            else length += 3;
+        }
+        return length;
+    }
+
+
+    private static void putLong(byte[] data, int at, long value){
+        for(int i = 7; i >= 0; i--){
+            data[at + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+
+    private static long getLong(byte[] data, int at){
+        long value = 0;
+        for(int i = 0; i < 8; i++){
+            value = (value << 8) | (data[at + i] & 0xFF);
+        }
+        return value;
+    }
+
+
+    private static int varintSize(int value){
+        int size = 1;
+        while((value & ~0x7F) != 0){
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+
+    /**
+     * Check if the received datagram starts with a valid frame header of the current version.
+     *
+     * @param data   datagram bytes
+     * @param length number of valid bytes
+     * @return true if it's a frame, false otherwise
+     */
+    public static boolean isFrame(byte[] data, int length){
+        return length >= FIXED_HEADER_SIZE && data[0] == MAGIC && data[1] == VERSION && data[2] != NACK;
+    }
+
+
+    /**
+     * Get the sender id of a frame without decoding it.
+     *
+     * @param data frame bytes (must be a valid frame, see {@link #isFrame})
+     * @return the sender id
+     */
+    public static long peekSenderId(byte[] data){
+        return getLong(data, SENDER_ID_OFFSET);
+    }
+
+
+    /**
+     * Get the sequence number of a frame without decoding it.
+     *
+     * @param data frame bytes (must be a valid frame, see {@link #isFrame})
+     * @return the sequence number
+     */
+    public static long peekSequence(byte[] data){
+        return getLong(data, SEQUENCE_OFFSET);
+    }
+
+
+    /**
+     * Get the NACK port of the sender of a frame without decoding it.
+     *
+     * @param data frame bytes (must be a valid frame, see {@link #isFrame})
+     * @return the NACK port, or 0 if the sender doesn't support retransmissions
+     */
+    public static int peekNackPort(byte[] data){
+        return ((data[NACK_PORT_OFFSET] & 0xFF) << 8) | (data[NACK_PORT_OFFSET + 1] & 0xFF);
+    }
+
+
+    /**
+     * Encode a NACK message requesting the retransmission of an inclusive range of sequences.
+     *
+     * @param senderId     id of the sender the NACK is addressed to
+     * @param fromSequence first missing sequence
+     * @param toSequence   last missing sequence
+     * @return the NACK bytes
+     */
+    public static byte[] encodeNack(long senderId, long fromSequence, long toSequence){
+        byte[] nack = new byte[NACK_SIZE];
+        nack[0] = MAGIC;
+        nack[1] = VERSION;
+        nack[2] = NACK;
+        putLong(nack, 3, senderId);
+        putLong(nack, 11, fromSequence);
+        putLong(nack, 19, toSequence);
+        return nack;
+    }
+
+
+    /**
+     * Decode a NACK message.
+     *
+     * @param data   datagram bytes
+     * @param length number of valid bytes
+     * @return array with the sender id, first and last requested sequences, or null if it isn't a valid NACK
+     */
+    public static long[] decodeNack(byte[] data, int length){
+        if(length != NACK_SIZE || data[0] != MAGIC || data[1] != VERSION || data[2] != NACK) return null;
+        return new long[]{getLong(data, 3), getLong(data, 11), getLong(data, 19)};
+    }
+
+
+    /**
+     * Decode a received datagram into a frame.
+     *
+     * @param data   datagram bytes
+     * @param length number of valid bytes
+     * @return the decoded frame
+     * @throws FrameFormatException if the datagram isn't a valid frame
+     */
+    public static Frame decode(byte[] data, int length){
+        Reader reader = new Reader(data, length);
+        if(length < 4 || reader.readByte() != MAGIC) throw new FrameFormatException("Not a frame");
+
+        byte version = reader.readByte();
+        if(version != VERSION) throw new FrameFormatException("Unsupported frame version: " + version);
+
+        Frame frame = new Frame();
+        frame.type = reader.readByte();
+        if(frame.type != Frame.PAGE && frame.type != Frame.FATHER_URLS) throw new FrameFormatException("Unknown frame type: " + frame.type);
+
+        int flags = reader.readByte();
+        frame.isLastPart = (flags & FLAG_LAST_PART) != 0;
+        if(length < FIXED_HEADER_SIZE) throw new FrameFormatException("Unexpected end of frame");
+        frame.senderId = getLong(data, SENDER_ID_OFFSET);
+        frame.sequence = getLong(data, SEQUENCE_OFFSET);
+        reader.position = FIXED_HEADER_SIZE;
+        frame.partIndex = reader.readVarint();
+        frame.url = reader.readString();
+        if((flags & FLAG_HAS_CRAWL_VERSION) != 0) frame.crawlVersion = reader.readVarLong();
+        if((flags & FLAG_HAS_FIELDS) != 0){
+            frame.title = reader.readString();
+            frame.description = reader.readString();
+            if((flags & FLAG_HAS_FREQUENCIES) != 0) frame.documentLength = reader.readVarint();
+            if((flags & FLAG_HAS_TEXT) != 0) frame.text = reader.readString();
+        }
+
+        int entriesNum = reader.readVarint();
+        if(entriesNum > length) throw new FrameFormatException("Invalid entries count: " + entriesNum);
+        boolean hasPositions = (flags & FLAG_HAS_POSITIONS) != 0;
+        boolean hasFrequencies = (flags & FLAG_HAS_FREQUENCIES) != 0;
+        frame.entries = new String[entriesNum];
+        if(hasPositions) frame.positions = new int[entriesNum][];
+        if(hasFrequencies) frame.frequencies = new int[entriesNum];
+        for(int i = 0; i < entriesNum; i++){
+            frame.entries[i] = reader.readString();
+            if(hasFrequencies) frame.frequencies[i] = reader.readVarint();
+            if(hasPositions) frame.positions[i] = reader.readPositions();
+        }
+        frame.entriesNum = entriesNum;
+
+        return frame;
+    }
+
+
+    /**
+     * Bounds checked cursor over the received bytes.
+     */
+    private static class Reader {
+        private final byte[] data;
+        private final int limit;
+        private int position = 0;
+
+        Reader(byte[] data, int limit){
+            this.data = data;
+            this.limit = limit;
+        }
+
+        byte readByte(){
+            if(position >= limit) throw new FrameFormatException("Unexpected end of frame");
+            return data[position++];
+        }
+
+        int readVarint(){
+            int value = 0;
+            for(int shift = 0; shift < 32; shift += 7){
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) return value;
+            }
+            throw new FrameFormatException("Malformed varint");
+        }
+
+        long readVarLong(){
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7){
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0) return value;
+            }
+            throw new FrameFormatException("Malformed varint");
+        }
+
+        String readString(){
+            int length = readVarint();
+            if(length < 0 || position + length > limit) throw new FrameFormatException("String exceeds frame length");
+            String string = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return string;
+        }
+
+        int[] readPositions(){
+            int count = readVarint();
+            if(count < 0 || count > MAX_POSITIONS_PER_ENTRY || count > limit - position) throw new FrameFormatException("Invalid positions count: " + count);
+            int[] positions = new int[count];
+            int previous = 0;
+            for(int i = 0; i < count; i++){
+                previous += readVarint();
+                positions[i] = previous;
+            }
+            return positions;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.googol.backend.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64 bit hashes shared by the barrels and the gateway.
+ * <p>
+ * The barrels compare their replicas by these hashes and the gateway keys the url ids by them, so they must be the
+ * same in every JVM: the bytes are hashed with FNV-1a and the result is mixed with the finalizer of MurmurHash3.
+ */
+public class Hashing {
+    private Hashing(){}
+
+
+    /**
+     * Mix the bits of a hash (the finalizer of MurmurHash3), so close values land far apart.
+     *
+     * @param hash the hash
+     * @return the mixed hash
+     */
+    public static long mix(long hash){
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+
+    /**
+     * Hash some bytes (FNV-1a, mixed).
+     *
+     * @param bytes the bytes
+     * @return the hash
+     */
+    public static long hash(byte[] bytes){
+        long hash = 0xcbf29ce484222325L;
+        for(byte b : bytes){
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+
+    /**
+     * Hash a string, as its UTF-8 bytes.
+     *
+     * @param string the string (can be null)
+     * @return the hash (0 for null)
+     */
+    public static long hash(String string){
+        return string == null ? 0 : hash(string.getBytes(StandardCharsets.UTF_8));
+    }
+}
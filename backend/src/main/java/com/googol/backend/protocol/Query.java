@@ -0,0 +1,446 @@
+package com.googol.backend.protocol;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Parsed search query, sent by the gateway to the barrels.
+ * <p>
+ * Supported syntax:
+ * <pre>
+ *     word1 word2        pages with both words (implicit AND)
+ *     word1 OR word2     pages with any of the words (binds tighter than the implicit AND, so a b OR c is a AND (b OR c))
+ *     -word              pages without the word (only next to words that aren't excluded)
+ *     "word1 word2"      pages with the words as a phrase
+ *     "word1 word2"~5    pages with the words within 5 positions of each other, in any order
+ *     (word1 OR word2)   grouping
+ *     site:example.com   only pages of the host or its subdomains (several sites are an OR), anywhere in the query
+ * </pre>
+ * The words are normalized like the Downloaders normalize the pages: lower case, with the punctuation splitting the
+ * word (so "e-mail" is searched as the phrase "e mail").
+ * <p>
+ * The query is parsed once by the gateway and sent as a compact tree in postfix order: each node is an operator and
+ * an operand, the words are the leaves and every other node takes the previous operand nodes as its children.
+ * <pre>
+ *     TERM   operand: index of the word
+ *     PHRASE operand: number of children (TERM nodes, in order)
+ *     NEAR   operand: number of children (TERM nodes), the maximum distance is kept apart (see {@link #getDistance})
+ *     AND    operand: number of children
+ *     OR     operand: number of children
+ *     NOT    operand: 1 (only as a child of an AND with at least one child that isn't a NOT)
+ * </pre>
+ */
+public class Query implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final byte TERM = 0;
+    public static final byte PHRASE = 1;
+    public static final byte AND = 2;
+    public static final byte OR = 3;
+    public static final byte NOT = 4;
+    public static final byte NEAR = 5;
+
+    private final byte[] operators;
+    private final int[] operands;
+    private final int[] distances;
+    private final String[] terms;
+    private final String[] sites;
+
+
+    private Query(byte[] operators, int[] operands, int[] distances, String[] terms, String[] sites){
+        this.operators = operators;
+        this.operands = operands;
+        this.distances = distances;
+        this.terms = terms;
+        this.sites = sites;
+    }
+
+
+    /**
+     * Parse a query.
+     *
+     * @param query the query
+     * @return the parsed query
+     * @throws IllegalArgumentException if the query has no words to search or isn't valid
+     */
+    public static Query parse(String query){
+        if(query == null) throw new IllegalArgumentException("Query cannot be null.");
+        return new Parser(query).parse();
+    }
+
+
+    /**
+     * Get the number of nodes.
+     *
+     * @return the number of nodes
+     */
+    public int size(){
+        return operators.length;
+    }
+
+
+    /**
+     * Get the operator of a node.
+     *
+     * @param node the node index (postfix order)
+     * @return the operator
+     */
+    public byte getOperator(int node){
+        return operators[node];
+    }
+
+
+    /**
+     * Get the operand of a node.
+     *
+     * @param node the node index (postfix order)
+     * @return the word index (TERM) or the number of children
+     */
+    public int getOperand(int node){
+        return operands[node];
+    }
+
+
+    /**
+     * Get the maximum distance between the words of a NEAR node.
+     *
+     * @param node the node index (postfix order)
+     * @return the maximum distance between the first and the last word of the window (0 for the other nodes)
+     */
+    public int getDistance(int node){
+        return distances[node];
+    }
+
+
+    /**
+     * Get a word.
+     *
+     * @param index the word index
+     * @return the word
+     */
+    public String getTerm(int index){
+        return terms[index];
+    }
+
+
+    /**
+     * Get all the words, including the excluded ones.
+     *
+     * @return the words
+     */
+    public ArrayList<String> getTerms(){
+        return new ArrayList<>(Arrays.asList(terms));
+    }
+
+
+    /**
+     * Get the sites the results are restricted to.
+     *
+     * @return the sites, in lower case (empty if the results aren't restricted)
+     */
+    public String[] getSites(){
+        return sites.clone();
+    }
+
+
+    /**
+     * Get the words that aren't excluded, highlighted in the snippets of the results.
+     *
+     * @return the words
+     */
+    public ArrayList<String> getMatchedTerms(){
+        boolean[] excluded = new boolean[terms.length];
+        // the words under a node are numbered consecutively, so each node of the stack keeps the range of its words
+        int[] firstTerms = new int[operators.length];
+        int[] lastTerms = new int[operators.length];
+        int stackSize = 0;
+        for(int i = 0; i < operators.length; i++){
+            if(operators[i] == TERM){
+                firstTerms[stackSize] = operands[i];
+                lastTerms[stackSize++] = operands[i];
+                continue;
+            }
+            int firstTerm = firstTerms[stackSize - operands[i]];
+            int lastTerm = lastTerms[stackSize - 1];
+            stackSize -= operands[i];
+            if(operators[i] == NOT) Arrays.fill(excluded, firstTerm, lastTerm + 1, true);
+            firstTerms[stackSize] = firstTerm;
+            lastTerms[stackSize++] = lastTerm;
+        }
+
+        ArrayList<String> matchedTerms = new ArrayList<>();
+        for(int i = 0; i < terms.length; i++){
+            if(!excluded[i] && !matchedTerms.contains(terms[i])) matchedTerms.add(terms[i]);
+        }
+        return matchedTerms;
+    }
+
+
+    /**
+     * Get the words of a query that is only an AND of words (or a single word), the shape of the plain searches.
+     *
+     * @return the words, or null if the query uses any other operator
+     */
+    public ArrayList<String> getConjunctiveTerms(){
+        int last = operators.length - 1;
+        if(operators.length == 1) return getTerms();
+        if(operators[last] != AND || operands[last] != last) return null;
+        for(int i = 0; i < last; i++){
+            if(operators[i] != TERM) return null;
+        }
+        return getTerms();
+    }
+
+
+    /**
+     * Get the words of a query that is only an OR of words, ranked by how many of them each page matches and how well.
+     *
+     * @return the words, or null if the query uses any other operator
+     */
+    public ArrayList<String> getDisjunctiveTerms(){
+        int last = operators.length - 1;
+        if(operators[last] != OR || operands[last] != last) return null;
+        for(int i = 0; i < last; i++){
+            if(operators[i] != TERM) return null;
+        }
+        return getTerms();
+    }
+
+
+    /**
+     * Get the normalized text of the query, the same for every way of writing the same query.
+     */
+    @Override
+    public String toString(){
+        String[] stack = new String[operators.length];
+        int stackSize = 0;
+        for(int i = 0; i < operators.length; i++){
+            if(operators[i] == TERM){
+                stack[stackSize++] = terms[operands[i]];
+                continue;
+            }
+            stackSize -= operands[i];
+            String[] children = Arrays.copyOfRange(stack, stackSize, stackSize + operands[i]);
+            String node;
+            switch(operators[i]){
+                case PHRASE: node = "\"" + String.join(" ", children) + "\""; break;
+                case NEAR: node = "\"" + String.join(" ", children) + "\"~" + distances[i]; break;
+                case OR: node = "(" + String.join(" OR ", children) + ")"; break;
+                case NOT: node = "-" + children[0]; break;
+                default: node = (i == operators.length - 1 ? "" : "(") + String.join(" ", children) + (i == operators.length - 1 ? "" : ")");
+            }
+            stack[stackSize++] = node;
+        }
+        StringBuilder text = new StringBuilder(stack[0]);
+        for(String site : sites) text.append(" site:").append(site);
+        return text.toString();
+    }
+
+
+    /**
+     * <H1>Recursive descent parser of the query syntax</H1>
+     * <pre>
+     *     sequence    := item*                      (implicit AND)
+     *     item        := '-' operand | disjunction
+     *     disjunction := operand ('OR' operand)*
+     *     operand     := word | '"' words '"' ['~' distance] | '(' sequence ')' | 'site:' host
+     * </pre>
+     * The sites don't add nodes to the tree, they restrict the whole query.
+     */
+    private static class Parser {
+        private static final int END = 0;
+        private static final int WORD = 1;
+        private static final int QUOTED = 2;
+        private static final int OPEN = 3;
+        private static final int CLOSE = 4;
+        private static final int MINUS = 5;
+        private static final int OR_KEYWORD = 6;
+        private static final int SITE = 7;
+        private static final String SITE_PREFIX = "site:";
+
+        private final String query;
+        private int position = 0;
+        private int tokenType;
+        private String tokenText;
+        private int tokenDistance;
+
+        private byte[] operators = new byte[16];
+        private int[] operands = new int[16];
+        private int[] distances = new int[16];
+        private int nodesNum = 0;
+        private final ArrayList<String> terms = new ArrayList<>();
+        private final ArrayList<String> sites = new ArrayList<>();
+
+
+        private Parser(String query){
+            this.query = query;
+            nextToken();
+        }
+
+
+        private Query parse(){
+            int items = parseSequence();
+            if(tokenType != END) throw new IllegalArgumentException("Unexpected \")\" at position " + position + ".");
+            if(items == 0) throw new IllegalArgumentException("Query has no words to search.");
+            return new Query(Arrays.copyOf(operators, nodesNum), Arrays.copyOf(operands, nodesNum), Arrays.copyOf(distances, nodesNum), terms.toArray(new String[0]), sites.toArray(new String[0]));
+        }
+
+
+        /**
+         * Parse the items until the end of the query or of the group, adding an AND node when there's more than one.
+         *
+         * @return the number of nodes added to the top of the tree (0 or 1)
+         */
+        private int parseSequence(){
+            int items = 0;
+            boolean hasIncludedItem = false;
+            while(tokenType != END && tokenType != CLOSE){
+                if(tokenType == MINUS){
+                    nextToken();
+                    if(tokenType == SITE) throw new IllegalArgumentException("Sites can't be excluded.");
+                    if(parseOperand() == 0) continue;
+                    addNode(NOT, 1);
+                    if(tokenType == OR_KEYWORD) throw new IllegalArgumentException("Excluded words can't be part of an OR.");
+                } else {
+                    if(parseDisjunction() == 0) continue;
+                    hasIncludedItem = true;
+                }
+                items++;
+            }
+            if(items > 0 && !hasIncludedItem) throw new IllegalArgumentException("Query needs at least one word that isn't excluded.");
+            if(items > 1) addNode(AND, items);
+            return Math.min(items, 1);
+        }
+
+
+        private int parseDisjunction(){
+            int operands = parseOperand();
+            while(tokenType == OR_KEYWORD){
+                nextToken();
+                if(tokenType == MINUS) throw new IllegalArgumentException("Excluded words can't be part of an OR.");
+                operands += parseOperand();
+            }
+            if(operands > 1) addNode(OR, operands);
+            return Math.min(operands, 1);
+        }
+
+
+        /**
+         * Parse a word, a phrase or a group.
+         *
+         * @return the number of nodes added to the top of the tree (0 when it had no words)
+         */
+        private int parseOperand(){
+            switch(tokenType){
+                case WORD:
+                case QUOTED: {
+                    String[] words = normalize(tokenText);
+                    int distance = tokenType == QUOTED ? tokenDistance : 0;
+                    nextToken();
+                    for(String word : words){
+                        addNode(TERM, terms.size());
+                        terms.add(word);
+                    }
+                    if(words.length > 1 && distance > 0){
+                        addNode(NEAR, words.length);
+                        distances[nodesNum - 1] = distance;
+                    } else if(words.length > 1) addNode(PHRASE, words.length);
+                    return Math.min(words.length, 1);
+                }
+                case OPEN: {
+                    nextToken();
+                    int items = parseSequence();
+                    if(tokenType != CLOSE) throw new IllegalArgumentException("Missing \")\".");
+                    nextToken();
+                    return items;
+                }
+                case SITE: {
+                    String site = tokenText.toLowerCase(Locale.ROOT);
+                    if(site.startsWith(".") || site.endsWith(".")) throw new IllegalArgumentException("Invalid site \"" + tokenText + "\".");
+                    if(!sites.contains(site)) sites.add(site);
+                    nextToken();
+                    return 0;
+                }
+                case OR_KEYWORD:
+                    throw new IllegalArgumentException("OR needs a word on each side.");
+                default:
+                    throw new IllegalArgumentException("Expected a word at position " + position + ".");
+            }
+        }
+
+
+        private void addNode(byte operator, int operand){
+            if(nodesNum == operators.length){
+                operators = Arrays.copyOf(operators, nodesNum * 2);
+                operands = Arrays.copyOf(operands, nodesNum * 2);
+                distances = Arrays.copyOf(distances, nodesNum * 2);
+            }
+            operators[nodesNum] = operator;
+            operands[nodesNum++] = operand;
+        }
+
+
+        private void nextToken(){
+            while(position < query.length() && Character.isWhitespace(query.charAt(position))) position++;
+            if(position == query.length()){
+                tokenType = END;
+                return;
+            }
+
+            char c = query.charAt(position);
+            if(c == '(' || c == ')'){
+                tokenType = c == '(' ? OPEN : CLOSE;
+                position++;
+            } else if(c == '"'){
+                int end = query.indexOf('"', position + 1);
+                if(end < 0) end = query.length(); // unterminated phrase, until the end
+                tokenType = QUOTED;
+                tokenText = query.substring(position + 1, end);
+                position = Math.min(end + 1, query.length());
+                tokenDistance = 0;
+                if(position < query.length() && query.charAt(position) == '~'){ // proximity, "word1 word2"~distance
+                    int start = ++position;
+                    while(position < query.length() && Character.isDigit(query.charAt(position))) position++;
+                    try {
+                        tokenDistance = Integer.parseInt(query.substring(start, position));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid distance at position " + start + ".");
+                    }
+                    if(tokenDistance < 1) throw new IllegalArgumentException("The distance must be at least 1.");
+                }
+            } else if(c == '-' && position + 1 < query.length() && !Character.isWhitespace(query.charAt(position + 1)) && query.charAt(position + 1) != ')'){
+                tokenType = MINUS;
+                position++;
+            } else {
+                int start = position;
+                while(position < query.length() && isWordCharacter(query.charAt(position))) position++;
+                if(position == start) position++; // lone '-'
+                tokenText = query.substring(start, position);
+                tokenType = tokenText.equals("OR") ? OR_KEYWORD : WORD;
+                if(tokenText.length() > SITE_PREFIX.length() && tokenText.regionMatches(true, 0, SITE_PREFIX, 0, SITE_PREFIX.length())){
+                    tokenType = SITE;
+                    tokenText = tokenText.substring(SITE_PREFIX.length());
+                }
+            }
+        }
+
+
+        private static boolean isWordCharacter(char c){
+            return !Character.isWhitespace(c) && c != '(' && c != ')' && c != '"';
+        }
+
+
+        /**
+         * Split a word or phrase into the words indexed by the Downloaders.
+         *
+         * @param text the text
+         * @return the words (empty if the text only has punctuation)
+         */
+        private static String[] normalize(String text){
+            String normalized = text.toLowerCase(Locale.ROOT).replaceAll("\\p{Punct}", " ").trim();
+            return normalized.isEmpty() ? new String[0] : normalized.split("\\s+");
+        }
+    }
+}
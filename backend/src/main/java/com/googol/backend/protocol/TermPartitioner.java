@@ -0,0 +1,26 @@
+package com.googol.backend.protocol;
+
+/**
+ * Maps terms to index partitions.
+ * <p>
+ * When the index is sharded, each barrel only keeps the postings of the partitions it owns, and the gateway
+ * uses the same mapping to know which barrels must be asked for each term of a search.
+ * The mapping relies on {@link String#hashCode()}, which is specified by the language, so it's the same in every JVM.
+ */
+public class TermPartitioner {
+    private TermPartitioner(){}
+
+
+    /**
+     * Get the partition of a term.
+     *
+     * @param term           the term
+     * @param partitionsNum  total number of partitions
+     * @return the partition, between 0 and partitionsNum - 1
+     */
+    public static int partitionOf(String term, int partitionsNum){
+        if(term == null) throw new NullPointerException("Term cannot be null.");
+        if(partitionsNum <= 1) return 0;
+        return Math.floorMod(term.hashCode(), partitionsNum);
+    }
+}
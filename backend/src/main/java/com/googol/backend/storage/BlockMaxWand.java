@@ -0,0 +1,91 @@
+package com.googol.backend.storage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <H1>Ranked OR of words with Block-Max WAND</H1>
+ * <p>
+ * A page matches if it has any of the words, and its score is the sum of the BM25 scores of the words it has plus
+ * its inlinks score. Instead of scoring the union of the postings, only the pages that can still enter the top-k are
+ * scored:
+ * <ul>
+ *     <li>the cursors of the words are kept sorted by their current page, and the pivot is the first one where the
+ *     sum of the highest scores of the words so far (plus the highest inlinks score) reaches the threshold of the
+ *     collector, so no page before the pivot page can enter it;</li>
+ *     <li>the bound of the pivot page is then refined with the blocks of the words up to the pivot (see
+ *     {@link PostingBlocks.Cursor#shallowAdvance}) and the inlinks of their range, without decoding them. If it can't
+ *     reach the threshold, the cursors jump past the end of the shortest of those blocks;</li>
+ *     <li>otherwise the page is scored once every cursor before the pivot reaches it.</li>
+ * </ul>
+ * As the collector fills, its threshold rises and most blocks of the common words are skipped without being read.
+ */
+public class BlockMaxWand {
+    private static final Comparator<PostingBlocks.Cursor> BY_DOC_ID = Comparator.comparingLong(PostingBlocks.Cursor::docId);
+
+
+    private BlockMaxWand(){}
+
+
+    /**
+     * Offer the best pages with any of the words to a collector.
+     *
+     * @param cursors       the cursors of the words, not started
+     * @param topK          the collector
+     * @param scorer        the scorer
+     * @param documentStats the statistics of the documents
+     * @return the number of pages scored
+     */
+    public static int collectTopK(PostingBlocks.Cursor[] cursors, TopKCollector topK, Bm25Scorer scorer, DocumentStats documentStats){
+        double maxInlinkScore = scorer.inlinkScore(documentStats.getMaxInlinks(0, Long.MAX_VALUE));
+        PostingBlocks.Cursor[] sorted = cursors.clone();
+        for(PostingBlocks.Cursor cursor : sorted) cursor.nextDoc();
+
+        int scored = 0;
+        while(true){
+            Arrays.sort(sorted, BY_DOC_ID);
+            double threshold = topK.threshold();
+
+            // find the pivot, the first cursor where the bound of the words so far reaches the threshold
+            double bound = maxInlinkScore;
+            int pivot = -1;
+            for(int i = 0; i < sorted.length && sorted[i].docId() != PostingIterator.NO_MORE_DOCS; i++){
+                bound += sorted[i].maxScore();
+                if(bound >= threshold){
+                    pivot = i;
+                    break;
+                }
+            }
+            if(pivot < 0) return scored; // no page left can enter the collector
+            long pivotDocId = sorted[pivot].docId();
+            while(pivot + 1 < sorted.length && sorted[pivot + 1].docId() == pivotDocId) pivot++;
+
+            // refine the bound with the blocks of the words up to the pivot
+            double blockBound = 0;
+            long blockEnd = PostingIterator.NO_MORE_DOCS - 1;
+            for(int i = 0; i <= pivot; i++){
+                blockBound += sorted[i].shallowAdvance(pivotDocId);
+                blockEnd = Math.min(blockEnd, sorted[i].getShallowEnd());
+            }
+            if(blockBound + scorer.inlinkScore(documentStats.getMaxInlinks(pivotDocId, blockEnd)) < threshold){
+                long next = blockEnd + 1;
+                if(pivot + 1 < sorted.length) next = Math.min(next, sorted[pivot + 1].docId());
+                for(int i = 0; i <= pivot; i++){
+                    if(sorted[i].docId() < next) sorted[i].advance(next);
+                }
+                continue;
+            }
+
+            if(sorted[0].docId() != pivotDocId){ // bring the cursors before the pivot to its page
+                for(int i = 0; i < pivot && sorted[i].docId() < pivotDocId; i++) sorted[i].advance(pivotDocId);
+                continue;
+            }
+
+            double score = scorer.inlinkScore(documentStats.getInlinks(pivotDocId));
+            for(int i = 0; i <= pivot; i++) score += sorted[i].score();
+            topK.offer(pivotDocId, score);
+            scored++;
+            for(int i = 0; i <= pivot; i++) sorted[i].nextDoc();
+        }
+    }
+}
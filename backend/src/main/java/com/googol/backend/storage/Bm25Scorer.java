@@ -0,0 +1,89 @@
+package com.googol.backend.storage;
+
+/**
+ * Okapi BM25 scoring, blended with the popularity of the page (number of urls that link to it).
+ * <p>
+ * score(d) = sum over the terms t of idf(t) * tf * (k1 + 1) / (tf + k1 * (1 - b + b * |d| / avgdl)) + w * ln(1 + inlinks(d))
+ * <p>
+ * All the methods work on primitives only, so they can be called from the inner loop of the ranking.
+ */
+public class Bm25Scorer {
+    /**
+     * Term frequency saturation
+     */
+    private final double k1;
+    /**
+     * Document length normalization (0 - none, 1 - full)
+     */
+    private final double b;
+    /**
+     * Weight of the inlinks score
+     */
+    private final double inlinkWeight;
+
+
+    /**
+     * Instantiates a new Bm25 scorer.
+     *
+     * @param k1           the term frequency saturation
+     * @param b            the document length normalization
+     * @param inlinkWeight the weight of the inlinks score
+     */
+    public Bm25Scorer(double k1, double b, double inlinkWeight){
+        this.k1 = k1;
+        this.b = b;
+        this.inlinkWeight = inlinkWeight;
+    }
+
+
+    /**
+     * Compute the inverse document frequency of a term.
+     *
+     * @param documentFrequency number of documents with the term
+     * @param documentsNum      number of documents in the index
+     * @return the idf (always positive)
+     */
+    public double idf(int documentFrequency, int documentsNum){
+        documentsNum = Math.max(documentsNum, documentFrequency); // documents indexed without length are still documents
+        return Math.log(1 + (documentsNum - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+
+    /**
+     * Compute the score of a term in a document.
+     *
+     * @param frequency      number of occurrences of the term in the document
+     * @param documentLength number of words of the document (0 if unknown, scored as an average document)
+     * @param averageLength  average number of words of the documents
+     * @param idf            the idf of the term
+     * @return the score
+     */
+    public double termScore(int frequency, int documentLength, double averageLength, double idf){
+        double lengthRatio = documentLength <= 0 || averageLength <= 0 ? 1 : documentLength / averageLength;
+        return idf * frequency * (k1 + 1) / (frequency + k1 * (1 - b + b * lengthRatio));
+    }
+
+
+    /**
+     * Compute an upper bound of the score of a term in any document, however short.
+     *
+     * @param frequency number of occurrences of the term in the document
+     * @param idf       the idf of the term
+     * @return the highest score the frequency can get
+     */
+    public double maxTermScore(int frequency, double idf){
+        if(frequency <= 0) return 0;
+        return idf * frequency * (k1 + 1) / (frequency + k1 * (1 - b));
+    }
+
+
+    /**
+     * Compute the popularity score of a document.
+     *
+     * @param inlinks number of urls that link to the document
+     * @return the score
+     */
+    public double inlinkScore(int inlinks){
+        return inlinkWeight * Math.log1p(inlinks);
+    }
+}
@@ -0,0 +1,225 @@
+package com.googol.backend.storage;
+
+import java.util.Arrays;
+
+/**
+ * Per document statistics used to rank the results: the length (number of words) of each page and the number
+ * of urls that link to it. Also keeps the current version of each page, used to skip the postings of older crawls.
+ * <p>
+ * The values are kept in primitive arrays indexed by the url id (ids are assigned sequentially by the gateway),
+ * so the ranking reads them without boxing, hashing or locking. Writers synchronize among themselves and
+ * publish grown arrays through volatile fields.
+ * <p>
+ * The highest number of inlinks of each range of ids is kept too, at two granularities, so a search can bound the
+ * inlinks score of a block of postings without reading the inlinks of each of its documents.
+ */
+public class DocumentStats {
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Largest id that fits in the arrays
+     */
+    private static final long MAX_ID = Integer.MAX_VALUE - 8;
+    /**
+     * Ids of each range of the inlinks maxima (as a shift), and number of ranges of each coarse range
+     */
+    private static final int RANGE_SHIFT = 6;
+    private static final int COARSE_RANGE_SHIFT = 6;
+
+    /**
+     * Length of each document (0 if unknown)
+     */
+    private volatile int[] lengths = new int[INITIAL_CAPACITY];
+    /**
+     * Number of father urls of each document
+     */
+    private volatile int[] inlinks = new int[INITIAL_CAPACITY];
+    /**
+     * Highest number of father urls ever set in each range of ids, and in each coarse range (only grow)
+     */
+    private volatile int[] inlinkMaxima = new int[INITIAL_CAPACITY >> RANGE_SHIFT];
+    private volatile int[] coarseInlinkMaxima = new int[1];
+    /**
+     * Current version of each document (incremented on every recrawl)
+     */
+    private volatile int[] versions = new int[INITIAL_CAPACITY];
+    /**
+     * Sum of the lengths of all the documents with a known length
+     */
+    private long totalLength = 0;
+    /**
+     * Number of documents with a known length
+     */
+    private volatile int documentsNum = 0;
+    /**
+     * Average length of the documents with a known length
+     */
+    private volatile double averageLength = 0;
+
+
+    /**
+     * Set the length of a document, replacing the previous one.
+     *
+     * @param id     the document id
+     * @param length the number of words of the document
+     */
+    public synchronized void setLength(long id, int length){
+        if(id < 0 || id > MAX_ID || length < 0) return;
+        int index = (int) id;
+        if(index >= lengths.length) lengths = Arrays.copyOf(lengths, grownCapacity(lengths.length, index));
+
+        int previousLength = lengths[index];
+        if(previousLength > 0){
+            totalLength -= previousLength;
+            documentsNum--;
+        }
+        if(length > 0){
+            totalLength += length;
+            documentsNum++;
+        }
+        lengths[index] = length;
+        averageLength = documentsNum == 0 ? 0 : (double) totalLength / documentsNum;
+    }
+
+
+    /**
+     * Set the number of father urls of a document.
+     *
+     * @param id    the document id
+     * @param count the number of father urls
+     */
+    public synchronized void setInlinks(long id, int count){
+        if(id < 0 || id > MAX_ID || count < 0) return;
+        int index = (int) id;
+        if(index >= inlinks.length) inlinks = Arrays.copyOf(inlinks, grownCapacity(inlinks.length, index));
+
+        // raise the maxima before the count, so a bound read at the same time is never below it
+        int range = index >> RANGE_SHIFT;
+        int coarseRange = range >> COARSE_RANGE_SHIFT;
+        if(range >= inlinkMaxima.length) inlinkMaxima = Arrays.copyOf(inlinkMaxima, grownCapacity(inlinkMaxima.length, range));
+        if(coarseRange >= coarseInlinkMaxima.length) coarseInlinkMaxima = Arrays.copyOf(coarseInlinkMaxima, grownCapacity(coarseInlinkMaxima.length, coarseRange));
+        if(count > inlinkMaxima[range]) inlinkMaxima[range] = count;
+        if(count > coarseInlinkMaxima[coarseRange]) coarseInlinkMaxima[coarseRange] = count;
+        inlinks[index] = count;
+    }
+
+
+    /**
+     * Set the current version of a document.
+     *
+     * @param id      the document id
+     * @param version the version
+     */
+    public synchronized void setVersion(long id, int version){
+        if(id < 0 || id > MAX_ID || version < 0) return;
+        int index = (int) id;
+        if(index >= versions.length) versions = Arrays.copyOf(versions, grownCapacity(versions.length, index));
+        versions[index] = version;
+    }
+
+
+    /**
+     * Get the length of a document.
+     *
+     * @param id the document id
+     * @return the length, or 0 if unknown
+     */
+    public int getLength(long id){
+        int[] currentLengths = lengths;
+        return id >= 0 && id < currentLengths.length ? currentLengths[(int) id] : 0;
+    }
+
+
+    /**
+     * Get the number of father urls of a document.
+     *
+     * @param id the document id
+     * @return the number of father urls, or 0 if unknown
+     */
+    public int getInlinks(long id){
+        int[] currentInlinks = inlinks;
+        return id >= 0 && id < currentInlinks.length ? currentInlinks[(int) id] : 0;
+    }
+
+
+    /**
+     * Get an upper bound of the number of father urls of the documents of a range of ids.
+     * Reads a maximum for each range of 64 ids at the ends of the range and for each range of 4096 ids in between.
+     *
+     * @param fromId the first id of the range
+     * @param toId   the last id of the range
+     * @return the bound (the highest count ever set in the ranges that overlap the ids), 0 for an empty range
+     */
+    public int getMaxInlinks(long fromId, long toId){
+        if(toId < fromId) return 0;
+        int[] currentMaxima = inlinkMaxima;
+        int[] currentCoarseMaxima = coarseInlinkMaxima;
+        long range = Math.max(fromId, 0) >> RANGE_SHIFT;
+        long lastRange = Math.min(toId >> RANGE_SHIFT, currentMaxima.length - 1);
+        int max = 0;
+        while(range <= lastRange){
+            long coarseRange = range >> COARSE_RANGE_SHIFT;
+            long coarseEnd = (coarseRange + 1) << COARSE_RANGE_SHIFT;
+            if(range == coarseRange << COARSE_RANGE_SHIFT && coarseEnd - 1 <= lastRange && coarseRange < currentCoarseMaxima.length){
+                max = Math.max(max, currentCoarseMaxima[(int) coarseRange]); // the whole coarse range is covered
+                range = coarseEnd;
+            } else {
+                max = Math.max(max, currentMaxima[(int) range]);
+                range++;
+            }
+        }
+        return max;
+    }
+
+
+    /**
+     * Get the current version of a document.
+     *
+     * @param id the document id
+     * @return the version, or 0 if unknown
+     */
+    public int getVersion(long id){
+        int[] currentVersions = versions;
+        return id >= 0 && id < currentVersions.length ? currentVersions[(int) id] : 0;
+    }
+
+
+    /**
+     * Get the number of documents with a known length.
+     *
+     * @return the number of documents
+     */
+    public int getDocumentsNum(){
+        return documentsNum;
+    }
+
+
+    /**
+     * Get the average length of the documents.
+     *
+     * @return the average length, or 0 if no length is known
+     */
+    public double getAverageLength(){
+        return averageLength;
+    }
+
+
+    /**
+     * Remove all the statistics.
+     */
+    public synchronized void clear(){
+        lengths = new int[INITIAL_CAPACITY];
+        inlinks = new int[INITIAL_CAPACITY];
+        inlinkMaxima = new int[INITIAL_CAPACITY >> RANGE_SHIFT];
+        coarseInlinkMaxima = new int[1];
+        versions = new int[INITIAL_CAPACITY];
+        totalLength = 0;
+        documentsNum = 0;
+        averageLength = 0;
+    }
+
+
+    private static int grownCapacity(int capacity, int index){
+        long newCapacity = Math.max((long) capacity * 2, (long) index + 1);
+        return (int) Math.min(newCapacity, MAX_ID + 1);
+    }
+}
@@ -0,0 +1,303 @@
+package com.googol.backend.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <H1>Append only, block compressed store of the pages text</H1>
+ * <pre>
+ *       *********************************************************************************
+ *       *                               FILE STRUCTURE                                  *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *   | block | block | ... | block |                                          |  *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *                                                                               *
+ *       *   block: uncompressedLength: INT | compressedLength: INT | deflated bytes     *
+ *       *   uncompressed block: documents * (id: LONG | length: INT | UTF-8 bytes)     *
+ *       *                                                                               *
+ *       *********************************************************************************
+ * </pre>
+ * <p>
+ * Documents are appended to an in-memory pending block, which is compressed and written at the end of the file
+ * once it reaches the block size (or when the store is flushed). Only the location of each document (block and
+ * offset inside it) stays in the heap, in a primitive array indexed by the document id, so a recrawled page simply
+ * points to its newest copy. Reading a document decompresses its whole block, so the most recently used blocks are
+ * kept in an LRU cache, and the documents of a results page usually cost a handful of block reads.
+ * <p>
+ * The locations are rebuilt by scanning the file when the store is opened. A block that was only partially
+ * written (the barrel stopped while writing it) is discarded.
+ */
+public class DocumentStore implements Closeable {
+    private static final int BLOCK_HEADER_SIZE = Integer.BYTES * 2;
+    private static final int DOCUMENT_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    /**
+     * Bits of a location used by the offset inside the block
+     */
+    private static final int OFFSET_BITS = 24;
+    private static final long MAX_ID = Integer.MAX_VALUE - 8;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int blockSize;
+
+    /**
+     * File offset of each written block
+     */
+    private long[] blockOffsets = new long[64];
+    /**
+     * Number of written blocks (the pending block has this index)
+     */
+    private int blocksNum = 0;
+    /**
+     * Location of each document, (block index << OFFSET_BITS | offset) + 1, or 0 if unknown
+     */
+    private long[] locations = new long[1024];
+    /**
+     * Block being filled, not yet written to the file
+     */
+    private final ByteArrayOutputStream pendingBlock;
+    private final DataOutputStream pendingBlockOutput;
+    private final BlockCache cache;
+
+
+    /**
+     * LRU cache of uncompressed blocks.
+     */
+    private static class BlockCache extends LinkedHashMap<Integer, byte[]> {
+        private final int capacity;
+
+        BlockCache(int capacity){
+            super(16, 0.75f, true); // access order, so the eldest entry is the least recently used
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest){
+            return size() > capacity;
+        }
+    }
+
+
+    /**
+     * Opens (or creates) a document store, rebuilding the locations of the stored documents.
+     *
+     * @param filename    the file of the store
+     * @param blockSize   uncompressed size at which a block is written (must fit in 24 bits)
+     * @param cacheBlocks number of uncompressed blocks kept in the cache
+     * @throws IOException IO Exception if the file couldn't be opened or read
+     */
+    public DocumentStore(String filename, int blockSize, int cacheBlocks) throws IOException {
+        if(blockSize <= 0 || blockSize >= (1 << OFFSET_BITS)) throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        if(cacheBlocks <= 0) throw new IllegalArgumentException("Cache blocks must be greater than 0.");
+        this.blockSize = blockSize;
+        this.pendingBlock = new ByteArrayOutputStream(blockSize + 1024);
+        this.pendingBlockOutput = new DataOutputStream(pendingBlock);
+        this.cache = new BlockCache(cacheBlocks);
+        this.file = new RandomAccessFile(new File(filename), "rw");
+        this.channel = file.getChannel();
+        recover();
+    }
+
+
+    /**
+     * Scan the blocks of the file, rebuilding the locations of the documents and discarding a partially written tail.
+     * @throws IOException IO Exception if the file couldn't be read
+     */
+    private void recover() throws IOException {
+        long position = 0;
+        long fileLength = channel.size();
+        while(position + BLOCK_HEADER_SIZE <= fileLength){
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            channel.read(header, position);
+            header.flip();
+            int uncompressedLength = header.getInt();
+            int compressedLength = header.getInt();
+            if(uncompressedLength < 0 || compressedLength < 0 || position + BLOCK_HEADER_SIZE + compressedLength > fileLength) break;
+
+            byte[] block;
+            try{
+                block = readBlock(position, uncompressedLength, compressedLength);
+            } catch (IOException e){
+                break; // corrupted block, discard it and everything after it
+            }
+            addBlockOffset(position);
+            int offset = 0;
+            while(offset + DOCUMENT_HEADER_SIZE <= block.length){
+                ByteBuffer documentHeader = ByteBuffer.wrap(block, offset, DOCUMENT_HEADER_SIZE);
+                long id = documentHeader.getLong();
+                int length = documentHeader.getInt();
+                setLocation(id, blocksNum - 1, offset);
+                offset += DOCUMENT_HEADER_SIZE + length;
+            }
+            position += BLOCK_HEADER_SIZE + compressedLength;
+        }
+        if(position < fileLength) channel.truncate(position);
+        channel.position(position);
+    }
+
+
+    /**
+     * Store the text of a document, replacing the previous one.
+     *
+     * @param id   the document id
+     * @param text the text
+     * @throws IOException IO Exception if a full block couldn't be written
+     */
+    public synchronized void put(long id, String text) throws IOException {
+        if(id < 0 || id > MAX_ID || text == null) return;
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        int offset = pendingBlock.size();
+        pendingBlockOutput.writeLong(id);
+        pendingBlockOutput.writeInt(bytes.length);
+        pendingBlockOutput.write(bytes);
+        setLocation(id, blocksNum, offset);
+
+        if(pendingBlock.size() >= blockSize) flush();
+    }
+
+
+    /**
+     * Get the text of a document.
+     *
+     * @param id the document id
+     * @return the text, or null if it isn't stored
+     * @throws IOException IO Exception if the block couldn't be read
+     */
+    public String get(long id) throws IOException {
+        byte[] block;
+        int offset;
+        synchronized(this){
+            if(id < 0 || id >= locations.length || locations[(int) id] == 0) return null;
+            long location = locations[(int) id] - 1;
+            int blockIndex = (int) (location >>> OFFSET_BITS);
+            offset = (int) (location & ((1 << OFFSET_BITS) - 1));
+
+            if(blockIndex == blocksNum){ // still in the pending block
+                block = pendingBlock.toByteArray();
+            } else {
+                block = cache.get(blockIndex);
+                if(block == null){
+                    long blockOffset = blockOffsets[blockIndex];
+                    ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+                    channel.read(header, blockOffset);
+                    header.flip();
+                    block = readBlock(blockOffset, header.getInt(), header.getInt());
+                    cache.put(blockIndex, block);
+                }
+            }
+        }
+
+        ByteBuffer documentHeader = ByteBuffer.wrap(block, offset, DOCUMENT_HEADER_SIZE);
+        documentHeader.getLong();
+        int length = documentHeader.getInt();
+        return new String(block, offset + DOCUMENT_HEADER_SIZE, length, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Compress and write the pending block to the file.
+     *
+     * @throws IOException IO Exception if the block couldn't be written
+     */
+    public synchronized void flush() throws IOException {
+        if(pendingBlock.size() == 0) return;
+
+        byte[] block = pendingBlock.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(block);
+        deflater.finish();
+        byte[] compressed = new byte[block.length + 64];
+        int compressedLength = 0;
+        while(!deflater.finished()){
+            if(compressedLength == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        deflater.end();
+
+        long blockOffset = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_SIZE + compressedLength);
+        buffer.putInt(block.length);
+        buffer.putInt(compressedLength);
+        buffer.put(compressed, 0, compressedLength);
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer, blockOffset + buffer.position());
+
+        addBlockOffset(blockOffset);
+        cache.put(blocksNum - 1, block); // recently written documents are likely to be searched
+        pendingBlock.reset();
+    }
+
+
+    /**
+     * Get the number of blocks written to the file.
+     *
+     * @return the blocks number
+     */
+    public synchronized int getBlocksNum(){
+        return blocksNum;
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.force(true);
+        file.close();
+    }
+
+
+    /**
+     * Read and decompress a block.
+     */
+    private byte[] readBlock(long blockOffset, int uncompressedLength, int compressedLength) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+        while(compressed.hasRemaining()){
+            if(channel.read(compressed, blockOffset + BLOCK_HEADER_SIZE + compressed.position()) < 0) throw new IOException("Unexpected end of document store");
+        }
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed.array());
+        byte[] block = new byte[uncompressedLength];
+        try{
+            int length = 0;
+            while(length < uncompressedLength && !inflater.finished()){
+                int inflated = inflater.inflate(block, length, uncompressedLength - length);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if(length != uncompressedLength) throw new IOException("Corrupted document store block");
+        } catch (DataFormatException e){
+            throw new IOException("Corrupted document store block", e);
+        } finally {
+            inflater.end();
+        }
+        return block;
+    }
+
+
+    private void addBlockOffset(long blockOffset){
+        if(blocksNum == blockOffsets.length) blockOffsets = Arrays.copyOf(blockOffsets, blocksNum * 2);
+        blockOffsets[blocksNum++] = blockOffset;
+    }
+
+
+    private void setLocation(long id, int blockIndex, int offset){
+        if(id < 0 || id > MAX_ID) return;
+        if(id >= locations.length) locations = Arrays.copyOf(locations, (int) Math.min(Math.max((long) locations.length * 2, id + 1), MAX_ID + 1));
+        locations[(int) id] = (((long) blockIndex << OFFSET_BITS) | offset) + 1;
+    }
+}
@@ -0,0 +1,363 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.model.ParsedUrl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * <H1>Binary file of the parsed urls (document table) of a barrel</H1>
+ * <pre>
+ *       *********************************************************************************
+ *       *                               FILE STRUCTURE                                  *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *   | header | chunk | chunk | ... | chunk | chunk index | footer             |  *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *                                                                               *
+ *       *   header: magic: INT | version: INT                                           *
+ *       *   chunk: documents * document                                                 *
+ *       *   document: id + 1 (0 if none): VARINT | url: STRING | title: STRING          *
+ *       *             | description: STRING | text: STRING | length: VARINT            *
+ *       *             | crawl version: VARINT | version: VARINT                         *
+ *       *             | father urls: VARINT | father urls * (ascending id gap: VARINT)  *
+ *       *   STRING: UTF-8 length + 1 (0 if null): VARINT | UTF-8 bytes                  *
+ *       *   chunk index: chunks: INT | chunks * (offset: LONG | length: INT |           *
+ *       *                documents: INT)                                                *
+ *       *   footer: documents: LONG | chunk index offset: LONG | magic: INT             *
+ *       *                                                                               *
+ *       *********************************************************************************
+ * </pre>
+ * <p>
+ * Replaces the Java serialization of the three document maps: every url is stored once, with plain varints instead
+ * of object graphs, and no class has to be resolved to read it. The maps are rebuilt from the documents, as the url
+ * id pairs are derived from the parsed urls.
+ * <p>
+ * The file is written in a single sequential, buffered pass, to a temporary file that only replaces the previous
+ * table once completely written and synced. The documents are grouped in chunks, listed at the end of the file,
+ * so they can be decoded by several threads at once when the table is loaded.
+ */
+public class DocumentTable {
+    private static final int MAGIC = 0x47444F43; // "GDOC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int FOOTER_SIZE = Long.BYTES * 2 + Integer.BYTES;
+    /**
+     * Number of documents of each chunk
+     */
+    static final int CHUNK_DOCUMENTS = 4096;
+
+    private DocumentTable(){}
+
+
+    /**
+     * Write the documents to the table file, replacing the previous one.
+     *
+     * @param file      the table file
+     * @param documents the documents (can be modified meanwhile, each one is written as it's read)
+     * @return the number of documents written
+     * @throws IOException IO Exception if the table couldn't be written
+     */
+    public static long write(File file, Iterable<ParsedUrl> documents) throws IOException {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        ArrayList<long[]> chunks = new ArrayList<>(); // offset, length and documents of each chunk
+        long documentsNum = 0;
+        try(FileOutputStream fileOutput = new FileOutputStream(temporaryFile);
+            BufferedOutputStream output = new BufferedOutputStream(fileOutput, 1 << 16)){
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(1 << 16);
+            writeInt(output, MAGIC);
+            writeInt(output, VERSION);
+            long position = HEADER_SIZE;
+
+            int chunkDocuments = 0;
+            for(ParsedUrl document : documents){
+                writeDocument(chunk, document);
+                documentsNum++;
+                if(++chunkDocuments < CHUNK_DOCUMENTS) continue;
+                chunks.add(new long[]{position, chunk.size(), chunkDocuments});
+                position += chunk.size();
+                chunk.writeTo(output);
+                chunk.reset();
+                chunkDocuments = 0;
+            }
+            if(chunkDocuments > 0){
+                chunks.add(new long[]{position, chunk.size(), chunkDocuments});
+                position += chunk.size();
+                chunk.writeTo(output);
+            }
+
+            writeInt(output, chunks.size());
+            for(long[] chunkEntry : chunks){
+                writeLong(output, chunkEntry[0]);
+                writeInt(output, (int) chunkEntry[1]);
+                writeInt(output, (int) chunkEntry[2]);
+            }
+            writeLong(output, documentsNum);
+            writeLong(output, position);
+            writeInt(output, MAGIC);
+            output.flush();
+            fileOutput.getFD().sync();
+        } catch (IOException | RuntimeException e){
+            temporaryFile.delete();
+            throw e;
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return documentsNum;
+    }
+
+
+    /**
+     * Encode a document.
+     *
+     * @param output   the chunk
+     * @param document the document
+     */
+    private static void writeDocument(ByteArrayOutputStream output, ParsedUrl document){
+        writeVarLong(output, document.id == null ? 0 : document.id + 1);
+        writeString(output, document.url);
+        writeString(output, document.title);
+        writeString(output, document.description);
+        writeString(output, document.text);
+        writeVarLong(output, document.documentLength);
+        writeVarLong(output, document.crawlVersion);
+        writeVarLong(output, document.version);
+
+        ArrayList<Long> fatherUrls = document.getFatherUrls();
+        Collections.sort(fatherUrls);
+        writeVarLong(output, fatherUrls.size());
+        long previous = 0;
+        for(long fatherUrl : fatherUrls){
+            writeVarLong(output, fatherUrl - previous);
+            previous = fatherUrl;
+        }
+    }
+
+
+    /**
+     * <H1>Reader of a document table</H1>
+     * Loads the chunk index when opened, the documents are only decoded by {@link #forEach(int, Consumer)}.
+     */
+    public static class Reader implements AutoCloseable {
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+        private final long documentsNum;
+        private final long[] chunkOffsets;
+        private final int[] chunkLengths;
+
+
+        /**
+         * Opens a document table.
+         *
+         * @param file the table file
+         * @throws IOException IO Exception if the file couldn't be read or isn't a valid table
+         */
+        public Reader(File file) throws IOException {
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "r");
+            this.channel = randomAccessFile.getChannel();
+            try{
+                long fileLength = channel.size();
+                if(fileLength < HEADER_SIZE + Integer.BYTES + FOOTER_SIZE) throw new IOException("Document table too small: " + file);
+                ByteBuffer header = read(0, HEADER_SIZE);
+                if(header.getInt() != MAGIC) throw new IOException("Not a document table: " + file);
+                int version = header.getInt();
+                if(version != VERSION) throw new IOException("Unsupported document table version " + version + ": " + file);
+
+                ByteBuffer footer = read(fileLength - FOOTER_SIZE, FOOTER_SIZE);
+                documentsNum = footer.getLong();
+                long chunkIndexOffset = footer.getLong();
+                if(footer.getInt() != MAGIC || chunkIndexOffset < HEADER_SIZE || chunkIndexOffset > fileLength - FOOTER_SIZE - Integer.BYTES) throw new IOException("Corrupted document table footer: " + file);
+
+                ByteBuffer chunkIndex = read(chunkIndexOffset, (int) (fileLength - FOOTER_SIZE - chunkIndexOffset));
+                int chunksNum = chunkIndex.getInt();
+                if(chunksNum < 0) throw new IOException("Corrupted document table index: " + file);
+                chunkOffsets = new long[chunksNum];
+                chunkLengths = new int[chunksNum];
+                for(int i = 0; i < chunksNum; i++){
+                    chunkOffsets[i] = chunkIndex.getLong();
+                    chunkLengths[i] = chunkIndex.getInt();
+                    chunkIndex.getInt(); // documents of the chunk
+                    if(chunkOffsets[i] < HEADER_SIZE || chunkOffsets[i] + chunkLengths[i] > chunkIndexOffset) throw new IOException("Corrupted document table index: " + file);
+                }
+            } catch (RuntimeException e){ // buffer underflows of a truncated index
+                channel.close();
+                throw new IOException("Corrupted document table: " + file, e);
+            } catch (IOException e){
+                channel.close();
+                throw e;
+            }
+        }
+
+
+        /**
+         * Get the number of documents.
+         *
+         * @return the number of documents
+         */
+        public long getDocumentsNum(){
+            return documentsNum;
+        }
+
+
+        /**
+         * Decode every document, the chunks in parallel.
+         *
+         * @param threads  number of threads decoding chunks
+         * @param consumer receives each document, called concurrently by the decoding threads
+         * @throws IOException IO Exception if a chunk couldn't be read or is corrupted
+         */
+        public void forEach(int threads, Consumer<ParsedUrl> consumer) throws IOException {
+            if(threads <= 1 || chunkOffsets.length <= 1){
+                for(int i = 0; i < chunkOffsets.length; i++) decodeChunk(i, consumer);
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, chunkOffsets.length));
+            try{
+                ArrayList<Future<Void>> futures = new ArrayList<>();
+                for(int i = 0; i < chunkOffsets.length; i++){
+                    int chunk = i;
+                    futures.add(executor.submit(() -> {
+                        decodeChunk(chunk, consumer);
+                        return null;
+                    }));
+                }
+                for(Future<Void> future : futures) future.get();
+            } catch (ExecutionException e){
+                if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException("Error decoding the document table " + file, e.getCause());
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decoding the document table " + file, e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+
+        /**
+         * Decode the documents of a chunk.
+         *
+         * @param chunk    the chunk
+         * @param consumer receives each document
+         * @throws IOException IO Exception if the chunk couldn't be read or is corrupted
+         */
+        private void decodeChunk(int chunk, Consumer<ParsedUrl> consumer) throws IOException {
+            ByteBuffer buffer = read(chunkOffsets[chunk], chunkLengths[chunk]); // positional reads, safe to run concurrently
+            try{
+                while(buffer.hasRemaining()){
+                    long id = readVarLong(buffer) - 1;
+                    ParsedUrl document = new ParsedUrl(readString(buffer), id < 0 ? null : id, readString(buffer), readString(buffer), readString(buffer));
+                    document.documentLength = (int) readVarLong(buffer);
+                    document.crawlVersion = readVarLong(buffer);
+                    document.version = (int) readVarLong(buffer);
+                    long fatherUrlsNum = readVarLong(buffer);
+                    long fatherUrl = 0;
+                    for(long i = 0; i < fatherUrlsNum; i++){
+                        fatherUrl += readVarLong(buffer);
+                        document.addFatherUrl(fatherUrl);
+                    }
+                    consumer.accept(document);
+                }
+            } catch (RuntimeException e){
+                throw new IOException("Corrupted chunk " + chunk + " in document table " + file, e);
+            }
+        }
+
+
+        /**
+         * Read a range of the file.
+         *
+         * @param position the position
+         * @param length   the length
+         * @return the buffer, ready to be read
+         * @throws IOException IO Exception if the range couldn't be read
+         */
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of document table: " + file);
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+
+    private static void writeString(ByteArrayOutputStream output, String value){
+        if(value == null){
+            writeVarLong(output, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(output, bytes.length + 1L);
+        output.write(bytes, 0, bytes.length);
+    }
+
+
+    private static String readString(ByteBuffer buffer){
+        int length = (int) readVarLong(buffer) - 1;
+        if(length < 0) return null;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+
+    private static void writeVarLong(ByteArrayOutputStream output, long value){
+        while((value & ~0x7FL) != 0){
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+
+    private static long readVarLong(ByteBuffer buffer){
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint.");
+    }
+
+
+    private static void writeInt(OutputStream output, int value) throws IOException {
+        output.write(value >>> 24);
+        output.write(value >>> 16);
+        output.write(value >>> 8);
+        output.write(value);
+    }
+
+
+    private static void writeLong(OutputStream output, long value) throws IOException {
+        writeInt(output, (int) (value >>> 32));
+        writeInt(output, (int) value);
+    }
+}
@@ -0,0 +1,129 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.Postings;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+
+/**
+ * Postings of the title and description of the pages, kept next to the postings of their body.
+ * <p>
+ * The words of each field are indexed as their own terms, the word prefixed by a control character of the field
+ * (the Downloaders strip those from the words, so they never clash with a body word). A field term only records
+ * which pages have the word in that field: frequency 1 and no positions, which the segments encode as a list of
+ * id gaps, a byte or two per page.
+ * <p>
+ * At query time the postings of the three fields of a word are merged into a single list, scored like BM25F: the
+ * frequency of the word in each page is its body frequency plus the boost of each field the word is in, so a word
+ * of the title counts as the configured number of occurrences of the body before the frequency saturates. Pages
+ * with the word only in the title or description match too, without positions (phrases only match the body).
+ */
+public class FieldPostings {
+    /**
+     * Prefix of the title terms
+     */
+    public static final char TITLE = '\u0001';
+    /**
+     * Prefix of the description terms
+     */
+    public static final char DESCRIPTION = '\u0002';
+
+
+    private FieldPostings(){}
+
+
+    /**
+     * Get the term of a word in a field.
+     *
+     * @param field the field prefix
+     * @param word  the word
+     * @return the field term
+     */
+    public static String term(char field, String word){
+        return field + word;
+    }
+
+
+    /**
+     * Split the text of a field in its unique words, normalized the same way the Downloaders normalize the body.
+     *
+     * @param text the text (can be null)
+     * @return the words, in order of first appearance
+     */
+    public static String[] words(String text){
+        if(text == null) return new String[0];
+        String normalized = text.toLowerCase(Locale.ROOT).replaceAll("\\p{Punct}", " ").trim();
+        if(normalized.isEmpty()) return new String[0];
+        return new LinkedHashSet<>(Arrays.asList(normalized.split("\\s+"))).toArray(new String[0]);
+    }
+
+
+    /**
+     * Merge the postings of the fields of a word, adding the boost of the fields to the frequency of each page.
+     *
+     * @param body             the postings of the body (or null)
+     * @param title            the postings of the title (or null)
+     * @param titleBoost       the boost of the title
+     * @param description      the postings of the description (or null)
+     * @param descriptionBoost the boost of the description
+     * @return the merged postings, with the body positions (null if no field has the word)
+     */
+    public static Postings boost(Postings body, Postings title, int titleBoost, Postings description, int descriptionBoost){
+        if(isEmpty(title) && isEmpty(description)) return body;
+
+        int capacity = size(body) + size(title) + size(description);
+        long[] linkIndices = new long[capacity];
+        int[] frequencies = new int[capacity];
+        byte[][] positions = body == null || body.positions == null ? null : new byte[capacity][];
+        boolean hasVersions = body != null && body.versions != null || title != null && title.versions != null || description != null && description.versions != null;
+        int[] versions = hasVersions ? new int[capacity] : null;
+
+        int b = 0, t = 0, d = 0, size = 0;
+        while(true){
+            long next = Long.MAX_VALUE;
+            if(b < size(body)) next = body.linkIndices[b];
+            if(t < size(title)) next = Math.min(next, title.linkIndices[t]);
+            if(d < size(description)) next = Math.min(next, description.linkIndices[d]);
+            if(next == Long.MAX_VALUE) break;
+
+            int frequency = 0;
+            int version = 0;
+            if(b < size(body) && body.linkIndices[b] == next){
+                frequency += body.frequencies[b];
+                version = body.getVersion(b);
+                if(positions != null) positions[size] = body.positions[b];
+                b++;
+            }
+            if(t < size(title) && title.linkIndices[t] == next){
+                frequency += titleBoost;
+                version = Math.max(version, title.getVersion(t));
+                t++;
+            }
+            if(d < size(description) && description.linkIndices[d] == next){
+                frequency += descriptionBoost;
+                version = Math.max(version, description.getVersion(d));
+                d++;
+            }
+            linkIndices[size] = next;
+            frequencies[size] = Math.max(frequency, 1);
+            if(versions != null) versions[size] = version;
+            size++;
+        }
+
+        if(size == capacity) return new Postings(linkIndices, frequencies, positions, versions);
+        return new Postings(Arrays.copyOf(linkIndices, size), Arrays.copyOf(frequencies, size),
+                positions == null ? null : Arrays.copyOf(positions, size),
+                versions == null ? null : Arrays.copyOf(versions, size));
+    }
+
+
+    private static boolean isEmpty(Postings postings){
+        return postings == null || postings.size == 0;
+    }
+
+
+    private static int size(Postings postings){
+        return postings == null ? 0 : postings.size;
+    }
+}
@@ -0,0 +1,219 @@
+package com.googol.backend.storage;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Host of each document and documents of each host, used by the site filter of the searches and by the cap of
+ * results per host.
+ * <p>
+ * Each host gets a sequential id the first time one of its pages is indexed. The host of each document is kept in a
+ * primitive array indexed by the url id, read without locking like {@link DocumentStats}. The documents of each host
+ * are kept as a sorted list of ids: the url ids are global, so a bitmap per host would take a bit for every page of
+ * the index, while the list only takes the pages of the host.
+ */
+public class HostIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Largest id that fits in the arrays
+     */
+    private static final long MAX_ID = Integer.MAX_VALUE - 8;
+
+    /**
+     * Id of each host
+     */
+    private final HashMap<String, Integer> hostIds = new HashMap<>();
+    /**
+     * Name of each host id
+     */
+    private final ArrayList<String> hosts = new ArrayList<>();
+    /**
+     * Sorted documents of each host id
+     */
+    private final ArrayList<long[]> documents = new ArrayList<>();
+    /**
+     * Number of documents of each host id
+     */
+    private int[] documentsNum = new int[INITIAL_CAPACITY];
+    /**
+     * Host id of each document, plus one (0 if unknown)
+     */
+    private volatile int[] documentHosts = new int[INITIAL_CAPACITY];
+
+
+    /**
+     * Add a document to the documents of the host of its url.
+     *
+     * @param id  the document id
+     * @param url the document url
+     * @return the host id, or -1 if the url has no host
+     */
+    public synchronized int add(long id, String url){
+        String host = hostOf(url);
+        if(host == null || id < 0 || id > MAX_ID) return -1;
+        int index = (int) id;
+        if(index < documentHosts.length && documentHosts[index] != 0) return documentHosts[index] - 1; // already added
+
+        Integer hostId = hostIds.get(host);
+        if(hostId == null){
+            hostId = hosts.size();
+            hostIds.put(host, hostId);
+            hosts.add(host);
+            documents.add(new long[4]);
+            if(hostId == documentsNum.length) documentsNum = Arrays.copyOf(documentsNum, hostId * 2);
+        }
+
+        // the ids of a host mostly grow, so the insertion is almost always an append
+        long[] hostDocuments = documents.get(hostId);
+        int size = documentsNum[hostId];
+        if(size == hostDocuments.length){
+            hostDocuments = Arrays.copyOf(hostDocuments, size * 2);
+            documents.set(hostId, hostDocuments);
+        }
+        int position = size;
+        while(position > 0 && hostDocuments[position - 1] > id) position--;
+        System.arraycopy(hostDocuments, position, hostDocuments, position + 1, size - position);
+        hostDocuments[position] = id;
+        documentsNum[hostId] = size + 1;
+
+        int[] currentHosts = documentHosts;
+        if(index >= currentHosts.length){
+            currentHosts = Arrays.copyOf(currentHosts, (int) Math.min(Math.max((long) currentHosts.length * 2, (long) index + 1), MAX_ID + 1));
+        }
+        currentHosts[index] = hostId + 1;
+        documentHosts = currentHosts; // publish the grown array
+        return hostId;
+    }
+
+
+    /**
+     * Get the host id of a document.
+     *
+     * @param id the document id
+     * @return the host id, or -1 if unknown
+     */
+    public int getHost(long id){
+        int[] currentHosts = documentHosts;
+        return id >= 0 && id < currentHosts.length ? currentHosts[(int) id] - 1 : -1;
+    }
+
+
+    /**
+     * Get the number of hosts.
+     *
+     * @return the number of hosts
+     */
+    public synchronized int getHostsNum(){
+        return hosts.size();
+    }
+
+
+    /**
+     * Get the documents of the hosts of a site: the host itself and its subdomains (site:example.com matches
+     * example.com, www.example.com and blog.example.com).
+     *
+     * @param sites the sites
+     * @return the sorted ids of the documents
+     */
+    public synchronized long[] getSiteDocuments(String[] sites){
+        ArrayList<Integer> siteHosts = new ArrayList<>();
+        int total = 0;
+        for(int hostId = 0; hostId < hosts.size(); hostId++){
+            if(!matchesAny(hosts.get(hostId), sites)) continue;
+            siteHosts.add(hostId);
+            total += documentsNum[hostId];
+        }
+
+        long[] siteDocuments = new long[total];
+        int size = 0;
+        for(int hostId : siteHosts){
+            System.arraycopy(documents.get(hostId), 0, siteDocuments, size, documentsNum[hostId]);
+            size += documentsNum[hostId];
+        }
+        if(siteHosts.size() > 1) Arrays.sort(siteDocuments);
+        return siteDocuments;
+    }
+
+
+    /**
+     * Remove all the hosts.
+     */
+    public synchronized void clear(){
+        hostIds.clear();
+        hosts.clear();
+        documents.clear();
+        documentsNum = new int[INITIAL_CAPACITY];
+        documentHosts = new int[INITIAL_CAPACITY];
+    }
+
+
+    /**
+     * Get the host of an url, in lower case and without the port.
+     *
+     * @param url the url
+     * @return the host, or null if the url has none
+     */
+    public static String hostOf(String url){
+        if(url == null) return null;
+        try{
+            String host = URI.create(url.trim()).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e){
+            return null;
+        }
+    }
+
+
+    private static boolean matchesAny(String host, String[] sites){
+        for(String site : sites){
+            if(host.equals(site) || host.endsWith("." + site)) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * <H1>Site filter of a search</H1>
+     * Accepts the documents of the sites. The documents must be checked in ascending order, the same order of the
+     * postings, so each check only advances a cursor over the documents of the sites.
+     */
+    public static class SiteFilter {
+        private final long[] documents;
+        private int cursor = 0;
+
+
+        /**
+         * Instantiates a new Site filter.
+         *
+         * @param documents the sorted documents of the sites
+         */
+        public SiteFilter(long[] documents){
+            this.documents = documents;
+        }
+
+
+        /**
+         * Check if a document belongs to the sites.
+         *
+         * @param id the document id, not smaller than the previous one
+         * @return true if the document is accepted
+         */
+        public boolean accepts(long id){
+            while(cursor < documents.length && documents[cursor] < id) cursor++;
+            return cursor < documents.length && documents[cursor] == id;
+        }
+
+
+        /**
+         * Get the number of documents of the sites, an upper bound of the results.
+         *
+         * @return the number of documents
+         */
+        public int size(){
+            return documents.length;
+        }
+    }
+}
@@ -0,0 +1,699 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.Postings;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <H1>Immutable, sorted segment of the inverted index</H1>
+ * <pre>
+ *       *********************************************************************************
+ *       *                               FILE STRUCTURE                                  *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *   | header | postings | postings | ... | postings | dictionary | footer    |  *
+ *       *   x------------------------------------------------------------------------x  *
+ *       *                                                                               *
+ *       *   header: magic: INT | version: INT                                           *
+ *       *   postings: documents: VARINT | documents * (link index gap: VARINT)          *
+ *       *             | documents * (frequency: VARINT)                                 *
+ *       *             | has versions: VARINT | [documents * (version: VARINT)]          *
+ *       *             | documents * (positions length: VARINT | encoded positions)      *
+ *       *             | [blocks]                                                        *
+ *       *   blocks: directory: blocks * (documents: VARINT | max frequency: VARINT      *
+ *       *           | first link index gap: VARLONG | last - first link index: VARLONG  *
+ *       *           | block length: VARINT)                                             *
+ *       *           | blocks * ((documents - 1) * (link index gap: VARINT)              *
+ *       *           | documents * (frequency: VARINT) | has versions: VARINT            *
+ *       *           | [documents * (version: VARINT)])                                  *
+ *       *   dictionary: terms: INT | terms * (length: INT | bytes | postings offset:    *
+ *       *               LONG | postings length: INT | documents: INT | blocks offset:   *
+ *       *               LONG | blocks directory length: INT)                            *
+ *       *   footer: dictionary offset: LONG | magic: INT                                *
+ *       *                                                                               *
+ *       *********************************************************************************
+ * </pre>
+ * <p>
+ * The terms are written in ascending (unsigned) byte order, so a segment can be searched with a binary search over
+ * its dictionary and several segments can be merged by walking their dictionaries at once. Only the dictionary is
+ * kept in the heap; the postings of a term are read from the file when it's searched.
+ * <p>
+ * The postings of the terms with many documents are also written in blocks of {@link PostingBlocks#BLOCK_SIZE}
+ * documents (without positions), each one described in a directory by its range of link indices and its highest
+ * frequency. A search that only needs the best documents of a term reads the directory and decodes only the blocks
+ * that can still hold one of them (see {@link PostingBlocks}).
+ * <p>
+ * A segment is never modified after being written. Segments replaced by a merge are retired, and their file is
+ * deleted once the searches still reading them release it.
+ */
+public class IndexSegment implements Closeable {
+    private static final int MAGIC = 0x47534547; // "GSEG"
+    private static final int VERSION = 3; // version 1 segments have no document versions, version 2 no blocks
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES;
+    /**
+     * Minimum number of documents of a term for its postings to be written in blocks too
+     */
+    public static final int MIN_BLOCKED_DOCUMENTS = PostingBlocks.BLOCK_SIZE * 8;
+
+    private final File file;
+    private final long generation;
+    private final int formatVersion;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    /**
+     * Terms of the segment, sorted ascending
+     */
+    private final byte[][] terms;
+    private final long[] postingsOffsets;
+    private final int[] postingsLengths;
+    private final int[] documentFrequencies;
+    /**
+     * Offset of the blocks of each term, and the length of their directory (0 if the term has no blocks)
+     */
+    private final long[] blocksOffsets;
+    private final int[] blocksLengths;
+    /**
+     * Total number of postings of the segment, used by the merge policy as its size
+     */
+    private final long postingsNum;
+
+    /**
+     * References held by the index (one, until the segment is retired) and by the searches reading it
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean deleteOnRelease = false;
+
+
+    /**
+     * Opens a segment, loading its dictionary.
+     *
+     * @param file       the segment file
+     * @param generation the generation of the segment, higher generations hold newer postings
+     * @throws IOException IO Exception if the file couldn't be read or isn't a valid segment
+     */
+    public IndexSegment(File file, long generation) throws IOException {
+        this.file = file;
+        this.generation = generation;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = randomAccessFile.getChannel();
+        try{
+            long fileLength = channel.size();
+            if(fileLength < Integer.BYTES * 2 + FOOTER_SIZE) throw new IOException("Segment too small: " + file);
+            ByteBuffer header = read(0, Integer.BYTES * 2);
+            if(header.getInt() != MAGIC) throw new IOException("Not a segment: " + file);
+            formatVersion = header.getInt();
+            if(formatVersion < 1 || formatVersion > VERSION) throw new IOException("Unsupported segment version: " + file);
+
+            ByteBuffer footer = read(fileLength - FOOTER_SIZE, FOOTER_SIZE);
+            long dictionaryOffset = footer.getLong();
+            if(footer.getInt() != MAGIC || dictionaryOffset < 0 || dictionaryOffset > fileLength - FOOTER_SIZE) throw new IOException("Corrupted segment footer: " + file);
+
+            ByteBuffer dictionary = read(dictionaryOffset, (int) (fileLength - FOOTER_SIZE - dictionaryOffset));
+            int termsNum = dictionary.getInt();
+            if(termsNum < 0) throw new IOException("Corrupted segment dictionary: " + file);
+            terms = new byte[termsNum][];
+            postingsOffsets = new long[termsNum];
+            postingsLengths = new int[termsNum];
+            documentFrequencies = new int[termsNum];
+            blocksOffsets = new long[termsNum];
+            blocksLengths = new int[termsNum];
+            long totalPostings = 0;
+            for(int i = 0; i < termsNum; i++){
+                terms[i] = new byte[dictionary.getInt()];
+                dictionary.get(terms[i]);
+                postingsOffsets[i] = dictionary.getLong();
+                postingsLengths[i] = dictionary.getInt();
+                documentFrequencies[i] = dictionary.getInt();
+                if(formatVersion >= 3){
+                    blocksOffsets[i] = dictionary.getLong();
+                    blocksLengths[i] = dictionary.getInt();
+                }
+                totalPostings += documentFrequencies[i];
+            }
+            postingsNum = totalPostings;
+        } catch (RuntimeException e){ // buffer underflows of a truncated dictionary
+            channel.close();
+            throw new IOException("Corrupted segment: " + file, e);
+        } catch (IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Read a range of the file.
+     *
+     * @param position the position
+     * @param length   the length
+     * @return the buffer, ready to be read
+     * @throws IOException IO Exception if the range couldn't be read
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of segment: " + file);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+
+    /**
+     * Find a term in the dictionary.
+     *
+     * @param term the term bytes
+     * @return its index, or a negative value if it's not in the segment
+     */
+    public int indexOf(byte[] term){
+        int low = 0;
+        int high = terms.length - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            int comparison = Arrays.compareUnsigned(terms[middle], term);
+            if(comparison < 0) low = middle + 1;
+            else if(comparison > 0) high = middle - 1;
+            else return middle;
+        }
+        return -(low + 1);
+    }
+
+
+    /**
+     * Get the postings of a term.
+     *
+     * @param term the term bytes
+     * @return the postings, or null if the term isn't in the segment
+     * @throws IOException IO Exception if the postings couldn't be read
+     */
+    public Postings getPostings(byte[] term) throws IOException {
+        int index = indexOf(term);
+        return index < 0 ? null : getPostingsAt(index);
+    }
+
+
+    /**
+     * Get the postings of the term at the provided index of the dictionary.
+     *
+     * @param index the index
+     * @return the postings
+     * @throws IOException IO Exception if the postings couldn't be read
+     */
+    public Postings getPostingsAt(int index) throws IOException {
+        ByteBuffer buffer = read(postingsOffsets[index], postingsLengths[index]);
+        try{
+            int documents = readVarint(buffer);
+            long[] linkIndices = new long[documents];
+            int[] frequencies = new int[documents];
+            long previous = 0;
+            for(int i = 0; i < documents; i++){
+                previous += readVarLong(buffer);
+                linkIndices[i] = previous;
+            }
+            for(int i = 0; i < documents; i++) frequencies[i] = readVarint(buffer);
+
+            int[] versions = null;
+            if(formatVersion >= 2 && readVarint(buffer) != 0){
+                versions = new int[documents];
+                for(int i = 0; i < documents; i++) versions[i] = readVarint(buffer);
+            }
+
+            byte[][] positions = null;
+            for(int i = 0; i < documents; i++){
+                int length = readVarint(buffer);
+                if(length == 0) continue;
+                if(positions == null) positions = new byte[documents][];
+                positions[i] = new byte[length];
+                buffer.get(positions[i]);
+            }
+            return new Postings(linkIndices, frequencies, positions, versions);
+        } catch (RuntimeException e){
+            throw new IOException("Corrupted postings in segment " + file, e);
+        }
+    }
+
+
+    /**
+     * Get the number of documents of a term, read from the dictionary.
+     *
+     * @param term the term bytes
+     * @return the document frequency, or 0 if the term isn't in the segment
+     */
+    public int getDocumentFrequency(byte[] term){
+        int index = indexOf(term);
+        return index < 0 ? 0 : documentFrequencies[index];
+    }
+
+
+    /**
+     * Add the blocks of the postings of a term to the blocks of a search. Terms written without blocks (too few
+     * documents, or an older segment) have their whole postings added instead, split in blocks in memory.
+     *
+     * @param term   the term bytes
+     * @param blocks the blocks of the search
+     * @throws IOException IO Exception if the blocks couldn't be read
+     */
+    public void addBlocks(byte[] term, PostingBlocks blocks) throws IOException {
+        int index = indexOf(term);
+        if(index < 0) return;
+        if(blocksLengths[index] == 0){
+            blocks.add(getPostingsAt(index));
+            return;
+        }
+
+        ByteBuffer directory = read(blocksOffsets[index], blocksLengths[index]);
+        try{
+            long blockOffset = blocksOffsets[index] + blocksLengths[index];
+            long previous = 0;
+            while(directory.hasRemaining()){
+                int documents = readVarint(directory);
+                int maxFrequency = readVarint(directory);
+                long firstLinkIndex = previous + readVarLong(directory);
+                long lastLinkIndex = firstLinkIndex + readVarLong(directory);
+                int length = readVarint(directory);
+                blocks.add(this, blockOffset, length, documents, maxFrequency, firstLinkIndex, lastLinkIndex);
+                blockOffset += length;
+                previous = lastLinkIndex;
+            }
+        } catch (RuntimeException e){
+            throw new IOException("Corrupted blocks in segment " + file, e);
+        }
+    }
+
+
+    /**
+     * Read a block of postings, listed by {@link #addBlocks}.
+     *
+     * @param offset         the block offset
+     * @param length         the block length
+     * @param documents      the number of documents of the block
+     * @param firstLinkIndex the first link index of the block
+     * @return the postings of the block, without positions
+     * @throws IOException IO Exception if the block couldn't be read
+     */
+    public Postings readBlock(long offset, int length, int documents, long firstLinkIndex) throws IOException {
+        ByteBuffer buffer = read(offset, length);
+        try{
+            long[] linkIndices = new long[documents];
+            int[] frequencies = new int[documents];
+            linkIndices[0] = firstLinkIndex;
+            for(int i = 1; i < documents; i++) linkIndices[i] = linkIndices[i - 1] + readVarLong(buffer);
+            for(int i = 0; i < documents; i++) frequencies[i] = readVarint(buffer);
+
+            int[] versions = null;
+            if(readVarint(buffer) != 0){
+                versions = new int[documents];
+                for(int i = 0; i < documents; i++) versions[i] = readVarint(buffer);
+            }
+            return new Postings(linkIndices, frequencies, null, versions);
+        } catch (RuntimeException e){
+            throw new IOException("Corrupted block in segment " + file, e);
+        }
+    }
+
+
+    /**
+     * Look up some documents in the postings of a term, decoding only the link indices and the versions.
+     * Used to filter the candidates of a search by a very common term, without building its whole postings.
+     *
+     * @param term        the term bytes
+     * @param linkIndices the documents (ascending)
+     * @param num         the number of documents
+     * @param versions    filled with the version of each document found, -1 for the ones not in the segment
+     * @return the number of documents found
+     * @throws IOException IO Exception if the postings couldn't be read
+     */
+    public int findDocuments(byte[] term, long[] linkIndices, int num, int[] versions) throws IOException {
+        Arrays.fill(versions, 0, num, -1);
+        int index = indexOf(term);
+        if(index < 0 || num == 0) return 0;
+
+        ByteBuffer buffer = read(postingsOffsets[index], postingsLengths[index]);
+        try{
+            int documents = readVarint(buffer);
+            int[] foundPostings = new int[Math.min(num, documents)]; // index in the postings of each document found
+            int[] foundDocuments = new int[foundPostings.length];
+            int found = 0;
+            int cursor = 0;
+            long previous = 0;
+            for(int i = 0; i < documents; i++){
+                previous += readVarLong(buffer);
+                while(cursor < num && linkIndices[cursor] < previous) cursor++;
+                if(cursor == num){
+                    if(found == 0) return 0; // nothing else to find, and no versions to read
+                    continue;
+                }
+                if(linkIndices[cursor] != previous) continue;
+                versions[cursor] = 0;
+                foundPostings[found] = i;
+                foundDocuments[found++] = cursor;
+            }
+            if(found == 0 || formatVersion < 2) return found;
+
+            for(int i = 0; i < documents; i++) readVarLong(buffer); // frequencies
+            if(readVarint(buffer) == 0) return found;
+            for(int i = 0, j = 0; i < documents && j < found; i++){
+                int version = readVarint(buffer);
+                if(foundPostings[j] == i) versions[foundDocuments[j++]] = version;
+            }
+            return found;
+        } catch (RuntimeException e){
+            throw new IOException("Corrupted postings in segment " + file, e);
+        }
+    }
+
+
+    /**
+     * Get the term at the provided index of the dictionary.
+     *
+     * @param index the index
+     * @return the term bytes (must not be modified)
+     */
+    public byte[] getTerm(int index){
+        return terms[index];
+    }
+
+
+    /**
+     * Get the number of terms.
+     *
+     * @return the number of terms
+     */
+    public int getTermsNum(){
+        return terms.length;
+    }
+
+
+    /**
+     * Get the total number of postings.
+     *
+     * @return the number of postings
+     */
+    public long getPostingsNum(){
+        return postingsNum;
+    }
+
+
+    /**
+     * Get the generation.
+     *
+     * @return the generation
+     */
+    public long getGeneration(){
+        return generation;
+    }
+
+
+    /**
+     * Get the file.
+     *
+     * @return the file
+     */
+    public File getFile(){
+        return file;
+    }
+
+
+    /**
+     * Take a reference to the segment, so its file isn't closed while it's being read.
+     *
+     * @return true if taken, false if the segment was already retired and released
+     */
+    public boolean acquire(){
+        while(true){
+            int current = references.get();
+            if(current <= 0) return false;
+            if(references.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+
+    /**
+     * Release a reference taken with {@link #acquire()}.
+     * The last release closes the file, and deletes it if the segment was retired.
+     */
+    public void release(){
+        if(references.decrementAndGet() != 0) return;
+        try{
+            channel.close();
+        } catch (IOException ignored){}
+        if(deleteOnRelease) file.delete();
+    }
+
+
+    /**
+     * Retire the segment after it was replaced by a merge, deleting its file once no search is reading it.
+     */
+    public void retire(){
+        deleteOnRelease = true;
+        release();
+    }
+
+
+    /**
+     * Close the segment, keeping its file (searches still reading it can finish).
+     */
+    @Override
+    public void close(){
+        release();
+    }
+
+
+    /**
+     * Read a varint from the buffer.
+     *
+     * @param buffer the buffer
+     * @return the value
+     */
+    private static int readVarint(ByteBuffer buffer){
+        return (int) readVarLong(buffer);
+    }
+
+
+    /**
+     * Read a variable length long from the buffer.
+     *
+     * @param buffer the buffer
+     * @return the value
+     */
+    private static long readVarLong(ByteBuffer buffer){
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint.");
+    }
+
+
+    /**
+     * <H1>Writer of a new segment</H1>
+     * Terms must be added in ascending (unsigned) byte order. The segment is written to a temporary file, which
+     * only replaces the final one after being completely written and synced, so a crash never leaves a partial segment.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final File temporaryFile;
+        private final FileOutputStream fileOutput;
+        private final DataOutputStream output;
+        private final ByteArrayOutputStream postingsBuffer = new ByteArrayOutputStream(1024);
+        private final ByteArrayOutputStream directoryBuffer = new ByteArrayOutputStream(256);
+        private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream(1024);
+        private long position;
+        private byte[] previousTerm = null;
+
+        private final ArrayList<byte[]> terms = new ArrayList<>();
+        private long[] postingsOffsets = new long[1024];
+        private int[] postingsLengths = new int[1024];
+        private int[] documentFrequencies = new int[1024];
+        private long[] blocksOffsets = new long[1024];
+        private int[] blocksLengths = new int[1024];
+        private boolean finished = false;
+
+
+        /**
+         * Instantiates a new Writer.
+         *
+         * @param file the segment file
+         * @throws IOException IO Exception if the temporary file couldn't be created
+         */
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.temporaryFile = new File(file.getPath() + ".tmp");
+            this.fileOutput = new FileOutputStream(temporaryFile);
+            this.output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 16));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            position = Integer.BYTES * 2;
+        }
+
+
+        /**
+         * Add the postings of a term.
+         *
+         * @param term     the term bytes, greater than the previous one
+         * @param postings the postings (empty postings are skipped)
+         * @throws IOException IO Exception if the postings couldn't be written
+         */
+        public void add(byte[] term, Postings postings) throws IOException {
+            if(postings == null || postings.size == 0) return;
+            if(previousTerm != null && Arrays.compareUnsigned(previousTerm, term) >= 0) throw new IllegalArgumentException("Terms must be added in ascending order.");
+            previousTerm = term;
+
+            postingsBuffer.reset();
+            writeVarLong(postingsBuffer, postings.size);
+            long previous = 0;
+            for(int i = 0; i < postings.size; i++){
+                writeVarLong(postingsBuffer, postings.linkIndices[i] - previous);
+                previous = postings.linkIndices[i];
+            }
+            for(int i = 0; i < postings.size; i++) writeVarLong(postingsBuffer, postings.frequencies[i]);
+            writeVarLong(postingsBuffer, postings.versions == null ? 0 : 1);
+            if(postings.versions != null){
+                for(int i = 0; i < postings.size; i++) writeVarLong(postingsBuffer, postings.versions[i]);
+            }
+            for(int i = 0; i < postings.size; i++){
+                byte[] positions = postings.positions == null ? null : postings.positions[i];
+                writeVarLong(postingsBuffer, positions == null ? 0 : positions.length);
+                if(positions != null) postingsBuffer.write(positions);
+            }
+
+            int index = terms.size();
+            if(index == postingsOffsets.length){
+                postingsOffsets = Arrays.copyOf(postingsOffsets, index * 2);
+                postingsLengths = Arrays.copyOf(postingsLengths, index * 2);
+                documentFrequencies = Arrays.copyOf(documentFrequencies, index * 2);
+                blocksOffsets = Arrays.copyOf(blocksOffsets, index * 2);
+                blocksLengths = Arrays.copyOf(blocksLengths, index * 2);
+            }
+            terms.add(term);
+            postingsOffsets[index] = position;
+            postingsLengths[index] = postingsBuffer.size();
+            documentFrequencies[index] = postings.size;
+
+            postingsBuffer.writeTo(output);
+            position += postingsBuffer.size();
+
+            blocksOffsets[index] = 0;
+            blocksLengths[index] = 0;
+            if(postings.size < MIN_BLOCKED_DOCUMENTS) return;
+            writeBlocks(postings);
+            blocksOffsets[index] = position;
+            blocksLengths[index] = directoryBuffer.size();
+            directoryBuffer.writeTo(output);
+            postingsBuffer.writeTo(output); // the encoded blocks
+            position += directoryBuffer.size() + postingsBuffer.size();
+        }
+
+
+        /**
+         * Encode the postings in blocks: the directory goes to the directory buffer and the blocks, one after the
+         * other, to the postings buffer.
+         *
+         * @param postings the postings
+         * @throws IOException IO Exception if a block couldn't be written to the buffer
+         */
+        private void writeBlocks(Postings postings) throws IOException {
+            directoryBuffer.reset();
+            postingsBuffer.reset();
+            long previous = 0;
+            for(int start = 0; start < postings.size; start += PostingBlocks.BLOCK_SIZE){
+                int end = Math.min(start + PostingBlocks.BLOCK_SIZE, postings.size);
+                blockBuffer.reset();
+                int maxFrequency = 0;
+                for(int i = start + 1; i < end; i++) writeVarLong(blockBuffer, postings.linkIndices[i] - postings.linkIndices[i - 1]);
+                for(int i = start; i < end; i++){
+                    writeVarLong(blockBuffer, postings.frequencies[i]);
+                    maxFrequency = Math.max(maxFrequency, postings.frequencies[i]);
+                }
+                writeVarLong(blockBuffer, postings.versions == null ? 0 : 1);
+                if(postings.versions != null){
+                    for(int i = start; i < end; i++) writeVarLong(blockBuffer, postings.versions[i]);
+                }
+
+                writeVarLong(directoryBuffer, end - start);
+                writeVarLong(directoryBuffer, maxFrequency);
+                writeVarLong(directoryBuffer, postings.linkIndices[start] - previous);
+                writeVarLong(directoryBuffer, postings.linkIndices[end - 1] - postings.linkIndices[start]);
+                writeVarLong(directoryBuffer, blockBuffer.size());
+                blockBuffer.writeTo(postingsBuffer);
+                previous = postings.linkIndices[end - 1];
+            }
+        }
+
+
+        /**
+         * Write the dictionary and the footer, sync the file and move it to its final name.
+         *
+         * @param generation the generation of the segment
+         * @return the written segment, opened
+         * @throws IOException IO Exception if the segment couldn't be written
+         */
+        public IndexSegment finish(long generation) throws IOException {
+            long dictionaryOffset = position;
+            output.writeInt(terms.size());
+            for(int i = 0; i < terms.size(); i++){
+                output.writeInt(terms.get(i).length);
+                output.write(terms.get(i));
+                output.writeLong(postingsOffsets[i]);
+                output.writeInt(postingsLengths[i]);
+                output.writeInt(documentFrequencies[i]);
+                output.writeLong(blocksOffsets[i]);
+                output.writeInt(blocksLengths[i]);
+            }
+            output.writeLong(dictionaryOffset);
+            output.writeInt(MAGIC);
+            output.flush();
+            fileOutput.getFD().sync();
+            output.close();
+            finished = true;
+
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new IndexSegment(file, generation);
+        }
+
+
+        /**
+         * Close the writer, discarding the temporary file if the segment wasn't finished.
+         */
+        @Override
+        public void close(){
+            if(finished) return;
+            try{
+                output.close();
+            } catch (IOException ignored){}
+            temporaryFile.delete();
+        }
+
+
+        /**
+         * Write a variable length long.
+         *
+         * @param output the output
+         * @param value  the value (not negative)
+         */
+        private static void writeVarLong(ByteArrayOutputStream output, long value){
+            while((value & ~0x7FL) != 0){
+                output.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            output.write((int) value);
+        }
+    }
+}
@@ -2,26 +2,31 @@ package com.googol.backend.storage;
 
 import java.io.*;
 import java.net.SocketException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.rmi.ConnectException;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.googol.backend.gateway.GatewayRemote;
-import com.googol.backend.tree.AdaptiveRadixTree;
+import com.googol.backend.tree.Postings;
+import com.googol.backend.tree.TermBatch;
 import com.googol.backend.model.ParsedUrl;
 import com.googol.backend.model.ParsedUrlIdPair;
+import com.googol.backend.protocol.Frame;
+import com.googol.backend.protocol.FrameCodec;
+import com.googol.backend.protocol.Hashing;
+import com.googol.backend.protocol.Query;
+import com.googol.backend.protocol.TermPartitioner;
 
 
 /**
@@ -90,9 +95,26 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
      */
     private static boolean verbosity = false; // default
     /**
-     * Adaptive Radix Tree serving as the inverted index
+     * Inverted index, made of immutable segments and an Adaptive Radix Tree as the write buffer
+     * (null until opened in main)
      */
-    private static final AdaptiveRadixTree art = new AdaptiveRadixTree();
+    private static SegmentedIndex index;
+    /**
+     * Opening of the index, running while the documents are recovered (see {@link #recoverBarrel})
+     */
+    private static CompletableFuture<Void> indexOpening = CompletableFuture.completedFuture(null);
+    /**
+     * Thread pool of the recovery steps that run at once after a (re)start, shut down when the recovery finishes
+     */
+    private static final ExecutorService recoveryExecutor = Executors.newCachedThreadPool();
+    /**
+     * Progress of the recovery, reported to the gateway while the barrel is warming
+     */
+    private static final RecoveryStatus recoveryStatus = new RecoveryStatus();
+    /**
+     * True while the barrel is recovering, registered in the gateway as warming so no searches are routed to it
+     */
+    private static volatile boolean isWarming = true;
     /**
      * UUID
      */
@@ -136,10 +158,228 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
      */
     private static int exportationDelay = 60000; // default 60 seconds
     /**
-     * Parsing delimiter used to parse the data that comes from the multicast.
-     * Will be got from the Gateway using RMI
+     * Delay between checks for missing datagrams (NACKs)
+     * Defaults to 200 if it's not on the properties file or if it's invalid
+     */
+    private static int nackDelay = 200; // default 200 milliseconds
+    /**
+     * Delay between the anti-entropy rounds with another replica, in milliseconds (0 disables them)
+     * Defaults to 600000 if it's not on the properties file or if it's invalid
+     */
+    private static int antiEntropyInterval = 600000; // default 10 minutes
+    /**
+     * Maximum number of documents or terms requested from the other replica at once by an anti-entropy round
+     */
+    private static final int ANTI_ENTROPY_BATCH_SIZE = 1024;
+    /**
+     * Number of the most searched queries run by the barrel after a restart, before it's online (0 disables the warm-up)
+     * Defaults to 50 if it's not on the properties file or if it's invalid
+     */
+    private static int warmUpSearches = 50; // default 50 searches
+    /**
+     * Maximum time of the warm-up after a restart, in milliseconds
+     * Defaults to 30000 if it's not on the properties file or if it's invalid
+     */
+    private static int warmUpDuration = 30000; // default 30 seconds
+    /**
+     * Page size of the searches of the warm-up
+     */
+    private static final int WARM_UP_PAGE_SIZE = 10;
+    /**
+     * Delay between the heartbeats sent to the gateway with the barrel load, in milliseconds
+     * Defaults to 1000 if it's not on the properties file or if it's invalid
+     */
+    private static int heartbeatInterval = 1000; // default 1 second
+    /**
+     * Recent latency of the searches, reported in the heartbeats
+     */
+    private static final RecentLatency searchLatency = new RecentLatency();
+    /**
+     * Maximum number of datagrams received after a missing one before giving up on it
+     * Defaults to 4096 if it's not on the properties file or if it's invalid
+     */
+    private static int reorderWindow = 4096; // default 4096 datagrams
+    /**
+     * Time without datagrams after which a downloader is forgotten by the sequence tracker (in milliseconds)
+     * Defaults to 600000 (10 minutes) if it's not on the properties file or if it's invalid
+     */
+    private static long senderTimeout = 600000; // default 10 minutes
+    /**
+     * Lock of the ingestion, shared by the multicast receiver and the retransmissions receiver
+     */
+    private static final Object ingestLock = new Object();
+    /**
+     * Maximum number of messages taken from the queue at once by each parser thread
+     * Defaults to 64 if it's not on the properties file or if it's invalid
+     */
+    private static int parserBatchSize = 64; // default 64 messages
+    /**
+     * Whether the positions of each word in the pages are stored, enabling the phrase and proximity searches
+     * Defaults to true if it's not on the properties file or if it's invalid
+     */
+    private static boolean positionalIndex = true; // default
+    /**
+     * BM25 term frequency saturation
+     * Defaults to 1.2 if it's not on the properties file or if it's invalid
+     */
+    private static double bm25K1 = 1.2; // default
+    /**
+     * BM25 document length normalization
+     * Defaults to 0.75 if it's not on the properties file or if it's invalid
+     */
+    private static double bm25B = 0.75; // default
+    /**
+     * Weight of the inlinks score blended with the BM25 score
+     * Defaults to 1.0 if it's not on the properties file or if it's invalid
+     */
+    private static double inlinkWeight = 1.0; // default
+    /**
+     * Scorer of the search results, built from the configuration
+     */
+    private static Bm25Scorer scorer = new Bm25Scorer(bm25K1, bm25B, inlinkWeight);
+    /**
+     * Occurrences of the body a word of the title counts as (0 to not search the titles)
+     * Defaults to 3 if it's not on the properties file or if it's invalid
+     */
+    private static int titleBoost = 3; // default
+    /**
+     * Occurrences of the body a word of the description counts as (0 to not search the descriptions)
+     * Defaults to 1 if it's not on the properties file or if it's invalid
+     */
+    private static int descriptionBoost = 1; // default
+    /**
+     * Fraction of the documents above which a search word is applied as a filter instead of being scored
+     * Defaults to 0.9 if it's not on the properties file or if it's invalid
+     */
+    private static double filterWordRatio = 0.9; // default
+    /**
+     * Planner of the searches, built from the configuration
+     */
+    private static QueryPlanner queryPlanner = new QueryPlanner(filterWordRatio);
+    /**
+     * Maximum number of documents held by the snapshots of the searches paged with cursors
+     * Defaults to 1000000 if it's not on the properties file or if it's invalid
+     */
+    private static long searchSnapshotDocuments = 1000000; // default 1000000 documents
+    /**
+     * Time after which the snapshot of a search paged with cursors expires, in milliseconds
+     * Defaults to 300000 if it's not on the properties file or if it's invalid
+     */
+    private static long searchSnapshotTtl = 300000; // default 5 minutes
+    /**
+     * Snapshots of the searches paged with cursors, built from the configuration
+     */
+    private static SearchSnapshots searchSnapshots = new SearchSnapshots(searchSnapshotDocuments, searchSnapshotTtl);
+    /**
+     * Maximum number of results of the same host, so a single site can't take all the results (0 for no maximum)
+     * Defaults to 0 if it's not on the properties file or if it's invalid
+     */
+    private static int maxResultsPerHost = 0; // default
+    /**
+     * Minimum number of documents of a word for its single word searches to stop early, reading only the blocks of its
+     * postings that can hold the best results (see {@link PostingBlocks})
+     * Defaults to 4096 if it's not on the properties file or if it's invalid
+     */
+    private static int earlyTerminationDocuments = 4096; // default
+    /**
+     * Maximum number of Merkle trees kept for the comparisons of other replicas, the oldest is dropped first
+     */
+    private static final int MAX_MERKLE_TREE_SNAPSHOTS = 16;
+    /**
+     * Merkle trees of this barrel being compared by other replicas, mapped by the id returned when each comparison
+     * started, so every replica reads the same tree from the root to the leaves (see {@link #antiEntropyRound})
+     */
+    private static final LinkedHashMap<Long, MerkleTree> merkleTreeSnapshots = new LinkedHashMap<>(){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, MerkleTree> eldest){
+            return size() > MAX_MERKLE_TREE_SNAPSHOTS;
+        }
+    };
+    private static long nextMerkleTreeId = 1;
+    /**
+     * Merkle tree of the index terms, reused while the segments of the index are the same
+     */
+    private static MerkleTree termTree;
+    private static long termTreeSegmentsVersion = -1;
+    /**
+     * Lock of the Merkle trees, so the replicas don't scan the index several times at once
+     */
+    private static final Object merkleTreeLock = new Object();
+    /**
+     * Host of each document and documents of each host, used by the site filter and the results per host
+     */
+    private static final HostIndex hostIndex = new HostIndex();
+    /**
+     * Length and inlinks of each document, read by the ranking
+     */
+    private static final DocumentStats documentStats = new DocumentStats();
+    /**
+     * Uncompressed size at which a block of the document store is compressed and written to disk
+     * Defaults to 65536 if it's not on the properties file or if it's invalid
+     */
+    private static int documentStoreBlockSize = 65536; // default 64 KB
+    /**
+     * Number of uncompressed blocks of the document store kept in memory
+     * Defaults to 64 if it's not on the properties file or if it's invalid
+     */
+    private static int documentCacheBlocks = 64; // default 64 blocks
+    /**
+     * Maximum number of words of the snippets of the search results
+     * Defaults to 30 if it's not on the properties file or if it's invalid
+     */
+    private static int snippetWords = 30; // default 30 words
+    /**
+     * Directory of the index segments
+     * Defaults to "index" if it's not on the properties file or if it's invalid
+     */
+    private static String indexDirectory = "index"; // default
+    /**
+     * Number of postings at which the index write buffer is flushed into a new segment
+     * Defaults to 200000 if it's not on the properties file or if it's invalid
+     */
+    private static int writeBufferPostings = 200000; // default 200000 postings
+    /**
+     * Number of index segments of the same size tier that are merged together
+     * Defaults to 4 if it's not on the properties file or if it's invalid
+     */
+    private static int mergeFactor = 4; // default 4 segments
+    /**
+     * Maximum number of index segment merges running at once
+     * Defaults to 1 if it's not on the properties file or if it's invalid
+     */
+    private static int mergeThreads = 1; // default 1 thread
+    /**
+     * Store of the pages text, used to build the snippets (null if it couldn't be opened)
+     */
+    private static DocumentStore documentStore;
+    /**
+     * File of the document table, where the parsed urls are exported
+     */
+    private static final String DOCUMENT_TABLE_FILENAME = "documentTable.bin";
+    /**
+     * Number of partitions the index terms are hashed into, got from the Gateway using RMI
+     */
+    private static int partitionsNum = 1;
+    /**
+     * Partitions this barrel was configured to own (empty means all of them)
+     */
+    private static final ArrayList<Integer> configuredPartitions = new ArrayList<>();
+    /**
+     * Partitions owned by this barrel, only the terms of these partitions are indexed
      */
-    protected static char DELIMITER;
+    private static ArrayList<Integer> ownedPartitions = new ArrayList<>(List.of(0));
+    /**
+     * Flag of each partition, true if owned by this barrel
+     */
+    private static boolean[] ownsPartition = {true};
+    /**
+     * Tracker of the datagrams sequence numbers received from each downloader
+     */
+    private static SenderSequenceTracker sequenceTracker;
+    /**
+     * Unicast socket used to send NACKs to the downloaders and to receive the retransmitted datagrams
+     */
+    private static DatagramSocket nackSocket;
     /**
      * Gateway Remote interface
      */
@@ -164,9 +404,20 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
      */
     protected static final AtomicInteger waitingThreadsNum = new AtomicInteger(0);
     /**
-     * Queue that will contain work for the threads to do
+     * Maximum number of messages waiting in the queue
+     * Defaults to 8192 if it's not on the properties file or if it's invalid
+     */
+    private static int ingestQueueCapacity = 8192; // default 8192 messages
+    /**
+     * What to do with a new message when the queue is full
+     * Defaults to BLOCK if it's not on the properties file or if it's invalid
      */
-    protected static BlockingQueue<String> multicastMessagesQueue = new LinkedBlockingQueue<>();
+    private static IngestQueue.OverflowPolicy overflowPolicy = IngestQueue.OverflowPolicy.BLOCK; // default
+    /**
+     * Bounded queue that will contain work for the threads to do (raw frames received from the multicast)
+     * Created after loading the config, as its capacity and overflow policy are configurable
+     */
+    protected static IngestQueue multicastMessagesQueue;
     /**
      * <H2>Concurrent Hash Map that maps a ParsedUrlIdPair to a ParsedUrl</H2>
      * <H3>ParsedUrlIdPair</H3>
@@ -204,7 +455,7 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
         boolean got = false;
         for (int i = 0; i < IndexStorageBarrel.maxRetries; i++) { // try the call maxRetries times
             try {
-                bestBarrel = gatewayRemote.getMostAvailableBarrelRemote(barrelRMIEndpoint);
+                bestBarrel = gatewayRemote.getMostAvailableBarrelRemote(barrelRMIEndpoint, ownedPartitions); // only barrels with the same partitions
                 got = true;
                 break;
             } catch( ConnectException e){
@@ -236,18 +487,21 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
         if (barrel == null) return false; // if connection unsuccessful, return false
 
         log("Syncing Barrel with " + referenceBarrel);
+        recoveryStatus.start("sync");
 
         boolean synced = false;
         for (int i = 0; i < IndexStorageBarrel.maxRetries; i++) {
             try {
-                // get the new art and maps
-                byte[] barrelARTFile = barrel.getArt();
+                // get the new index and maps
+                byte[] barrelIndexSnapshot = barrel.getIndexSnapshot();
+                if(barrelIndexSnapshot == null) throw new IOException("The reference barrel couldn't export its index");
                 ConcurrentHashMap<ParsedUrlIdPair, ParsedUrl> barrelParsedUrlsMap = barrel.getParsedUrlsMap();
                 ConcurrentHashMap<String, ParsedUrlIdPair> barrelUrlToUrlKeyPairMap = barrel.getUrlToUrlKeyPairMap();
                 ConcurrentHashMap<Long, ParsedUrlIdPair> barrelIdToUrlKeyPairMap = barrel.getIdToUrlKeyPairMap();
 
-                // assign the new art and maps
-                art.importART(barrelARTFile);
+                // assign the new index and maps
+                awaitIndex(); // the local index is still opening during the recovery
+                index.importSnapshot(barrelIndexSnapshot);
                 parsedUrlsMap = barrelParsedUrlsMap;
                 urlToUrlKeyPairMap = barrelUrlToUrlKeyPairMap;
                 idToUrlKeyPairMap = barrelIdToUrlKeyPairMap;
@@ -263,9 +517,12 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
         }
         if(!synced){
             log("Error syncing Barrel!.");
+            recoveryStatus.fail("sync");
             return false;
         }
 
+        rebuildDocumentStats();
+        recoveryStatus.finish("sync");
         log("Barrel synced successfully!");
         return true;
     }
@@ -274,10 +531,10 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
     /**
      * Get multicast message
      * Receives the multicast message into a byte array with the maximum size of a UDP packet (65507 bytes)
-     * @return message if successful, null otherwise
+     * @return received packet if successful, null otherwise
      */
-    private static String getMulticastMessage(){
-        byte[] dataBuffer = new byte[65507];
+    private static DatagramPacket getMulticastMessage(){
+        byte[] dataBuffer = new byte[FrameCodec.MAX_PACKET_SIZE];
         DatagramPacket packet = new DatagramPacket(dataBuffer, dataBuffer.length);
         try{
             socket.receive(packet);
@@ -294,7 +551,120 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
             return null;
         }
 
-        return new String(packet.getData(), 0, packet.getLength());
+        return packet;
+    }
+
+
+    /**
+     * Check the sequence number of a received datagram (multicast or retransmitted)
+     * and add it to the messages queue if it wasn't received before.
+     * <p>
+     * The multicast and retransmissions receivers both ingest datagrams, so the capacity check, the sequence tracking
+     * and the enqueueing are done under the same lock: otherwise the other receiver could fill the last free slot
+     * between them, and a datagram already marked as received would be dropped and never requested again.
+     * @param packet received packet
+     */
+    private static void ingestDatagram(DatagramPacket packet){
+        byte[] message = Arrays.copyOf(packet.getData(), packet.getLength());
+        synchronized (ingestLock){
+            // when shedding load, drop before the sequence tracking, so the datagram is seen as missing
+            // and requested again once there is space in the queue
+            if(multicastMessagesQueue.getOverflowPolicy() == IngestQueue.OverflowPolicy.DROP && multicastMessagesQueue.isFull()){
+                multicastMessagesQueue.countDroppedMessage();
+                return;
+            }
+
+            if(FrameCodec.isFrame(message, message.length) &&
+                    !sequenceTracker.accept(FrameCodec.peekSenderId(message), FrameCodec.peekSequence(message),
+                            packet.getAddress(), FrameCodec.peekNackPort(message))){
+                return; // duplicate
+            }
+
+            try{
+                multicastMessagesQueue.put(message); // blocks while the queue is full, unless shedding load
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Get the ingest queue counters.
+     * Used by the gateway to show the barrel pressure and to slow down the crawling when the barrels can't keep up.
+     * @return depth, capacity, dropped messages and lag (in milliseconds) of the queue
+     */
+    @Override
+    public ArrayList<Long> getIngestStats(){
+        return collectIngestStats();
+    }
+
+
+    /**
+     * Collect the ingest queue counters, also reported in the heartbeats.
+     * @return depth, capacity, dropped messages and lag (in milliseconds) of the queue
+     */
+    private static ArrayList<Long> collectIngestStats(){
+        if(multicastMessagesQueue == null) return new ArrayList<>(List.of(0L, 0L, 0L, 0L));
+        return new ArrayList<>(List.of(
+                (long) multicastMessagesQueue.size(),
+                (long) multicastMessagesQueue.getCapacity(),
+                multicastMessagesQueue.getDroppedMessages(),
+                multicastMessagesQueue.getLagMillis()));
+    }
+
+
+    /**
+     * Receive the datagrams retransmitted by the downloaders after a NACK.
+     */
+    private static void receiveRetransmissions(){
+        byte[] dataBuffer = new byte[FrameCodec.MAX_PACKET_SIZE];
+        while(!Thread.currentThread().isInterrupted() && !nackSocket.isClosed()){
+            DatagramPacket packet = new DatagramPacket(dataBuffer, dataBuffer.length);
+            try{
+                nackSocket.receive(packet);
+            } catch (IOException e){
+                if(nackSocket.isClosed()) break;
+                log("Error receiving retransmitted datagram: " + e.getMessage());
+                continue;
+            }
+            ingestDatagram(packet);
+        }
+    }
+
+
+    /**
+     * Function responsible for periodically requesting the missing datagrams to the downloaders.
+     * Each gap is requested at most maxRetries times, after that it's counted as lost.
+     */
+    private static void periodicNacks(){
+        long lostDatagrams = 0;
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                Thread.sleep(nackDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            for(SenderSequenceTracker.Nack nack : sequenceTracker.collectNacks(maxRetries)){
+                byte[] nackMessage = FrameCodec.encodeNack(nack.senderId, nack.fromSequence, nack.toSequence);
+                try{
+                    nackSocket.send(new DatagramPacket(nackMessage, nackMessage.length, nack.address, nack.port));
+                    if(verbosity) log("Requested datagrams " + nack.fromSequence + " to " + nack.toSequence + " from " + nack.address);
+                } catch (IOException e){
+                    log("Error sending NACK: " + e.getMessage());
+                }
+            }
+
+            int expiredSenders = sequenceTracker.expireIdleSenders(senderTimeout);
+            if(expiredSenders > 0 && verbosity) log("Expired " + expiredSenders + " idle downloaders");
+
+            if(sequenceTracker.getLostDatagrams() != lostDatagrams){
+                lostDatagrams = sequenceTracker.getLostDatagrams();
+                log("Lost datagrams: " + lostDatagrams);
+            }
+        }
     }
 
 
@@ -337,55 +707,17 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
 
 
     /**
-     * Export the ART from memory into disk while catching the necessary exceptions
-     * @param art tree
-     */
-    private static void exportART(AdaptiveRadixTree art){
-        try{
-            art.exportART();
-        } catch(FileNotFoundException e){
-            System.out.println("TREE FILE NOT FOUND! Stopping the exportation...");
-        } catch(IOException e) {
-            System.out.println("ERROR OPENING FILE: " + e + "\nStopping the exportation...");
-        }
-    }
-
-
-    /**
-     * Import the ART from disk into memory while catching the necessary exceptions
-     * @return true if successful, false otherwise
-     */
-    private static boolean importART(){
-        try{
-            art.importART();
-            return true;
-        } catch(FileNotFoundException e){
-            System.out.println("TREE FILE NOT FOUND! Skipping the importation...");
-            return false;
-        } catch(IOException e) {
-            System.out.println("ERROR OPENING FILE: " + e + "\nSkipping the importation...");
-            return false;
-        }
-    }
-
-
-    /**
-     * Get the ART.
-     * Used to return the tree to a barrel that wants to sync
-     * First iot exports to the disk and then reads it into a byte array and returns it
-     * @return bytes of the tree
+     * Get the whole index as a single segment.
+     * Used to return the index to a barrel that wants to sync
+     * The write buffer is flushed first, and then every segment is merged into a temporary one, which is returned
+     * @return bytes of the segment, or null if it couldn't be exported
      */
     @Override
-    public byte[] getArt(){
-        try {
-            art.exportART();
-        } catch (IOException e) {
-            return null;
-        }
-
+    public byte[] getIndexSnapshot(){
         try{
-            return Files.readAllBytes(Paths.get(art.getFilename()));
-        } catch (Exception e){
+            return index.exportSnapshot();
+        } catch (IOException e){
+            log("Error exporting the index: " + e.getMessage());
             return null;
         }
     }
@@ -425,142 +757,448 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
 
 
      /**
-     * Import the ART and the Maps that store the info about the urls
-     * If any of these fails to import, return (clearing the successfully imported ones)
+     * Import the Maps that store the info about the urls (the index segments are loaded when the index is opened)
+     * The maps are rebuilt from the document table, or from the serialized maps of older barrels if there's no table yet
+     * (deserialized at once, each on its own thread).
+     * If any of these fails to import, return (clearing the index and the successfully imported ones)
      * so the barrel works as intended without residual information
      * @return true if successful, false otherwise
      */
     private static boolean importSerializedInfo(){
-        log("Importing ART...");
-        if(!importART()){
-            return false;
-        }
-
-        log("Importing Parsed Urls Hash Map...");
-        parsedUrlsMap = (ConcurrentHashMap<ParsedUrlIdPair, ParsedUrl>) deserializeMap("parsedUrlsMap.ser");
-        if (parsedUrlsMap == null){
-            art.clear();
-            parsedUrlsMap = new ConcurrentHashMap<>();
-            return false;
-        }
-
-        log("Importing Urls to Url Key Pairs Hash Map...");
-        urlToUrlKeyPairMap = (ConcurrentHashMap<String, ParsedUrlIdPair>) deserializeMap("urlToUrlKeyPairMap.ser");
-        if(urlToUrlKeyPairMap == null){
-            art.clear();
-            parsedUrlsMap = new ConcurrentHashMap<>();
-            urlToUrlKeyPairMap = new ConcurrentHashMap<>();
-            return false;
+        File documentTableFile = new File(DOCUMENT_TABLE_FILENAME);
+        if(documentTableFile.exists()){
+            if(importDocumentTable(documentTableFile)){
+                rebuildDocumentStats();
+                return true;
+            }
+            if(!new File("parsedUrlsMap.ser").exists()){
+                awaitIndex();
+                index.clear();
+                return false;
+            }
+            log("Falling back to the serialized maps...");
         }
 
-        log("Importing IDs to Url Key Pairs Hash Map...");
-        idToUrlKeyPairMap = (ConcurrentHashMap<Long, ParsedUrlIdPair>) deserializeMap("idToUrlKeyPairMap.ser");
-        if(idToUrlKeyPairMap == null){
-            art.clear();
-            parsedUrlsMap = new ConcurrentHashMap<>();
-            urlToUrlKeyPairMap = new ConcurrentHashMap<>();
-            idToUrlKeyPairMap= new ConcurrentHashMap<>();
+        log("Importing Parsed Urls, Urls to Url Key Pairs and IDs to Url Key Pairs Hash Maps...");
+        CompletableFuture<Object> parsedUrlsImport = deserializeMapAsync("parsedUrlsMap.ser");
+        CompletableFuture<Object> urlToUrlKeyPairImport = deserializeMapAsync("urlToUrlKeyPairMap.ser");
+        CompletableFuture<Object> idToUrlKeyPairImport = deserializeMapAsync("idToUrlKeyPairMap.ser");
+        ConcurrentHashMap<ParsedUrlIdPair, ParsedUrl> importedParsedUrlsMap = (ConcurrentHashMap<ParsedUrlIdPair, ParsedUrl>) parsedUrlsImport.join();
+        ConcurrentHashMap<String, ParsedUrlIdPair> importedUrlToUrlKeyPairMap = (ConcurrentHashMap<String, ParsedUrlIdPair>) urlToUrlKeyPairImport.join();
+        ConcurrentHashMap<Long, ParsedUrlIdPair> importedIdToUrlKeyPairMap = (ConcurrentHashMap<Long, ParsedUrlIdPair>) idToUrlKeyPairImport.join();
+        if(importedParsedUrlsMap == null || importedUrlToUrlKeyPairMap == null || importedIdToUrlKeyPairMap == null){
+            awaitIndex();
+            index.clear();
             return false;
         }
 
+        parsedUrlsMap = importedParsedUrlsMap;
+        urlToUrlKeyPairMap = importedUrlToUrlKeyPairMap;
+        idToUrlKeyPairMap = importedIdToUrlKeyPairMap;
+        rebuildDocumentStats();
         return true;
     }
 
 
     /**
-     * Export all the Maps that store the info about the urls and the ART
+     * Deserialize a map on a thread of the recovery, as a step of its status.
+     * @param filename the filename
+     * @return the future map, completed with null if it couldn't be deserialized
      */
-    private static void exportDeserializedInfo(){
-        log("Exporting Parsed Urls Hash Map...");
-        serializeMap(parsedUrlsMap, "parsedUrlsMap.ser");
-        log("Exporting Urls to Url Key Pairs Hash Map...");
-        serializeMap(urlToUrlKeyPairMap, "urlToUrlKeyPairMap.ser");
-        log("Exporting IDs to Url Key Pairs Hash Map...");
-        serializeMap(idToUrlKeyPairMap, "idToUrlKeyPairMap.ser");
-        exportART(art);
+    private static CompletableFuture<Object> deserializeMapAsync(String filename){
+        return CompletableFuture.supplyAsync(() -> {
+            recoveryStatus.start(filename);
+            Object map = deserializeMap(filename);
+            if(map != null) recoveryStatus.finish(filename);
+            else recoveryStatus.fail(filename);
+            return map;
+        }, recoveryExecutor);
     }
 
 
     /**
-     * Connect to gateway RMI
-     * @return the gateway if successful, null otherwise
+     * Rebuild the Maps that store the info about the urls from the document table, decoding its chunks in parallel
+     * @param documentTableFile the document table file
+     * @return true if successful, false otherwise (the maps are left empty)
      */
-    private static GatewayRemote connectToGatewayRMI(){
-        try {
-            System.out.println(gatewayEndpoint);
-            GatewayRemote gateway = (GatewayRemote) Naming.lookup(gatewayEndpoint);
-            DELIMITER = gateway.getParsingDelimiter();
-            multicastAddress = gateway.getMulticastAddress();
-            multicastPort = gateway.getMulticastPort();
-            return gateway;
-        } catch (Exception e) {
-            System.out.println("GatewayClient exception: " + e.getMessage());
-            return null;
+    private static boolean importDocumentTable(File documentTableFile){
+        log("Importing Document Table...");
+        recoveryStatus.start("documents");
+        try(DocumentTable.Reader reader = new DocumentTable.Reader(documentTableFile)){
+            AtomicLong importedDocumentsNum = new AtomicLong(0);
+            int capacity = (int) Math.min(reader.getDocumentsNum() * 4 / 3 + 16, Integer.MAX_VALUE - 8);
+            ConcurrentHashMap<ParsedUrlIdPair, ParsedUrl> importedParsedUrlsMap = new ConcurrentHashMap<>(capacity);
+            ConcurrentHashMap<String, ParsedUrlIdPair> importedUrlToUrlKeyPairMap = new ConcurrentHashMap<>(capacity);
+            ConcurrentHashMap<Long, ParsedUrlIdPair> importedIdToUrlKeyPairMap = new ConcurrentHashMap<>(capacity);
+            reader.forEach(helperThreadsNum, parsedUrl -> {
+                if(parsedUrl.id == null) return;
+                ParsedUrlIdPair urlIdPair = new ParsedUrlIdPair(parsedUrl.url, parsedUrl.id);
+                importedParsedUrlsMap.put(urlIdPair, parsedUrl);
+                importedUrlToUrlKeyPairMap.put(parsedUrl.url, urlIdPair);
+                importedIdToUrlKeyPairMap.put(parsedUrl.id, urlIdPair);
+                long imported = importedDocumentsNum.incrementAndGet();
+                if(imported % 65536 == 0) recoveryStatus.progress("documents", imported, reader.getDocumentsNum());
+            });
+
+            parsedUrlsMap = importedParsedUrlsMap;
+            urlToUrlKeyPairMap = importedUrlToUrlKeyPairMap;
+            idToUrlKeyPairMap = importedIdToUrlKeyPairMap;
+            log("Imported " + reader.getDocumentsNum() + " documents");
+            recoveryStatus.finish("documents");
+            return true;
+        } catch (IOException e){
+            log("Error importing the document table: " + e.getMessage());
+            recoveryStatus.fail("documents");
+            return false;
         }
     }
 
 
     /**
-     * Reconnect to gateway RMI
+     * Export all the Maps that store the info about the urls (as the document table) and flush the index write buffer into a new segment
      */
-    private static void reconnectToGatewayRMI(){
-        log("Reconnecting to gateway...");
-        gatewayRemote = null;
-        while(gatewayRemote == null){
-            gatewayRemote = connectToGatewayRMI();
-            try {
-                Thread.sleep(retryDelay);
-            } catch (InterruptedException ignored) {}
+    private static void exportDeserializedInfo(){
+        log("Exporting Document Table...");
+        try{
+            DocumentTable.write(new File(DOCUMENT_TABLE_FILENAME), parsedUrlsMap.values());
+        } catch (IOException e){
+            log("Error exporting the document table: " + e.getMessage());
+        }
+        log("Flushing Index Write Buffer...");
+        index.flush();
+        if(documentStore != null){
+            log("Flushing Document Store...");
+            try{
+                documentStore.flush();
+            } catch (IOException e){
+                log("Error flushing the document store: " + e.getMessage());
+            }
         }
-        log("Reconnected!");
-
-        // register barrel again on the gateway
-        registerBarrel();
-        setupRMI();
     }
 
 
     /**
-     * Connect to barrel RMI
-     * @param barrelEndpoint barrel endpoint
-     * @return the barrel remote interface if successful, null otherwise
+     * Recover the index and the documents after a (re)start.
+     * The index and the document store are opened on their own threads while the documents are synced from another
+     * barrel (the index is only awaited to import the synced snapshot) or, if that's not possible, imported from the
+     * disk. Meanwhile, the progress is reported to the gateway.
      */
-    private static IndexStorageBarrelRemote connectToBarrelRMI(String barrelEndpoint){
-        try {
-            return (IndexStorageBarrelRemote) Naming.lookup(barrelEndpoint);
-        } catch (Exception e) {
-            System.out.println("Barrel exception: " + e.getMessage());
-            return null;
+    private static void recoverBarrel(){
+        long start = System.currentTimeMillis();
+        indexOpening = CompletableFuture.runAsync(IndexStorageBarrel::openIndex, recoveryExecutor);
+        CompletableFuture<Void> documentStoreOpening = CompletableFuture.runAsync(IndexStorageBarrel::openDocumentStore, recoveryExecutor);
+
+        // try to sync barrel with another one, if it exists
+        // if not successful, try to import serialized info
+        if(!syncBarrel()){
+            log("Couldn't sync barrel with another one. Trying to import serialized info...");
+            if(importSerializedInfo()) log("Successfully imported serialized info!");
+            else log("Failed to import serialized info...");
         }
+        awaitIndex();
+        documentStoreOpening.join();
+
+        recoveryExecutor.shutdown();
+        log("Recovered in " + (System.currentTimeMillis() - start) + "ms (" + recoveryStatus + ")");
     }
 
 
     /**
-     * Register barrel in gateway
+     * Warm up the barrel after a (re)start, before it's online.
+     * The most searched queries, got from the gateway, are run through the RMI service of the barrel, the same way
+     * the gateway runs them, so their postings and documents are read into the caches and the search code is compiled
+     * by the JIT before the first searches arrive. The searches are repeated until a round stops getting faster or the
+     * warm-up duration ends. The multicast pages are already being indexed meanwhile, so the barrel doesn't fall behind.
      */
-    private static void registerBarrel(){
-        // register barrel in gateway
-        boolean registered = false;
+    private static void warmUp(){
+        if(warmUpSearches == 0) return;
+        ArrayList<String> searches = null;
         for (int i = 0; i < IndexStorageBarrel.maxRetries; i++) {
             try {
-                gatewayRemote.registerBarrel(barrelRMIEndpoint);
-                registered = true;
+                searches = gatewayRemote.getTopSearches(warmUpSearches);
                 break;
             } catch( ConnectException e){
                 reconnectToGatewayRMI();
                 i--;
             } catch (RemoteException ignored){}
         }
-        if (!registered){
-            log("Error registering barrel in Gateway! (" + maxRetries + " retries failed) Exiting...");
-            System.exit(1);
+        if(searches == null || searches.isEmpty()) return;
+
+        ArrayList<Query> queries = new ArrayList<>();
+        for(String search : searches){
+            try{
+                queries.add(Query.parse(search));
+            } catch (IllegalArgumentException ignored){} // not a valid query anymore
         }
-        log("Successfully registered barrel in Gateway! RMI Endpoint: " + barrelRMIEndpoint);
+        IndexStorageBarrelRemote barrel = connectToBarrelRMI(barrelRMIEndpoint);
+        if(barrel == null || queries.isEmpty()) return;
+
+        log("Warming up with " + queries.size() + " searches...");
+        recoveryStatus.start("warm-up");
+        long deadline = System.currentTimeMillis() + warmUpDuration;
+        long bestRoundTime = Long.MAX_VALUE;
+        int rounds = 0;
+        try{
+            while(System.currentTimeMillis() < deadline){
+                long start = System.nanoTime();
+                for(Query query : queries) warmUpSearch(barrel, query);
+                long roundTime = System.nanoTime() - start;
+                rounds++;
+                if(rounds >= 3 && roundTime > bestRoundTime * 9 / 10) break; // settled, no longer getting faster
+                bestRoundTime = Math.min(bestRoundTime, roundTime);
+            }
+            recoveryStatus.finish("warm-up");
+        } catch (RemoteException e){
+            log("Error warming up: " + e.getMessage());
+            recoveryStatus.fail("warm-up");
+        }
+        log("Warmed up in " + rounds + " rounds");
     }
 
 
     /**
-     * Setup barrel RMI
+     * Run a search of the warm-up, taking the same path the gateway takes for it.
+     * @param barrel the RMI service of this barrel
+     * @param query the query
+     * @throws RemoteException the remote exception
+     */
+    private static void warmUpSearch(IndexStorageBarrelRemote barrel, Query query) throws RemoteException {
+        for(String word : query.getTerms()){
+            if(!ownsTerm(word)) return; // searched in other barrels
+        }
+        ArrayList<String> words = query.getConjunctiveTerms();
+        if(words == null || query.getSites().length > 0) barrel.searchQuery(query, 0, WARM_UP_PAGE_SIZE);
+        else if(words.size() == 1) barrel.searchWord(words.get(0), 0, WARM_UP_PAGE_SIZE);
+        else barrel.searchWordSet(words, 0, WARM_UP_PAGE_SIZE);
+    }
+
+
+    /**
+     * Open the index (exits if it can't be opened)
+     */
+    private static void openIndex(){
+        recoveryStatus.start("index");
+        try{
+            index = new SegmentedIndex(new File(indexDirectory), writeBufferPostings, mergeFactor, mergeThreads, documentStats::getVersion);
+            log("Index opened with " + index.getSegmentsNum() + " segments");
+            recoveryStatus.finish("index");
+        } catch (IOException e){
+            log("Error opening the index: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Open the document store (the snippets are disabled if it can't be opened)
+     */
+    private static void openDocumentStore(){
+        recoveryStatus.start("document store");
+        try{
+            documentStore = new DocumentStore("documents.dat", documentStoreBlockSize, documentCacheBlocks);
+            log("Document store opened with " + documentStore.getBlocksNum() + " blocks");
+            recoveryStatus.finish("document store");
+        } catch (IOException e){
+            log("Error opening the document store, snippets are disabled: " + e.getMessage());
+            recoveryStatus.fail("document store");
+        }
+    }
+
+
+    /**
+     * Wait until the index is opened
+     */
+    private static void awaitIndex(){
+        indexOpening.join();
+    }
+
+
+    /**
+     * Function responsible for reporting the recovery progress to the gateway, until interrupted
+     */
+    private static void reportRecoveryStatus(){
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try{
+                gatewayRemote.updateBarrelRecoveryStatus(barrelRMIEndpoint, recoveryStatus.toString());
+            } catch (RemoteException e){
+                if(verbosity) log("Error reporting the recovery status: " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Function responsible for the periodic heartbeats to the gateway, with the barrel availability, ingest queue
+     * counters and recent search latency, so the gateway routes the searches without polling the barrels.
+     * If the gateway doesn't know the barrel (evicted, or restarted), the barrel registers again.
+     */
+    private static void periodicHeartbeats(){
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                Thread.sleep(heartbeatInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try{
+                if(!gatewayRemote.barrelHeartbeat(barrelRMIEndpoint, calculateAvailability(), collectIngestStats(), searchLatency.getMillis())){
+                    log("Gateway doesn't know this barrel. Registering again...");
+                    registerBarrel();
+                }
+            } catch (ConnectException e){
+                reconnectToGatewayRMI();
+            } catch (RemoteException e){
+                if(verbosity) log("Error sending the heartbeat: " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Time a search, recording its latency for the heartbeats.
+     * @param search the search
+     * @param <T> the result type
+     * @return the result of the search
+     */
+    private static <T> T timed(Supplier<T> search){
+        long start = System.nanoTime();
+        try{
+            return search.get();
+        } finally {
+            searchLatency.record(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Connect to gateway RMI
+     * @return the gateway if successful, null otherwise
+     */
+    private static GatewayRemote connectToGatewayRMI(){
+        try {
+            System.out.println(gatewayEndpoint);
+            GatewayRemote gateway = (GatewayRemote) Naming.lookup(gatewayEndpoint);
+            multicastAddress = gateway.getMulticastAddress();
+            multicastPort = gateway.getMulticastPort();
+            setupPartitions(gateway.getPartitionsNum());
+            return gateway;
+        } catch (Exception e) {
+            System.out.println("GatewayClient exception: " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Setup the partitions owned by this barrel, from the configured ones and the number of partitions
+     * @param gatewayPartitionsNum number of partitions used by the gateway
+     */
+    private static void setupPartitions(int gatewayPartitionsNum){
+        int newPartitionsNum = Math.max(gatewayPartitionsNum, 1);
+        ArrayList<Integer> newOwnedPartitions = new ArrayList<>();
+        boolean[] newOwnsPartition = new boolean[newPartitionsNum];
+        for(int partition : configuredPartitions){
+            if(partition >= newPartitionsNum){
+                log("Ignoring partition " + partition + ", the index only has " + newPartitionsNum + " partitions");
+                continue;
+            }
+            if(newOwnsPartition[partition]) continue;
+            newOwnsPartition[partition] = true;
+            newOwnedPartitions.add(partition);
+        }
+        if(newOwnedPartitions.isEmpty()){ // own the whole index
+            if(!configuredPartitions.isEmpty()) log("None of the configured partitions exist, owning all of them");
+            for(int i=0; i<newPartitionsNum; i++){
+                newOwnsPartition[i] = true;
+                newOwnedPartitions.add(i);
+            }
+        }
+
+        ownsPartition = newOwnsPartition;
+        ownedPartitions = newOwnedPartitions;
+        partitionsNum = newPartitionsNum;
+        if(partitionsNum > 1) log("Owning partitions " + ownedPartitions + " of " + partitionsNum);
+    }
+
+
+    /**
+     * Check if the provided term belongs to a partition owned by this barrel
+     * @param term the term
+     * @return true if owned, false otherwise
+     */
+    private static boolean ownsTerm(String term){
+        return ownsPartition[TermPartitioner.partitionOf(term, partitionsNum)];
+    }
+
+
+    /**
+     * Reconnect to gateway RMI
+     */
+    private static void reconnectToGatewayRMI(){
+        log("Reconnecting to gateway...");
+        gatewayRemote = null;
+        while(gatewayRemote == null){
+            gatewayRemote = connectToGatewayRMI();
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException ignored) {}
+        }
+        log("Reconnected!");
+
+        // register barrel again on the gateway
+        registerBarrel();
+        setupRMI();
+    }
+
+
+    /**
+     * Connect to barrel RMI
+     * @param barrelEndpoint barrel endpoint
+     * @return the barrel remote interface if successful, null otherwise
+     */
+    private static IndexStorageBarrelRemote connectToBarrelRMI(String barrelEndpoint){
+        try {
+            return (IndexStorageBarrelRemote) Naming.lookup(barrelEndpoint);
+        } catch (Exception e) {
+            System.out.println("Barrel exception: " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Register barrel in gateway
+     */
+    private static void registerBarrel(){
+        // register barrel in gateway
+        boolean registered = false;
+        for (int i = 0; i < IndexStorageBarrel.maxRetries; i++) {
+            try {
+                if(isWarming) gatewayRemote.registerWarmingBarrel(barrelRMIEndpoint, ownedPartitions); // no searches until recovered
+                else gatewayRemote.registerBarrel(barrelRMIEndpoint, ownedPartitions);
+                registered = true;
+                break;
+            } catch( ConnectException e){
+                reconnectToGatewayRMI();
+                i--;
+            } catch (RemoteException ignored){}
+        }
+        if (!registered){
+            log("Error registering barrel in Gateway! (" + maxRetries + " retries failed) Exiting...");
+            System.exit(1);
+        }
+        log("Successfully registered " + (isWarming ? "warming " : "") + "barrel in Gateway! RMI Endpoint: " + barrelRMIEndpoint);
+    }
+
+
+    /**
+     * Setup barrel RMI
      * @return true if successful, false otherwise
      */
     private static boolean setupRMI() {
@@ -576,70 +1214,585 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
     }
 
 
-    /**
-     * Exit function to close program
-     */
-    private static void exit(){
-        // unregister barrel in gateway
-        boolean unregistered = false;
-        for (int i = 0; i < IndexStorageBarrel.maxRetries; i++) {
-            try {
-                gatewayRemote.unregisterBarrel(barrelRMIEndpoint);
-                unregistered = true;
-                break;
-            } catch( ConnectException e){
-                reconnectToGatewayRMI();
-                i--;
-            } catch (RemoteException ignored){}
-        }
-        if(!unregistered) log("Error unregistering barrel in Gateway! (" + maxRetries + " retries failed) Exiting...");
-
-        multicastMessagesQueue = null;
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
-        }
+    /**
+     * Exit function to close program
+     */
+    private static void exit(){
+        // unregister barrel in gateway
+        boolean unregistered = false;
+        for (int i = 0; i < IndexStorageBarrel.maxRetries; i++) {
+            try {
+                gatewayRemote.unregisterBarrel(barrelRMIEndpoint);
+                unregistered = true;
+                break;
+            } catch( ConnectException e){
+                reconnectToGatewayRMI();
+                i--;
+            } catch (RemoteException ignored){}
+        }
+        if(!unregistered) log("Error unregistering barrel in Gateway! (" + maxRetries + " retries failed) Exiting...");
+
+        multicastMessagesQueue = null;
+        if (index != null) {
+            index.close();
+        }
+        if (documentStore != null) {
+            try {
+                documentStore.close();
+            } catch (IOException e) {
+                log("Error closing the document store: " + e.getMessage());
+            }
+        }
+        if (socket != null && !socket.isClosed()) {
+            socket.close();
+        }
+        if (nackSocket != null && !nackSocket.isClosed()) {
+            nackSocket.close();
+        }
+
+        fixedThreadPool.shutdownNow();
+        try {
+            if (!fixedThreadPool.awaitTermination(500, TimeUnit.MICROSECONDS)) {
+                fixedThreadPool.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            fixedThreadPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        System.exit(1);
+    }
+
+
+    /**
+     * Calculate availability
+     * A barrel that is still recovering or warming up isn't available
+     * @return availability
+     */
+    @Override
+    public double getAvailability() {
+        return calculateAvailability();
+    }
+
+
+    /**
+     * Calculate availability, also reported in the heartbeats
+     * @return availability
+     */
+    private static double calculateAvailability() {
+        if(isWarming) return 0;
+        int totalThreads = fixedThreadPoolExecutor.getCorePoolSize();
+        int busyThreads = fixedThreadPoolExecutor.getActiveCount();
+        int availableThreads = totalThreads - busyThreads + waitingThreadsNum.get();
+        return (double) availableThreads / totalThreads;
+    }
+
+
+    /**
+     * Function responsible for the periodic exportation of the barrel data structures
+     */
+    private static void periodicBarrelExportation(){
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                Thread.sleep(exportationDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            log("Periodic barrel exportation starting...");
+            exportDeserializedInfo();
+        }
+    }
+
+
+    /**
+     * Function responsible for the periodic anti-entropy rounds with the other replicas
+     */
+    private static void periodicAntiEntropy(){
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                Thread.sleep(antiEntropyInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            antiEntropyRound();
+        }
+    }
+
+
+    /**
+     * Repair the differences with another replica (a barrel of the same partitions), chosen by the gateway.
+     * <p>
+     * Lost datagrams and downtime leave replicas with different documents and postings. Both replicas summarize their
+     * documents and their index terms in Merkle trees (see {@link MerkleTree}), which are compared from the root down
+     * to the leaves that differ, so only the entries of those leaves are exchanged and compared one by one. The
+     * entries this barrel is missing or has outdated are then copied from the other replica: the documents first, so
+     * the postings of their crawls can be checked against them. The repair only adds what this barrel lacks, the
+     * other replica gets what only this one has in its own rounds.
+     */
+    private static void antiEntropyRound(){
+        String peerEndpoint = getMostAvailableBarrelFromGateway();
+        if(peerEndpoint == null || peerEndpoint.isEmpty() || peerEndpoint.equals(barrelRMIEndpoint)) return; // no other replica
+
+        IndexStorageBarrelRemote peer = connectToBarrelRMI(peerEndpoint);
+        if(peer == null) return;
+
+        try{
+            int repairedDocuments = repairDocuments(peer);
+            int repairedPostings = repairTerms(peer);
+            if(repairedDocuments > 0 || repairedPostings > 0 || verbosity){
+                log("Anti-entropy with " + peerEndpoint + " repaired " + repairedDocuments + " documents and " + repairedPostings + " postings");
+            }
+        } catch (RemoteException e){
+            log("Error in the anti-entropy with " + peerEndpoint + ": " + e.getMessage());
+        } catch (IOException e){
+            log("Error reading the index for the anti-entropy: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Copy from another replica the documents this barrel is missing, the father urls it doesn't have and the newer crawls.
+     *
+     * @param peer the other replica
+     * @return the number of documents repaired
+     * @throws RemoteException the remote exception
+     */
+    private static int repairDocuments(IndexStorageBarrelRemote peer) throws RemoteException {
+        long peerTreeId = peer.openDocumentTree();
+        int[] leaves = buildDocumentTree().findDivergentLeaves((level, nodes) -> peer.getDocumentHashes(peerTreeId, level, nodes));
+        if(leaves == null || leaves.length == 0) return 0;
+        HashMap<Long, Long> peerDigests = peer.getDocumentDigests(leaves);
+        if(peerDigests == null) return 0;
+
+        HashMap<Long, Long> digests = collectDocumentDigests(leaves);
+        ArrayList<Long> divergentIds = new ArrayList<>();
+        peerDigests.forEach((id, digest) -> {
+            if(!digest.equals(digests.get(id))) divergentIds.add(id);
+        });
+
+        int repaired = 0;
+        for(int from = 0; from < divergentIds.size(); from += ANTI_ENTROPY_BATCH_SIZE){
+            ArrayList<Long> ids = new ArrayList<>(divergentIds.subList(from, Math.min(from + ANTI_ENTROPY_BATCH_SIZE, divergentIds.size())));
+            ArrayList<ParsedUrl> documents = peer.getDocuments(ids);
+            if(documents == null) continue;
+            for(ParsedUrl document : documents){
+                if(document != null && repairDocument(document)) repaired++;
+            }
+        }
+        return repaired;
+    }
+
+
+    /**
+     * Merge a document of another replica into this barrel.
+     * A missing document is added, the father urls are joined, and a newer crawl replaces the title, description and
+     * text of the document, starting a new version (its postings come with the terms repair).
+     *
+     * @param document the document of the other replica, with its text
+     * @return true if the document changed, false otherwise
+     */
+    private static boolean repairDocument(ParsedUrl document){
+        if(document.id == null || document.url == null) return false;
+        ParsedUrlIdPair pair = idToUrlKeyPairMap.get(document.id);
+        ParsedUrl parsedUrl = pair != null ? parsedUrlsMap.get(pair) : null;
+        if(parsedUrl == null){ // missing document
+            ParsedUrl newParsedUrl = new ParsedUrl(document.url, document.id, null, null, null);
+            ParsedUrlIdPair urlIdPair = new ParsedUrlIdPair(document.url, document.id);
+            parsedUrl = parsedUrlsMap.putIfAbsent(urlIdPair, newParsedUrl);
+            if(parsedUrl == null) parsedUrl = newParsedUrl;
+            urlToUrlKeyPairMap.put(document.url, urlIdPair);
+            idToUrlKeyPairMap.put(document.id, urlIdPair);
+            hostIndex.add(document.id, document.url);
+        }
+
+        boolean isRepaired = false;
+        for(long fatherUrlId : document.getFatherUrls()){
+            int count = parsedUrl.getFatherUrlsCount();
+            parsedUrl.addFatherUrl(fatherUrlId);
+            isRepaired |= parsedUrl.getFatherUrlsCount() != count;
+        }
+        documentStats.setInlinks(parsedUrl.id, parsedUrl.getFatherUrlsCount());
+
+        synchronized(parsedUrl){ // same as the parsers
+            boolean isNewer = document.crawlVersion > parsedUrl.crawlVersion
+                    || (document.crawlVersion == parsedUrl.crawlVersion && parsedUrl.title == null && document.title != null);
+            if(isNewer){
+                if(document.crawlVersion > parsedUrl.crawlVersion && (parsedUrl.crawlVersion != 0 || parsedUrl.title != null)) parsedUrl.version++;
+                parsedUrl.crawlVersion = document.crawlVersion;
+                parsedUrl.title = document.title;
+                parsedUrl.description = document.description;
+                parsedUrl.documentLength = document.documentLength;
+                documentStats.setVersion(parsedUrl.id, parsedUrl.version);
+                documentStats.setLength(parsedUrl.id, parsedUrl.documentLength);
+                if(document.text != null && documentStore != null){
+                    try{
+                        documentStore.put(parsedUrl.id, document.text);
+                    } catch (IOException e){
+                        log("Error storing the text of " + parsedUrl.url + ": " + e.getMessage());
+                    }
+                }
+                isRepaired = true;
+            }
+        }
+        return isRepaired;
+    }
+
+
+    /**
+     * Copy from another replica the postings this barrel is missing, for the terms whose postings differ.
+     * A posting is only copied if its document is known here, from the same crawl, and this barrel has no posting of
+     * the document for the term. Postings of other crawls, or with other frequencies, are left for the parsers.
+     *
+     * @param peer the other replica
+     * @return the number of postings repaired
+     * @throws RemoteException the remote exception
+     * @throws IOException IO Exception if the index couldn't be read
+     */
+    private static int repairTerms(IndexStorageBarrelRemote peer) throws RemoteException, IOException {
+        long peerTreeId = peer.openTermTree();
+        if(peerTreeId < 0) return 0; // the other replica couldn't read its index
+        int[] leaves = getTermTree().findDivergentLeaves((level, nodes) -> peer.getTermHashes(peerTreeId, level, nodes));
+        if(leaves == null || leaves.length == 0) return 0;
+        HashMap<String, Long> peerDigests = peer.getTermDigests(leaves);
+        if(peerDigests == null) return 0;
+
+        HashMap<String, Long> digests = collectTermDigests(leaves);
+        ArrayList<String> divergentTerms = new ArrayList<>();
+        peerDigests.forEach((term, digest) -> {
+            if(!digest.equals(digests.get(term))) divergentTerms.add(term);
+        });
+
+        int repaired = 0;
+        for(int from = 0; from < divergentTerms.size(); from += ANTI_ENTROPY_BATCH_SIZE){
+            ArrayList<String> terms = new ArrayList<>(divergentTerms.subList(from, Math.min(from + ANTI_ENTROPY_BATCH_SIZE, divergentTerms.size())));
+            ArrayList<Postings> peerPostings = peer.getTermPostings(terms);
+            if(peerPostings == null || peerPostings.size() != terms.size()) continue;
+
+            LinkedHashSet<Long> ids = new LinkedHashSet<>();
+            for(Postings postings : peerPostings){
+                if(postings == null) continue;
+                for(int i = 0; i < postings.size; i++) ids.add(postings.linkIndices[i]);
+            }
+            HashMap<Long, Long> peerCrawlVersions = peer.getCrawlVersions(new ArrayList<>(ids));
+            if(peerCrawlVersions == null) continue;
+
+            TermBatch batch = new TermBatch(ids.size());
+            for(int t = 0; t < terms.size(); t++){
+                Postings postings = peerPostings.get(t);
+                if(postings == null) continue;
+                Postings localPostings = index.getPostings(terms.get(t));
+                for(int i = 0; i < postings.size; i++){
+                    long id = postings.linkIndices[i];
+                    if(localPostings != null && localPostings.indexOf(id) >= 0) continue;
+                    ParsedUrlIdPair pair = idToUrlKeyPairMap.get(id);
+                    ParsedUrl parsedUrl = pair != null ? parsedUrlsMap.get(pair) : null;
+                    Long peerCrawlVersion = peerCrawlVersions.get(id);
+                    if(parsedUrl == null || peerCrawlVersion == null) continue;
+
+                    int version;
+                    synchronized(parsedUrl){
+                        if(parsedUrl.crawlVersion != peerCrawlVersion) continue; // another crawl of the page
+                        version = parsedUrl.version;
+                    }
+                    batch.add(terms.get(t), id, postings.frequencies[i], positionalIndex ? postings.getPositions(i) : null, version);
+                    repaired++;
+                }
+            }
+            if(batch.size() > 0) index.insertBatch(batch);
+        }
+        return repaired;
+    }
+
+
+    /**
+     * Build the Merkle tree of the documents of this barrel.
+     *
+     * @return the tree
+     */
+    private static MerkleTree buildDocumentTree(){
+        MerkleTree tree = new MerkleTree();
+        for(ParsedUrl parsedUrl : parsedUrlsMap.values()){
+            if(parsedUrl.id != null) tree.add(parsedUrl.id, documentDigest(parsedUrl));
+        }
+        return tree.seal();
+    }
+
+
+    /**
+     * Get the Merkle tree of the index terms of this barrel, built again only when the segments changed since the
+     * last one (the write buffer is flushed first, so its postings are in the segments).
+     *
+     * @return the tree
+     * @throws IOException IO Exception if the index couldn't be read
+     */
+    private static MerkleTree getTermTree() throws IOException {
+        synchronized(merkleTreeLock){
+            index.flush();
+            long segmentsVersion = index.getSegmentsVersion(); // before the build, so a flush meanwhile rebuilds it next time
+            if(termTree == null || termTreeSegmentsVersion != segmentsVersion){
+                termTree = buildTermTree();
+                termTreeSegmentsVersion = segmentsVersion;
+            }
+            return termTree;
+        }
+    }
+
+
+    /**
+     * Build the Merkle tree of the index terms of this barrel, reading every segment.
+     *
+     * @return the tree
+     * @throws IOException IO Exception if the index couldn't be read
+     */
+    private static MerkleTree buildTermTree() throws IOException {
+        MerkleTree tree = new MerkleTree();
+        index.forEachTerm(term -> true, (term, postings) -> {
+            if(postings.size > 0) tree.add(Hashing.hash(term), termDigest(postings));
+        });
+        return tree.seal();
+    }
+
+
+    /**
+     * Get the digest of each document of some leaves of the Merkle tree of the documents.
+     *
+     * @param leaves the leaves
+     * @return the digest of each document id
+     */
+    private static HashMap<Long, Long> collectDocumentDigests(int[] leaves){
+        boolean[] isSelected = selectLeaves(leaves);
+        HashMap<Long, Long> digests = new HashMap<>();
+        for(ParsedUrl parsedUrl : parsedUrlsMap.values()){
+            if(parsedUrl.id != null && isSelected[MerkleTree.leafOf(parsedUrl.id)]) digests.put(parsedUrl.id, documentDigest(parsedUrl));
+        }
+        return digests;
+    }
+
+
+    /**
+     * Get the digest of the postings of each term of some leaves of the Merkle tree of the terms.
+     *
+     * @param leaves the leaves
+     * @return the digest of each term
+     * @throws IOException IO Exception if the index couldn't be read
+     */
+    private static HashMap<String, Long> collectTermDigests(int[] leaves) throws IOException {
+        boolean[] isSelected = selectLeaves(leaves);
+        HashMap<String, Long> digests = new HashMap<>();
+        index.forEachTerm(term -> isSelected[MerkleTree.leafOf(Hashing.hash(term))], (term, postings) -> {
+            if(postings.size > 0) digests.put(new String(term), termDigest(postings)); // same bytes as the tree keys
+        });
+        return digests;
+    }
+
+
+    /**
+     * Flag the selected leaves of a Merkle tree.
+     *
+     * @param leaves the leaves
+     * @return a flag for each leaf of the tree, true if selected
+     */
+    private static boolean[] selectLeaves(int[] leaves){
+        boolean[] isSelected = new boolean[MerkleTree.LEAVES_NUM];
+        for(int leaf : leaves){
+            if(leaf >= 0 && leaf < isSelected.length) isSelected[leaf] = true;
+        }
+        return isSelected;
+    }
+
+
+    /**
+     * Hash the content of a document that must be the same in every replica.
+     * The version is left out, as each barrel numbers the versions of its documents.
+     *
+     * @param parsedUrl the document
+     * @return the digest
+     */
+    private static long documentDigest(ParsedUrl parsedUrl){
+        long fatherUrlsHash = 0;
+        for(long fatherUrlId : parsedUrl.getFatherUrls()) fatherUrlsHash += Hashing.mix(fatherUrlId); // in any order
+        synchronized(parsedUrl){
+            long digest = Hashing.hash(parsedUrl.url);
+            digest = MerkleTree.combine(digest, Hashing.hash(parsedUrl.title));
+            digest = MerkleTree.combine(digest, Hashing.hash(parsedUrl.description));
+            digest = MerkleTree.combine(digest, parsedUrl.crawlVersion);
+            digest = MerkleTree.combine(digest, parsedUrl.documentLength);
+            return MerkleTree.combine(digest, fatherUrlsHash);
+        }
+    }
+
+
+    /**
+     * Hash the live postings of a term, without their versions (each barrel numbers the versions of its documents)
+     * nor their positions (the positional index can be disabled in some replicas).
+     *
+     * @param postings the postings
+     * @return the digest
+     */
+    private static long termDigest(Postings postings){
+        long digest = postings.size;
+        for(int i = 0; i < postings.size; i++){
+            digest = MerkleTree.combine(digest, postings.linkIndices[i]);
+            digest = MerkleTree.combine(digest, postings.frequencies[i]);
+        }
+        return digest;
+    }
+
+
+    /**
+     * Keep a Merkle tree for the comparison of another replica.
+     *
+     * @param tree the tree
+     * @return the id of the tree
+     */
+    private static long addMerkleTreeSnapshot(MerkleTree tree){
+        synchronized(merkleTreeLock){
+            long id = nextMerkleTreeId++;
+            merkleTreeSnapshots.put(id, tree);
+            return id;
+        }
+    }
+
+
+    /**
+     * Get the hashes of some nodes of a Merkle tree kept for a comparison.
+     *
+     * @param treeId the id of the tree
+     * @param level the level of the nodes
+     * @param nodes the nodes
+     * @return the hash of each node, or null if the nodes aren't valid or the tree was dropped
+     */
+    private static long[] getSnapshotHashes(long treeId, int level, int[] nodes){
+        if(!areValidNodes(level, nodes)) return null;
+        MerkleTree tree;
+        synchronized(merkleTreeLock){
+            tree = merkleTreeSnapshots.get(treeId);
+        }
+        return tree == null ? null : tree.getHashes(level, nodes);
+    }
+
+
+    /**
+     * Check if some nodes are valid for a level of a Merkle tree.
+     *
+     * @param level the level
+     * @param nodes the nodes
+     * @return true if valid, false otherwise
+     */
+    private static boolean areValidNodes(int level, int[] nodes){
+        if(level < 0 || level > MerkleTree.DEPTH || nodes == null) return false;
+        int nodesNum = 1 << (4 * level);
+        for(int node : nodes){
+            if(node < 0 || node >= nodesNum) return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public long openDocumentTree(){
+        return addMerkleTreeSnapshot(buildDocumentTree());
+    }
+
+
+    @Override
+    public long[] getDocumentHashes(long treeId, int level, int[] nodes){
+        return getSnapshotHashes(treeId, level, nodes);
+    }
+
+
+    @Override
+    public long openTermTree(){
+        try{
+            return addMerkleTreeSnapshot(getTermTree());
+        } catch (IOException e){
+            log("Error building the Merkle tree of the terms: " + e.getMessage());
+            return -1;
+        }
+    }
+
+
+    @Override
+    public long[] getTermHashes(long treeId, int level, int[] nodes){
+        return getSnapshotHashes(treeId, level, nodes);
+    }
+
+
+    @Override
+    public HashMap<Long, Long> getDocumentDigests(int[] leaves){
+        if(leaves == null) return null;
+        return collectDocumentDigests(leaves);
+    }
+
+
+    @Override
+    public HashMap<String, Long> getTermDigests(int[] leaves){
+        if(leaves == null) return null;
+        try{
+            return collectTermDigests(leaves);
+        } catch (IOException e){
+            log("Error reading the terms digests: " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    @Override
+    public ArrayList<ParsedUrl> getDocuments(ArrayList<Long> ids){
+        if(ids == null) return null;
+        ArrayList<ParsedUrl> documents = new ArrayList<>(ids.size());
+        for(long id : ids){
+            ParsedUrlIdPair pair = idToUrlKeyPairMap.get(id);
+            ParsedUrl parsedUrl = pair != null ? parsedUrlsMap.get(pair) : null;
+            if(parsedUrl == null) continue;
 
-        fixedThreadPool.shutdownNow();
-        try {
-            if (!fixedThreadPool.awaitTermination(500, TimeUnit.MICROSECONDS)) {
-                fixedThreadPool.shutdownNow();
+            String text = null;
+            if(documentStore != null){
+                try{
+                    text = documentStore.get(id);
+                } catch (IOException e){
+                    log("Error reading the text of " + parsedUrl.url + ": " + e.getMessage());
+                }
             }
-        } catch (InterruptedException ie) {
-            fixedThreadPool.shutdownNow();
-            Thread.currentThread().interrupt();
+            ParsedUrl document = new ParsedUrl(parsedUrl.url, parsedUrl.id, null, null, text);
+            for(long fatherUrlId : parsedUrl.getFatherUrls()) document.addFatherUrl(fatherUrlId);
+            synchronized(parsedUrl){
+                document.title = parsedUrl.title;
+                document.description = parsedUrl.description;
+                document.documentLength = parsedUrl.documentLength;
+                document.crawlVersion = parsedUrl.crawlVersion;
+                document.version = parsedUrl.version;
+            }
+            documents.add(document);
         }
-
-        System.exit(1);
+        return documents;
     }
 
 
-    /**
-     * Calculate availability
-     * @return availability
-     */
     @Override
-    public double getAvailability() {
-        int totalThreads = fixedThreadPoolExecutor.getCorePoolSize();
-        int busyThreads = fixedThreadPoolExecutor.getActiveCount();
-        int availableThreads = totalThreads - busyThreads + waitingThreadsNum.get();
-        return (double) availableThreads / totalThreads;
+    public ArrayList<Postings> getTermPostings(ArrayList<String> terms){
+        if(terms == null) return null;
+        ArrayList<Postings> postings = new ArrayList<>(terms.size());
+        for(String term : terms) postings.add(index.getPostings(term));
+        return postings;
     }
 
 
-    /**
-     * Function responsible for the periodic exportation of the barrel data structures
-     */
-    private static void periodicBarrelExportation(){
-        while(!Thread.currentThread().isInterrupted()){
-            try {
-                Thread.sleep(exportationDelay);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+    @Override
+    public HashMap<Long, Long> getCrawlVersions(ArrayList<Long> ids){
+        if(ids == null) return null;
+        HashMap<Long, Long> crawlVersions = new HashMap<>();
+        for(long id : ids){
+            ParsedUrlIdPair pair = idToUrlKeyPairMap.get(id);
+            ParsedUrl parsedUrl = pair != null ? parsedUrlsMap.get(pair) : null;
+            if(parsedUrl == null) continue;
+            synchronized(parsedUrl){
+                crawlVersions.put(id, parsedUrl.crawlVersion);
             }
-            log("Periodic barrel exportation starting...");
-            exportDeserializedInfo();
         }
+        return crawlVersions;
     }
 
 
@@ -699,6 +1852,24 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
             barrelRMIEndpoint = "//"+gatewayHost+"/IndexStorageBarrel-"+uuid.toString();
             if(verbosity) System.out.println("Barrel RMI Endpoint: " + barrelRMIEndpoint);
 
+            // load owned partitions
+            String partitionsProperty = BarrelConfigLoader.getProperty("barrel.partitions");
+            if(partitionsProperty == null || partitionsProperty.isBlank()){ // if not found, own all the partitions
+                System.err.println("Barrel Partitions property not found in property file! Defaulting to all partitions...");
+            } else { // if found, check it
+                try{
+                    for(String partition : partitionsProperty.split(",")){
+                        int partitionInt = Integer.parseInt(partition.trim());
+                        if(partitionInt < 0) throw new NumberFormatException("negative partition");
+                        configuredPartitions.add(partitionInt);
+                    }
+                    if(verbosity) System.out.println("Partitions: " + configuredPartitions);
+                } catch (NumberFormatException ignored){
+                    configuredPartitions.clear();
+                    System.err.println("Partitions must be a comma separated list of non negative numbers! Defaulting to all partitions...");
+                }
+            }
+
             // load helper threads num
             String helperThreads = BarrelConfigLoader.getProperty("barrel.helperThreads");
             if(helperThreads == null){ // if not found, set to default (defined on top of the class)
@@ -770,7 +1941,502 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
                         System.out.println("Barrel Exportation Delay cannot be lower or equal to 10000 (10 seconds)! Defaulting to " + exportationDelay + "...");
                     }
                 } catch (NumberFormatException ignored){
-                    System.err.println("Exportation Delay is not a number! Defaulting to " + exportationDelay + "...");
+                    System.err.println("Exportation Delay is not a number! Defaulting to " + exportationDelay + "...");
+                }
+            }
+
+            // load parser batch size
+            String parserBatchSizeProperty = BarrelConfigLoader.getProperty("barrel.parserBatchSize");
+            if(parserBatchSizeProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Parser Batch Size property not found in property file! Defaulting to " + parserBatchSize + "...");
+            } else { // if found, check it
+                try{
+                    int parserBatchSizeInt = Integer.parseInt(parserBatchSizeProperty);
+                    if(parserBatchSizeInt > 0) { // if parser batch size is valid
+                        parserBatchSize = parserBatchSizeInt;
+                        if(verbosity) System.out.println("Parser Batch Size: " + parserBatchSize);
+                    } else { // if parser batch size is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Parser Batch Size cannot be lower or equal to 0! Defaulting to " + parserBatchSize + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Parser Batch Size is not a number! Defaulting to " + parserBatchSize + "...");
+                }
+            }
+
+            // load ingest queue capacity
+            String ingestQueueCapacityProperty = BarrelConfigLoader.getProperty("barrel.ingestQueueCapacity");
+            if(ingestQueueCapacityProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Ingest Queue Capacity property not found in property file! Defaulting to " + ingestQueueCapacity + "...");
+            } else { // if found, check it
+                try{
+                    int ingestQueueCapacityInt = Integer.parseInt(ingestQueueCapacityProperty);
+                    if(ingestQueueCapacityInt > 0) { // if ingest queue capacity is valid
+                        ingestQueueCapacity = ingestQueueCapacityInt;
+                        if(verbosity) System.out.println("Ingest Queue Capacity: " + ingestQueueCapacity);
+                    } else { // if ingest queue capacity is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Ingest Queue Capacity cannot be lower or equal to 0! Defaulting to " + ingestQueueCapacity + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Ingest Queue Capacity is not a number! Defaulting to " + ingestQueueCapacity + "...");
+                }
+            }
+
+            // load overflow policy
+            String overflowPolicyProperty = BarrelConfigLoader.getProperty("barrel.overflowPolicy");
+            if(overflowPolicyProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Overflow Policy property not found in property file! Defaulting to " + overflowPolicy + "...");
+            } else { // if found, check it
+                switch(overflowPolicyProperty.trim().toLowerCase()){
+                    case "block":
+                        overflowPolicy = IngestQueue.OverflowPolicy.BLOCK;
+                        if(verbosity) System.out.println("Overflow Policy: " + overflowPolicy);
+                        break;
+                    case "drop":
+                        overflowPolicy = IngestQueue.OverflowPolicy.DROP;
+                        if(verbosity) System.out.println("Overflow Policy: " + overflowPolicy);
+                        break;
+                    default:
+                        System.out.println("Overflow Policy property not supported or recognized! Defaulting to " + overflowPolicy + "...");
+                        break;
+                }
+            }
+
+            // load nack delay
+            String nackDelayProperty = BarrelConfigLoader.getProperty("barrel.nackDelay");
+            if(nackDelayProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel NACK Delay property not found in property file! Defaulting to " + nackDelay + "...");
+            } else { // if found, check it
+                try{
+                    int nackDelayInt = Integer.parseInt(nackDelayProperty);
+                    if(nackDelayInt > 0) { // if nack delay is valid
+                        nackDelay = nackDelayInt;
+                        if(verbosity) System.out.println("NACK Delay: " + nackDelay);
+                    } else { // if nack delay is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel NACK Delay cannot be lower or equal to 0! Defaulting to " + nackDelay + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("NACK Delay is not a number! Defaulting to " + nackDelay + "...");
+                }
+            }
+
+            // load positional index flag
+            String positionalIndexProperty = BarrelConfigLoader.getProperty("barrel.positionalIndex");
+            if(positionalIndexProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Positional Index property not found in property file! Defaulting to " + positionalIndex + "...");
+            } else { // if found, check it
+                try{
+                    positionalIndex = Integer.parseInt(positionalIndexProperty) == 1;
+                    if(verbosity) System.out.println("Positional Index: " + positionalIndex);
+                } catch (NumberFormatException ignored){
+                    System.err.println("Positional Index is not a number! Defaulting to " + positionalIndex + "...");
+                }
+            }
+
+            // load bm25 k1
+            String bm25K1Property = BarrelConfigLoader.getProperty("barrel.bm25K1");
+            if(bm25K1Property == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel BM25 K1 property not found in property file! Defaulting to " + bm25K1 + "...");
+            } else { // if found, check it
+                try{
+                    double bm25K1Double = Double.parseDouble(bm25K1Property);
+                    if(bm25K1Double >= 0) { // if k1 is valid
+                        bm25K1 = bm25K1Double;
+                        if(verbosity) System.out.println("BM25 K1: " + bm25K1);
+                    } else { // if k1 is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel BM25 K1 cannot be negative! Defaulting to " + bm25K1 + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("BM25 K1 is not a number! Defaulting to " + bm25K1 + "...");
+                }
+            }
+
+            // load bm25 b
+            String bm25BProperty = BarrelConfigLoader.getProperty("barrel.bm25B");
+            if(bm25BProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel BM25 B property not found in property file! Defaulting to " + bm25B + "...");
+            } else { // if found, check it
+                try{
+                    double bm25BDouble = Double.parseDouble(bm25BProperty);
+                    if(bm25BDouble >= 0 && bm25BDouble <= 1) { // if b is valid
+                        bm25B = bm25BDouble;
+                        if(verbosity) System.out.println("BM25 B: " + bm25B);
+                    } else { // if b is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel BM25 B must be between 0 and 1! Defaulting to " + bm25B + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("BM25 B is not a number! Defaulting to " + bm25B + "...");
+                }
+            }
+
+            // load inlink weight
+            String inlinkWeightProperty = BarrelConfigLoader.getProperty("barrel.inlinkWeight");
+            if(inlinkWeightProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Inlink Weight property not found in property file! Defaulting to " + inlinkWeight + "...");
+            } else { // if found, check it
+                try{
+                    double inlinkWeightDouble = Double.parseDouble(inlinkWeightProperty);
+                    if(inlinkWeightDouble >= 0) { // if inlink weight is valid
+                        inlinkWeight = inlinkWeightDouble;
+                        if(verbosity) System.out.println("Inlink Weight: " + inlinkWeight);
+                    } else { // if inlink weight is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Inlink Weight cannot be negative! Defaulting to " + inlinkWeight + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Inlink Weight is not a number! Defaulting to " + inlinkWeight + "...");
+                }
+            }
+            scorer = new Bm25Scorer(bm25K1, bm25B, inlinkWeight);
+
+            // load title boost
+            String titleBoostProperty = BarrelConfigLoader.getProperty("barrel.titleBoost");
+            if(titleBoostProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Title Boost property not found in property file! Defaulting to " + titleBoost + "...");
+            } else { // if found, check it
+                try{
+                    int titleBoostInt = Integer.parseInt(titleBoostProperty);
+                    if(titleBoostInt >= 0) { // if title boost is valid
+                        titleBoost = titleBoostInt;
+                        if(verbosity) System.out.println("Title Boost: " + titleBoost);
+                    } else { // if title boost is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Title Boost cannot be lower than 0! Defaulting to " + titleBoost + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Title Boost is not a number! Defaulting to " + titleBoost + "...");
+                }
+            }
+
+            // load description boost
+            String descriptionBoostProperty = BarrelConfigLoader.getProperty("barrel.descriptionBoost");
+            if(descriptionBoostProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Description Boost property not found in property file! Defaulting to " + descriptionBoost + "...");
+            } else { // if found, check it
+                try{
+                    int descriptionBoostInt = Integer.parseInt(descriptionBoostProperty);
+                    if(descriptionBoostInt >= 0) { // if description boost is valid
+                        descriptionBoost = descriptionBoostInt;
+                        if(verbosity) System.out.println("Description Boost: " + descriptionBoost);
+                    } else { // if description boost is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Description Boost cannot be lower than 0! Defaulting to " + descriptionBoost + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Description Boost is not a number! Defaulting to " + descriptionBoost + "...");
+                }
+            }
+
+            // load filter word ratio
+            String filterWordRatioProperty = BarrelConfigLoader.getProperty("barrel.filterWordRatio");
+            if(filterWordRatioProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Filter Word Ratio property not found in property file! Defaulting to " + filterWordRatio + "...");
+            } else { // if found, check it
+                try{
+                    double filterWordRatioDouble = Double.parseDouble(filterWordRatioProperty);
+                    if(filterWordRatioDouble > 0) { // if filter word ratio is valid
+                        filterWordRatio = filterWordRatioDouble;
+                        if(verbosity) System.out.println("Filter Word Ratio: " + filterWordRatio);
+                    } else { // if filter word ratio is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Filter Word Ratio must be greater than 0! Defaulting to " + filterWordRatio + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Filter Word Ratio is not a number! Defaulting to " + filterWordRatio + "...");
+                }
+            }
+            queryPlanner = new QueryPlanner(filterWordRatio);
+
+            // load search snapshot documents
+            String searchSnapshotDocumentsProperty = BarrelConfigLoader.getProperty("barrel.searchSnapshotDocuments");
+            if(searchSnapshotDocumentsProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Search Snapshot Documents property not found in property file! Defaulting to " + searchSnapshotDocuments + "...");
+            } else { // if found, check it
+                try{
+                    long searchSnapshotDocumentsLong = Long.parseLong(searchSnapshotDocumentsProperty);
+                    if(searchSnapshotDocumentsLong >= 0) { // if search snapshot documents is valid (0 disables the snapshots)
+                        searchSnapshotDocuments = searchSnapshotDocumentsLong;
+                        if(verbosity) System.out.println("Search Snapshot Documents: " + searchSnapshotDocuments);
+                    } else { // if search snapshot documents is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Search Snapshot Documents cannot be lower than 0! Defaulting to " + searchSnapshotDocuments + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Search Snapshot Documents is not a number! Defaulting to " + searchSnapshotDocuments + "...");
+                }
+            }
+
+            // load search snapshot time to live
+            String searchSnapshotTtlProperty = BarrelConfigLoader.getProperty("barrel.searchSnapshotTtl");
+            if(searchSnapshotTtlProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Search Snapshot TTL property not found in property file! Defaulting to " + searchSnapshotTtl + "...");
+            } else { // if found, check it
+                try{
+                    long searchSnapshotTtlLong = Long.parseLong(searchSnapshotTtlProperty);
+                    if(searchSnapshotTtlLong > 0) { // if search snapshot ttl is valid
+                        searchSnapshotTtl = searchSnapshotTtlLong;
+                        if(verbosity) System.out.println("Search Snapshot TTL: " + searchSnapshotTtl);
+                    } else { // if search snapshot ttl is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Search Snapshot TTL cannot be lower or equal to 0! Defaulting to " + searchSnapshotTtl + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Search Snapshot TTL is not a number! Defaulting to " + searchSnapshotTtl + "...");
+                }
+            }
+            searchSnapshots = new SearchSnapshots(searchSnapshotDocuments, searchSnapshotTtl);
+
+            // load max results per host
+            String maxResultsPerHostProperty = BarrelConfigLoader.getProperty("barrel.maxResultsPerHost");
+            if(maxResultsPerHostProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Max Results Per Host property not found in property file! Defaulting to " + maxResultsPerHost + "...");
+            } else { // if found, check it
+                try{
+                    int maxResultsPerHostInt = Integer.parseInt(maxResultsPerHostProperty);
+                    if(maxResultsPerHostInt >= 0) { // if max results per host is valid (0 means no maximum)
+                        maxResultsPerHost = maxResultsPerHostInt;
+                        if(verbosity) System.out.println("Max Results Per Host: " + maxResultsPerHost);
+                    } else { // if max results per host is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Max Results Per Host cannot be lower than 0! Defaulting to " + maxResultsPerHost + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Max Results Per Host is not a number! Defaulting to " + maxResultsPerHost + "...");
+                }
+            }
+
+            // load early termination documents
+            String earlyTerminationDocumentsProperty = BarrelConfigLoader.getProperty("barrel.earlyTerminationDocuments");
+            if(earlyTerminationDocumentsProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Early Termination Documents property not found in property file! Defaulting to " + earlyTerminationDocuments + "...");
+            } else { // if found, check it
+                try{
+                    int earlyTerminationDocumentsInt = Integer.parseInt(earlyTerminationDocumentsProperty);
+                    if(earlyTerminationDocumentsInt >= 0) { // if early termination documents is valid
+                        earlyTerminationDocuments = earlyTerminationDocumentsInt;
+                        if(verbosity) System.out.println("Early Termination Documents: " + earlyTerminationDocuments);
+                    } else { // if early termination documents is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Early Termination Documents cannot be lower than 0! Defaulting to " + earlyTerminationDocuments + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Early Termination Documents is not a number! Defaulting to " + earlyTerminationDocuments + "...");
+                }
+            }
+
+            // load anti-entropy interval
+            String antiEntropyIntervalProperty = BarrelConfigLoader.getProperty("barrel.antiEntropyInterval");
+            if(antiEntropyIntervalProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Anti-Entropy Interval property not found in property file! Defaulting to " + antiEntropyInterval + "...");
+            } else { // if found, check it
+                try{
+                    int antiEntropyIntervalInt = Integer.parseInt(antiEntropyIntervalProperty);
+                    if(antiEntropyIntervalInt == 0 || antiEntropyIntervalInt >= 10000) { // if anti-entropy interval is valid
+                        antiEntropyInterval = antiEntropyIntervalInt;
+                        if(verbosity) System.out.println("Anti-Entropy Interval: " + antiEntropyInterval);
+                    } else { // if anti-entropy interval is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Anti-Entropy Interval must be 0 (disabled) or at least 10000 (10 seconds)! Defaulting to " + antiEntropyInterval + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Anti-Entropy Interval is not a number! Defaulting to " + antiEntropyInterval + "...");
+                }
+            }
+
+            // load warm-up searches
+            String warmUpSearchesProperty = BarrelConfigLoader.getProperty("barrel.warmUpSearches");
+            if(warmUpSearchesProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Warm-Up Searches property not found in property file! Defaulting to " + warmUpSearches + "...");
+            } else { // if found, check it
+                try{
+                    int warmUpSearchesInt = Integer.parseInt(warmUpSearchesProperty);
+                    if(warmUpSearchesInt >= 0) { // if warm-up searches is valid
+                        warmUpSearches = warmUpSearchesInt;
+                        if(verbosity) System.out.println("Warm-Up Searches: " + warmUpSearches);
+                    } else { // if warm-up searches is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Warm-Up Searches cannot be lower than 0! Defaulting to " + warmUpSearches + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Warm-Up Searches is not a number! Defaulting to " + warmUpSearches + "...");
+                }
+            }
+
+            // load warm-up duration
+            String warmUpDurationProperty = BarrelConfigLoader.getProperty("barrel.warmUpDuration");
+            if(warmUpDurationProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Warm-Up Duration property not found in property file! Defaulting to " + warmUpDuration + "...");
+            } else { // if found, check it
+                try{
+                    int warmUpDurationInt = Integer.parseInt(warmUpDurationProperty);
+                    if(warmUpDurationInt > 0) { // if warm-up duration is valid
+                        warmUpDuration = warmUpDurationInt;
+                        if(verbosity) System.out.println("Warm-Up Duration: " + warmUpDuration);
+                    } else { // if warm-up duration is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Warm-Up Duration cannot be lower or equal to 0! Defaulting to " + warmUpDuration + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Warm-Up Duration is not a number! Defaulting to " + warmUpDuration + "...");
+                }
+            }
+
+            // load heartbeat interval
+            String heartbeatIntervalProperty = BarrelConfigLoader.getProperty("barrel.heartbeatInterval");
+            if(heartbeatIntervalProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Heartbeat Interval property not found in property file! Defaulting to " + heartbeatInterval + "...");
+            } else { // if found, check it
+                try{
+                    int heartbeatIntervalInt = Integer.parseInt(heartbeatIntervalProperty);
+                    if(heartbeatIntervalInt >= 100) { // if heartbeat interval is valid (prevent flooding the gateway)
+                        heartbeatInterval = heartbeatIntervalInt;
+                        if(verbosity) System.out.println("Heartbeat Interval: " + heartbeatInterval);
+                    } else { // if heartbeat interval is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Heartbeat Interval must be greater or equal to 100! Defaulting to " + heartbeatInterval + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Heartbeat Interval is not a number! Defaulting to " + heartbeatInterval + "...");
+                }
+            }
+
+            // load document store block size
+            String documentStoreBlockSizeProperty = BarrelConfigLoader.getProperty("barrel.documentStoreBlockSize");
+            if(documentStoreBlockSizeProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Document Store Block Size property not found in property file! Defaulting to " + documentStoreBlockSize + "...");
+            } else { // if found, check it
+                try{
+                    int documentStoreBlockSizeInt = Integer.parseInt(documentStoreBlockSizeProperty);
+                    if(documentStoreBlockSizeInt > 0 && documentStoreBlockSizeInt < (1 << 24)) { // if document store block size is valid
+                        documentStoreBlockSize = documentStoreBlockSizeInt;
+                        if(verbosity) System.out.println("Document Store Block Size: " + documentStoreBlockSize);
+                    } else { // if document store block size is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Document Store Block Size must be between 1 and 16777215! Defaulting to " + documentStoreBlockSize + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Document Store Block Size is not a number! Defaulting to " + documentStoreBlockSize + "...");
+                }
+            }
+
+            // load document cache blocks
+            String documentCacheBlocksProperty = BarrelConfigLoader.getProperty("barrel.documentCacheBlocks");
+            if(documentCacheBlocksProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Document Cache Blocks property not found in property file! Defaulting to " + documentCacheBlocks + "...");
+            } else { // if found, check it
+                try{
+                    int documentCacheBlocksInt = Integer.parseInt(documentCacheBlocksProperty);
+                    if(documentCacheBlocksInt > 0) { // if document cache blocks is valid
+                        documentCacheBlocks = documentCacheBlocksInt;
+                        if(verbosity) System.out.println("Document Cache Blocks: " + documentCacheBlocks);
+                    } else { // if document cache blocks is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Document Cache Blocks cannot be lower or equal to 0! Defaulting to " + documentCacheBlocks + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Document Cache Blocks is not a number! Defaulting to " + documentCacheBlocks + "...");
+                }
+            }
+
+            // load snippet words
+            String snippetWordsProperty = BarrelConfigLoader.getProperty("barrel.snippetWords");
+            if(snippetWordsProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Snippet Words property not found in property file! Defaulting to " + snippetWords + "...");
+            } else { // if found, check it
+                try{
+                    int snippetWordsInt = Integer.parseInt(snippetWordsProperty);
+                    if(snippetWordsInt > 0) { // if snippet words is valid
+                        snippetWords = snippetWordsInt;
+                        if(verbosity) System.out.println("Snippet Words: " + snippetWords);
+                    } else { // if snippet words is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Snippet Words cannot be lower or equal to 0! Defaulting to " + snippetWords + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Snippet Words is not a number! Defaulting to " + snippetWords + "...");
+                }
+            }
+
+            // load index directory
+            String indexDirectoryProperty = BarrelConfigLoader.getProperty("barrel.indexDirectory");
+            if(indexDirectoryProperty == null || indexDirectoryProperty.isBlank()){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Index Directory property not found in property file! Defaulting to " + indexDirectory + "...");
+            } else {
+                indexDirectory = indexDirectoryProperty.trim();
+                if(verbosity) System.out.println("Index Directory: " + indexDirectory);
+            }
+
+            // load write buffer postings
+            String writeBufferPostingsProperty = BarrelConfigLoader.getProperty("barrel.writeBufferPostings");
+            if(writeBufferPostingsProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Write Buffer Postings property not found in property file! Defaulting to " + writeBufferPostings + "...");
+            } else { // if found, check it
+                try{
+                    int writeBufferPostingsInt = Integer.parseInt(writeBufferPostingsProperty);
+                    if(writeBufferPostingsInt > 0) { // if write buffer postings is valid
+                        writeBufferPostings = writeBufferPostingsInt;
+                        if(verbosity) System.out.println("Write Buffer Postings: " + writeBufferPostings);
+                    } else { // if write buffer postings is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Write Buffer Postings cannot be lower or equal to 0! Defaulting to " + writeBufferPostings + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Write Buffer Postings is not a number! Defaulting to " + writeBufferPostings + "...");
+                }
+            }
+
+            // load merge factor
+            String mergeFactorProperty = BarrelConfigLoader.getProperty("barrel.mergeFactor");
+            if(mergeFactorProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Merge Factor property not found in property file! Defaulting to " + mergeFactor + "...");
+            } else { // if found, check it
+                try{
+                    int mergeFactorInt = Integer.parseInt(mergeFactorProperty);
+                    if(mergeFactorInt >= 2) { // if merge factor is valid
+                        mergeFactor = mergeFactorInt;
+                        if(verbosity) System.out.println("Merge Factor: " + mergeFactor);
+                    } else { // if merge factor is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Merge Factor cannot be lower than 2! Defaulting to " + mergeFactor + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Merge Factor is not a number! Defaulting to " + mergeFactor + "...");
+                }
+            }
+
+            // load merge threads
+            String mergeThreadsProperty = BarrelConfigLoader.getProperty("barrel.mergeThreads");
+            if(mergeThreadsProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Merge Threads property not found in property file! Defaulting to " + mergeThreads + "...");
+            } else { // if found, check it
+                try{
+                    int mergeThreadsInt = Integer.parseInt(mergeThreadsProperty);
+                    if(mergeThreadsInt > 0) { // if merge threads is valid
+                        mergeThreads = mergeThreadsInt;
+                        if(verbosity) System.out.println("Merge Threads: " + mergeThreads);
+                    } else { // if merge threads is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Merge Threads cannot be lower or equal to 0! Defaulting to " + mergeThreads + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Merge Threads is not a number! Defaulting to " + mergeThreads + "...");
+                }
+            }
+
+            // load reorder window
+            String reorderWindowProperty = BarrelConfigLoader.getProperty("barrel.reorderWindow");
+            if(reorderWindowProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Reorder Window property not found in property file! Defaulting to " + reorderWindow + "...");
+            } else { // if found, check it
+                try{
+                    int reorderWindowInt = Integer.parseInt(reorderWindowProperty);
+                    if(reorderWindowInt > 0) { // if reorder window is valid
+                        reorderWindow = reorderWindowInt;
+                        if(verbosity) System.out.println("Reorder Window: " + reorderWindow);
+                    } else { // if reorder window is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Reorder Window cannot be lower or equal to 0! Defaulting to " + reorderWindow + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Reorder Window is not a number! Defaulting to " + reorderWindow + "...");
+                }
+            }
+
+            // load sender timeout
+            String senderTimeoutProperty = BarrelConfigLoader.getProperty("barrel.senderTimeout");
+            if(senderTimeoutProperty == null){ // if not found, set to default (defined on top of the class)
+                System.err.println("Barrel Sender Timeout property not found in property file! Defaulting to " + senderTimeout + "...");
+            } else { // if found, check it
+                try{
+                    long senderTimeoutLong = Long.parseLong(senderTimeoutProperty);
+                    if(senderTimeoutLong > 0) { // if sender timeout is valid
+                        senderTimeout = senderTimeoutLong;
+                        if(verbosity) System.out.println("Sender Timeout: " + senderTimeout);
+                    } else { // if sender timeout is not valid, set it to default (defined on top of the class)
+                        System.out.println("Barrel Sender Timeout cannot be lower or equal to 0! Defaulting to " + senderTimeout + "...");
+                    }
+                } catch (NumberFormatException ignored){
+                    System.err.println("Sender Timeout is not a number! Defaulting to " + senderTimeout + "...");
                 }
             }
         } catch (BarrelConfigLoader.ConfigurationException e) {
@@ -805,17 +2471,15 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
         log("Successfully connected to gateway!");
 
 
-        // try to sync barrel with another one, if it exists
-        // if not successful, try to import serialized info
-        if(!syncBarrel()){
-            log("Couldn't sync barrel with another one. Trying to import serialized info...");
-            if(importSerializedInfo()) log("Successfully imported serialized info!");
-            else log("Failed to import serialized info...");
-        }
-
-        // register barrel in gateway
+        // register barrel in gateway as warming, so no searches are routed to it until it's recovered
         registerBarrel();
 
+        // report the recovery progress until online, so the gateway knows the barrel is still alive
+        Thread statusReporter = new Thread(IndexStorageBarrel::reportRecoveryStatus);
+        statusReporter.start();
+
+        recoverBarrel();
+
         // setup barrel RMI
         if(!setupRMI()){System.exit(1);}
 
@@ -829,18 +2493,44 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
         if(socket == null) return;
         log("Successfully joined multicast group!");
 
+        // setup the retransmission side channel
+        sequenceTracker = new SenderSequenceTracker(reorderWindow);
+        try{
+            nackSocket = new DatagramSocket();
+        } catch (SocketException e){
+            log("Error setting up NACK socket: " + e.getMessage());
+            return;
+        }
+        multicastMessagesQueue = new IngestQueue(ingestQueueCapacity, overflowPolicy);
+        new Thread(IndexStorageBarrel::receiveRetransmissions).start();
+        new Thread(IndexStorageBarrel::periodicNacks).start();
+
         for(int i=0; i<helperThreadsNum; i++){
             fixedThreadPool.execute(IndexStorageBarrel::messagesParser);
         }
 
+        // warm up while the pages crawled meanwhile are already being indexed, then go online
+        new Thread(() -> {
+            warmUp();
+            statusReporter.interrupt();
+            searchLatency.reset(); // the warm-up searches don't reflect the load of the clients
+
+            // register barrel in gateway again, now online
+            isWarming = false;
+            registerBarrel();
+
+            new Thread(IndexStorageBarrel::periodicHeartbeats).start();
+            if(antiEntropyInterval > 0) new Thread(IndexStorageBarrel::periodicAntiEntropy).start();
+        }).start();
+
         new Thread(IndexStorageBarrel::periodicBarrelExportation).start();
 
         try{
             while(!Thread.currentThread().isInterrupted()){
-                String message = getMulticastMessage();
-                if (message == null) continue;
+                DatagramPacket packet = getMulticastMessage();
+                if (packet == null) continue;
 
-                multicastMessagesQueue.add(message);
+                ingestDatagram(packet);
             }
         } catch (Exception e){
             log("Error receiving message: " + e);
@@ -852,13 +2542,17 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
 
 
     /**
-     * Parse message, splitting it by delimiter.
-     * @param message
-     * @return
+     * Decode the received message into a frame.
+     * @param message raw message bytes
+     * @return decoded frame if valid, null otherwise
      */
-    private static ArrayList<String> parseMessage(String message){
-        String[] splitMessage = message.split(Pattern.quote(String.valueOf(DELIMITER)));
-        return new ArrayList<>(Arrays.asList(splitMessage));
+    private static Frame parseMessage(byte[] message){
+        try{
+            return FrameCodec.decode(message, message.length);
+        } catch (FrameCodec.FrameFormatException e){
+            log("Discarding invalid frame: " + e.getMessage());
+            return null;
+        }
     }
 
 
@@ -880,11 +2574,11 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
      * @return id of the created url if successful, -1 otherwise
      */
     private static long addParsedUrl(String url, String title, String description){
-        /* try to increment and retrieve the number of parsed urls */
+        /* try to get the id of the url from the gateway */
         long id = -1;
         for (int i = 0; i < IndexStorageBarrel.maxRetries; i++) {
             try {
-                id = IndexStorageBarrel.gatewayRemote.incrementAndGetParsedUrls();
+                id = IndexStorageBarrel.gatewayRemote.getOrAssignUrlId(url); // same id in every barrel
                 break;
             } catch( ConnectException e){
                 reconnectToGatewayRMI();
@@ -893,81 +2587,186 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
             }
         }
         if (id == -1){
-            System.out.println("Failed to increment and retrieve the number of parsed urls! (" + url + ")");
+            System.out.println("Failed to get the url id from the gateway! (" + url + ")");
             return -1;
         }
 
-        ParsedUrl parsedUrl = new ParsedUrl(url, id, title, description, null); // TODO maybe remove the 'text' variable from the parsed url object
+        ParsedUrl parsedUrl = new ParsedUrl(url, id, title, description, null); // the text is kept in the document store, off the heap
 
         // create new url id pair
         ParsedUrlIdPair urlIdPair = new ParsedUrlIdPair(url, id);
+        // put parsed url on main hash map, associating it with the url id pair
+        // (unless another part of the same page was parsed meanwhile, every part must share the same object)
+        parsedUrlsMap.putIfAbsent(urlIdPair, parsedUrl);
         // associate created url id pair to link
         urlToUrlKeyPairMap.put(url, urlIdPair);
         // associate created url id pair to id
         idToUrlKeyPairMap.put(id, urlIdPair);
-        // put parsed url on main hash map, associating it with the url id pair
-        parsedUrlsMap.put(urlIdPair, parsedUrl);
+        hostIndex.add(id, url);
 
         return id;
     }
 
 
     /**
-     * Index url into data structures, inserting every word in the tree
-     * and inserting the url in the hash maps if not already there
-     * @param parsedMessage parsed message
+     * Index url into data structures, adding every word to the batch that will be inserted in the tree
+     * and inserting the url in the hash maps if not already there.
+     * <p>
+     * Pages carry the version of their crawl. The first part of a newer crawl starts a new version of the document,
+     * so the postings of the previous version stop matching (the words that disappeared from the page are dropped
+     * without touching their postings) and the title, description and text are replaced. Late parts of an older
+     * crawl are discarded.
+     * <p>
+     * A recrawl costs one new posting per word of the page, not per changed word: the postings carry the frequencies
+     * and positions of the words, which shift for most of them when the page changes at all, and the barrel keeps no
+     * list of the words of each document to compare with. The postings of the previous version are skipped by the
+     * searches right away, and left out of the segments written by the next flush or merge.
+     * @param frame page frame
+     * @param termBatch batch of the parser thread, where the page words are added
      */
-    private static void indexUrl(ArrayList<String> parsedMessage){
-        if(parsedMessage.size() < 4) return;
-
-        String url = parsedMessage.get(0);
-        if (hasUrlBeenParsed(url)) { // if url has already been parsed
-            ParsedUrlIdPair pair = urlToUrlKeyPairMap.get(url);
-            if(pair == null) return;
-            ParsedUrl parsedUrl = parsedUrlsMap.get(pair);
-            if(parsedUrl == null) return;
+    private static void indexUrl(Frame frame, TermBatch termBatch){
+        String url = frame.url;
+        boolean isNewUrl = !hasUrlBeenParsed(url);
+        if(isNewUrl && addParsedUrl(url, frame.title, frame.description) == -1) return;
+
+        ParsedUrlIdPair pair = urlToUrlKeyPairMap.get(url);
+        if(pair == null) return;
+        ParsedUrl parsedUrl = parsedUrlsMap.get(pair);
+        if(parsedUrl == null) return;
+        long id = parsedUrl.id;
+
+        int version;
+        synchronized(parsedUrl){ // the parts of a page are parsed by several threads
+            if(frame.crawlVersion != 0 && frame.crawlVersion < parsedUrl.crawlVersion){
+                if(verbosity) log("Discarded part of an older crawl of " + url);
+                return;
+            }
+            if(frame.crawlVersion > parsedUrl.crawlVersion){ // first part of a new crawl
+                // a new url, or one only known from the father urls (no title), has nothing indexed yet
+                if(parsedUrl.crawlVersion != 0 || (!isNewUrl && parsedUrl.title != null)) parsedUrl.version++;
+                parsedUrl.crawlVersion = frame.crawlVersion;
+                documentStats.setVersion(id, parsedUrl.version);
+            }
+            version = parsedUrl.version;
+
+            // the title and description only come with the first part of the page
+            if(frame.title != null) parsedUrl.title = frame.title;
+            if(frame.description != null) parsedUrl.description = frame.description;
+            if(frame.documentLength > 0){
+                parsedUrl.documentLength = frame.documentLength;
+                documentStats.setLength(id, frame.documentLength);
+            }
+        }
 
-            long id = parsedUrl.id;
+        addTermsToBatch(frame, id, version, termBatch);
+        System.out.println((isNewUrl ? "Parsed and inserted " : "Parsed and updated existing url: ") + url);
+    }
 
-            // making sure the title and description are not null or empty (it can happen when the
-            // url is created whenever processing a father url and that url doesn't exist,
-            // so it's object is created with these 2 fields as null, because the title and description are not known at that time)
-            if(parsedUrl.title == null || parsedUrl.title.isEmpty()) parsedUrl.title = parsedMessage.get(1);
-            if(parsedUrl.description == null || parsedUrl.description.isEmpty()) parsedUrl.description = parsedMessage.get(2);
 
-            for (int i = 3; i < parsedMessage.size(); i++) {
-                String word = parsedMessage.get(i);
-                art.insert(word, id);
+    /**
+     * Add the terms of a page frame owned by this barrel to the batch, with their frequencies, and their positions if the positional index is enabled.
+     * The text of the page, when present, is appended to the document store.
+     * Terms of other partitions are indexed by other barrels.
+     *
+     * @param frame page frame
+     * @param id id of the page
+     * @param version version of the page the terms belong to
+     * @param termBatch batch of the parser thread
+     */
+    private static void addTermsToBatch(Frame frame, long id, int version, TermBatch termBatch){
+        if(frame.text != null && documentStore != null){ // the text only comes with the first part of the page
+            try{
+                documentStore.put(id, frame.text);
+            } catch (IOException e){
+                log("Error storing the text of " + frame.url + ": " + e.getMessage());
             }
-            System.out.println("Parsed and updated existing url: " + url);
+        }
 
-        } else {
-            // get title, description and text
-            String title = parsedMessage.get(1);
-            String description = parsedMessage.get(2);
+        for (int i = 0; i < frame.entriesNum; i++) {
+            if(!ownsTerm(frame.entries[i])) continue;
+            int[] positions = positionalIndex && frame.positions != null ? frame.positions[i] : null;
+            int frequency = frame.frequencies != null ? frame.frequencies[i] : 1;
+            termBatch.add(frame.entries[i], id, frequency, positions, version);
+        }
 
-            long id = addParsedUrl(url, title, description);
-            if(id == -1) return;
+        // the title and description words, also only with the first part of the page
+        addFieldTermsToBatch(FieldPostings.TITLE, frame.title, id, version, termBatch);
+        addFieldTermsToBatch(FieldPostings.DESCRIPTION, frame.description, id, version, termBatch);
+    }
 
-            for (int i = 3; i < parsedMessage.size(); i++) {
-                String word = parsedMessage.get(i);
-                art.insert(word, id);
-            }
 
-            System.out.println("Parsed and inserted " + url);
+    /**
+     * Add the words of a field of a page owned by this barrel to the batch, as terms of the field (see {@link FieldPostings}).
+     *
+     * @param field the field prefix
+     * @param text the text of the field (null if the frame doesn't have it)
+     * @param id id of the page
+     * @param version version of the page the terms belong to
+     * @param termBatch batch of the parser thread
+     */
+    private static void addFieldTermsToBatch(char field, String text, long id, int version, TermBatch termBatch){
+        for(String word : FieldPostings.words(text)){
+            if(!ownsTerm(word)) continue; // the fields of a word belong to the partition of the word
+            termBatch.add(FieldPostings.term(field, word), id, 1, null, version);
         }
     }
 
 
     /**
-     * Process father urls
+     * Get the postings of a word in the body, title and description of the pages, with the field boosts added to
+     * the frequencies (see {@link FieldPostings}).
+     *
+     * @param word the word
+     * @return the postings, or null if no page has the word
+     */
+    private static Postings getWordPostings(String word){
+        Postings title = titleBoost > 0 ? index.getPostings(FieldPostings.term(FieldPostings.TITLE, word)) : null;
+        Postings description = descriptionBoost > 0 ? index.getPostings(FieldPostings.term(FieldPostings.DESCRIPTION, word)) : null;
+        return FieldPostings.boost(index.getPostings(word), title, titleBoost, description, descriptionBoost);
+    }
+
+
+    /**
+     * Get an upper bound of the number of pages with a word in any of their searched fields.
+     *
+     * @param word the word
+     * @return the document frequency bound
+     */
+    private static long getWordDocumentFrequency(String word){
+        long documentFrequency = index.getDocumentFrequency(word);
+        if(titleBoost > 0) documentFrequency += index.getDocumentFrequency(FieldPostings.term(FieldPostings.TITLE, word));
+        if(descriptionBoost > 0) documentFrequency += index.getDocumentFrequency(FieldPostings.term(FieldPostings.DESCRIPTION, word));
+        return documentFrequency;
+    }
+
+
+    /**
+     * Check which documents have a word in any of their searched fields.
      *
-     * @param parsedMessage parsed message
+     * @param word the word
+     * @param linkIndices the documents, sorted ascending
+     * @param num number of documents
+     * @return a flag for each document, true if it has the word
      */
-    private static void processFatherUrls(ArrayList<String> parsedMessage){
-        if(parsedMessage.size() < 3) return;
+    private static boolean[] matchWord(String word, long[] linkIndices, int num){
+        boolean[] matches = index.matchDocuments(word, linkIndices, num);
+        boolean[] titleMatches = titleBoost > 0 ? index.matchDocuments(FieldPostings.term(FieldPostings.TITLE, word), linkIndices, num) : null;
+        boolean[] descriptionMatches = descriptionBoost > 0 ? index.matchDocuments(FieldPostings.term(FieldPostings.DESCRIPTION, word), linkIndices, num) : null;
+        for(int i = 0; i < num; i++){
+            if(titleMatches != null) matches[i] |= titleMatches[i];
+            if(descriptionMatches != null) matches[i] |= descriptionMatches[i];
+        }
+        return matches;
+    }
+
 
-        String fatherUrl = parsedMessage.get(1);
+    /**
+     * Process father urls
+     *
+     * @param frame father urls frame
+     */
+    private static void processFatherUrls(Frame frame){
+        String fatherUrl = frame.url;
         Long fatherUrlId;
         if(hasUrlBeenParsed(fatherUrl)){ // if the father url has already been parsed, get its object
             ParsedUrlIdPair urlIdPair = urlToUrlKeyPairMap.get(fatherUrl);
@@ -981,8 +2780,8 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
             if(fatherUrlId == -1) return;
         }
 
-        for(int i=2; i<parsedMessage.size(); i++){ // go over all the child urls
-            String childUrl = parsedMessage.get(i);
+        for(int i=0; i<frame.entriesNum; i++){ // go over all the child urls
+            String childUrl = frame.entries[i];
 
             if(hasUrlBeenParsed(childUrl)){ // if the child url has already been parsed
                 ParsedUrlIdPair urlIdPair = urlToUrlKeyPairMap.get(childUrl);
@@ -991,6 +2790,7 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
                 if(parsedChildUrl == null) continue;
 
                 parsedChildUrl.addFatherUrl(fatherUrlId); // add father url to the child url
+                documentStats.setInlinks(parsedChildUrl.id, parsedChildUrl.getFatherUrlsCount());
 
                 System.out.println("Added " + fatherUrl + " as a father of existing " + childUrl);
             } else { // if the child url hasn't been parsed yet, parse it
@@ -1003,6 +2803,7 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
                 if(parsedChildUrl == null) continue;
 
                 parsedChildUrl.addFatherUrl(fatherUrlId); // add father url to the child url
+                documentStats.setInlinks(parsedChildUrl.id, parsedChildUrl.getFatherUrlsCount());
                 System.out.println("Added " + fatherUrl + " as a father of newly created " + childUrl);
             }
         }
@@ -1065,30 +2866,43 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
     }
 
 
+    /**
+     * Parser thread function.
+     * Takes a batch of messages from the queue (waiting only for the first one), processes them and inserts
+     * all the terms of the batch pages in the tree at once, so the tree paths shared by the terms
+     * are only walked once per batch.
+     */
     private static void messagesParser() {
+        ArrayList<byte[]> messages = new ArrayList<>(parserBatchSize);
+        TermBatch termBatch = new TermBatch(1024);
         while (!Thread.currentThread().isInterrupted()) {
-            String message = null;
             try {
                 waitingThreadsNum.incrementAndGet();
-                message = multicastMessagesQueue.take();
+                messages.add(multicastMessagesQueue.take());
                 waitingThreadsNum.decrementAndGet();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
             }
-            if (message == null) continue;
-
-            ArrayList<String> parsedMessage = parseMessage(message);
-            //long id = Long.parseLong(parsedMessage.get(0));
-            //String url = parsedMessage.get(0);
-            switch (parsedMessage.get(0)) {
-                case "FATHER_URLS":
-                    processFatherUrls(parsedMessage);
-                    break;
-                default:
-                    indexUrl(parsedMessage);
-                    break;
+            multicastMessagesQueue.drainTo(messages, parserBatchSize - 1);
+
+            for (byte[] message : messages) {
+                Frame frame = parseMessage(message);
+                if (frame == null) continue;
+
+                switch (frame.type) {
+                    case Frame.FATHER_URLS:
+                        processFatherUrls(frame);
+                        break;
+                    case Frame.PAGE:
+                        indexUrl(frame, termBatch);
+                        break;
+                }
             }
+            messages.clear();
+
+            index.insertBatch(termBatch);
+            termBatch.clear();
         }
     }
 
@@ -1108,7 +2922,7 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
      * @param linkIndex the link index
      */
     public void insert(String word, long linkIndex){
-        art.insert(word, linkIndex);
+        index.insert(word, linkIndex);
     }
 
     /**
@@ -1118,119 +2932,564 @@ public class IndexStorageBarrel extends UnicastRemoteObject implements IndexStor
      * @return the array list
      */
     public ArrayList<Long> getLinkIndices(String word){
-        return art.find(word);
+        return index.find(word);
     }
 
     @Override
     public ArrayList<ArrayList<String>> searchWord(String word, int page, int pageSize){
         if(word == null) return null;
-        PriorityQueue<ArrayList<String>> results = new PriorityQueue<>((result1, result2) -> {
-            ParsedUrl parsedUrl1 = parsedUrlsMap.get(urlToUrlKeyPairMap.get(result1.get(0)));
-            ParsedUrl parsedUrl2 = parsedUrlsMap.get(urlToUrlKeyPairMap.get(result2.get(0)));
-            // sorting in descending order of father urls count
-            return Integer.compare(parsedUrl2.getFatherUrls().size(), parsedUrl1.getFatherUrls().size());
-        });
+        ArrayList<String> words = new ArrayList<>();
+        words.add(word);
+        return searchWordSet(words, page, pageSize);
+    }
 
-        ArrayList<Long> linkIndices = getLinkIndices(word);
-        if(linkIndices == null || linkIndices.isEmpty()) return null;
 
-        int numResults = 0;
-        for(long linkIndex : linkIndices){
-            ArrayList<String> result = new ArrayList<>();
-            ParsedUrlIdPair pair = idToUrlKeyPairMap.get(linkIndex);
-            if(pair == null) continue;
-            ParsedUrl parsedUrl = parsedUrlsMap.get(pair);
-            if(parsedUrl == null) continue;
+    /**
+     * Search the pages that contain all the words, ranked by BM25 blended with the inlinks score.
+     * The matches (see {@link #matchWordSet}) are offered to a top-k collector sized for the requested page. A
+     * single common word is ranked from the blocks of its postings instead (see {@link #searchTopWord}).
+     */
+    @Override
+    public ArrayList<ArrayList<String>> searchWordSet(ArrayList<String> words, int page, int pageSize){
+        return timed(() -> rankWordSet(words, page, pageSize));
+    }
 
-            numResults++;
 
-            result.add(parsedUrl.url);
-            result.add(parsedUrl.title);
-            result.add(parsedUrl.description);
+    /**
+     * Rank the pages that contain all the words (see {@link #searchWordSet}).
+     */
+    private ArrayList<ArrayList<String>> rankWordSet(ArrayList<String> words, int page, int pageSize){
+        if(words == null || words.isEmpty() || page < 0 || pageSize <= 0) return null;
+
+        ArrayList<String> uniqueWords = new ArrayList<>(new LinkedHashSet<>(words));
+        if(uniqueWords.size() == 1){
+            long documentFrequency = getWordDocumentFrequency(uniqueWords.get(0));
+            if(documentFrequency == 0) return null;
+            // the early termination only bounds the number of results, which can't be capped per host
+            if(documentFrequency >= earlyTerminationDocuments && maxResultsPerHost == 0) return searchTopWord(uniqueWords, documentFrequency, page, pageSize);
+        }
+        SearchSnapshots.Snapshot matches = matchWordSet(uniqueWords, null);
+        if(matches == null) return null;
+        if(maxResultsPerHost > 0) matches = matches.capPerGroup(maxResultsPerHost, hostIndex::getHost); // same number of pages as the cursor paging
+
+        TopKCollector topK = newTopKCollector(topKSize(page, pageSize));
+        matches.collectAfter(null, topK);
+        return buildResultsPage(topK, matches.size(), page, pageSize, uniqueWords);
+    }
+
+
+    /**
+     * Search the pages that contain a word, decoding only the blocks of its postings that can still hold one of the
+     * best ranked pages (see {@link PostingBlocks}), so the cost follows the requested page and not the number of
+     * pages with the word. When the search stops early the total number of results is the document frequency of the
+     * word, an upper bound.
+     *
+     * @param words the word, alone in the list
+     * @param documentFrequency the document frequency of the word
+     * @param page the page
+     * @param pageSize the page size
+     * @return the page results, or null if there are none
+     */
+    private static ArrayList<ArrayList<String>> searchTopWord(ArrayList<String> words, long documentFrequency, int page, int pageSize){
+        String word = words.get(0);
+        TopKCollector topK = newTopKCollector(topKSize(page, pageSize));
+        int totalResults;
+        try(PostingBlocks blocks = index.getPostingBlocks(word)){
+            double idf = scorer.idf((int) Math.min(documentFrequency, Integer.MAX_VALUE), documentStats.getDocumentsNum());
+            int scored = blocks.collectTopK(topK, getFieldBoosts(word), idf, scorer, documentStats);
+            totalResults = scored >= 0 ? scored : (int) Math.min(documentFrequency, Integer.MAX_VALUE);
+        } catch (IOException e){
+            log("Error reading the blocks of " + word + ": " + e.getMessage());
+            return null;
+        }
+        if(topK.size() == 0) return null;
+        return buildResultsPage(topK, totalResults, page, pageSize, words);
+    }
+
+
+    /**
+     * Search the pages that contain any of the words, ranked by the sum of the BM25 scores of the words they have
+     * blended with the inlinks score. Only the pages that can still enter the requested page are scored (see
+     * {@link BlockMaxWand}), so the total number of results is the sum of the document frequencies of the words,
+     * an upper bound.
+     *
+     * @param words the words, without repetitions
+     * @param page the page
+     * @param pageSize the page size
+     * @return the page results, or null if there are none
+     */
+    private static ArrayList<ArrayList<String>> searchAnyWords(ArrayList<String> words, int page, int pageSize){
+        int documentsNum = documentStats.getDocumentsNum();
+        ArrayList<PostingBlocks> wordBlocks = new ArrayList<>();
+        try{
+            ArrayList<PostingBlocks.Cursor> cursors = new ArrayList<>();
+            long totalResults = 0;
+            for(String word : words){
+                long documentFrequency = getWordDocumentFrequency(word);
+                if(documentFrequency == 0) continue;
+                PostingBlocks blocks = index.getPostingBlocks(word);
+                wordBlocks.add(blocks);
+                double idf = scorer.idf((int) Math.min(documentFrequency, Integer.MAX_VALUE), documentsNum);
+                cursors.add(blocks.cursor(getFieldBoosts(word), idf, scorer, documentStats));
+                totalResults += documentFrequency;
+            }
+            if(cursors.isEmpty()) return null;
+
+            TopKCollector topK = newTopKCollector(topKSize(page, pageSize));
+            BlockMaxWand.collectTopK(cursors.toArray(new PostingBlocks.Cursor[0]), topK, scorer, documentStats);
+            if(topK.size() == 0) return null;
+            return buildResultsPage(topK, (int) Math.min(totalResults, Integer.MAX_VALUE), page, pageSize, words);
+        } catch (UncheckedIOException e){
+            log("Error reading the blocks of " + words + ": " + e.getMessage());
+            return null;
+        } finally {
+            for(PostingBlocks blocks : wordBlocks) blocks.close();
+        }
+    }
+
+
+    /**
+     * Get the boost of the pages with a word in their title or description, as their frequency (see {@link FieldPostings}).
+     *
+     * @param word the word
+     * @return the boosts, or null if no page has the word in a boosted field
+     */
+    private static Postings getFieldBoosts(String word){
+        Postings title = titleBoost > 0 ? index.getPostings(FieldPostings.term(FieldPostings.TITLE, word)) : null;
+        Postings description = descriptionBoost > 0 ? index.getPostings(FieldPostings.term(FieldPostings.DESCRIPTION, word)) : null;
+        return FieldPostings.boost(null, title, titleBoost, description, descriptionBoost);
+    }
+
 
-            results.offer(result);
+    /**
+     * Find the pages that contain all the words, with their BM25 score blended with the inlinks score.
+     * <p>
+     * The search is planned from the document frequency of each word (see {@link QueryPlanner}): the postings of the
+     * rarest word provide the candidates, which are intersected with the postings of the next words, from the rarest
+     * to the most common, stopping as soon as no candidate is left. Words present in almost every document are only
+     * checked on the remaining candidates. When the search is restricted to some sites, the candidates of the rarest
+     * word are first filtered by the documents of the sites.
+     *
+     * @param uniqueWords the words, without repetitions
+     * @param sites the sites the results are restricted to (null or empty for all)
+     * @return the matches, or null if there are none
+     */
+    private static SearchSnapshots.Snapshot matchWordSet(ArrayList<String> uniqueWords, String[] sites){
+        int documentsNum = documentStats.getDocumentsNum();
+        long[] documentFrequencies = new long[uniqueWords.size()];
+        for(int i = 0; i < documentFrequencies.length; i++) documentFrequencies[i] = getWordDocumentFrequency(uniqueWords.get(i));
+        QueryPlanner.Plan plan = queryPlanner.plan(documentFrequencies, documentsNum);
+        if(plan.isEmpty()) return null; // a word isn't indexed
+
+        double averageLength = documentStats.getAverageLength();
+        Postings rarest = getWordPostings(uniqueWords.get(plan.scoredWords[0]));
+        if(rarest == null) return null;
+        HostIndex.SiteFilter siteFilter = getSiteFilter(sites);
+        long[] candidates = new long[rarest.size];
+        double[] scores = new double[rarest.size];
+        double idf = scorer.idf(rarest.size, documentsNum);
+        int candidatesNum = 0;
+        for(int i = 0; i < rarest.size; i++){
+            long id = rarest.linkIndices[i];
+            if(siteFilter != null && !siteFilter.accepts(id)) continue;
+            candidates[candidatesNum] = id;
+            scores[candidatesNum++] = scorer.termScore(rarest.frequencies[i], documentStats.getLength(id), averageLength, idf);
         }
-        int totalPagesNumber = numResults/pageSize;
 
-        ArrayList<ArrayList<String>> sortedResults = new ArrayList<>();
-        while (!results.isEmpty()) {
-            sortedResults.add(results.poll());  // Retrieve and remove the head of this queue
+        for(int w = 1; w < plan.scoredWords.length && candidatesNum > 0; w++){
+            Postings postings = getWordPostings(uniqueWords.get(plan.scoredWords[w]));
+            if(postings == null) return null;
+            idf = scorer.idf(postings.size, documentsNum);
+            int kept = 0;
+            int cursor = 0;
+            for(int i = 0; i < candidatesNum; i++){
+                long id = candidates[i];
+                while(cursor < postings.size && postings.linkIndices[cursor] < id) cursor++;
+                if(cursor == postings.size) break; // no more common documents
+                if(postings.linkIndices[cursor] != id) continue;
+                candidates[kept] = id;
+                scores[kept++] = scores[i] + scorer.termScore(postings.frequencies[cursor], documentStats.getLength(id), averageLength, idf);
+            }
+            candidatesNum = kept;
         }
 
-        if(sortedResults.size() < page*pageSize) return null;
+        for(int w = 0; w < plan.filterWords.length && candidatesNum > 0; w++){
+            boolean[] matches = matchWord(uniqueWords.get(plan.filterWords[w]), candidates, candidatesNum);
+            int kept = 0;
+            for(int i = 0; i < candidatesNum; i++){
+                if(!matches[i]) continue;
+                candidates[kept] = candidates[i];
+                scores[kept++] = scores[i];
+            }
+            candidatesNum = kept;
+        }
+        if(candidatesNum == 0) return null;
 
-        ArrayList<ArrayList<String>> pageResults = sortedResults.subList(page*pageSize, Math.min(sortedResults.size(), page*pageSize+pageSize))
-                .stream()
-                .map(ArrayList::new)
-                .collect(Collectors.toCollection(ArrayList::new));
-        pageResults.add(new ArrayList<>(List.of(String.valueOf(totalPagesNumber))));
-        return pageResults;
+        for(int i = 0; i < candidatesNum; i++) scores[i] += scorer.inlinkScore(documentStats.getInlinks(candidates[i]));
+        return new SearchSnapshots.Snapshot(candidates, scores, candidatesNum);
     }
 
 
+    /**
+     * Search the pages that match a query, ranked by the BM25 score of the matched words blended with the inlinks score.
+     * The query is evaluated by streaming over the sorted postings of its words (see {@link PostingIterator}), except
+     * an OR of words, ranked without scoring every page of the union (see {@link #searchAnyWords}).
+     */
     @Override
-    public ArrayList<ArrayList<String>> searchWordSet(ArrayList<String> words, int page, int pageSize){
-        if(words == null || words.isEmpty()) return null;
+    public ArrayList<ArrayList<String>> searchQuery(Query query, int page, int pageSize){
+        return timed(() -> rankQuery(query, page, pageSize));
+    }
 
-        ArrayList<ArrayList<Long>> linkIndices = new ArrayList<>();
-        for(String word : words){
-            ArrayList<Long> indices = getLinkIndices(word);
-            if(indices == null || indices.isEmpty()) return null;
 
-            linkIndices.add(indices);
+    /**
+     * Rank the pages that match a query (see {@link #searchQuery}).
+     */
+    private ArrayList<ArrayList<String>> rankQuery(Query query, int page, int pageSize){
+        if(query == null || page < 0 || pageSize <= 0) return null;
+        for(String word : query.getTerms()){
+            if(!ownsTerm(word)) return null; // the postings of the words of other partitions are on other barrels
+        }
+        ArrayList<String> anyWords = query.getDisjunctiveTerms();
+        // the pruned OR only bounds the number of results, which can't be capped per host
+        if(anyWords != null && query.getSites().length == 0 && maxResultsPerHost == 0) return searchAnyWords(new ArrayList<>(new LinkedHashSet<>(anyWords)), page, pageSize);
+
+        PostingIterator iterator;
+        try{
+            iterator = PostingIterator.of(query, IndexStorageBarrel::getWordPostings, scorer, documentStats);
+        } catch (IllegalArgumentException e){
+            log("Invalid query " + query + ": " + e.getMessage());
+            return null;
+        }
+
+        HostIndex.SiteFilter siteFilter = getSiteFilter(query.getSites());
+        TopKCollector topK = newTopKCollector(topKSize(page, pageSize));
+        HashMap<Integer, Integer> hostResults = new HashMap<>();
+        int totalResults = 0;
+        for(long id = iterator.nextDoc(); id != PostingIterator.NO_MORE_DOCS; id = iterator.nextDoc()){
+            if(siteFilter != null && !siteFilter.accepts(id)) continue;
+            if(isShownResult(id, hostResults)) totalResults++;
+            topK.offer(id, iterator.score() + scorer.inlinkScore(documentStats.getInlinks(id)));
         }
+        if(totalResults == 0) return null;
+
+        return buildResultsPage(topK, totalResults, page, pageSize, query.getMatchedTerms());
+    }
+
+
+    /**
+     * Search the pages that match a query, a page at a time.
+     * The first page matches the query and keeps the ranked matches as a snapshot, each page is then collected with
+     * a heap of the page size over the matches ranked after the cursor of the previous page, instead of ranking all
+     * the pages before it. If the snapshot was dropped, the query is matched again on the live index.
+     */
+    @Override
+    public ArrayList<ArrayList<String>> searchAfter(Query query, String cursor, int pageSize){
+        return timed(() -> rankQueryAfter(query, cursor, pageSize));
+    }
 
-        Set<Long> commonElements = new HashSet<>(linkIndices.get(0));
-        for (int i = 1; i < linkIndices.size(); i++) {
-            Set<Long> currentSet = new HashSet<>(linkIndices.get(i));
-            commonElements.retainAll(currentSet);
 
-            if(commonElements.isEmpty()) return null;
+    /**
+     * Rank a page of the pages that match a query, after a cursor (see {@link #searchAfter}).
+     */
+    private ArrayList<ArrayList<String>> rankQueryAfter(Query query, String cursor, int pageSize){
+        if(query == null || pageSize <= 0) return null;
+        for(String word : query.getTerms()){
+            if(!ownsTerm(word)) return null; // the postings of the words of other partitions are on other barrels
+        }
+        SearchSnapshots.Cursor after = null;
+        if(cursor != null){
+            after = SearchSnapshots.Cursor.parse(cursor);
+            if(after == null) return null;
+        }
+
+        String normalizedQuery = query.toString();
+        SearchSnapshots.Snapshot matches = after == null ? null : searchSnapshots.get(after.snapshotId, normalizedQuery);
+        long snapshotId = after == null ? 0 : after.snapshotId;
+        if(matches == null){
+            matches = matchQuery(query);
+            if(matches == null) return null;
+            if(maxResultsPerHost > 0) matches = matches.capPerGroup(maxResultsPerHost, hostIndex::getHost);
+            snapshotId = searchSnapshots.put(normalizedQuery, matches);
         }
 
-        if (commonElements.isEmpty()) return null;
+        TopKCollector topK = new TopKCollector(pageSize);
+        int remaining = matches.collectAfter(after, topK);
+        double[] pageScores = new double[topK.size()];
+        long[] pageIds = topK.drainDescending(pageScores);
+        if(pageIds.length == 0) return null;
+
+        int last = pageIds.length - 1;
+        String nextCursor = remaining > pageIds.length ? new SearchSnapshots.Cursor(snapshotId, pageScores[last], pageIds[last]).toString() : null;
+        return buildResultsPage(pageIds, 0, matches.size(), pageSize, query.getMatchedTerms(), nextCursor);
+    }
+
+
+    /**
+     * Find the pages that match a query, with their scores blended with the inlinks score.
+     *
+     * @param query the query
+     * @return the matches, or null if there are none or the query isn't valid
+     */
+    private static SearchSnapshots.Snapshot matchQuery(Query query){
+        ArrayList<String> words = query.getConjunctiveTerms();
+        if(words != null) return matchWordSet(new ArrayList<>(new LinkedHashSet<>(words)), query.getSites());
+
+        PostingIterator iterator;
+        try{
+            iterator = PostingIterator.of(query, IndexStorageBarrel::getWordPostings, scorer, documentStats);
+        } catch (IllegalArgumentException e){
+            log("Invalid query " + query + ": " + e.getMessage());
+            return null;
+        }
 
-        PriorityQueue<ArrayList<String>> results = new PriorityQueue<>(new Comparator<ArrayList<String>>() {
-            @Override
-            public int compare(ArrayList<String> result1, ArrayList<String> result2) {
-                ParsedUrl parsedUrl1 = parsedUrlsMap.get(urlToUrlKeyPairMap.get(result1.get(0)));
-                ParsedUrl parsedUrl2 = parsedUrlsMap.get(urlToUrlKeyPairMap.get(result2.get(0)));
-                // sorting in descending order of father urls count
-                return Integer.compare(parsedUrl2.getFatherUrls().size(), parsedUrl1.getFatherUrls().size());
+        HostIndex.SiteFilter siteFilter = getSiteFilter(query.getSites());
+        long[] ids = new long[16];
+        double[] scores = new double[16];
+        int size = 0;
+        for(long id = iterator.nextDoc(); id != PostingIterator.NO_MORE_DOCS; id = iterator.nextDoc()){
+            if(siteFilter != null && !siteFilter.accepts(id)) continue;
+            if(size == ids.length){
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
             }
-        });
+            ids[size] = id;
+            scores[size++] = iterator.score() + scorer.inlinkScore(documentStats.getInlinks(id));
+        }
+        return size == 0 ? null : new SearchSnapshots.Snapshot(ids, scores, size);
+    }
 
-        int numResults = 0;
-        for(long linkIndex : commonElements){
-            ArrayList<String> result = new ArrayList<>();
-            ParsedUrlIdPair pair = idToUrlKeyPairMap.get(linkIndex);
+
+    /**
+     * Build the filter of the documents of the sites a search is restricted to.
+     *
+     * @param sites the sites (null or empty for all)
+     * @return the filter, or null if the search isn't restricted
+     */
+    private static HostIndex.SiteFilter getSiteFilter(String[] sites){
+        if(sites == null || sites.length == 0) return null;
+        return new HostIndex.SiteFilter(hostIndex.getSiteDocuments(sites));
+    }
+
+
+    /**
+     * Create the top-k collector of a search, keeping at most the configured number of results of each host.
+     *
+     * @param k the number of documents to keep
+     * @return the collector
+     */
+    private static TopKCollector newTopKCollector(int k){
+        if(maxResultsPerHost == 0) return new TopKCollector(k);
+        return new TopKCollector(k, maxResultsPerHost, hostIndex::getHost);
+    }
+
+
+    /**
+     * Check if a matching page is counted in the results, when at most the configured number of results of each host
+     * are shown, so the total number of pages is the same as in the cursor paging (see {@link #searchAfter}).
+     *
+     * @param id the page
+     * @param hostResults the results counted so far of each host
+     * @return true if the page is shown, false if its host already has the maximum number of results
+     */
+    private static boolean isShownResult(long id, HashMap<Integer, Integer> hostResults){
+        if(maxResultsPerHost == 0) return true;
+        int host = hostIndex.getHost(id);
+        return host < 0 || hostResults.merge(host, 1, Integer::sum) <= maxResultsPerHost;
+    }
+
+
+    /**
+     * Get the BM25 score of each word in each page where it appears.
+     * Used by the gateway when a search spans partitions owned by different barrels, the scores of the words of
+     * the same page are added by the gateway and ranked with {@link #getRankedResultsPage}.
+     */
+    @Override
+    public ArrayList<HashMap<Long, Double>> getTermScores(ArrayList<String> words){
+        return timed(() -> scoreTerms(words));
+    }
+
+
+    /**
+     * Score each word in each page where it appears (see {@link #getTermScores}).
+     */
+    private ArrayList<HashMap<Long, Double>> scoreTerms(ArrayList<String> words){
+        if(words == null) return null;
+
+        int documentsNum = documentStats.getDocumentsNum();
+        double averageLength = documentStats.getAverageLength();
+        ArrayList<HashMap<Long, Double>> termScores = new ArrayList<>();
+        for(String word : words){
+            Postings postings = word == null ? null : getWordPostings(word);
+            if(postings == null){
+                termScores.add(null);
+                continue;
+            }
+
+            double idf = scorer.idf(postings.size, documentsNum);
+            HashMap<Long, Double> scores = new HashMap<>(postings.size * 2);
+            for(int i = 0; i < postings.size; i++){
+                long id = postings.linkIndices[i];
+                scores.put(id, scorer.termScore(postings.frequencies[i], documentStats.getLength(id), averageLength, idf));
+            }
+            termScores.add(scores);
+        }
+        return termScores;
+    }
+
+
+    @Override
+    public ArrayList<ArrayList<String>> getRankedResultsPage(HashMap<Long, Double> scores, ArrayList<String> words, int page, int pageSize){
+        if(scores == null || scores.isEmpty() || page < 0 || pageSize <= 0) return null;
+
+        TopKCollector topK = newTopKCollector(topKSize(page, pageSize));
+        HashMap<Integer, Integer> hostResults = new HashMap<>();
+        int totalResults = 0;
+        for(Map.Entry<Long, Double> entry : scores.entrySet()){
+            long id = entry.getKey();
+            if(isShownResult(id, hostResults)) totalResults++;
+            topK.offer(id, entry.getValue() + scorer.inlinkScore(documentStats.getInlinks(id)));
+        }
+        return buildResultsPage(topK, totalResults, page, pageSize, words);
+    }
+
+
+    /**
+     * Get the number of results that must be collected to answer the requested page.
+     *
+     * @param page the page
+     * @param pageSize the page size
+     * @return the collector size
+     */
+    private static int topKSize(int page, int pageSize){
+        return (int) Math.min((long) (page + 1) * pageSize, Integer.MAX_VALUE - 8);
+    }
+
+
+    /**
+     * Build the requested page from the best ranked documents.
+     * Only the documents of the page are looked up in the maps and in the document store, for their snippets.
+     *
+     * @param topK the collector with the best documents
+     * @param totalResults total number of matching documents
+     * @param page the page
+     * @param pageSize the page size
+     * @param words the query words, highlighted in the snippets (null for no snippets)
+     * @return the page results (url, title, description and, when the text is stored, snippet), followed by a row with the total number of pages
+     */
+    private static ArrayList<ArrayList<String>> buildResultsPage(TopKCollector topK, int totalResults, int page, int pageSize, ArrayList<String> words){
+        return buildResultsPage(topK.drainDescending(), page * pageSize, totalResults, pageSize, words, null);
+    }
+
+
+    /**
+     * Build a page of results from the ranked documents.
+     *
+     * @param rankedIds the ranked documents
+     * @param from the position of the first document of the page
+     * @param totalResults total number of matching documents
+     * @param pageSize the page size
+     * @param words the query words, highlighted in the snippets (null for no snippets)
+     * @param nextCursor the cursor of the next page, added to the last row (null for none)
+     * @return the page results, followed by a row with the total number of pages and the cursor
+     */
+    private static ArrayList<ArrayList<String>> buildResultsPage(long[] rankedIds, int from, int totalResults, int pageSize, ArrayList<String> words, String nextCursor){
+        int totalPagesNumber = totalResults / pageSize + (totalResults % pageSize > 0 ? 1 : 0);
+
+        ArrayList<ArrayList<String>> pageResults = new ArrayList<>();
+        for(int i = from; i < rankedIds.length; i++){
+            ParsedUrlIdPair pair = idToUrlKeyPairMap.get(rankedIds[i]);
             if(pair == null) continue;
             ParsedUrl parsedUrl = parsedUrlsMap.get(pair);
             if(parsedUrl == null) continue;
 
-            numResults++;
-
+            ArrayList<String> result = new ArrayList<>();
             result.add(parsedUrl.url);
             result.add(parsedUrl.title);
             result.add(parsedUrl.description);
+            String snippet = getSnippet(rankedIds[i], words);
+            if(snippet != null) result.add(snippet);
+            pageResults.add(result);
+        }
+        ArrayList<String> lastRow = new ArrayList<>(List.of(String.valueOf(totalPagesNumber)));
+        if(nextCursor != null) lastRow.add(nextCursor);
+        pageResults.add(lastRow);
+        return pageResults;
+    }
+
+
+    /**
+     * Build the snippet of a document from its stored text.
+     *
+     * @param id the document id
+     * @param words the query words
+     * @return the snippet, or null if the text isn't stored
+     */
+    private static String getSnippet(long id, ArrayList<String> words){
+        if(documentStore == null || words == null) return null;
+        try{
+            return SnippetBuilder.build(documentStore.get(id), words, snippetWords);
+        } catch (IOException e){
+            log("Error reading the text of " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
 
-            results.offer(result);
+    /**
+     * Rebuild the documents statistics and hosts from the parsed urls, after they were imported or synced from another barrel.
+     */
+    private static void rebuildDocumentStats(){
+        documentStats.clear();
+        hostIndex.clear();
+        for(ParsedUrl parsedUrl : parsedUrlsMap.values()){
+            if(parsedUrl.id == null) continue;
+            documentStats.setLength(parsedUrl.id, parsedUrl.documentLength);
+            documentStats.setInlinks(parsedUrl.id, parsedUrl.getFatherUrlsCount());
+            documentStats.setVersion(parsedUrl.id, parsedUrl.version);
+            hostIndex.add(parsedUrl.id, parsedUrl.url);
         }
+    }
+
 
-        ArrayList<ArrayList<String>> sortedResults = new ArrayList<>();
-        while (!results.isEmpty()) {
-            sortedResults.add(results.poll());
+    /**
+     * Check if the words appear consecutively, in order.
+     *
+     * @param positions the positions of each word (ascending)
+     * @return true if there's a position p where word i is at p + i for every word
+     */
+    static boolean containsPhrase(int[][] positions){
+        for(int start : positions[0]){
+            boolean found = true;
+            for(int i = 1; i < positions.length && found; i++){
+                found = Arrays.binarySearch(positions[i], start + i) >= 0;
+            }
+            if(found) return true;
         }
-        int totalResults = sortedResults.size();
-        int totalPagesNumber = totalResults / pageSize + (totalResults % pageSize > 0 ? 1 : 0);
+        return false;
+    }
 
-        // Calculate the correct sublist indices
-        int fromIndex = Math.min(page * pageSize, totalResults);
-        int toIndex = Math.min(fromIndex + pageSize, totalResults);
 
-        ArrayList<ArrayList<String>> pageResults = new ArrayList<>(sortedResults.subList(fromIndex, toIndex));
-        pageResults.add(new ArrayList<>(List.of(String.valueOf(totalPagesNumber))));
-        return pageResults;
+    /**
+     * Check if there's an occurrence of every word inside a window of positions, in any order.
+     * Walks all the position lists at once, always advancing the one with the smallest position.
+     *
+     * @param positions the positions of each word (ascending)
+     * @param maxDistance maximum distance between the first and the last occurrence of the window
+     * @return true if such a window exists
+     */
+    static boolean containsWithinWindow(int[][] positions, int maxDistance){
+        int[] cursors = new int[positions.length];
+        while(true){
+            int minList = 0;
+            int max = Integer.MIN_VALUE;
+            for(int i = 0; i < positions.length; i++){
+                int position = positions[i][cursors[i]];
+                if(position < positions[minList][cursors[minList]]) minList = i;
+                if(position > max) max = position;
+            }
+            if(max - positions[minList][cursors[minList]] <= maxDistance) return true;
+            if(++cursors[minList] == positions[minList].length) return false;
+        }
     }
 
 
@@ -3,9 +3,12 @@ package com.googol.backend.storage;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import com.googol.backend.model.ParsedUrl;
 import com.googol.backend.model.ParsedUrlIdPair;
+import com.googol.backend.protocol.Query;
+import com.googol.backend.tree.Postings;
 
 /**
  * Index Storage Barrel Remote Interface.
@@ -33,6 +36,53 @@ public interface IndexStorageBarrelRemote extends Remote{
      */
     ArrayList<ArrayList<String>> searchWordSet(ArrayList<String> words, int page, int pageSize) throws RemoteException;
 
+    /**
+     * Search the pages that match a query with boolean operators, exclusions, phrases and proximity, parsed by the gateway.
+     * All the words must belong to partitions owned by this barrel.
+     *
+     * @param query    the query
+     * @param page     the page
+     * @param pageSize the page size
+     * @return the array list (null if there are no results or the barrel can't answer the search)
+     * @throws RemoteException the remote exception
+     */
+    ArrayList<ArrayList<String>> searchQuery(Query query, int page, int pageSize) throws RemoteException;
+
+    /**
+     * Search the pages that match a query, continuing after the last page that was returned.
+     * The first page keeps a short lived snapshot of the ranked matches, so the next pages are consistent with it.
+     * All the words must belong to partitions owned by this barrel.
+     *
+     * @param query    the query
+     * @param cursor   the cursor returned with the previous page (null for the first page)
+     * @param pageSize the page size
+     * @return the array list, with the total number of pages and the cursor of the next page (absent on the last page) in the last row (null if there are no results, the cursor isn't valid or the barrel can't answer the search)
+     * @throws RemoteException the remote exception
+     */
+    ArrayList<ArrayList<String>> searchAfter(Query query, String cursor, int pageSize) throws RemoteException;
+
+    /**
+     * Get the BM25 score of each word in each page where it appears, in the same order of the words.
+     * Used by the gateway when a search spans partitions owned by different barrels.
+     *
+     * @param words the words
+     * @return the score of each word in each page (null if the word doesn't exist)
+     * @throws RemoteException the remote exception
+     */
+    ArrayList<HashMap<Long, Double>> getTermScores(ArrayList<String> words) throws RemoteException;
+
+    /**
+     * Build a page of results from the provided pages and their text scores, blended with the inlinks score.
+     *
+     * @param scores   the text score of each page (link index)
+     * @param words    the query words, highlighted in the snippets of the results
+     * @param page     the page
+     * @param pageSize the page size
+     * @return the array list
+     * @throws RemoteException the remote exception
+     */
+    ArrayList<ArrayList<String>> getRankedResultsPage(HashMap<Long, Double> scores, ArrayList<String> words, int page, int pageSize) throws RemoteException;
+
     /**
      * Export barrel.
      *
@@ -41,12 +91,12 @@ public interface IndexStorageBarrelRemote extends Remote{
     void exportBarrel() throws RemoteException;
 
     /**
-     * Get art byte [ ].
+     * Get the whole index as a single segment.
      *
-     * @return the byte [ ]
+     * @return the bytes of the segment
      * @throws RemoteException the remote exception
      */
-    byte[] getArt() throws RemoteException;
+    byte[] getIndexSnapshot() throws RemoteException;
 
     /**
      * Gets parsed urls map.
@@ -80,6 +130,14 @@ public interface IndexStorageBarrelRemote extends Remote{
      */
     double getAvailability() throws RemoteException;
 
+    /**
+     * Gets the ingest queue counters.
+     *
+     * @return depth, capacity, dropped messages and lag (in milliseconds) of the queue
+     * @throws RemoteException the remote exception
+     */
+    ArrayList<Long> getIngestStats() throws RemoteException;
+
     /**
      * Gets father urls.
      *
@@ -97,4 +155,91 @@ public interface IndexStorageBarrelRemote extends Remote{
      * @throws RemoteException the remote exception
      */
     ArrayList<String> getFatherUrls(String urls) throws RemoteException;
+
+    /**
+     * Start a comparison with the Merkle tree of the documents (see {@link MerkleTree}), built now and kept for the
+     * comparison, so its levels are read from the same tree even while other replicas compare theirs.
+     *
+     * @return the id of the tree
+     * @throws RemoteException the remote exception
+     */
+    long openDocumentTree() throws RemoteException;
+
+    /**
+     * Get the hashes of some nodes of a Merkle tree of the documents opened for a comparison.
+     *
+     * @param treeId the id of the tree (see {@link #openDocumentTree})
+     * @param level  the level of the nodes (0 is the root)
+     * @param nodes  the nodes
+     * @return the hash of each node, in the same order of the nodes (null if the nodes aren't valid or the tree was dropped)
+     * @throws RemoteException the remote exception
+     */
+    long[] getDocumentHashes(long treeId, int level, int[] nodes) throws RemoteException;
+
+    /**
+     * Start a comparison with the Merkle tree of the index terms (see {@link MerkleTree}), kept for the comparison.
+     * The tree is only built again, reading every segment of the index, when the segments changed since the last one.
+     *
+     * @return the id of the tree, or -1 if the index couldn't be read
+     * @throws RemoteException the remote exception
+     */
+    long openTermTree() throws RemoteException;
+
+    /**
+     * Get the hashes of some nodes of a Merkle tree of the index terms opened for a comparison.
+     *
+     * @param treeId the id of the tree (see {@link #openTermTree})
+     * @param level  the level of the nodes (0 is the root)
+     * @param nodes  the nodes
+     * @return the hash of each node, in the same order of the nodes (null if the nodes aren't valid or the tree was dropped)
+     * @throws RemoteException the remote exception
+     */
+    long[] getTermHashes(long treeId, int level, int[] nodes) throws RemoteException;
+
+    /**
+     * Get the digest of each document of some leaves of the Merkle tree of the documents.
+     *
+     * @param leaves the leaves
+     * @return the digest of each document id
+     * @throws RemoteException the remote exception
+     */
+    HashMap<Long, Long> getDocumentDigests(int[] leaves) throws RemoteException;
+
+    /**
+     * Get the digest of the postings of each term of some leaves of the Merkle tree of the index terms.
+     *
+     * @param leaves the leaves
+     * @return the digest of each term (null if the index couldn't be read)
+     * @throws RemoteException the remote exception
+     */
+    HashMap<String, Long> getTermDigests(int[] leaves) throws RemoteException;
+
+    /**
+     * Get copies of some documents, with their father urls and their text.
+     * Used by the anti-entropy of the replicas.
+     *
+     * @param ids the document ids
+     * @return the documents that exist
+     * @throws RemoteException the remote exception
+     */
+    ArrayList<ParsedUrl> getDocuments(ArrayList<Long> ids) throws RemoteException;
+
+    /**
+     * Get the live postings of some terms, with their frequencies and positions, in the same order of the terms.
+     * Used by the anti-entropy of the replicas.
+     *
+     * @param terms the terms (words or field terms)
+     * @return the postings of each term (null if the term doesn't exist)
+     * @throws RemoteException the remote exception
+     */
+    ArrayList<Postings> getTermPostings(ArrayList<String> terms) throws RemoteException;
+
+    /**
+     * Get the version of the crawl of some documents.
+     *
+     * @param ids the document ids
+     * @return the crawl version of each document that exists
+     * @throws RemoteException the remote exception
+     */
+    HashMap<Long, Long> getCrawlVersions(ArrayList<Long> ids) throws RemoteException;
 }
@@ -0,0 +1,242 @@
+package com.googol.backend.storage;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer between the barrel receiver threads and the parser threads.
+ * <p>
+ * When the ring is full, the overflow policy decides what happens to a new message:
+ * <ul>
+ *     <li>BLOCK - the receiver waits for free space, so the socket buffer fills up and the
+ *     missing datagrams are later recovered through NACKs</li>
+ *     <li>DROP - the message is discarded right away and counted as dropped</li>
+ * </ul>
+ * The queue also keeps the counters used to advertise the barrel pressure: depth, drops and lag
+ * (time the oldest queued message has been waiting).
+ */
+public class IngestQueue {
+    /**
+     * Overflow policies
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for free space
+         */
+        BLOCK,
+        /**
+         * Discard the new message
+         */
+        DROP
+    }
+
+    /**
+     * Ring of messages
+     */
+    private final byte[][] messages;
+    /**
+     * Time (in nanoseconds) each message was put in the ring
+     */
+    private final long[] enqueueTimes;
+    /**
+     * Position of the next message to take
+     */
+    private int head = 0;
+    /**
+     * Number of messages in the ring
+     */
+    private int count = 0;
+    /**
+     * Overflow policy
+     */
+    private final OverflowPolicy overflowPolicy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Number of messages dropped because the ring was full
+     */
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+
+    /**
+     * Instantiates a new Ingest queue.
+     *
+     * @param capacity       the capacity
+     * @param overflowPolicy the overflow policy
+     */
+    public IngestQueue(int capacity, OverflowPolicy overflowPolicy){
+        if(capacity <= 0) throw new IllegalArgumentException("Capacity must be greater than 0.");
+        if(overflowPolicy == null) throw new NullPointerException("Overflow policy cannot be null.");
+        this.messages = new byte[capacity][];
+        this.enqueueTimes = new long[capacity];
+        this.overflowPolicy = overflowPolicy;
+    }
+
+
+    /**
+     * Put a message in the queue, following the overflow policy if it's full.
+     *
+     * @param message the message
+     * @return true if the message was queued, false if it was dropped
+     * @throws InterruptedException if interrupted while waiting for free space
+     */
+    public boolean put(byte[] message) throws InterruptedException {
+        if(message == null) throw new NullPointerException("Message cannot be null.");
+        lock.lockInterruptibly();
+        try{
+            while(count == messages.length){
+                if(overflowPolicy == OverflowPolicy.DROP){
+                    droppedMessages.incrementAndGet();
+                    return false;
+                }
+                notFull.await();
+            }
+            int tail = (head + count) % messages.length;
+            messages[tail] = message;
+            enqueueTimes[tail] = System.nanoTime();
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Take a message from the queue, waiting if it's empty.
+     *
+     * @return the message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public byte[] take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try{
+            while(count == 0) notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Move up to maxMessages messages from the queue to the collection, without waiting.
+     *
+     * @param collection  the collection
+     * @param maxMessages maximum number of messages
+     * @return number of messages moved
+     */
+    public int drainTo(Collection<byte[]> collection, int maxMessages){
+        lock.lock();
+        try{
+            int drained = 0;
+            while(count > 0 && drained < maxMessages){
+                collection.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Remove the head message. Must be called with the lock held and a non empty ring.
+     * @return the message
+     */
+    private byte[] dequeue(){
+        byte[] message = messages[head];
+        messages[head] = null;
+        head = (head + 1) % messages.length;
+        count--;
+        notFull.signal();
+        return message;
+    }
+
+
+    /**
+     * Get the number of messages in the queue.
+     *
+     * @return the depth
+     */
+    public int size(){
+        lock.lock();
+        try{
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the queue capacity.
+     *
+     * @return the capacity
+     */
+    public int getCapacity(){
+        return messages.length;
+    }
+
+
+    /**
+     * Check if the queue is full.
+     *
+     * @return true if full, false otherwise
+     */
+    public boolean isFull(){
+        return size() == messages.length;
+    }
+
+
+    /**
+     * Get the number of messages dropped because the queue was full.
+     *
+     * @return the dropped messages
+     */
+    public long getDroppedMessages(){
+        return droppedMessages.get();
+    }
+
+
+    /**
+     * Count a message that was dropped before reaching the queue because it was full.
+     */
+    public void countDroppedMessage(){
+        droppedMessages.incrementAndGet();
+    }
+
+
+    /**
+     * Get the time the oldest message in the queue has been waiting.
+     *
+     * @return the lag in milliseconds (0 if the queue is empty)
+     */
+    public long getLagMillis(){
+        lock.lock();
+        try{
+            if(count == 0) return 0;
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueueTimes[head]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the overflow policy.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy(){
+        return overflowPolicy;
+    }
+}
@@ -0,0 +1,210 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.protocol.Hashing;
+
+import java.util.Arrays;
+
+/**
+ * <H1>Merkle tree of the entries of a replica</H1>
+ * Summary of a set of keyed entries (the documents by id, the index terms with their postings) that two replicas
+ * compare to find the entries where they differ, exchanging a number of hashes proportional to the difference:
+ * <ul>
+ *     <li>each entry falls in one of the {@link #LEAVES_NUM} leaves, chosen by the hash of its key, so the leaves are
+ *     ranges of the key hashes with about the same number of entries;</li>
+ *     <li>the hash of a leaf is the sum of the mixed hashes of its entries, so the entries can be added in any order,
+ *     and each node above hashes its {@link #FAN_OUT} children in order;</li>
+ *     <li>two replicas compare the root, then only the children of the nodes that differ, level by level, down to
+ *     the leaves whose entries differ (see {@link #findDivergentLeaves}).</li>
+ * </ul>
+ * The tree is built by one thread, with {@link #add} followed by {@link #seal}, and only read afterwards.
+ */
+public class MerkleTree {
+    /**
+     * Number of children of each node
+     */
+    public static final int FAN_OUT = 16;
+    /**
+     * Level of the leaves (the root is level 0)
+     */
+    public static final int DEPTH = 3;
+    /**
+     * Number of leaves
+     */
+    public static final int LEAVES_NUM = 1 << (4 * DEPTH); // FAN_OUT ^ DEPTH
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private final long[][] levels = new long[DEPTH + 1][];
+    private int entriesNum = 0;
+    private boolean isSealed = false;
+
+
+    /**
+     * Instantiates a new empty Merkle tree.
+     */
+    public MerkleTree(){
+        for(int level = 0, nodesNum = 1; level <= DEPTH; level++, nodesNum *= FAN_OUT){
+            levels[level] = new long[nodesNum];
+        }
+    }
+
+
+    /**
+     * Add an entry to its leaf.
+     *
+     * @param keyHash   the hash of the entry key
+     * @param entryHash the hash of the entry content
+     */
+    public void add(long keyHash, long entryHash){
+        if(isSealed) throw new IllegalStateException("The tree is already sealed.");
+        levels[DEPTH][leafOf(keyHash)] += Hashing.mix(combine(keyHash, entryHash));
+        entriesNum++;
+    }
+
+
+    /**
+     * Hash the nodes above the leaves, after every entry was added.
+     *
+     * @return this tree
+     */
+    public MerkleTree seal(){
+        if(isSealed) return this;
+        for(int level = DEPTH - 1; level >= 0; level--){
+            long[] children = levels[level + 1];
+            for(int node = 0; node < levels[level].length; node++){
+                long hash = SEED + level;
+                for(int child = 0; child < FAN_OUT; child++) hash = combine(hash, children[node * FAN_OUT + child]);
+                levels[level][node] = hash;
+            }
+        }
+        isSealed = true;
+        return this;
+    }
+
+
+    /**
+     * Get the number of entries added to the tree.
+     *
+     * @return the entries num
+     */
+    public int getEntriesNum(){
+        return entriesNum;
+    }
+
+
+    /**
+     * Get the hashes of some nodes of a level.
+     *
+     * @param level the level (0 is the root, {@link #DEPTH} the leaves)
+     * @param nodes the nodes of the level
+     * @return the hash of each node, in the same order of the nodes
+     */
+    public long[] getHashes(int level, int[] nodes){
+        checkSealed();
+        long[] hashes = new long[nodes.length];
+        for(int i = 0; i < nodes.length; i++) hashes[i] = levels[level][nodes[i]];
+        return hashes;
+    }
+
+
+    /**
+     * Find the nodes of a level whose hashes differ from the ones of another replica.
+     *
+     * @param level        the level
+     * @param nodes        the nodes of the level
+     * @param remoteHashes the hashes of the same nodes in the other replica
+     * @return the divergent nodes, ascending if the nodes are
+     */
+    public int[] findDivergent(int level, int[] nodes, long[] remoteHashes){
+        checkSealed();
+        if(remoteHashes.length != nodes.length) throw new IllegalArgumentException("There must be a hash for each node.");
+        int[] divergent = new int[nodes.length];
+        int divergentNum = 0;
+        for(int i = 0; i < nodes.length; i++){
+            if(levels[level][nodes[i]] != remoteHashes[i]) divergent[divergentNum++] = nodes[i];
+        }
+        return Arrays.copyOf(divergent, divergentNum);
+    }
+
+
+    /**
+     * Find the leaves whose entries differ from the ones of another replica, descending from the root through the
+     * divergent nodes only.
+     *
+     * @param remote the hashes of the nodes of the other replica
+     * @param <E>    the exception type of the remote
+     * @return the divergent leaves, ascending (empty if the replicas have the same entries), or null if the remote didn't return the hashes
+     * @throws E the exception thrown by the remote
+     */
+    public <E extends Exception> int[] findDivergentLeaves(HashSource<E> remote) throws E {
+        int[] nodes = {0};
+        for(int level = 0; level <= DEPTH; level++){
+            long[] remoteHashes = remote.getHashes(level, nodes);
+            if(remoteHashes == null) return null;
+            nodes = findDivergent(level, nodes, remoteHashes);
+            if(nodes.length == 0 || level == DEPTH) return nodes;
+            nodes = children(nodes);
+        }
+        return nodes;
+    }
+
+
+    /**
+     * Get the children of some nodes, in order.
+     *
+     * @param nodes the nodes of a level
+     * @return the nodes of the next level under them
+     */
+    public static int[] children(int[] nodes){
+        int[] children = new int[nodes.length * FAN_OUT];
+        for(int i = 0; i < nodes.length; i++){
+            for(int child = 0; child < FAN_OUT; child++) children[i * FAN_OUT + child] = nodes[i] * FAN_OUT + child;
+        }
+        return children;
+    }
+
+
+    /**
+     * Get the leaf of a key.
+     *
+     * @param keyHash the hash of the key
+     * @return the leaf
+     */
+    public static int leafOf(long keyHash){
+        return (int) (Hashing.mix(keyHash) >>> (64 - 4 * DEPTH));
+    }
+
+
+    /**
+     * Combine a hash with the next value of a sequence (the order matters).
+     *
+     * @param hash  the hash of the sequence so far
+     * @param value the next value
+     * @return the hash of the sequence with the value
+     */
+    public static long combine(long hash, long value){
+        return Hashing.mix(hash * SEED + value);
+    }
+
+
+    private void checkSealed(){
+        if(!isSealed) throw new IllegalStateException("The tree must be sealed before it's compared.");
+    }
+
+
+    /**
+     * Source of the hashes of the nodes of a tree, usually another replica.
+     *
+     * @param <E> the exception type of the source
+     */
+    @FunctionalInterface
+    public interface HashSource<E extends Exception> {
+        /**
+         * Get the hashes of some nodes of a level.
+         *
+         * @param level the level
+         * @param nodes the nodes of the level
+         * @return the hash of each node, in the same order of the nodes (null if they couldn't be got)
+         * @throws E the exception of the source
+         */
+        long[] getHashes(int level, int[] nodes) throws E;
+    }
+}
@@ -0,0 +1,537 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.Postings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * <H1>Postings of a term split in blocks, each one with the highest frequency of its documents</H1>
+ * <p>
+ * Used to rank the best documents of a single term without reading all of its postings. Each block knows the range
+ * of link indices it covers and its highest frequency, so an upper bound of the score of any of its documents can be
+ * computed before decoding it: the BM25 score of the highest frequency in the shortest possible document, plus the
+ * inlinks score of the most linked document of its range (see {@link DocumentStats#getMaxInlinks}). The blocks are
+ * decoded from the highest bound to the lowest, and the search stops as soon as no block left can beat the worst
+ * document kept by the collector, so the work depends on how many results are wanted and not on the size of the
+ * postings.
+ * <p>
+ * The blocks can also be walked in id order by a {@link Cursor}, which bounds the score of the next documents from
+ * the block directory before decoding them, the base of the ranked OR searches (see {@link BlockMaxWand}).
+ * <p>
+ * The blocks come from every part of the index: the segments keep the blocks of their large terms in the file (see
+ * {@link IndexSegment}), and the postings of the buffers and of the small terms are split in memory. The segments
+ * read by a search are held until the blocks are closed.
+ */
+public class PostingBlocks implements Closeable {
+    /**
+     * Number of documents of each block
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    private final List<IndexSegment> heldSegments;
+    /**
+     * Source of each part of the index: the postings kept in memory, or the segment with the blocks
+     */
+    private final ArrayList<Postings> memorySources = new ArrayList<>();
+    private final ArrayList<IndexSegment> segmentSources = new ArrayList<>();
+    /**
+     * First block of each source, the blocks of a source are sorted by link index
+     */
+    private final ArrayList<Integer> sourceStarts = new ArrayList<>();
+
+    private int size = 0;
+    private int[] sources = new int[16];
+    private long[] starts = new long[16]; // offset in the segment file, or index in the postings kept in memory
+    private int[] lengths = new int[16];
+    private int[] documents = new int[16];
+    private int[] maxFrequencies = new int[16];
+    private long[] firstLinkIndices = new long[16];
+    private long[] lastLinkIndices = new long[16];
+
+
+    /**
+     * Instantiates new Posting blocks.
+     *
+     * @param heldSegments the segments acquired for the search, released when the blocks are closed
+     */
+    public PostingBlocks(List<IndexSegment> heldSegments){
+        this.heldSegments = heldSegments;
+    }
+
+
+    /**
+     * Add the postings of a part of the index kept in memory, split in blocks.
+     *
+     * @param postings the postings (or null)
+     */
+    public void add(Postings postings){
+        if(postings == null || postings.size == 0) return;
+        int source = newSource(postings, null);
+        for(int start = 0; start < postings.size; start += BLOCK_SIZE){
+            int end = Math.min(start + BLOCK_SIZE, postings.size);
+            int maxFrequency = 0;
+            for(int i = start; i < end; i++) maxFrequency = Math.max(maxFrequency, postings.frequencies[i]);
+            addBlock(source, start, 0, end - start, maxFrequency, postings.linkIndices[start], postings.linkIndices[end - 1]);
+        }
+    }
+
+
+    /**
+     * Add a block kept in a segment file. The blocks of the same segment must be added in a row, in order.
+     *
+     * @param segment        the segment
+     * @param offset         the block offset in the file
+     * @param length         the block length
+     * @param documentsNum   the number of documents of the block
+     * @param maxFrequency   the highest frequency of the block
+     * @param firstLinkIndex the first link index of the block
+     * @param lastLinkIndex  the last link index of the block
+     */
+    public void add(IndexSegment segment, long offset, int length, int documentsNum, int maxFrequency, long firstLinkIndex, long lastLinkIndex){
+        int source = segmentSources.isEmpty() || segmentSources.get(segmentSources.size() - 1) != segment ? newSource(null, segment) : segmentSources.size() - 1;
+        addBlock(source, offset, length, documentsNum, maxFrequency, firstLinkIndex, lastLinkIndex);
+    }
+
+
+    private int newSource(Postings postings, IndexSegment segment){
+        memorySources.add(postings);
+        segmentSources.add(segment);
+        sourceStarts.add(size);
+        return memorySources.size() - 1;
+    }
+
+
+    private void addBlock(int source, long start, int length, int documentsNum, int maxFrequency, long firstLinkIndex, long lastLinkIndex){
+        if(size == sources.length){
+            int capacity = size * 2;
+            sources = Arrays.copyOf(sources, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            documents = Arrays.copyOf(documents, capacity);
+            maxFrequencies = Arrays.copyOf(maxFrequencies, capacity);
+            firstLinkIndices = Arrays.copyOf(firstLinkIndices, capacity);
+            lastLinkIndices = Arrays.copyOf(lastLinkIndices, capacity);
+        }
+        sources[size] = source;
+        starts[size] = start;
+        lengths[size] = length;
+        documents[size] = documentsNum;
+        maxFrequencies[size] = maxFrequency;
+        firstLinkIndices[size] = firstLinkIndex;
+        lastLinkIndices[size] = lastLinkIndex;
+        size++;
+    }
+
+
+    /**
+     * Get the number of blocks.
+     *
+     * @return the number of blocks
+     */
+    public int size(){
+        return size;
+    }
+
+
+    /**
+     * Get the number of documents of all the blocks, counting a recrawled document once for each part of the index
+     * with its postings.
+     *
+     * @return the number of documents
+     */
+    public long getDocumentsNum(){
+        long documentsNum = 0;
+        for(int block = 0; block < size; block++) documentsNum += documents[block];
+        return documentsNum;
+    }
+
+
+    /**
+     * Get the highest frequency of a block.
+     *
+     * @param block the block
+     * @return the highest frequency
+     */
+    public int getMaxFrequency(int block){
+        return maxFrequencies[block];
+    }
+
+
+    /**
+     * Get the first link index of a block.
+     *
+     * @param block the block
+     * @return the first link index
+     */
+    public long getFirstLinkIndex(int block){
+        return firstLinkIndices[block];
+    }
+
+
+    /**
+     * Get the last link index of a block.
+     *
+     * @param block the block
+     * @return the last link index
+     */
+    public long getLastLinkIndex(int block){
+        return lastLinkIndices[block];
+    }
+
+
+    /**
+     * Decode a block.
+     *
+     * @param block the block
+     * @return the postings of the block, without positions
+     * @throws IOException IO Exception if the block couldn't be read
+     */
+    public Postings load(int block) throws IOException {
+        int source = sources[block];
+        Postings postings = memorySources.get(source);
+        if(postings == null) return segmentSources.get(source).readBlock(starts[block], lengths[block], documents[block], firstLinkIndices[block]);
+
+        int from = (int) starts[block];
+        int to = from + documents[block];
+        return new Postings(Arrays.copyOfRange(postings.linkIndices, from, to), Arrays.copyOfRange(postings.frequencies, from, to),
+                null, postings.versions == null ? null : Arrays.copyOfRange(postings.versions, from, to));
+    }
+
+
+    /**
+     * Offer the best documents of the term to a collector, decoding the blocks from the highest score bound to the
+     * lowest and stopping when no block left can beat the worst document kept by the collector.
+     * <p>
+     * The documents with the term in a boosted field (see {@link FieldPostings}) get the boost added to their
+     * frequency. The field postings are small next to the body ones and are read whole: the documents only in the
+     * fields are scored after the blocks, and a block is still decoded if a field document it may hold can enter
+     * the collector.
+     *
+     * @param topK          the collector
+     * @param fieldBoosts   the boost of the documents with the term in a field, as their frequency (or null)
+     * @param idf           the idf of the term
+     * @param scorer        the scorer
+     * @param documentStats the statistics of the documents
+     * @return the number of documents scored, or -1 if some documents were skipped
+     * @throws IOException IO Exception if a block couldn't be read
+     */
+    public int collectTopK(TopKCollector topK, Postings fieldBoosts, double idf, Bm25Scorer scorer, DocumentStats documentStats) throws IOException {
+        int maxBoost = 0;
+        if(fieldBoosts != null){
+            for(int i = 0; i < fieldBoosts.size; i++) maxBoost = Math.max(maxBoost, fieldBoosts.frequencies[i]);
+        }
+
+        double[] bounds = new double[size];
+        Integer[] order = new Integer[size];
+        for(int block = 0; block < size; block++){
+            bounds[block] = scorer.maxTermScore(maxFrequencies[block] + maxBoost, idf)
+                    + scorer.inlinkScore(documentStats.getMaxInlinks(firstLinkIndices[block], lastLinkIndices[block]));
+            order[block] = block;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(bounds[b], bounds[a]));
+
+        double averageLength = documentStats.getAverageLength();
+        boolean[] loaded = new boolean[size];
+        HashSet<Long> scored = new HashSet<>();
+        boolean skipped = false;
+        for(int block : order){
+            if(bounds[block] < topK.threshold()){ // the blocks are sorted, none of the next ones can enter either
+                skipped = true;
+                break;
+            }
+            collectBlock(block, loaded, scored, topK, fieldBoosts, idf, averageLength, scorer, documentStats);
+        }
+        if(fieldBoosts == null) return skipped ? -1 : scored.size();
+
+        for(int i = 0; i < fieldBoosts.size; i++){
+            long id = fieldBoosts.linkIndices[i];
+            if(scored.contains(id)) continue;
+            int maxFrequency = 0; // highest frequency of the blocks not decoded yet that may hold the document
+            for(int source = 0; source < sourceStarts.size(); source++){
+                int block = findBlock(source, id);
+                if(block >= 0 && !loaded[block]) maxFrequency = Math.max(maxFrequency, maxFrequencies[block]);
+            }
+            double inlinkScore = scorer.inlinkScore(documentStats.getInlinks(id));
+            if(maxFrequency > 0){
+                if(scorer.maxTermScore(maxFrequency + fieldBoosts.frequencies[i], idf) + inlinkScore < topK.threshold()){
+                    skipped = true;
+                    continue;
+                }
+                for(int source = 0; source < sourceStarts.size(); source++){
+                    int block = findBlock(source, id);
+                    if(block >= 0 && !loaded[block]) collectBlock(block, loaded, scored, topK, fieldBoosts, idf, averageLength, scorer, documentStats);
+                }
+                if(scored.contains(id)) continue;
+            }
+            scored.add(id); // only in the fields
+            topK.offer(id, scorer.termScore(fieldBoosts.frequencies[i], documentStats.getLength(id), averageLength, idf) + inlinkScore);
+        }
+        return skipped ? -1 : scored.size();
+    }
+
+
+    /**
+     * Decode a block and offer its live documents to the collector.
+     */
+    private void collectBlock(int block, boolean[] loaded, HashSet<Long> scored, TopKCollector topK, Postings fieldBoosts, double idf,
+                              double averageLength, Bm25Scorer scorer, DocumentStats documentStats) throws IOException {
+        loaded[block] = true;
+        Postings postings = load(block);
+        for(int i = 0; i < postings.size; i++){
+            long id = postings.linkIndices[i];
+            if(postings.getVersion(i) < documentStats.getVersion(id)) continue; // left by an older crawl
+            if(!scored.add(id)) continue; // already scored from another part of the index
+            int frequency = postings.frequencies[i];
+            if(fieldBoosts != null){
+                int index = fieldBoosts.indexOf(id);
+                if(index >= 0) frequency += fieldBoosts.frequencies[index];
+            }
+            topK.offer(id, scorer.termScore(frequency, documentStats.getLength(id), averageLength, idf) + scorer.inlinkScore(documentStats.getInlinks(id)));
+        }
+    }
+
+
+    /**
+     * Find the block of a source whose range of link indices holds a link index.
+     *
+     * @param source    the source
+     * @param linkIndex the link index
+     * @return the block, or -1 if no block of the source covers the link index
+     */
+    private int findBlock(int source, long linkIndex){
+        int low = sourceStarts.get(source);
+        int high = (source + 1 < sourceStarts.size() ? sourceStarts.get(source + 1) : size) - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            if(lastLinkIndices[middle] < linkIndex) low = middle + 1;
+            else if(firstLinkIndices[middle] > linkIndex) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Create a cursor over the documents of the blocks.
+     *
+     * @param fieldBoosts   the boost of the documents with the term in a field, as their frequency (or null)
+     * @param idf           the idf of the term
+     * @param scorer        the scorer
+     * @param documentStats the statistics of the documents
+     * @return the cursor
+     */
+    public Cursor cursor(Postings fieldBoosts, double idf, Bm25Scorer scorer, DocumentStats documentStats){
+        return new Cursor(this, fieldBoosts, idf, scorer, documentStats);
+    }
+
+
+    /**
+     * Release the segments held by the search.
+     */
+    @Override
+    public void close(){
+        for(IndexSegment segment : heldSegments) segment.release();
+    }
+
+
+    /**
+     * <H1>Iterator over the documents of the blocks, in id order, with the score bounds of its blocks</H1>
+     * Each part of the index is walked by its own position, and the current document is the lowest of them (the
+     * newest part wins a document found in several). A block is only decoded when a document of its range is asked
+     * for; {@link #shallowAdvance} bounds the score of the documents from a target to the end of the current blocks
+     * using only their directory.
+     * <p>
+     * Reading a block can fail with an {@link UncheckedIOException}.
+     */
+    public static class Cursor extends PostingIterator {
+        private final PostingBlocks blocks;
+        private final Postings fieldBoosts;
+        private final double idf;
+        private final Bm25Scorer scorer;
+        private final DocumentStats documentStats;
+        private final double averageLength;
+        private final int maxBoost;
+        private final double maxScore;
+
+        /**
+         * Current block, decoded postings, position and document of each part of the index
+         */
+        private final int[] sourceBlocks;
+        private final Postings[] sourcePostings;
+        private final int[] sourcePositions;
+        private final long[] sourceDocIds;
+        private int fieldPosition = 0;
+        private long docId = -1;
+        private int frequency = 0;
+        private long shallowEnd = NO_MORE_DOCS;
+
+
+        private Cursor(PostingBlocks blocks, Postings fieldBoosts, double idf, Bm25Scorer scorer, DocumentStats documentStats){
+            this.blocks = blocks;
+            this.fieldBoosts = fieldBoosts;
+            this.idf = idf;
+            this.scorer = scorer;
+            this.documentStats = documentStats;
+            this.averageLength = documentStats.getAverageLength();
+
+            int boost = 0;
+            if(fieldBoosts != null){
+                for(int i = 0; i < fieldBoosts.size; i++) boost = Math.max(boost, fieldBoosts.frequencies[i]);
+            }
+            maxBoost = boost;
+            int maxFrequency = 0;
+            for(int block = 0; block < blocks.size; block++) maxFrequency = Math.max(maxFrequency, blocks.maxFrequencies[block]);
+            maxScore = scorer.maxTermScore(maxFrequency + maxBoost, idf);
+
+            int sourcesNum = blocks.sourceStarts.size();
+            sourceBlocks = new int[sourcesNum];
+            sourcePostings = new Postings[sourcesNum];
+            sourcePositions = new int[sourcesNum];
+            sourceDocIds = new long[sourcesNum];
+            for(int source = 0; source < sourcesNum; source++){
+                sourceBlocks[source] = blocks.sourceStarts.get(source);
+                sourceDocIds[source] = -1;
+            }
+        }
+
+        @Override
+        public long docId(){
+            return docId;
+        }
+
+        @Override
+        public long nextDoc(){
+            return advance(docId + 1);
+        }
+
+        @Override
+        public long advance(long target){
+            if(docId == NO_MORE_DOCS) return docId;
+            for(int source = 0; source < sourceDocIds.length; source++){
+                if(sourceDocIds[source] < target) sourceDocIds[source] = advanceSource(source, target);
+            }
+            if(fieldBoosts != null){
+                while(fieldPosition < fieldBoosts.size && fieldBoosts.linkIndices[fieldPosition] < target) fieldPosition++;
+            }
+
+            docId = fieldBoosts != null && fieldPosition < fieldBoosts.size ? fieldBoosts.linkIndices[fieldPosition] : NO_MORE_DOCS;
+            for(long sourceDocId : sourceDocIds) docId = Math.min(docId, sourceDocId);
+            frequency = 0;
+            if(docId == NO_MORE_DOCS) return docId;
+            for(int source = 0; source < sourceDocIds.length; source++){
+                if(sourceDocIds[source] != docId) continue;
+                Postings postings = sourcePostings[source];
+                frequency = postings.frequencies[sourcePositions[source]];
+                break;
+            }
+            if(fieldBoosts != null && fieldPosition < fieldBoosts.size && fieldBoosts.linkIndices[fieldPosition] == docId){
+                frequency += fieldBoosts.frequencies[fieldPosition];
+            }
+            return docId;
+        }
+
+        /**
+         * Move a part of the index to its first live document greater or equal to the target, skipping the blocks
+         * that end before it without decoding them.
+         *
+         * @param source the part of the index
+         * @param target the target
+         * @return the document, or {@link #NO_MORE_DOCS}
+         */
+        private long advanceSource(int source, long target){
+            int block = sourceBlocks[source];
+            int end = sourceEnd(source);
+            while(block < end && blocks.lastLinkIndices[block] < target){
+                block++;
+                sourcePostings[source] = null;
+            }
+            while(block < end){
+                sourceBlocks[source] = block;
+                if(sourcePostings[source] == null){
+                    try{
+                        sourcePostings[source] = blocks.load(block);
+                    } catch (IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                    sourcePositions[source] = 0;
+                }
+                Postings postings = sourcePostings[source];
+                int i = sourcePositions[source];
+                while(i < postings.size && (postings.linkIndices[i] < target || postings.getVersion(i) < documentStats.getVersion(postings.linkIndices[i]))) i++;
+                sourcePositions[source] = i;
+                if(i < postings.size) return postings.linkIndices[i];
+                block++;
+                sourcePostings[source] = null;
+            }
+            sourceBlocks[source] = end;
+            return NO_MORE_DOCS;
+        }
+
+        private int sourceEnd(int source){
+            return source + 1 < blocks.sourceStarts.size() ? blocks.sourceStarts.get(source + 1) : blocks.size;
+        }
+
+        /**
+         * Bound the score of the documents from a target to the end of the current blocks (see {@link #getShallowEnd()}),
+         * reading only the block directory.
+         *
+         * @param target the target, not lower than the current document
+         * @return the highest score of the word in those documents
+         */
+        public double shallowAdvance(long target){
+            int maxFrequency = 0;
+            long end = NO_MORE_DOCS - 1;
+            for(int source = 0; source < sourceBlocks.length; source++){
+                // first block of the part that doesn't end before the target
+                int low = sourceBlocks[source];
+                int high = sourceEnd(source);
+                while(low < high){
+                    int middle = (low + high) >>> 1;
+                    if(blocks.lastLinkIndices[middle] < target) low = middle + 1;
+                    else high = middle;
+                }
+                if(low == sourceEnd(source)) continue;
+                if(blocks.firstLinkIndices[low] <= target){
+                    maxFrequency = Math.max(maxFrequency, blocks.maxFrequencies[low]);
+                    end = Math.min(end, blocks.lastLinkIndices[low]);
+                } else end = Math.min(end, blocks.firstLinkIndices[low] - 1); // in a gap between blocks
+            }
+            shallowEnd = end;
+            return scorer.maxTermScore(maxFrequency + maxBoost, idf);
+        }
+
+        /**
+         * Get the last document covered by the bound of the last {@link #shallowAdvance}.
+         *
+         * @return the document
+         */
+        public long getShallowEnd(){
+            return shallowEnd;
+        }
+
+        /**
+         * Get the highest score of the word in any document.
+         *
+         * @return the bound
+         */
+        public double maxScore(){
+            return maxScore;
+        }
+
+        @Override
+        public double score(){
+            return scorer.termScore(frequency, documentStats.getLength(docId), averageLength, idf);
+        }
+
+        @Override
+        public long cost(){
+            return blocks.getDocumentsNum() + (fieldBoosts == null ? 0 : fieldBoosts.size);
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.protocol.Query;
+import com.googol.backend.tree.Postings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * <H1>Streaming iterator over the documents that match a query</H1>
+ * The documents are visited in ascending id order, one at a time, so the operators are evaluated by moving cursors
+ * over the sorted postings, without building the intermediate sets of documents:
+ * <ul>
+ *     <li>AND leapfrogs its children, the rarest leading, advancing each one to the current candidate;</li>
+ *     <li>OR merges its children with a min heap of their current documents;</li>
+ *     <li>NOT skips the candidates where the excluded iterator stops, advancing it to each candidate;</li>
+ *     <li>a phrase is an AND whose matches are confirmed with the positions of its words, and so is a proximity search,
+ *     with a window of positions instead.</li>
+ * </ul>
+ * The score of the current document is the sum of the BM25 scores of the words that matched it.
+ */
+public abstract class PostingIterator {
+    /**
+     * Document returned once the iterator is exhausted
+     */
+    public static final long NO_MORE_DOCS = Long.MAX_VALUE;
+
+    /**
+     * Get the current document.
+     *
+     * @return the document id, -1 before the first call to {@link #nextDoc()}, or {@link #NO_MORE_DOCS}
+     */
+    public abstract long docId();
+
+    /**
+     * Move to the next document.
+     *
+     * @return the document id, or {@link #NO_MORE_DOCS}
+     */
+    public abstract long nextDoc();
+
+    /**
+     * Move to the first document greater or equal to the target (which must be greater than the current document).
+     *
+     * @param target the target
+     * @return the document id, or {@link #NO_MORE_DOCS}
+     */
+    public abstract long advance(long target);
+
+    /**
+     * Get the score of the current document.
+     *
+     * @return the score
+     */
+    public abstract double score();
+
+    /**
+     * Get the maximum number of documents of the iterator, used to lead the intersections with the rarest one.
+     *
+     * @return the cost
+     */
+    public abstract long cost();
+
+
+    /**
+     * Build the iterator of a query.
+     *
+     * @param query         the query
+     * @param postingsOf    gets the postings of a word (null if it isn't indexed)
+     * @param scorer        the scorer
+     * @param documentStats the documents statistics
+     * @return the iterator
+     */
+    public static PostingIterator of(Query query, Function<String, Postings> postingsOf, Bm25Scorer scorer, DocumentStats documentStats){
+        int documentsNum = documentStats.getDocumentsNum();
+        double averageLength = documentStats.getAverageLength();
+        HashMap<String, Postings> postingsCache = new HashMap<>(); // a word can appear several times in the query
+
+        PostingIterator[] stack = new PostingIterator[query.size()];
+        boolean[] isExcluded = new boolean[query.size()];
+        int stackSize = 0;
+        for(int node = 0; node < query.size(); node++){
+            int operand = query.getOperand(node);
+            PostingIterator iterator;
+            switch(query.getOperator(node)){
+                case Query.TERM: {
+                    String word = query.getTerm(operand);
+                    Postings postings = postingsCache.computeIfAbsent(word, postingsOf);
+                    iterator = postings == null ? new Empty() : new Term(postings, scorer, documentStats, averageLength, scorer.idf(postings.size, documentsNum));
+                    break;
+                }
+                case Query.PHRASE: {
+                    stackSize -= operand;
+                    iterator = new Phrase(Arrays.copyOfRange(stack, stackSize, stackSize + operand), 0);
+                    break;
+                }
+                case Query.NEAR: {
+                    stackSize -= operand;
+                    iterator = new Phrase(Arrays.copyOfRange(stack, stackSize, stackSize + operand), query.getDistance(node));
+                    break;
+                }
+                case Query.OR: {
+                    stackSize -= operand;
+                    iterator = new Disjunction(Arrays.copyOfRange(stack, stackSize, stackSize + operand));
+                    break;
+                }
+                case Query.AND: {
+                    stackSize -= operand;
+                    ArrayList<PostingIterator> required = new ArrayList<>();
+                    ArrayList<PostingIterator> excluded = new ArrayList<>();
+                    for(int i = stackSize; i < stackSize + operand; i++){
+                        (isExcluded[i] ? excluded : required).add(stack[i]);
+                    }
+                    if(required.isEmpty()) throw new IllegalArgumentException("AND without words that aren't excluded.");
+                    iterator = required.size() == 1 ? required.get(0) : new Conjunction(required.toArray(new PostingIterator[0]));
+                    if(!excluded.isEmpty()) iterator = new Exclusion(iterator, excluded.toArray(new PostingIterator[0]));
+                    break;
+                }
+                case Query.NOT: {
+                    stackSize--; // replaced by the same iterator, marked as excluded for its AND
+                    iterator = stack[stackSize];
+                    isExcluded[stackSize] = true;
+                    stack[stackSize++] = iterator;
+                    continue;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown query operator " + query.getOperator(node));
+            }
+            isExcluded[stackSize] = false;
+            stack[stackSize++] = iterator;
+        }
+        if(stackSize != 1 || isExcluded[0]) throw new IllegalArgumentException("Malformed query.");
+        return stack[0];
+    }
+
+
+    /**
+     * Iterator without documents, for the words that aren't indexed.
+     */
+    static class Empty extends PostingIterator {
+        private long docId = -1;
+
+        @Override
+        public long docId(){
+            return docId;
+        }
+
+        @Override
+        public long nextDoc(){
+            return docId = NO_MORE_DOCS;
+        }
+
+        @Override
+        public long advance(long target){
+            return docId = NO_MORE_DOCS;
+        }
+
+        @Override
+        public double score(){
+            return 0;
+        }
+
+        @Override
+        public long cost(){
+            return 0;
+        }
+    }
+
+
+    /**
+     * Iterator over the postings of a word.
+     */
+    static class Term extends PostingIterator {
+        private final Postings postings;
+        private final Bm25Scorer scorer;
+        private final DocumentStats documentStats;
+        private final double averageLength;
+        private final double idf;
+        private int index = -1;
+
+        Term(Postings postings, Bm25Scorer scorer, DocumentStats documentStats, double averageLength, double idf){
+            this.postings = postings;
+            this.scorer = scorer;
+            this.documentStats = documentStats;
+            this.averageLength = averageLength;
+            this.idf = idf;
+        }
+
+        @Override
+        public long docId(){
+            if(index < 0) return -1;
+            return index < postings.size ? postings.linkIndices[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public long nextDoc(){
+            if(index < postings.size) index++;
+            return docId();
+        }
+
+        @Override
+        public long advance(long target){
+            // gallop from the current position, then binary search the last step
+            int low = Math.max(index, 0);
+            int step = 1;
+            int high = low;
+            while(high < postings.size && postings.linkIndices[high] < target){
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, postings.size);
+            while(low < high){
+                int middle = (low + high) >>> 1;
+                if(postings.linkIndices[middle] < target) low = middle + 1;
+                else high = middle;
+            }
+            index = low;
+            return docId();
+        }
+
+        @Override
+        public double score(){
+            long id = postings.linkIndices[index];
+            return scorer.termScore(postings.frequencies[index], documentStats.getLength(id), averageLength, idf);
+        }
+
+        @Override
+        public long cost(){
+            return postings.size;
+        }
+
+        /**
+         * Get the positions of the word in the current document.
+         *
+         * @return the positions, or null if the page was indexed without them
+         */
+        int[] positions(){
+            return postings.getPositions(index);
+        }
+    }
+
+
+    /**
+     * Documents present in every child.
+     */
+    static class Conjunction extends PostingIterator {
+        /**
+         * Children, rarest first
+         */
+        protected final PostingIterator[] children;
+        private long docId = -1;
+
+        Conjunction(PostingIterator[] children){
+            this.children = children;
+            Arrays.sort(this.children, Comparator.comparingLong(PostingIterator::cost));
+        }
+
+        @Override
+        public long docId(){
+            return docId;
+        }
+
+        @Override
+        public long nextDoc(){
+            return docId = align(children[0].nextDoc());
+        }
+
+        @Override
+        public long advance(long target){
+            return docId = align(children[0].advance(target));
+        }
+
+        /**
+         * Advance the children until all of them are on the same document.
+         *
+         * @param candidate the document of the leading child
+         * @return the common document, or {@link #NO_MORE_DOCS}
+         */
+        private long align(long candidate){
+            while(candidate != NO_MORE_DOCS){
+                boolean aligned = true;
+                for(int i = 1; i < children.length; i++){
+                    long childDocId = children[i].docId();
+                    if(childDocId < candidate) childDocId = children[i].advance(candidate);
+                    if(childDocId > candidate){
+                        candidate = children[0].advance(childDocId);
+                        aligned = false;
+                        break;
+                    }
+                }
+                if(aligned && matches()) return candidate;
+                if(aligned) candidate = children[0].nextDoc();
+            }
+            return NO_MORE_DOCS;
+        }
+
+        /**
+         * Confirm a document present in every child.
+         *
+         * @return true if the document matches
+         */
+        protected boolean matches(){
+            return true;
+        }
+
+        @Override
+        public double score(){
+            double score = 0;
+            for(PostingIterator child : children) score += child.score();
+            return score;
+        }
+
+        @Override
+        public long cost(){
+            return children[0].cost();
+        }
+    }
+
+
+    /**
+     * Documents where the words appear consecutively, in order, or all within a window of positions, in any order.
+     */
+    static class Phrase extends Conjunction {
+        /**
+         * Words in the phrase order (the children are sorted by cost)
+         */
+        private final Term[] words;
+        private final int[][] positions;
+        /**
+         * Maximum distance between the first and the last word of the window (0 for an exact phrase)
+         */
+        private final int maxDistance;
+
+        Phrase(PostingIterator[] words, int maxDistance){
+            super(words.clone());
+            this.maxDistance = maxDistance;
+            this.words = new Term[words.length];
+            boolean hasEmptyWord = false;
+            for(int i = 0; i < words.length; i++){
+                if(words[i] instanceof Term) this.words[i] = (Term) words[i];
+                else hasEmptyWord = true; // a word that isn't indexed, the phrase never matches
+            }
+            this.positions = hasEmptyWord ? null : new int[words.length][];
+        }
+
+        @Override
+        protected boolean matches(){
+            if(positions == null) return false;
+            for(int i = 0; i < words.length; i++){
+                positions[i] = words[i].positions();
+                if(positions[i] == null || positions[i].length == 0) return false; // page indexed without positions
+            }
+            return maxDistance == 0 ? IndexStorageBarrel.containsPhrase(positions) : IndexStorageBarrel.containsWithinWindow(positions, maxDistance);
+        }
+    }
+
+
+    /**
+     * Documents present in any child, merged with a min heap of the children current documents.
+     */
+    static class Disjunction extends PostingIterator {
+        private final PostingIterator[] children;
+        /**
+         * Indices of the children with documents left, ordered by their current document
+         */
+        private final int[] heap;
+        private int heapSize;
+        private long docId = -1;
+
+        Disjunction(PostingIterator[] children){
+            this.children = children;
+            this.heap = new int[children.length];
+        }
+
+        @Override
+        public long docId(){
+            return docId;
+        }
+
+        @Override
+        public long nextDoc(){
+            if(docId == -1){
+                for(int i = 0; i < children.length; i++){
+                    if(children[i].nextDoc() != NO_MORE_DOCS) push(i);
+                }
+            } else {
+                // move every child on the current document
+                while(heapSize > 0 && children[heap[0]].docId() == docId){
+                    int child = pop();
+                    if(children[child].nextDoc() != NO_MORE_DOCS) push(child);
+                }
+            }
+            return docId = heapSize == 0 ? NO_MORE_DOCS : children[heap[0]].docId();
+        }
+
+        @Override
+        public long advance(long target){
+            if(docId == -1) nextDoc();
+            while(heapSize > 0 && children[heap[0]].docId() < target){
+                int child = pop();
+                if(children[child].advance(target) != NO_MORE_DOCS) push(child);
+            }
+            return docId = heapSize == 0 ? NO_MORE_DOCS : children[heap[0]].docId();
+        }
+
+        @Override
+        public double score(){
+            double score = 0;
+            for(int i = 0; i < heapSize; i++){
+                if(children[heap[i]].docId() == docId) score += children[heap[i]].score();
+            }
+            return score;
+        }
+
+        @Override
+        public long cost(){
+            long cost = 0;
+            for(PostingIterator child : children) cost += child.cost();
+            return cost;
+        }
+
+        private void push(int child){
+            int i = heapSize++;
+            long childDocId = children[child].docId();
+            while(i > 0){
+                int parent = (i - 1) >>> 1;
+                if(children[heap[parent]].docId() <= childDocId) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = child;
+        }
+
+        private int pop(){
+            int top = heap[0];
+            int last = heap[--heapSize];
+            long lastDocId = children[last].docId();
+            int i = 0;
+            while(true){
+                int smallest = 2 * i + 1;
+                if(smallest >= heapSize) break;
+                if(smallest + 1 < heapSize && children[heap[smallest + 1]].docId() < children[heap[smallest]].docId()) smallest++;
+                if(children[heap[smallest]].docId() >= lastDocId) break;
+                heap[i] = heap[smallest];
+                i = smallest;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+
+
+    /**
+     * Documents of an iterator that aren't in any of the excluded iterators.
+     */
+    static class Exclusion extends PostingIterator {
+        private final PostingIterator included;
+        private final PostingIterator[] excluded;
+
+        Exclusion(PostingIterator included, PostingIterator[] excluded){
+            this.included = included;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public long docId(){
+            return included.docId();
+        }
+
+        @Override
+        public long nextDoc(){
+            return skipExcluded(included.nextDoc());
+        }
+
+        @Override
+        public long advance(long target){
+            return skipExcluded(included.advance(target));
+        }
+
+        private long skipExcluded(long candidate){
+            candidates:
+            while(candidate != NO_MORE_DOCS){
+                for(PostingIterator iterator : excluded){
+                    long excludedDocId = iterator.docId();
+                    if(excludedDocId < candidate) excludedDocId = iterator.advance(candidate);
+                    if(excludedDocId == candidate){
+                        candidate = included.nextDoc();
+                        continue candidates;
+                    }
+                }
+                return candidate;
+            }
+            return NO_MORE_DOCS;
+        }
+
+        @Override
+        public double score(){
+            return included.score();
+        }
+
+        @Override
+        public long cost(){
+            return included.cost();
+        }
+    }
+}
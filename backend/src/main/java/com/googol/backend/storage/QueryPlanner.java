@@ -0,0 +1,103 @@
+package com.googol.backend.storage;
+
+import java.util.Arrays;
+
+/**
+ * Cost based planning of the searches that must match all the words, from the document frequency of each word.
+ * <p>
+ * The words are intersected from the rarest to the most common, so the candidates only shrink and the postings of
+ * the common words are only read while there are still candidates. A word that isn't indexed answers the search
+ * without reading any postings.
+ * <p>
+ * Words that appear in almost every document (stop words like "the" or "of") barely change the ranking, their idf is
+ * close to 0, and their postings are the largest ones. Instead of being read and scored, they're applied as filters
+ * to the few candidates left by the other words.
+ */
+public class QueryPlanner {
+    /**
+     * Fraction of the documents above which a word is applied as a filter
+     */
+    private final double filterRatio;
+
+
+    /**
+     * Instantiates a new Query planner.
+     *
+     * @param filterRatio fraction of the documents above which a word is applied as a filter (above 1 disables the filters)
+     */
+    public QueryPlanner(double filterRatio){
+        if(filterRatio <= 0) throw new IllegalArgumentException("Filter ratio must be greater than 0.");
+        this.filterRatio = filterRatio;
+    }
+
+
+    /**
+     * Plan a search.
+     *
+     * @param documentFrequencies the (estimated) document frequency of each word
+     * @param documentsNum        the number of documents in the index
+     * @return the plan, with the indices of the words
+     */
+    public Plan plan(long[] documentFrequencies, int documentsNum){
+        Integer[] order = new Integer[documentFrequencies.length];
+        for(int i = 0; i < order.length; i++){
+            if(documentFrequencies[i] <= 0) return Plan.EMPTY; // no document can have every word
+            order[i] = i;
+        }
+        if(order.length == 0) return Plan.EMPTY;
+        Arrays.sort(order, (a, b) -> Long.compare(documentFrequencies[a], documentFrequencies[b])); // rarest first
+
+        int[] scoredWords = new int[order.length];
+        int[] filterWords = new int[order.length];
+        int scoredNum = 0;
+        int filtersNum = 0;
+        double filterThreshold = filterRatio * documentsNum;
+        for(int i = 0; i < order.length; i++){
+            // the rarest word is always scored, it provides the candidates
+            if(i > 0 && documentsNum > 0 && documentFrequencies[order[i]] >= filterThreshold) filterWords[filtersNum++] = order[i];
+            else scoredWords[scoredNum++] = order[i];
+        }
+        return new Plan(Arrays.copyOf(scoredWords, scoredNum), Arrays.copyOf(filterWords, filtersNum));
+    }
+
+
+    /**
+     * <H1>Execution plan of a search</H1>
+     * The scored words provide and rank the candidates, in the given order. The filter words are then checked on the
+     * remaining candidates, without adding to their score.
+     */
+    public static class Plan {
+        static final Plan EMPTY = new Plan(new int[0], new int[0]);
+
+        /**
+         * Indices of the words whose postings are intersected and scored, rarest first
+         */
+        public final int[] scoredWords;
+        /**
+         * Indices of the words only checked on the final candidates, rarest first
+         */
+        public final int[] filterWords;
+
+
+        /**
+         * Instantiates a new Plan.
+         *
+         * @param scoredWords the scored words
+         * @param filterWords the filter words
+         */
+        Plan(int[] scoredWords, int[] filterWords){
+            this.scoredWords = scoredWords;
+            this.filterWords = filterWords;
+        }
+
+
+        /**
+         * Check if the search can't have results, because a word isn't indexed.
+         *
+         * @return true if there are no results
+         */
+        public boolean isEmpty(){
+            return scoredWords.length == 0;
+        }
+    }
+}
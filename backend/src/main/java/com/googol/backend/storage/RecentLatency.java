@@ -0,0 +1,46 @@
+package com.googol.backend.storage;
+
+/**
+ * Recent latency of the searches of a barrel, reported to the gateway in the heartbeats.
+ * <p>
+ * It's an exponentially weighted moving average, so each search weighs {@link #WEIGHT} and the older ones fade out,
+ * following the current load of the barrel instead of its whole history.
+ */
+public class RecentLatency {
+    /**
+     * Weight of each new sample
+     */
+    public static final double WEIGHT = 0.2;
+    private double averageNanos = 0;
+    private boolean hasSamples = false;
+
+
+    /**
+     * Record the latency of a search.
+     *
+     * @param nanos the latency, in nanoseconds
+     */
+    public synchronized void record(long nanos){
+        averageNanos = hasSamples ? averageNanos + WEIGHT * (nanos - averageNanos) : nanos;
+        hasSamples = true;
+    }
+
+
+    /**
+     * Forget the recorded searches, so the latency only follows the ones after this call.
+     */
+    public synchronized void reset(){
+        averageNanos = 0;
+        hasSamples = false;
+    }
+
+
+    /**
+     * Get the recent latency.
+     *
+     * @return the recent latency, in milliseconds (0 if there were no searches)
+     */
+    public synchronized long getMillis(){
+        return Math.round(averageNanos / 1_000_000);
+    }
+}
@@ -0,0 +1,122 @@
+package com.googol.backend.storage;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.function.LongSupplier;
+
+/**
+ * Progress of the recovery of a barrel after a restart (opening the index, syncing or importing the documents...),
+ * reported to the gateway while the barrel is warming.
+ * <p>
+ * The steps of the recovery run on their own threads, so each one updates its own entry, shown in the order the
+ * steps started, e.g. "index: done in 1.2s, documents: 40000/100000".
+ */
+public class RecoveryStatus {
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Step> steps = new LinkedHashMap<>();
+
+
+    /**
+     * Instantiates a new Recovery status.
+     */
+    public RecoveryStatus(){
+        this(System::currentTimeMillis);
+    }
+
+
+    RecoveryStatus(LongSupplier clock){
+        this.clock = clock;
+    }
+
+
+    /**
+     * Start a step.
+     *
+     * @param step the step name
+     */
+    public synchronized void start(String step){
+        steps.put(step, new Step(clock.getAsLong()));
+    }
+
+
+    /**
+     * Update the progress of a running step.
+     *
+     * @param step  the step name
+     * @param done  the work done so far
+     * @param total the total work (0 if unknown)
+     */
+    public synchronized void progress(String step, long done, long total){
+        Step current = steps.get(step);
+        if(current == null || current.state != null) return;
+        current.done = done;
+        current.total = total;
+    }
+
+
+    /**
+     * Finish a step.
+     *
+     * @param step the step name
+     */
+    public synchronized void finish(String step){
+        end(step, "done");
+    }
+
+
+    /**
+     * Finish a step that failed.
+     *
+     * @param step the step name
+     */
+    public synchronized void fail(String step){
+        end(step, "failed");
+    }
+
+
+    /**
+     * Check if every started step has finished (done or failed).
+     *
+     * @return true if finished, false otherwise
+     */
+    public synchronized boolean isFinished(){
+        for(Step step : steps.values()){
+            if(step.state == null) return false;
+        }
+        return true;
+    }
+
+
+    private void end(String step, String state){
+        Step current = steps.get(step);
+        if(current == null || current.state != null) return;
+        current.state = state;
+        current.elapsed = clock.getAsLong() - current.start;
+    }
+
+
+    @Override
+    public synchronized String toString(){
+        if(steps.isEmpty()) return "warming";
+        StringJoiner joiner = new StringJoiner(", ");
+        steps.forEach((name, step) -> {
+            if(step.state != null) joiner.add(name + ": " + step.state + " in " + String.format(Locale.ROOT, "%.1f", step.elapsed / 1000.0) + "s");
+            else if(step.total > 0) joiner.add(name + ": " + step.done + "/" + step.total);
+            else joiner.add(name + ": running");
+        });
+        return joiner.toString();
+    }
+
+
+    private static class Step {
+        private final long start;
+        private String state; // null while running
+        private long done, total, elapsed;
+
+
+        private Step(long start){
+            this.start = start;
+        }
+    }
+}
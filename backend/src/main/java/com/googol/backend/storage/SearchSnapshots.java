@@ -0,0 +1,269 @@
+package com.googol.backend.storage;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+import java.util.function.LongToIntFunction;
+
+/**
+ * Short lived copies of the ranked matches of the searches, so the pages after the first one of a search are cut
+ * from the same results, even if documents are indexed in the meantime.
+ * <p>
+ * The snapshots are identified by a random id, carried by the search cursors, and are dropped when they expire or,
+ * the least recently used first, when the snapshots hold more documents than the configured budget. A cursor of a
+ * dropped snapshot still works, its search is matched again on the live index and continued after its last document.
+ */
+public class SearchSnapshots {
+    private final long maxDocuments;
+    private final long timeToLive;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Long, Entry> snapshots = new LinkedHashMap<>(16, 0.75f, true); // access order, for the LRU
+    private long documentsNum = 0;
+
+
+    /**
+     * Instantiates a new Search snapshots.
+     *
+     * @param maxDocuments maximum number of documents held by all the snapshots
+     * @param timeToLive   time after which a snapshot expires, in milliseconds
+     */
+    public SearchSnapshots(long maxDocuments, long timeToLive){
+        this(maxDocuments, timeToLive, System::currentTimeMillis);
+    }
+
+
+    SearchSnapshots(long maxDocuments, long timeToLive, LongSupplier clock){
+        if(maxDocuments < 0) throw new IllegalArgumentException("Max documents cannot be negative.");
+        if(timeToLive <= 0) throw new IllegalArgumentException("Time to live must be greater than 0.");
+        this.maxDocuments = maxDocuments;
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+    }
+
+
+    /**
+     * Keep the ranked matches of a search.
+     * Matches bigger than the whole budget aren't kept, but still get an id for their cursors.
+     *
+     * @param query    the normalized query
+     * @param snapshot the ranked matches
+     * @return the snapshot id
+     */
+    public synchronized long put(String query, Snapshot snapshot){
+        long id;
+        do{
+            id = ThreadLocalRandom.current().nextLong();
+        } while(id == 0 || snapshots.containsKey(id));
+
+        long now = clock.getAsLong();
+        removeExpired(now);
+        if(snapshot.size() > maxDocuments) return id;
+
+        snapshots.put(id, new Entry(query, snapshot, now + timeToLive));
+        documentsNum += snapshot.size();
+        Iterator<Entry> iterator = snapshots.values().iterator();
+        while(documentsNum > maxDocuments && iterator.hasNext()){ // evict the least recently used
+            documentsNum -= iterator.next().snapshot.size();
+            iterator.remove();
+        }
+        return id;
+    }
+
+
+    /**
+     * Get the ranked matches of a search.
+     *
+     * @param id    the snapshot id
+     * @param query the normalized query, that must be the one of the snapshot
+     * @return the snapshot, or null if it expired, was evicted or belongs to another query
+     */
+    public synchronized Snapshot get(long id, String query){
+        removeExpired(clock.getAsLong());
+        Entry entry = snapshots.get(id);
+        if(entry == null || !entry.query.equals(query)) return null;
+        return entry.snapshot;
+    }
+
+
+    /**
+     * Get the number of snapshots kept.
+     *
+     * @return the number of snapshots
+     */
+    public synchronized int size(){
+        return snapshots.size();
+    }
+
+
+    private void removeExpired(long now){
+        Iterator<Entry> iterator = snapshots.values().iterator();
+        while(iterator.hasNext()){
+            Entry entry = iterator.next();
+            if(entry.expiresAt > now) continue;
+            documentsNum -= entry.snapshot.size();
+            iterator.remove();
+        }
+    }
+
+
+    private static class Entry {
+        private final String query;
+        private final Snapshot snapshot;
+        private final long expiresAt;
+
+
+        private Entry(String query, Snapshot snapshot, long expiresAt){
+            this.query = query;
+            this.snapshot = snapshot;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+
+    /**
+     * <H1>Ranked matches of a search</H1>
+     * The matching documents and their final scores, in no particular order. Each page is collected with a heap of
+     * the page size, over the documents ranked after the cursor of the previous page.
+     */
+    public static class Snapshot {
+        private final long[] ids;
+        private final double[] scores;
+        private final int size;
+
+
+        /**
+         * Instantiates a new Snapshot.
+         *
+         * @param ids    the document ids
+         * @param scores the document scores
+         * @param size   the number of documents (the arrays can be longer)
+         */
+        public Snapshot(long[] ids, double[] scores, int size){
+            this.ids = ids;
+            this.scores = scores;
+            this.size = size;
+        }
+
+
+        /**
+         * Get the number of documents.
+         *
+         * @return the size
+         */
+        public int size(){
+            return size;
+        }
+
+
+        /**
+         * Offer the documents ranked after the cursor to a collector.
+         *
+         * @param after the cursor of the previous page (null for the first page)
+         * @param topK  the collector, sized for a page
+         * @return the number of documents ranked after the cursor
+         */
+        public int collectAfter(Cursor after, TopKCollector topK){
+            int remaining = 0;
+            for(int i = 0; i < size; i++){
+                if(after != null && !TopKCollector.ranksAfter(ids[i], scores[i], after.docId, after.score)) continue;
+                remaining++;
+                topK.offer(ids[i], scores[i]);
+            }
+            return remaining;
+        }
+
+
+        /**
+         * Keep at most a number of documents of each group, the best ranked ones.
+         *
+         * @param maxPerGroup the maximum number of documents of the same group
+         * @param groupOf     the group of each document (negative for documents without a group, never capped)
+         * @return the capped snapshot (this same object if no group is over the maximum)
+         */
+        public Snapshot capPerGroup(int maxPerGroup, LongToIntFunction groupOf){
+            HashMap<Integer, Integer> counts = new HashMap<>();
+            for(int i = 0; i < size; i++){
+                int group = groupOf.applyAsInt(ids[i]);
+                if(group >= 0) counts.merge(group, 1, Integer::sum);
+            }
+
+            // rank the documents of the groups over the maximum, keeping the best of each one
+            HashMap<Integer, TopKCollector> crowdedGroups = new HashMap<>();
+            counts.forEach((group, count) -> {
+                if(count > maxPerGroup) crowdedGroups.put(group, new TopKCollector(maxPerGroup));
+            });
+            if(crowdedGroups.isEmpty()) return this;
+            for(int i = 0; i < size; i++){
+                TopKCollector groupTopK = crowdedGroups.get(groupOf.applyAsInt(ids[i]));
+                if(groupTopK != null) groupTopK.offer(ids[i], scores[i]);
+            }
+            HashSet<Long> kept = new HashSet<>();
+            for(TopKCollector groupTopK : crowdedGroups.values()){
+                for(long id : groupTopK.drainDescending()) kept.add(id);
+            }
+
+            long[] cappedIds = new long[size];
+            double[] cappedScores = new double[size];
+            int cappedSize = 0;
+            for(int i = 0; i < size; i++){
+                if(crowdedGroups.containsKey(groupOf.applyAsInt(ids[i])) && !kept.contains(ids[i])) continue;
+                cappedIds[cappedSize] = ids[i];
+                cappedScores[cappedSize++] = scores[i];
+            }
+            return new Snapshot(cappedIds, cappedScores, cappedSize);
+        }
+    }
+
+
+    /**
+     * <H1>Position of a search after the last document of a page</H1>
+     * Encoded as "snapshot:score:document", with the score as the hexadecimal bits of the double so it's compared
+     * exactly. The cursors are opaque to the gateway and to the clients.
+     */
+    public static class Cursor {
+        public final long snapshotId;
+        public final double score;
+        public final long docId;
+
+
+        /**
+         * Instantiates a new Cursor.
+         *
+         * @param snapshotId the snapshot of the search
+         * @param score      the score of the last document of the page
+         * @param docId      the id of the last document of the page
+         */
+        public Cursor(long snapshotId, double score, long docId){
+            this.snapshotId = snapshotId;
+            this.score = score;
+            this.docId = docId;
+        }
+
+
+        /**
+         * Parse a cursor.
+         *
+         * @param cursor the encoded cursor
+         * @return the cursor, or null if it isn't valid
+         */
+        public static Cursor parse(String cursor){
+            if(cursor == null) return null;
+            String[] parts = cursor.split(":");
+            if(parts.length != 3) return null;
+            try{
+                return new Cursor(Long.parseUnsignedLong(parts[0], 16), Double.longBitsToDouble(Long.parseUnsignedLong(parts[1], 16)), Long.parseLong(parts[2]));
+            } catch (NumberFormatException e){
+                return null;
+            }
+        }
+
+
+        @Override
+        public String toString(){
+            return Long.toHexString(snapshotId) + ":" + Long.toHexString(Double.doubleToLongBits(score)) + ":" + docId;
+        }
+    }
+}
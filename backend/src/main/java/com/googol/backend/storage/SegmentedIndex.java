@@ -0,0 +1,928 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.AdaptiveRadixTree;
+import com.googol.backend.tree.Node;
+import com.googol.backend.tree.Postings;
+import com.googol.backend.tree.TermBatch;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongToIntFunction;
+import java.util.function.Predicate;
+
+/**
+ * <H1>Inverted index made of immutable segments and a small in-memory write buffer (LSM)</H1>
+ * <p>
+ * New postings go to an Adaptive Radix Tree that serves as the write buffer. Once it holds the configured number
+ * of postings it's frozen (a new empty buffer takes its place) and a background thread writes it as a new sorted
+ * {@link IndexSegment}. This way the mutable structure stays small, and persisting the index is an append of a new
+ * segment instead of rewriting the whole tree.
+ * <p>
+ * A search reads the postings of the term from the write buffer, the frozen buffers still being flushed and every
+ * segment, and merges them. Each part is newer than the ones after it, so when a document appears in several parts
+ * its newest postings win.
+ * <p>
+ * Segments are compacted in the background by a {@link TieredMergePolicy}, using a bounded pool of merge threads.
+ * The list of live segments (and their generations) is kept in a manifest file, rewritten atomically after every
+ * flush or merge, so the files of interrupted flushes and merges are ignored (and deleted) when the index is opened.
+ * <p>
+ * Every posting carries the version of the document it was indexed from. When a document is recrawled its version
+ * is incremented, so the postings of the words that disappeared from the page stop matching without touching them:
+ * searches skip the postings older than the current version of their document, and the merges purge them.
+ */
+public class SegmentedIndex implements Closeable {
+    private static final String MANIFEST_FILENAME = "segments.manifest";
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final long writeBufferPostings;
+    private final TieredMergePolicy mergePolicy;
+    private final ExecutorService flushExecutor;
+    private final ExecutorService mergeExecutor;
+    /**
+     * Current version of each document (null if the documents are never recrawled)
+     */
+    private final LongToIntFunction currentVersions;
+
+    /**
+     * Inserts take the read lock (they can run concurrently), freezing the buffer takes the write lock,
+     * so a frozen buffer is never modified while it's written
+     */
+    private final ReentrantReadWriteLock bufferLock = new ReentrantReadWriteLock();
+    private volatile AdaptiveRadixTree writeBuffer = new AdaptiveRadixTree();
+    private final AtomicLong bufferPostings = new AtomicLong(0);
+    /**
+     * Frozen buffers waiting to be written, newest last
+     */
+    private volatile List<AdaptiveRadixTree> flushingBuffers = List.of();
+    /**
+     * Live segments, in generation order (oldest first)
+     */
+    private volatile List<IndexSegment> segments = List.of();
+    /**
+     * Incremented every time the segments list is replaced (flush, merge or replacement of the index)
+     */
+    private volatile long segmentsVersion = 0;
+    /**
+     * Guards the replacement of the segments and flushing buffers lists, the merging set and the manifest
+     */
+    private final Object segmentsLock = new Object();
+    private final HashSet<IndexSegment> merging = new HashSet<>();
+    /**
+     * Incremented when the whole index is replaced, so the flushes of the replaced buffers are discarded
+     */
+    private long replacements = 0;
+
+    private final AtomicLong nextGeneration = new AtomicLong(1);
+    private final AtomicLong nextFileNumber = new AtomicLong(1);
+    private volatile boolean closed = false;
+
+
+    /**
+     * Opens (or creates) a segmented index, loading the segments listed in the manifest.
+     *
+     * @param directory           the directory of the segments
+     * @param writeBufferPostings number of postings at which the write buffer is flushed into a segment
+     * @param mergeFactor         number of segments of the same tier merged together
+     * @param mergeThreads        maximum number of merges running at once
+     * @param currentVersions     current version of each document, older postings are skipped and purged (or null)
+     * @throws IOException IO Exception if the directory or the manifest couldn't be read
+     */
+    public SegmentedIndex(File directory, long writeBufferPostings, int mergeFactor, int mergeThreads, LongToIntFunction currentVersions) throws IOException {
+        if(writeBufferPostings <= 0) throw new IllegalArgumentException("Write buffer postings must be greater than 0.");
+        if(mergeThreads <= 0) throw new IllegalArgumentException("Merge threads must be greater than 0.");
+        if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Couldn't create the index directory " + directory);
+        this.directory = directory;
+        this.writeBufferPostings = writeBufferPostings;
+        this.currentVersions = currentVersions;
+        this.mergePolicy = new TieredMergePolicy(mergeFactor, writeBufferPostings);
+        this.flushExecutor = Executors.newSingleThreadExecutor(runnable -> daemonThread(runnable, "index-flush"));
+        this.mergeExecutor = Executors.newFixedThreadPool(mergeThreads, runnable -> daemonThread(runnable, "index-merge"));
+        load();
+        maybeMerge();
+    }
+
+
+    /**
+     * Create a daemon thread, so the flushes and merges don't keep the barrel alive.
+     *
+     * @param runnable the task
+     * @param name     the thread name
+     * @return the thread
+     */
+    private static Thread daemonThread(Runnable runnable, String name){
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+
+    /**
+     * Load the segments listed in the manifest and delete the files that aren't part of the index.
+     * @throws IOException IO Exception if the manifest couldn't be read
+     */
+    private void load() throws IOException {
+        ArrayList<IndexSegment> loadedSegments = new ArrayList<>();
+        HashSet<String> liveFiles = new HashSet<>();
+        File manifest = new File(directory, MANIFEST_FILENAME);
+        if(manifest.exists()){
+            for(String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)){
+                String[] fields = line.trim().split(" ");
+                if(fields.length != 2) continue;
+                File file = new File(directory, fields[1]);
+                try{
+                    IndexSegment segment = new IndexSegment(file, Long.parseLong(fields[0]));
+                    loadedSegments.add(segment);
+                    liveFiles.add(fields[1]);
+                    nextGeneration.set(Math.max(nextGeneration.get(), segment.getGeneration() + 1));
+                } catch (IOException | NumberFormatException e){
+                    IndexStorageBarrel.log("Skipping unreadable segment " + file + ": " + e.getMessage());
+                }
+            }
+        }
+
+        File[] files = directory.listFiles();
+        if(files != null){
+            for(File file : files){
+                String name = file.getName();
+                if(name.equals(MANIFEST_FILENAME)) continue;
+                long fileNumber = fileNumberOf(name);
+                if(fileNumber >= 0) nextFileNumber.set(Math.max(nextFileNumber.get(), fileNumber + 1));
+                if(!liveFiles.contains(name)) file.delete(); // left by an interrupted flush or merge
+            }
+        }
+        segments = List.copyOf(loadedSegments);
+    }
+
+
+    /**
+     * Get the number of a segment file from its name.
+     *
+     * @param name the file name
+     * @return the number, or -1 if it's not a segment file
+     */
+    private static long fileNumberOf(String name){
+        if(!name.startsWith(SEGMENT_PREFIX)) return -1;
+        int end = name.indexOf('.');
+        try{
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), end < 0 ? name.length() : end));
+        } catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+
+    /**
+     * Create the file of a new segment.
+     *
+     * @return the file
+     */
+    private File newSegmentFile(){
+        return new File(directory, SEGMENT_PREFIX + nextFileNumber.getAndIncrement() + SEGMENT_SUFFIX);
+    }
+
+
+    /**
+     * Rewrite the manifest with the live segments. Must be called holding the segments lock.
+     * @throws IOException IO Exception if the manifest couldn't be written
+     */
+    private void writeManifest() throws IOException {
+        File temporaryManifest = new File(directory, MANIFEST_FILENAME + ".tmp");
+        try(FileOutputStream fileOutput = new FileOutputStream(temporaryManifest);
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fileOutput, StandardCharsets.UTF_8))){
+            for(IndexSegment segment : segments){
+                writer.write(segment.getGeneration() + " " + segment.getFile().getName());
+                writer.newLine();
+            }
+            writer.flush();
+            fileOutput.getFD().sync();
+        }
+        Files.move(temporaryManifest.toPath(), new File(directory, MANIFEST_FILENAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Insert a batch of terms in the write buffer, flushing it in the background if it got full.
+     *
+     * @param batch the batch
+     */
+    public void insertBatch(TermBatch batch){
+        if(batch.size() == 0) return;
+        bufferLock.readLock().lock();
+        try{
+            writeBuffer.insertBatch(batch);
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+        if(bufferPostings.addAndGet(batch.size()) >= writeBufferPostings) freezeWriteBuffer(false);
+    }
+
+
+    /**
+     * Insert a word in the write buffer, flushing it in the background if it got full.
+     *
+     * @param word      the word
+     * @param linkIndex the link index
+     */
+    public void insert(String word, long linkIndex){
+        bufferLock.readLock().lock();
+        try{
+            writeBuffer.insert(word, linkIndex);
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+        if(bufferPostings.incrementAndGet() >= writeBufferPostings) freezeWriteBuffer(false);
+    }
+
+
+    /**
+     * Freeze the write buffer and submit it to be written as a new segment.
+     *
+     * @param force freeze it even if it isn't full (as long as it's not empty)
+     * @return the flush task, or null if there was nothing to flush
+     */
+    private Future<?> freezeWriteBuffer(boolean force){
+        AdaptiveRadixTree frozenBuffer;
+        long generation;
+        long currentReplacements;
+        bufferLock.writeLock().lock();
+        try{
+            long postings = bufferPostings.get();
+            if(postings == 0 || (!force && postings < writeBufferPostings)) return null; // flushed meanwhile by another thread
+            frozenBuffer = writeBuffer;
+            generation = nextGeneration.getAndIncrement();
+            synchronized(segmentsLock){
+                flushingBuffers = appended(flushingBuffers, frozenBuffer); // before replacing it, so searches always see it
+                currentReplacements = replacements;
+            }
+            writeBuffer = new AdaptiveRadixTree();
+            bufferPostings.set(0);
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+        return flushExecutor.submit(() -> flushBuffer(frozenBuffer, generation, currentReplacements));
+    }
+
+
+    /**
+     * Write a frozen buffer as a new segment and publish it.
+     * If the write fails, the buffer stays in memory (still searchable) until the barrel is restarted or synced.
+     *
+     * @param frozenBuffer the buffer
+     * @param generation   the generation of the new segment
+     * @param bufferReplacements number of index replacements when the buffer was frozen
+     */
+    private void flushBuffer(AdaptiveRadixTree frozenBuffer, long generation, long bufferReplacements){
+        IndexSegment segment;
+        try(IndexSegment.Writer writer = new IndexSegment.Writer(newSegmentFile())){
+            frozenBuffer.forEachWord((term, node) -> addPostings(writer, term, node.getPostings()));
+            segment = writer.finish(generation);
+        } catch (IOException | UncheckedIOException e){
+            IndexStorageBarrel.log("Error flushing the index write buffer: " + e.getMessage());
+            return;
+        }
+
+        synchronized(segmentsLock){
+            if(replacements != bufferReplacements){ // the index was replaced meanwhile (synced from another barrel)
+                segment.retire();
+                return;
+            }
+            segments = appended(segments, segment); // publish the segment before dropping the buffer
+            segmentsVersion++;
+            flushingBuffers = removed(flushingBuffers, frozenBuffer);
+            try{
+                writeManifest();
+            } catch (IOException e){
+                IndexStorageBarrel.log("Error writing the index manifest: " + e.getMessage());
+            }
+        }
+        maybeMerge();
+    }
+
+
+    /**
+     * Add the live postings of a term to a segment writer.
+     *
+     * @param writer   the writer
+     * @param term     the term bytes
+     * @param postings the postings
+     */
+    private void addPostings(IndexSegment.Writer writer, byte[] term, Postings postings){
+        try{
+            writer.add(term, live(postings));
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Drop the postings of older versions of their documents.
+     *
+     * @param postings the postings (or null)
+     * @return the live postings
+     */
+    private Postings live(Postings postings){
+        return postings == null || currentVersions == null ? postings : postings.liveOnly(currentVersions);
+    }
+
+
+    /**
+     * Flush the write buffer and wait until every pending flush is written.
+     */
+    public void flush(){
+        freezeWriteBuffer(true);
+        try{
+            flushExecutor.submit(() -> {}).get(); // the flushes run in order, so this one finishes after them
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored){}
+    }
+
+
+    /**
+     * Submit the merges chosen by the merge policy. Each merge submits the next ones when it finishes.
+     */
+    private void maybeMerge(){
+        if(closed) return;
+        synchronized(segmentsLock){
+            while(true){
+                List<IndexSegment> currentSegments = segments;
+                long[] sizes = new long[currentSegments.size()];
+                boolean[] isMerging = new boolean[currentSegments.size()];
+                for(int i = 0; i < sizes.length; i++){
+                    sizes[i] = currentSegments.get(i).getPostingsNum();
+                    isMerging[i] = merging.contains(currentSegments.get(i));
+                }
+                int[] run = mergePolicy.findMerge(sizes, isMerging);
+                if(run == null) return;
+
+                List<IndexSegment> mergedSegments = List.copyOf(currentSegments.subList(run[0], run[1]));
+                for(IndexSegment segment : mergedSegments) segment.acquire(); // live segments, released when the merge ends
+                merging.addAll(mergedSegments);
+                mergeExecutor.execute(() -> mergeSegments(mergedSegments));
+            }
+        }
+    }
+
+
+    /**
+     * Merge a run of adjacent segments into a new one, which takes their place.
+     *
+     * @param run the segments, oldest first
+     */
+    private void mergeSegments(List<IndexSegment> run){
+        try{
+            mergeAndPublish(run);
+        } finally {
+            for(IndexSegment segment : run) segment.release();
+        }
+    }
+
+
+    /**
+     * Helper of {@link #mergeSegments(List)}, called while holding a reference to every segment of the run.
+     *
+     * @param run the segments, oldest first
+     */
+    private void mergeAndPublish(List<IndexSegment> run){
+        IndexSegment merged;
+        try{
+            merged = writeMerged(run, newSegmentFile(), run.get(run.size() - 1).getGeneration());
+        } catch (IOException e){
+            IndexStorageBarrel.log("Error merging index segments: " + e.getMessage());
+            synchronized(segmentsLock){
+                merging.removeAll(run);
+            }
+            return;
+        }
+
+        boolean published = false;
+        synchronized(segmentsLock){
+            merging.removeAll(run);
+            int start = segments.indexOf(run.get(0));
+            if(start >= 0 && start + run.size() <= segments.size() && segments.subList(start, start + run.size()).equals(run)){
+                ArrayList<IndexSegment> newSegments = new ArrayList<>(segments.subList(0, start));
+                newSegments.add(merged);
+                newSegments.addAll(segments.subList(start + run.size(), segments.size()));
+                segments = List.copyOf(newSegments);
+                segmentsVersion++;
+                try{
+                    writeManifest();
+                } catch (IOException e){
+                    IndexStorageBarrel.log("Error writing the index manifest: " + e.getMessage());
+                }
+                published = true;
+            }
+        }
+
+        if(published){
+            for(IndexSegment segment : run) segment.retire();
+            maybeMerge();
+        } else { // the index was replaced meanwhile (synced from another barrel)
+            merged.retire();
+        }
+    }
+
+
+    /**
+     * Merge segments into a new segment file, walking their sorted dictionaries at once.
+     * When a term is on several segments its postings are merged, the newest segment winning on repeated documents,
+     * and the postings of older versions of their documents are purged.
+     *
+     * @param run        the segments, oldest first
+     * @param file       the file of the new segment
+     * @param generation the generation of the new segment
+     * @return the new segment
+     * @throws IOException IO Exception if a segment couldn't be read or the new one written
+     */
+    private IndexSegment writeMerged(List<IndexSegment> run, File file, long generation) throws IOException {
+        try(IndexSegment.Writer writer = new IndexSegment.Writer(file)){
+            mergeTerms(run, term -> true, writer::add);
+            return writer.finish(generation);
+        }
+    }
+
+
+    /**
+     * Walk the terms of some segments in ascending order, merging the postings of each term.
+     *
+     * @param run     the segments, oldest first
+     * @param filter  the terms whose postings are read, the others are skipped without reading them
+     * @param visitor the visitor of each read term and its live postings
+     * @throws IOException IO Exception if a segment couldn't be read, or thrown by the visitor
+     */
+    private void mergeTerms(List<IndexSegment> run, Predicate<byte[]> filter, TermVisitor visitor) throws IOException {
+        int[] cursors = new int[run.size()];
+        while(true){
+            byte[] smallestTerm = null;
+            for(int i = 0; i < run.size(); i++){
+                if(cursors[i] == run.get(i).getTermsNum()) continue;
+                byte[] term = run.get(i).getTerm(cursors[i]);
+                if(smallestTerm == null || Arrays.compareUnsigned(term, smallestTerm) < 0) smallestTerm = term;
+            }
+            if(smallestTerm == null) break;
+
+            boolean isRead = filter.test(smallestTerm);
+            Postings postings = null;
+            for(int i = run.size() - 1; i >= 0; i--){ // newest first
+                if(cursors[i] == run.get(i).getTermsNum() || !Arrays.equals(run.get(i).getTerm(cursors[i]), smallestTerm)) continue;
+                if(isRead) postings = Postings.merge(postings, run.get(i).getPostingsAt(cursors[i]));
+                cursors[i]++;
+            }
+            if(isRead) visitor.visit(smallestTerm, live(postings));
+        }
+    }
+
+
+    /**
+     * Walk every term of the index in ascending (unsigned) byte order, with its live postings.
+     * The write buffer is flushed first, so the walk only reads segments. Used by the replicas to compare their
+     * indexes (see {@link MerkleTree}).
+     *
+     * @param filter  the terms whose postings are read, the others are skipped without reading them
+     * @param visitor the visitor of each read term and its live postings (empty if none is live)
+     * @throws IOException IO Exception if a segment couldn't be read, or thrown by the visitor
+     */
+    public void forEachTerm(Predicate<byte[]> filter, TermVisitor visitor) throws IOException {
+        flush();
+        List<IndexSegment> currentSegments;
+        while(true){
+            currentSegments = segments;
+            int acquired = 0;
+            while(acquired < currentSegments.size() && currentSegments.get(acquired).acquire()) acquired++;
+            if(acquired == currentSegments.size()) break;
+            for(int i = 0; i < acquired; i++) currentSegments.get(i).release(); // merged meanwhile, retry
+        }
+        try{
+            mergeTerms(currentSegments, filter, visitor);
+        } finally {
+            for(IndexSegment segment : currentSegments) segment.release();
+        }
+    }
+
+
+    /**
+     * Get the postings of a word, merged from the write buffer, the frozen buffers and every segment.
+     *
+     * @param word the word
+     * @return the postings, or null if the word isn't indexed
+     */
+    public Postings getPostings(String word){
+        byte[] term = word.getBytes(); // same bytes as the tree keys
+        while(true){
+            // read the buffers before the segments: a flush publishes the segment before dropping the buffer
+            Postings postings = postingsOf(writeBuffer, word);
+            List<AdaptiveRadixTree> currentFlushingBuffers = flushingBuffers;
+            for(int i = currentFlushingBuffers.size() - 1; i >= 0; i--){
+                postings = Postings.merge(postings, postingsOf(currentFlushingBuffers.get(i), word));
+            }
+
+            List<IndexSegment> currentSegments = segments;
+            int acquired = 0;
+            while(acquired < currentSegments.size() && currentSegments.get(acquired).acquire()) acquired++;
+            try{
+                if(acquired < currentSegments.size()) continue; // a segment was merged meanwhile, read the new list
+                for(int i = currentSegments.size() - 1; i >= 0; i--){
+                    postings = Postings.merge(postings, currentSegments.get(i).getPostings(term));
+                }
+                postings = live(postings);
+                return postings == null || postings.size == 0 ? null : postings;
+            } catch (IOException e){
+                IndexStorageBarrel.log("Error reading the postings of " + word + ": " + e.getMessage());
+                return postings == null || postings.size == 0 ? null : postings;
+            } finally {
+                for(int i = 0; i < acquired; i++) currentSegments.get(i).release();
+            }
+        }
+    }
+
+
+    /**
+     * Get the postings of a word in blocks, from the write buffer, the frozen buffers and every segment, newest first.
+     * Unlike {@link #getPostings(String)} the parts aren't merged: the blocks keep the postings of older versions and
+     * the segments they come from stay acquired until the blocks are closed.
+     *
+     * @param word the word
+     * @return the blocks (empty if the word isn't indexed), to be closed after the search
+     */
+    public PostingBlocks getPostingBlocks(String word){
+        byte[] term = word.getBytes();
+        while(true){
+            // read the buffers before the segments: a flush publishes the segment before dropping the buffer
+            ArrayList<Postings> bufferPostings = new ArrayList<>();
+            bufferPostings.add(postingsOf(writeBuffer, word));
+            List<AdaptiveRadixTree> currentFlushingBuffers = flushingBuffers;
+            for(int i = currentFlushingBuffers.size() - 1; i >= 0; i--) bufferPostings.add(postingsOf(currentFlushingBuffers.get(i), word));
+
+            List<IndexSegment> currentSegments = segments;
+            int acquired = 0;
+            while(acquired < currentSegments.size() && currentSegments.get(acquired).acquire()) acquired++;
+            if(acquired < currentSegments.size()){ // a segment was merged meanwhile, read the new list
+                for(int i = 0; i < acquired; i++) currentSegments.get(i).release();
+                continue;
+            }
+
+            PostingBlocks blocks = new PostingBlocks(currentSegments);
+            for(Postings postings : bufferPostings) blocks.add(postings);
+            try{
+                for(int i = currentSegments.size() - 1; i >= 0; i--) currentSegments.get(i).addBlocks(term, blocks);
+            } catch (IOException e){
+                IndexStorageBarrel.log("Error reading the blocks of " + word + ": " + e.getMessage());
+            }
+            return blocks;
+        }
+    }
+
+
+    /**
+     * Get the postings of a word in a buffer.
+     *
+     * @param buffer the buffer
+     * @param word   the word
+     * @return the postings, or null if the word isn't in the buffer
+     */
+    private static Postings postingsOf(AdaptiveRadixTree buffer, String word){
+        Node node = buffer.findNode(word);
+        if(node == null || !node.getIsFinalWord()) return null;
+        return node.getPostings();
+    }
+
+
+    /**
+     * Get the number of documents of a word, from the leaves of the buffers and the dictionaries of the segments,
+     * without reading any postings.
+     * It's an upper bound: a recrawled document is counted once for each part of the index with its postings.
+     *
+     * @param word the word
+     * @return the estimated document frequency, 0 only if the word isn't indexed
+     */
+    public int getDocumentFrequency(String word){
+        byte[] term = word.getBytes();
+        long documentFrequency = documentFrequencyOf(writeBuffer, word);
+        for(AdaptiveRadixTree buffer : flushingBuffers) documentFrequency += documentFrequencyOf(buffer, word);
+        for(IndexSegment segment : segments) documentFrequency += segment.getDocumentFrequency(term); // dictionaries stay in the heap, no need to acquire
+        return (int) Math.min(documentFrequency, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Get the number of documents of a word in a buffer.
+     *
+     * @param buffer the buffer
+     * @param word   the word
+     * @return the document frequency, or 0 if the word isn't in the buffer
+     */
+    private static int documentFrequencyOf(AdaptiveRadixTree buffer, String word){
+        Node node = buffer.findNode(word);
+        if(node == null || !node.getIsFinalWord()) return 0;
+        return node.getDocumentFrequency();
+    }
+
+
+    /**
+     * Check which of some documents contain a word, without building its postings.
+     * The parts of the index are checked newest first, and the newest posting of each document decides, as long as
+     * it belongs to the current version of the document. Cheaper than {@link #getPostings(String)} for very common
+     * words, whose postings are much larger than the documents being checked.
+     *
+     * @param word        the word
+     * @param linkIndices the documents (ascending)
+     * @param num         the number of documents
+     * @return for each document, true if it contains the word
+     */
+    public boolean[] matchDocuments(String word, long[] linkIndices, int num){
+        byte[] term = word.getBytes();
+        boolean[] matches = new boolean[num];
+        while(true){
+            int[] versions = new int[num]; // version of the newest posting of each document, -1 while not found
+            Arrays.fill(versions, -1);
+            int undecided = findInBuffer(writeBuffer, word, linkIndices, num, versions, num);
+            List<AdaptiveRadixTree> currentFlushingBuffers = flushingBuffers;
+            for(int i = currentFlushingBuffers.size() - 1; i >= 0 && undecided > 0; i--){
+                undecided = findInBuffer(currentFlushingBuffers.get(i), word, linkIndices, num, versions, undecided);
+            }
+
+            List<IndexSegment> currentSegments = segments;
+            int acquired = 0;
+            while(acquired < currentSegments.size() && currentSegments.get(acquired).acquire()) acquired++;
+            try{
+                if(acquired < currentSegments.size()) continue; // a segment was merged meanwhile, read the new list
+                int[] segmentVersions = new int[num];
+                for(int i = currentSegments.size() - 1; i >= 0 && undecided > 0; i--){
+                    if(currentSegments.get(i).findDocuments(term, linkIndices, num, segmentVersions) == 0) continue;
+                    for(int j = 0; j < num; j++){
+                        if(versions[j] >= 0 || segmentVersions[j] < 0) continue;
+                        versions[j] = segmentVersions[j];
+                        undecided--;
+                    }
+                }
+            } catch (IOException e){
+                IndexStorageBarrel.log("Error reading the postings of " + word + ": " + e.getMessage());
+            } finally {
+                for(int i = 0; i < acquired; i++) currentSegments.get(i).release();
+            }
+
+            for(int i = 0; i < num; i++){
+                matches[i] = versions[i] >= 0 && (currentVersions == null || versions[i] >= currentVersions.applyAsInt(linkIndices[i]));
+            }
+            return matches;
+        }
+    }
+
+
+    /**
+     * Find the versions of the undecided documents in the postings of a word in a buffer.
+     *
+     * @param buffer      the buffer
+     * @param word        the word
+     * @param linkIndices the documents
+     * @param num         the number of documents
+     * @param versions    version of each document, -1 for the undecided ones
+     * @param undecided   the number of undecided documents
+     * @return the number of documents still undecided
+     */
+    private static int findInBuffer(AdaptiveRadixTree buffer, String word, long[] linkIndices, int num, int[] versions, int undecided){
+        Postings postings = postingsOf(buffer, word);
+        if(postings == null) return undecided;
+        for(int i = 0; i < num; i++){
+            if(versions[i] >= 0) continue;
+            int index = postings.indexOf(linkIndices[i]);
+            if(index < 0) continue;
+            versions[i] = postings.getVersion(index);
+            undecided--;
+        }
+        return undecided;
+    }
+
+
+    /**
+     * Get the link indices of a word.
+     *
+     * @param word the word
+     * @return the link indices (ascending), or null if the word isn't indexed
+     */
+    public ArrayList<Long> find(String word){
+        Postings postings = getPostings(word);
+        if(postings == null) return null;
+        ArrayList<Long> linkIndices = new ArrayList<>(postings.size);
+        for(int i = 0; i < postings.size; i++) linkIndices.add(postings.linkIndices[i]);
+        return linkIndices;
+    }
+
+
+    /**
+     * Export the whole index as a single segment.
+     * Used to send the index to a barrel that wants to sync.
+     *
+     * @return the bytes of the segment
+     * @throws IOException IO Exception if the segment couldn't be written or read
+     */
+    public byte[] exportSnapshot() throws IOException {
+        flush();
+        List<IndexSegment> currentSegments;
+        while(true){
+            currentSegments = segments;
+            int acquired = 0;
+            while(acquired < currentSegments.size() && currentSegments.get(acquired).acquire()) acquired++;
+            if(acquired == currentSegments.size()) break;
+            for(int i = 0; i < acquired; i++) currentSegments.get(i).release(); // merged meanwhile, retry
+        }
+
+        File snapshotFile = File.createTempFile("snapshot", SEGMENT_SUFFIX, directory);
+        try{
+            IndexSegment snapshot = writeMerged(currentSegments, snapshotFile, 0);
+            snapshot.close();
+            return Files.readAllBytes(snapshotFile.toPath());
+        } finally {
+            for(IndexSegment segment : currentSegments) segment.release();
+            snapshotFile.delete();
+        }
+    }
+
+
+    /**
+     * Replace the whole index with a segment exported by another barrel.
+     *
+     * @param snapshot the bytes of the segment
+     * @throws IOException IO Exception if the segment couldn't be written or isn't valid
+     */
+    public void importSnapshot(byte[] snapshot) throws IOException {
+        File file = newSegmentFile();
+        Files.write(file.toPath(), snapshot);
+        IndexSegment segment;
+        try{
+            segment = new IndexSegment(file, nextGeneration.getAndIncrement());
+        } catch (IOException e){
+            file.delete();
+            throw e;
+        }
+        replaceSegments(List.of(segment));
+    }
+
+
+    /**
+     * Remove every posting of the index, deleting its segments.
+     */
+    public void clear(){
+        try{
+            replaceSegments(List.of());
+        } catch (IOException e){
+            IndexStorageBarrel.log("Error writing the index manifest: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Replace the buffers and segments of the index with the provided segments.
+     *
+     * @param newSegments the new segments
+     * @throws IOException IO Exception if the manifest couldn't be written
+     */
+    private void replaceSegments(List<IndexSegment> newSegments) throws IOException {
+        List<IndexSegment> oldSegments;
+        bufferLock.writeLock().lock();
+        try{
+            synchronized(segmentsLock){
+                oldSegments = segments;
+                segments = List.copyOf(newSegments);
+                segmentsVersion++;
+                replacements++;
+                flushingBuffers = List.of(); // pending flushes still run, but their buffers were replaced
+                writeBuffer = new AdaptiveRadixTree();
+                bufferPostings.set(0);
+                writeManifest();
+            }
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+        for(IndexSegment segment : oldSegments) segment.retire();
+    }
+
+
+    /**
+     * Get the number of segments.
+     *
+     * @return the number of segments
+     */
+    public int getSegmentsNum(){
+        return segments.size();
+    }
+
+
+    /**
+     * Get the version of the segments list, which changes whenever a segment is added, merged or replaced, so the
+     * summaries of the flushed postings can be reused while it's the same.
+     *
+     * @return the segments version
+     */
+    public long getSegmentsVersion(){
+        return segmentsVersion;
+    }
+
+
+    /**
+     * Get the number of postings in the write buffer.
+     *
+     * @return the number of postings
+     */
+    public long getBufferPostings(){
+        return bufferPostings.get();
+    }
+
+
+    /**
+     * Wait for the submitted merges to finish.
+     * Merges submitted by the running ones are also waited for.
+     */
+    public void awaitMerges(){
+        while(true){
+            synchronized(segmentsLock){
+                if(merging.isEmpty()) return;
+            }
+            try{
+                Thread.sleep(10);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Flush the write buffer, stop the merges and close the segments.
+     */
+    @Override
+    public void close(){
+        flush();
+        closed = true;
+        flushExecutor.shutdown();
+        mergeExecutor.shutdown();
+        try{
+            mergeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        for(IndexSegment segment : segments) segment.close();
+    }
+
+
+    /**
+     * Copy of a list with an element appended.
+     */
+    private static <T> List<T> appended(List<T> list, T element){
+        ArrayList<T> newList = new ArrayList<>(list);
+        newList.add(element);
+        return List.copyOf(newList);
+    }
+
+
+    /**
+     * Copy of a list without an element (compared by identity).
+     */
+    private static <T> List<T> removed(List<T> list, T element){
+        ArrayList<T> newList = new ArrayList<>(list.size());
+        for(T item : list){
+            if(item != element) newList.add(item);
+        }
+        return List.copyOf(newList);
+    }
+
+
+    /**
+     * Visitor of the terms of the index, with their postings.
+     */
+    @FunctionalInterface
+    public interface TermVisitor {
+        /**
+         * Visit a term.
+         *
+         * @param term     the term bytes (must not be modified)
+         * @param postings the live postings of the term
+         * @throws IOException IO Exception if the visit failed
+         */
+        void visit(byte[] term, Postings postings) throws IOException;
+    }
+}
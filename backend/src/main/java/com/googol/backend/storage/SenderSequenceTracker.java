@@ -0,0 +1,242 @@
+package com.googol.backend.storage;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.TreeSet;
+
+/**
+ * Tracks the sequence numbers received from each downloader, to drop duplicated datagrams and
+ * to detect the gaps that must be requested again through a NACK.
+ * <p>
+ * Datagrams received out of order are delivered right away (the barrel indexing doesn't depend on the
+ * arrival order), only their sequence numbers are kept until the gap before them is filled.
+ * A gap is given up on after a maximum number of NACKs, or when too many datagrams are waiting after it.
+ * <p>
+ * Every downloader run has its own sender id, so the senders that stopped sending are expired, instead of
+ * keeping their state forever.
+ */
+public class SenderSequenceTracker {
+    /**
+     * Gap that should be requested to a sender
+     */
+    public static class Nack {
+        /**
+         * Id of the sender
+         */
+        public final long senderId;
+        /**
+         * First missing sequence number
+         */
+        public final long fromSequence;
+        /**
+         * Last missing sequence number
+         */
+        public final long toSequence;
+        /**
+         * Address of the sender
+         */
+        public final InetAddress address;
+        /**
+         * Port where the sender accepts NACKs
+         */
+        public final int port;
+
+        Nack(long senderId, long fromSequence, long toSequence, InetAddress address, int port){
+            this.senderId = senderId;
+            this.fromSequence = fromSequence;
+            this.toSequence = toSequence;
+            this.address = address;
+            this.port = port;
+        }
+    }
+
+    /**
+     * Reception state of a single sender
+     */
+    private static class SenderState {
+        long expectedSequence;
+        final TreeSet<Long> receivedAhead = new TreeSet<>();
+        InetAddress address;
+        int port;
+        int nackAttempts = 0;
+        long lastReceivedTime;
+    }
+
+    /**
+     * Maximum number of datagrams waiting after a gap before giving up on it
+     */
+    private final int reorderWindow;
+    /**
+     * State of each sender, mapped by the sender id
+     */
+    private final HashMap<Long, SenderState> senders = new HashMap<>();
+    /**
+     * Number of datagrams that were never received
+     */
+    private long lostDatagrams = 0;
+    /**
+     * Number of duplicated datagrams dropped
+     */
+    private long duplicatedDatagrams = 0;
+
+
+    /**
+     * Instantiates a new Sender sequence tracker.
+     *
+     * @param reorderWindow maximum number of datagrams waiting after a gap
+     */
+    public SenderSequenceTracker(int reorderWindow){
+        if(reorderWindow <= 0) throw new IllegalArgumentException("Reorder window must be greater than 0.");
+        this.reorderWindow = reorderWindow;
+    }
+
+
+    /**
+     * Register a received datagram.
+     *
+     * @param senderId id of the sender
+     * @param sequence sequence number of the datagram
+     * @param address  address of the sender
+     * @param port     port where the sender accepts NACKs
+     * @return true if the datagram is new and should be processed, false if it's a duplicate
+     */
+    public synchronized boolean accept(long senderId, long sequence, InetAddress address, int port){
+        SenderState state = senders.get(senderId);
+        if(state == null){ // first datagram of this sender, nothing before it is expected
+            state = new SenderState();
+            state.expectedSequence = sequence + 1;
+            state.address = address;
+            state.port = port;
+            state.lastReceivedTime = System.nanoTime();
+            senders.put(senderId, state);
+            return true;
+        }
+        state.lastReceivedTime = System.nanoTime();
+        if(port != 0){ // keep the most recent NACK address of the sender
+            state.address = address;
+            state.port = port;
+        }
+
+        if(sequence < state.expectedSequence || state.receivedAhead.contains(sequence)){
+            duplicatedDatagrams++;
+            return false;
+        }
+
+        if(sequence == state.expectedSequence){
+            state.expectedSequence++;
+            state.nackAttempts = 0;
+            drainReceivedAhead(state);
+            return true;
+        }
+
+        state.receivedAhead.add(sequence);
+        if(state.receivedAhead.size() > reorderWindow) skipGap(state);
+        return true;
+    }
+
+
+    /**
+     * Collect the gaps that must be requested again, giving up on the ones that were already
+     * requested the maximum number of times.
+     *
+     * @param maxAttempts maximum number of NACKs sent for the same gap
+     * @return the NACKs to send
+     */
+    public synchronized ArrayList<Nack> collectNacks(int maxAttempts){
+        ArrayList<Nack> nacks = new ArrayList<>();
+        for(HashMap.Entry<Long, SenderState> entry : senders.entrySet()){
+            SenderState state = entry.getValue();
+            if(state.receivedAhead.isEmpty()) continue;
+
+            if(state.nackAttempts >= maxAttempts){
+                skipGap(state);
+                if(state.receivedAhead.isEmpty()) continue;
+            }
+            if(state.port == 0) continue; // sender doesn't accept NACKs
+
+            state.nackAttempts++;
+            nacks.add(new Nack(entry.getKey(), state.expectedSequence, state.receivedAhead.first() - 1, state.address, state.port));
+        }
+        return nacks;
+    }
+
+
+    /**
+     * Forget the senders that didn't send anything for the provided time, counting their pending gaps as lost.
+     * A datagram of an expired sender is taken as its first one again.
+     *
+     * @param idleMillis time without datagrams after which a sender is expired, in milliseconds
+     * @return number of expired senders
+     */
+    public synchronized int expireIdleSenders(long idleMillis){
+        long now = System.nanoTime();
+        int expiredSenders = 0;
+        Iterator<SenderState> iterator = senders.values().iterator();
+        while(iterator.hasNext()){
+            SenderState state = iterator.next();
+            if(now - state.lastReceivedTime < TimeUnit.MILLISECONDS.toNanos(idleMillis)) continue;
+            while(!state.receivedAhead.isEmpty()) skipGap(state);
+            iterator.remove();
+            expiredSenders++;
+        }
+        return expiredSenders;
+    }
+
+
+    /**
+     * Get the number of senders being tracked.
+     *
+     * @return the senders num
+     */
+    public synchronized int getSendersNum(){
+        return senders.size();
+    }
+
+
+    /**
+     * Give up on the first gap of the sender, counting its datagrams as lost.
+     * @param state sender state
+     */
+    private void skipGap(SenderState state){
+        long nextReceived = state.receivedAhead.first();
+        lostDatagrams += nextReceived - state.expectedSequence;
+        state.expectedSequence = nextReceived;
+        state.nackAttempts = 0;
+        drainReceivedAhead(state);
+    }
+
+
+    /**
+     * Advance the expected sequence number over the datagrams already received.
+     * @param state sender state
+     */
+    private void drainReceivedAhead(SenderState state){
+        while(!state.receivedAhead.isEmpty() && state.receivedAhead.first() == state.expectedSequence){
+            state.receivedAhead.pollFirst();
+            state.expectedSequence++;
+        }
+    }
+
+
+    /**
+     * Get the number of datagrams that were never received.
+     *
+     * @return the lost datagrams
+     */
+    public synchronized long getLostDatagrams(){
+        return lostDatagrams;
+    }
+
+
+    /**
+     * Get the number of duplicated datagrams dropped.
+     *
+     * @return the duplicated datagrams
+     */
+    public synchronized long getDuplicatedDatagrams(){
+        return duplicatedDatagrams;
+    }
+}
@@ -0,0 +1,93 @@
+package com.googol.backend.storage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * Builds the snippet of a search result: the window of the page text with the most distinct query words, with
+ * those words highlighted.
+ * <p>
+ * The highlighted words are wrapped between {@link #HIGHLIGHT_START} and {@link #HIGHLIGHT_END} control characters
+ * (which are removed from the text beforehand), leaving the presentation to the clients.
+ */
+public class SnippetBuilder {
+    /**
+     * Character that starts a highlighted word
+     */
+    public static final char HIGHLIGHT_START = '\u0002';
+    /**
+     * Character that ends a highlighted word
+     */
+    public static final char HIGHLIGHT_END = '\u0003';
+    private static final String ELLIPSIS = "...";
+
+    private SnippetBuilder(){}
+
+
+    /**
+     * Build the snippet of a text.
+     *
+     * @param text       the page text
+     * @param queryWords the query words (lowercase, as indexed)
+     * @param maxWords   maximum number of words of the snippet
+     * @return the snippet, or null if the text is empty
+     */
+    public static String build(String text, Collection<String> queryWords, int maxWords){
+        if(text == null || maxWords <= 0) return null;
+        text = text.replace(String.valueOf(HIGHLIGHT_START), "").replace(String.valueOf(HIGHLIGHT_END), "").trim();
+        if(text.isEmpty()) return null;
+
+        String[] tokens = text.split("\\s+");
+        HashSet<String> words = new HashSet<>(queryWords);
+        String[] normalizedTokens = new String[tokens.length];
+        for(int i = 0; i < tokens.length; i++){
+            String normalized = normalize(tokens[i]);
+            normalizedTokens[i] = words.contains(normalized) ? normalized : null; // only the query words matter
+        }
+
+        // slide a window of maxWords tokens, keeping the one with the most distinct query words
+        HashMap<String, Integer> windowCounts = new HashMap<>();
+        int bestStart = 0;
+        int bestDistinct = 0;
+        for(int end = 0; end < tokens.length; end++){
+            if(normalizedTokens[end] != null) windowCounts.merge(normalizedTokens[end], 1, Integer::sum);
+            int start = end - maxWords + 1;
+            if(start > 0 && normalizedTokens[start - 1] != null){
+                windowCounts.computeIfPresent(normalizedTokens[start - 1], (word, count) -> count == 1 ? null : count - 1);
+            }
+            if(windowCounts.size() > bestDistinct){
+                bestDistinct = windowCounts.size();
+                bestStart = Math.max(start, 0);
+            }
+        }
+
+        // start the window at its first query word, so the words that follow it are shown (without running past the end)
+        if(bestDistinct > 0){
+            int firstMatch = bestStart;
+            while(normalizedTokens[firstMatch] == null) firstMatch++;
+            bestStart = Math.max(Math.min(firstMatch, tokens.length - maxWords), 0);
+        }
+        int bestEnd = Math.min(bestStart + maxWords, tokens.length);
+        StringBuilder snippet = new StringBuilder();
+        if(bestStart > 0) snippet.append(ELLIPSIS);
+        for(int i = bestStart; i < bestEnd; i++){
+            if(i > bestStart) snippet.append(' ');
+            if(normalizedTokens[i] != null) snippet.append(HIGHLIGHT_START).append(tokens[i]).append(HIGHLIGHT_END);
+            else snippet.append(tokens[i]);
+        }
+        if(bestEnd < tokens.length) snippet.append(ELLIPSIS);
+        return snippet.toString();
+    }
+
+
+    /**
+     * Normalize a token the same way the downloaders do before sending the words: lowercase and without punctuation.
+     * @param token the token
+     * @return the normalized token
+     */
+    private static String normalize(String token){
+        return token.toLowerCase(Locale.ROOT).replaceAll("\\p{Punct}", "");
+    }
+}
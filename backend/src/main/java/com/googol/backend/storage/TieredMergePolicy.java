@@ -0,0 +1,79 @@
+package com.googol.backend.storage;
+
+/**
+ * Tiered merge policy of the index segments.
+ * <p>
+ * Each segment belongs to a tier given by its size: tier 0 holds the segments up to mergeFactor times the size of a
+ * flushed write buffer, tier 1 up to mergeFactor times that, and so on. When mergeFactor segments of the same tier
+ * are next to each other, they are merged into one segment of the next tier. This way every posting is rewritten
+ * about log(total / flush size) times, instead of on every flush, and the number of segments a search must read
+ * stays logarithmic.
+ * <p>
+ * Only adjacent segments (in generation order) are merged, so the merged segment keeps its place among the others
+ * and the newer postings of a recrawled document keep shadowing the older ones.
+ */
+public class TieredMergePolicy {
+    private final int mergeFactor;
+    private final long baseSize;
+
+
+    /**
+     * Instantiates a new Tiered merge policy.
+     *
+     * @param mergeFactor number of segments of the same tier that are merged together (at least 2)
+     * @param baseSize    size (in postings) of a flushed write buffer
+     */
+    public TieredMergePolicy(int mergeFactor, long baseSize){
+        if(mergeFactor < 2) throw new IllegalArgumentException("Merge factor must be at least 2.");
+        if(baseSize <= 0) throw new IllegalArgumentException("Base size must be greater than 0.");
+        this.mergeFactor = mergeFactor;
+        this.baseSize = baseSize;
+    }
+
+
+    /**
+     * Get the tier of a segment.
+     *
+     * @param size the segment size (in postings)
+     * @return the tier
+     */
+    public int tierOf(long size){
+        int tier = 0;
+        long limit = baseSize * mergeFactor;
+        while(size > limit && limit < Long.MAX_VALUE / mergeFactor){
+            limit *= mergeFactor;
+            tier++;
+        }
+        return tier;
+    }
+
+
+    /**
+     * Find a run of adjacent segments to merge, preferring the lowest tier (the cheapest merge).
+     *
+     * @param sizes   the size of each segment, in generation order
+     * @param merging whether each segment is already being merged (such segments break the runs)
+     * @return the run as {start (inclusive), end (exclusive)}, or null if no merge is needed
+     */
+    public int[] findMerge(long[] sizes, boolean[] merging){
+        int[] best = null;
+        int bestTier = Integer.MAX_VALUE;
+        int runStart = 0;
+        for(int i = 0; i <= sizes.length; i++){
+            boolean breaksRun = i == sizes.length || merging[i] || (i > runStart && tierOf(sizes[i]) != tierOf(sizes[runStart]));
+            if(!breaksRun) {
+                if(i - runStart + 1 == mergeFactor){ // the run is complete
+                    int tier = tierOf(sizes[runStart]);
+                    if(tier < bestTier){
+                        best = new int[]{runStart, i + 1};
+                        bestTier = tier;
+                    }
+                    runStart = i + 1;
+                }
+                continue;
+            }
+            runStart = i < sizes.length && !merging[i] ? i : i + 1;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,230 @@
+package com.googol.backend.storage;
+
+import java.util.function.LongToIntFunction;
+
+/**
+ * Keeps the k highest scored documents seen so far, using a min heap over primitive arrays.
+ * <p>
+ * Offering a document is allocation free, so it can be called from the inner loop of the ranking, and only
+ * the documents of the requested pages are ever sorted. Ties are broken by the lowest id, so the pages are stable.
+ * <p>
+ * The collector can also keep at most a number of documents of each group (the host of the page), so a single site
+ * can't take all the results: a document of a full group only enters the heap by replacing the worst one of its group.
+ */
+public class TopKCollector {
+    private final long[] ids;
+    private final double[] scores;
+    private final int[] groups;
+    private final int maxPerGroup;
+    private final LongToIntFunction groupOf;
+    private int size = 0;
+
+
+    /**
+     * Instantiates a new Top k collector.
+     *
+     * @param k the number of documents to keep
+     */
+    public TopKCollector(int k){
+        this(k, 0, null);
+    }
+
+
+    /**
+     * Instantiates a new Top k collector that keeps at most a number of documents of each group.
+     *
+     * @param k           the number of documents to keep
+     * @param maxPerGroup the maximum number of documents of the same group (0 for no maximum)
+     * @param groupOf     the group of each document (negative for documents without a group, never capped)
+     */
+    public TopKCollector(int k, int maxPerGroup, LongToIntFunction groupOf){
+        if(k <= 0) throw new IllegalArgumentException("K must be greater than 0.");
+        if(maxPerGroup < 0) throw new IllegalArgumentException("Max per group cannot be negative.");
+        if(maxPerGroup > 0 && groupOf == null) throw new IllegalArgumentException("Capped groups need the group of each document.");
+        this.ids = new long[k];
+        this.scores = new double[k];
+        this.maxPerGroup = maxPerGroup;
+        this.groupOf = groupOf;
+        this.groups = maxPerGroup > 0 ? new int[k] : null;
+    }
+
+
+    /**
+     * Offer a document to the collector, keeping it only if it's among the k best so far.
+     *
+     * @param id    the document id
+     * @param score the document score
+     */
+    public void offer(long id, double score){
+        if(groups != null){
+            offerCapped(id, score);
+            return;
+        }
+        if(size < ids.length){
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if(isBetter(id, score, 0)){
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+
+    /**
+     * Offer a document, keeping at most the maximum number of documents of its group.
+     * The documents of the group are only looked for when the document would enter the heap, so the scan of the
+     * heap is done for a small fraction of the offers.
+     */
+    private void offerCapped(long id, double score){
+        if(size == ids.length && !isBetter(id, score, 0)) return; // not among the k best
+
+        int group = groupOf.applyAsInt(id);
+        if(group >= 0){
+            int count = 0;
+            int worst = -1;
+            for(int i = 0; i < size; i++){
+                if(groups[i] != group) continue;
+                count++;
+                if(worst < 0 || isBetter(ids[worst], scores[worst], i)) worst = i;
+            }
+            if(count >= maxPerGroup){ // the group is full, it can only replace the worst document of the group
+                if(!isBetter(id, score, worst)) return;
+                ids[worst] = id;
+                scores[worst] = score;
+                siftDown(worst, size); // it ranks above the replaced one, so it can only move towards the leaves
+                return;
+            }
+        }
+
+        if(size < ids.length){
+            ids[size] = id;
+            scores[size] = score;
+            groups[size] = group;
+            siftUp(size++);
+        } else { // replace the worst document
+            ids[0] = id;
+            scores[0] = score;
+            groups[0] = group;
+            siftDown(0, size);
+        }
+    }
+
+
+    /**
+     * Get the number of documents kept.
+     *
+     * @return the size
+     */
+    public int size(){
+        return size;
+    }
+
+
+    /**
+     * Get the score a document must reach to be kept: the score of the worst document kept once the collector is
+     * full (a document with the same score only enters if its id is lower).
+     *
+     * @return the threshold, or negative infinity while the collector isn't full
+     */
+    public double threshold(){
+        return size < ids.length ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+
+    /**
+     * Remove all the documents, returning their ids ordered from the best to the worst.
+     *
+     * @return the ids
+     */
+    public long[] drainDescending(){
+        return drainDescending(null);
+    }
+
+
+    /**
+     * Remove all the documents, returning their ids ordered from the best to the worst.
+     *
+     * @param sortedScores array filled with the scores of the returned ids, in the same order (null to skip them)
+     * @return the ids
+     */
+    public long[] drainDescending(double[] sortedScores){
+        long[] sortedIds = new long[size];
+        // pop the worst document to the end of the heap area, the same way as a heap sort
+        while(size > 0){
+            sortedIds[size - 1] = ids[0];
+            if(sortedScores != null) sortedScores[size - 1] = scores[0];
+            size--;
+            ids[0] = ids[size];
+            scores[0] = scores[size];
+            if(groups != null) groups[0] = groups[size];
+            siftDown(0, size);
+        }
+        return sortedIds;
+    }
+
+
+    /**
+     * Check if a document ranks after another one, in the order of the pages (the highest score first, ties broken
+     * by the lowest id). Used to continue a search after the last document of the previous page.
+     *
+     * @param id          the document id
+     * @param score       the document score
+     * @param afterId     the id of the other document
+     * @param afterScore  the score of the other document
+     * @return true if the document comes after the other one
+     */
+    public static boolean ranksAfter(long id, double score, long afterId, double afterScore){
+        if(score != afterScore) return score < afterScore;
+        return id > afterId;
+    }
+
+
+    /**
+     * Check if the provided document ranks above the one at the heap position.
+     */
+    private boolean isBetter(long id, double score, int position){
+        if(score != scores[position]) return score > scores[position];
+        return id < ids[position];
+    }
+
+
+    private void siftUp(int position){
+        while(position > 0){
+            int parent = (position - 1) >>> 1;
+            if(!isBetter(ids[parent], scores[parent], position)) break; // parent is already the worst
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+
+    private void siftDown(int position, int limit){
+        while(true){
+            int worst = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if(left < limit && isBetter(ids[worst], scores[worst], left)) worst = left;
+            if(right < limit && isBetter(ids[worst], scores[worst], right)) worst = right;
+            if(worst == position) return;
+            swap(position, worst);
+            position = worst;
+        }
+    }
+
+
+    private void swap(int a, int b){
+        long id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        if(groups != null){
+            int group = groups[a];
+            groups[a] = groups[b];
+            groups[b] = group;
+        }
+    }
+}
@@ -7,6 +7,8 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
 import java.nio.ByteOrder;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -53,7 +55,8 @@ class InsertResult{
  *       *********************************************************************************
  *       *                           NODE SERIALIZED STRUCTURE                           *
  *       *   x------------------------------------------------------------------------x  *
- *       *   | nodeType | childrenNum | isFinalWord | indicesNum | linkIndices | keys |  *
+ *       *   | nodeType | childrenNum | isFinalWord | indicesNum | linkIndices |        *
+ *       *   | frequencies | positions | keys |                                       *
  *       *   x------------------------------------------------------------------------x  *
  *       *                                                                               *
  *       *   nodeType: INT (4 Bytes)                                                     *
@@ -61,6 +64,9 @@ class InsertResult{
  *       *   isFinalWord: BOOLEAN (1 Byte)                                               *
  *       *   indicesNum: INT (4 Bytes)                                                   *
  *       *   linkIndices: indicesNum * LONG (indicesNum * 8 Bytes)                       *
+ *       *   frequencies: indicesNum * INT (indicesNum * 4 Bytes)                        *
+ *       *   positions: indicesNum * (INT length + length * BYTE), delta encoded         *
+ *       *              positions of the word in each link index (length 0 if unknown)   *
  *       *   keys: (NODES 4, 16, 256) -> childrenNum * BYTE (childrenNum * 1 Byte)       *
  *       *         (NODE 48) -> childrenNum * (BYTE + BYTE) (childrenNum * 2 Bytes)      *
  *       *                                                                               *
@@ -102,6 +108,33 @@ public class AdaptiveRadixTree {
      * @param linkIndex the link index
      */
     public void insert(String word, long linkIndex) {
+        insert(word, linkIndex, null);
+    }
+
+
+    /**
+     * Insert a word in the tree, along with its positions in the document.
+     * The word is divided in bytes and each one is inserted in order.
+     *
+     * @param word      the word
+     * @param linkIndex the link index
+     * @param positions the positions of the word in the document (ascending), or null if not available
+     */
+    public void insert(String word, long linkIndex, int[] positions) {
+        insert(word, linkIndex, positions == null ? 1 : Math.max(positions.length, 1), positions);
+    }
+
+
+    /**
+     * Insert a word in the tree, along with its frequency and positions in the document.
+     * The word is divided in bytes and each one is inserted in order.
+     *
+     * @param word      the word
+     * @param linkIndex the link index
+     * @param frequency the number of occurrences of the word in the document
+     * @param positions the positions of the word in the document (ascending), or null if not available
+     */
+    public void insert(String word, long linkIndex, int frequency, int[] positions) {
         if(word == null) throw new NullPointerException("Word cannot be null.");
         if(linkIndex < 0) throw new IllegalArgumentException("Link index cannot be negative.");
 
@@ -132,6 +165,7 @@ public class AdaptiveRadixTree {
                     } else { // if the grandfatherNode is null, that means the root needs to be updated
                         this.root = insertResult.upgradedNode;
                     }
+                    previousNode.obsolete = true; // the old node was replaced
 
                     // update the lock after replacing the old node with the upgraded one
                     insertResult.lock.writeLock().unlock();
@@ -139,12 +173,100 @@ public class AdaptiveRadixTree {
             }
             count++;
         }
-        ArrayList<Long> linkIndices = currentNode.getLinkIndices();
-        if(!linkIndices.contains(linkIndex)) currentNode.addLinkIndex(linkIndex); // insert the new link Index only if it doesn't exist already
+        currentNode.setFrequency(linkIndex, frequency); // insert the new link Index only if it doesn't exist already
+        if(positions != null) currentNode.setPositions(linkIndex, positions);
         currentNode.setIsFinalWord(true); // set node as final word
     }
 
 
+    /**
+     * Insert a batch of (word, link index) pairs in the tree.
+     * <p>
+     * The batch is sorted by the word bytes, so consecutive words share their longest common prefix.
+     * The path of nodes of the previous word is kept, and each word only walks the tree from the end of the
+     * prefix it shares with the previous one. This way, the nodes of a common path are visited (and locked)
+     * once per batch instead of once per word. Repeated words are grouped and their link indices are added
+     * to the final node under a single lock.
+     *
+     * @param batch the batch
+     */
+    public void insertBatch(TermBatch batch) {
+        if(batch == null) throw new NullPointerException("Batch cannot be null.");
+        if(batch.size() == 0) return;
+        batch.sort();
+
+        Node[] path = new Node[16]; // path[i] is the node reached after walking the first i bytes of the previous word
+        byte[] previousWord = null;
+        long[] groupLinkIndices = new long[16]; // link indices of the current group of equal words
+        int[][] groupPositions = new int[16][]; // positions of each link index of the current group
+        int[] groupFrequencies = new int[16]; // frequency of each link index of the current group
+        int[] groupVersions = new int[16]; // document version of each link index of the current group
+
+        int i = 0;
+        while(i < batch.size()){
+            byte[] wordBytes = batch.termAt(i);
+
+            // group all the pairs with the same word
+            int groupSize = 0;
+            int j = i;
+            while(j < batch.size() && Arrays.equals(batch.termAt(j), wordBytes)){
+                if(groupSize == groupLinkIndices.length){
+                    groupLinkIndices = Arrays.copyOf(groupLinkIndices, groupSize * 2);
+                    groupPositions = Arrays.copyOf(groupPositions, groupSize * 2);
+                    groupFrequencies = Arrays.copyOf(groupFrequencies, groupSize * 2);
+                    groupVersions = Arrays.copyOf(groupVersions, groupSize * 2);
+                }
+                groupLinkIndices[groupSize] = batch.linkIndexAt(j);
+                groupFrequencies[groupSize] = batch.frequencyAt(j);
+                groupVersions[groupSize] = batch.versionAt(j);
+                groupPositions[groupSize++] = batch.positionsAt(j);
+                j++;
+            }
+            i = j;
+
+            if(path.length <= wordBytes.length) path = Arrays.copyOf(path, Math.max(path.length * 2, wordBytes.length + 1));
+
+            // resume from the prefix shared with the previous word, unless a node of that path was replaced meanwhile
+            int depth = previousWord == null ? 0 : Arrays.mismatch(previousWord, wordBytes);
+            if(depth < 0 || depth > wordBytes.length) depth = wordBytes.length; // should not happen, words are grouped
+            for(int k = 0; k <= depth; k++){
+                if(path[k] == null || path[k].obsolete){
+                    depth = 0;
+                    break;
+                }
+            }
+            if(depth == 0) path[0] = root;
+
+            for(; depth < wordBytes.length; depth++){
+                Node currentNode = path[depth];
+                Node nextNode = currentNode.find(wordBytes[depth]);
+                if(nextNode == null){ // if the node with the current byte key doesn't exist, insert it
+                    InsertResult insertResult = currentNode.insert(wordBytes[depth]);
+                    nextNode = insertResult.node;
+                    if(insertResult.upgradedNode != null && insertResult.lock != null){ // if there has been a node upgrade
+                        if(depth > 0){ // update the father node of the upgraded node, swapping the old node with the upgraded one
+                            path[depth - 1].updateNodeReference(wordBytes[depth - 1], insertResult.upgradedNode);
+                        } else { // the root was upgraded
+                            this.root = insertResult.upgradedNode;
+                        }
+                        currentNode.obsolete = true;
+                        path[depth] = insertResult.upgradedNode; // next words with this prefix must use the upgraded node
+
+                        insertResult.lock.writeLock().unlock();
+                    }
+                    if(nextNode == null) nextNode = path[depth].find(wordBytes[depth]); // inserted meanwhile by another thread
+                }
+                path[depth + 1] = nextNode;
+            }
+
+            Node finalNode = path[wordBytes.length];
+            finalNode.addLinkIndices(groupLinkIndices, groupFrequencies, groupPositions, groupVersions, groupSize);
+            finalNode.setIsFinalWord(true);
+            previousWord = wordBytes;
+        }
+    }
+
+
     /**
      * Find a word in the tree, retrieving and returning its link indices.
      *
@@ -190,6 +312,50 @@ public class AdaptiveRadixTree {
     }
 
 
+    /**
+     * Walk every word of the tree in ascending (unsigned) byte order, passing its bytes and final node to the consumer.
+     * Used to write the tree as a sorted segment. The tree must not be modified during the walk.
+     *
+     * @param consumer the consumer of each word
+     */
+    public void forEachWord(BiConsumer<byte[], Node> consumer){
+        walkWords(root, new byte[16], 0, consumer);
+    }
+
+
+    /**
+     * Recursive helper of {@link #forEachWord(BiConsumer)}.
+     * The children of each node are visited in unsigned key order, so the words come out sorted.
+     *
+     * @param node current node
+     * @param prefix bytes of the path until the current node
+     * @param depth length of the prefix
+     * @param consumer the consumer of each word
+     */
+    private void walkWords(Node node, byte[] prefix, int depth, BiConsumer<byte[], Node> consumer){
+        if(node.getIsFinalWord() && depth > 0) consumer.accept(Arrays.copyOf(prefix, depth), node);
+
+        Node[] slots = new Node[256]; // child of each unsigned key
+        byte[] keys = node.getKeys();
+        Node[] children = node.getChildren();
+        if(node instanceof Node48){
+            for(int i = 0; i < 256; i++){
+                if(keys[i] != -1) slots[i] = children[keys[i]];
+            }
+        } else {
+            int childrenNum = node instanceof Node256 ? keys.length : node.getCount();
+            for(int i = 0; i < childrenNum; i++) slots[keys[i] & 0xFF] = children[i];
+        }
+
+        for(int i = 0; i < 256; i++){
+            if(slots[i] == null) continue;
+            if(depth == prefix.length) prefix = Arrays.copyOf(prefix, prefix.length * 2);
+            prefix[depth] = (byte) i;
+            walkWords(slots[i], prefix, depth + 1, consumer);
+        }
+    }
+
+
     /**
      *
      * Export the Adaptive Radix Tree from memory to disk.
@@ -269,16 +435,21 @@ public class AdaptiveRadixTree {
         int childrenNum = node.getCount();
         boolean isFinalWord = node.getIsFinalWord();
         ArrayList<Long> linkIndices = node.getLinkIndices();
+        HashMap<Long, byte[]> positions = node.getPositionsMap();
         int indicesNum = 0;
+        int positionsBytes = 0;
         for(int i=0; i<linkIndices.size(); i++){
-            if(linkIndices.get(i) != null) indicesNum++;
+            if(linkIndices.get(i) == null) continue;
+            indicesNum++;
+            byte[] linkPositions = positions.get(linkIndices.get(i));
+            positionsBytes += Integer.BYTES + (linkPositions == null ? 0 : linkPositions.length);
         }
 
         byte[] keys = node.getKeys();
         Node[] children = node.getChildren();
 
-        // nodeType + childrenNum + isFinalWord + indicesNum + linkIndices + keys (only allocate for existing keys)
-        byte[] bytes = new byte[Integer.BYTES + Integer.BYTES + 1 + Integer.BYTES + Long.BYTES*indicesNum + Byte.BYTES*childrenNum*(nodeType==NODE48_TYPE?2:1)];
+        // nodeType + childrenNum + isFinalWord + indicesNum + linkIndices + frequencies + positions + keys (only allocate for existing keys)
+        byte[] bytes = new byte[Integer.BYTES + Integer.BYTES + 1 + Integer.BYTES + Long.BYTES*indicesNum + Integer.BYTES*indicesNum + positionsBytes + Byte.BYTES*childrenNum*(nodeType==NODE48_TYPE?2:1)];
         ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN); // little endian for x86 compatibility
 
         /* Put node data into the byte buffer */
@@ -290,6 +461,20 @@ public class AdaptiveRadixTree {
             if(linkIndices.get(i) == null) continue;
             buffer.putLong(linkIndices.get(i));
         }
+        for(int i=0; i<linkIndices.size(); i++){
+            if(linkIndices.get(i) == null) continue;
+            buffer.putInt(node.getFrequencyAt(i));
+        }
+        for(int i=0; i<linkIndices.size(); i++){
+            if(linkIndices.get(i) == null) continue;
+            byte[] linkPositions = positions.get(linkIndices.get(i));
+            if(linkPositions == null){
+                buffer.putInt(0);
+                continue;
+            }
+            buffer.putInt(linkPositions.length);
+            buffer.put(linkPositions);
+        }
 
         switch(nodeType){
             case NODE4_TYPE:
@@ -433,6 +618,25 @@ public class AdaptiveRadixTree {
             linkIndices.add(ByteBuffer.wrap(longBuffer).order(ByteOrder.LITTLE_ENDIAN).getLong());
         }
 
+        // get the frequency of each link index from file
+        int[] frequencies = new int[indicesNum];
+        for(int i=0; i<indicesNum; i++){
+            artFile.read(intBuffer);
+            frequencies[i] = ByteBuffer.wrap(intBuffer).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        }
+
+        // get the positions of each link index from file
+        HashMap<Long, byte[]> positions = null;
+        for(int i=0; i<indicesNum; i++){
+            artFile.read(intBuffer);
+            int positionsLength = ByteBuffer.wrap(intBuffer).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            if(positionsLength == 0) continue;
+            byte[] linkPositions = new byte[positionsLength];
+            artFile.readFully(linkPositions);
+            if(positions == null) positions = new HashMap<>();
+            positions.put(linkIndices.get(i), linkPositions);
+        }
+
 
         switch(nodeType){
             case NODE4_TYPE:
@@ -467,6 +671,8 @@ public class AdaptiveRadixTree {
 
         // assign values to the node
         node.setLinkIndices(linkIndices);
+        node.setFrequencies(frequencies);
+        node.setPositionsMap(positions);
         node.setIsFinalWord(isFinalWord != 0);
 
         return node;
@@ -521,6 +727,25 @@ public class AdaptiveRadixTree {
             linkIndices.add(ByteBuffer.wrap(longBuffer).order(ByteOrder.LITTLE_ENDIAN).getLong());
         }
 
+        // get the frequency of each link index from file
+        int[] frequencies = new int[indicesNum];
+        for(int i=0; i<indicesNum; i++){
+            artInputStream.readFully(intBuffer);
+            frequencies[i] = ByteBuffer.wrap(intBuffer).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        }
+
+        // get the positions of each link index from file
+        HashMap<Long, byte[]> positions = null;
+        for(int i=0; i<indicesNum; i++){
+            artInputStream.readFully(intBuffer);
+            int positionsLength = ByteBuffer.wrap(intBuffer).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            if(positionsLength == 0) continue;
+            byte[] linkPositions = new byte[positionsLength];
+            artInputStream.readFully(linkPositions);
+            if(positions == null) positions = new HashMap<>();
+            positions.put(linkIndices.get(i), linkPositions);
+        }
+
 
         switch(nodeType){
             case NODE4_TYPE:
@@ -555,6 +780,8 @@ public class AdaptiveRadixTree {
 
         // assign values to the node
         node.setLinkIndices(linkIndices);
+        node.setFrequencies(frequencies);
+        node.setPositionsMap(positions);
         node.setIsFinalWord(isFinalWord != 0);
 
         return node;
@@ -1,6 +1,8 @@
 package com.googol.backend.tree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock; /**
  * Node class.
@@ -16,6 +18,29 @@ public abstract class Node{
      */
     protected ArrayList<Long> linkIndices = new ArrayList<>();
 
+    /**
+     * Positions of the word in each document (link index), delta encoded as varints.
+     * Null while no positions were added (when the positional index is disabled it stays null)
+     */
+    protected HashMap<Long, byte[]> positions = null;
+
+    /**
+     * Frequency of the word in each document, aligned with the link indices.
+     * Null while no frequencies were added, and missing or 0 entries count as 1
+     */
+    protected int[] frequencies = null;
+
+    /**
+     * Version of each document the word was indexed from, aligned with the link indices.
+     * Null while every document is in its first version (0)
+     */
+    protected int[] versions = null;
+
+    /**
+     * Postings sorted by link index, cached for the searches until the node is modified
+     */
+    private volatile Postings sortedPostings = null;
+
     /**
      * Insert byte into the tree.
      *
@@ -48,6 +73,11 @@ public abstract class Node{
      * Reentrant Read Write Lock to allow multiple reads but only one write at a time.
      */
     protected ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Flag that indicates the node was replaced by an upgraded one and must not be used anymore.
+     * Needed by the batch insert, that keeps the nodes of the previous word path between insertions.
+     */
+    volatile boolean obsolete = false;
 
 
     /**
@@ -109,11 +139,316 @@ public abstract class Node{
         lock.writeLock().lock();
         try{
             linkIndices.add(longObjIndex);
+            sortedPostings = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add several link indices at once, skipping the ones that already exist.
+     * The write lock is only taken once for all of them.
+     *
+     * @param newLinkIndices the link indices
+     * @param newLinkIndicesNum number of valid link indices in the array
+     */
+    public void addLinkIndices(long[] newLinkIndices, int newLinkIndicesNum){
+        addLinkIndices(newLinkIndices, null, newLinkIndicesNum);
+    }
+
+    /**
+     * Add several link indices at once, along with the positions of the word in each of them.
+     * Link indices that already exist are skipped, but their positions are replaced (the document was recrawled).
+     * The write lock is only taken once for all of them.
+     *
+     * @param newLinkIndices the link indices
+     * @param newPositions the positions of each link index (null, or null entries, if not available)
+     * @param newLinkIndicesNum number of valid link indices in the array
+     */
+    public void addLinkIndices(long[] newLinkIndices, int[][] newPositions, int newLinkIndicesNum){
+        addLinkIndices(newLinkIndices, null, newPositions, newLinkIndicesNum);
+    }
+
+    /**
+     * Add several link indices at once, along with the frequency and positions of the word in each of them.
+     * Link indices that already exist are skipped, but their frequency and positions are replaced (the document was recrawled).
+     * The write lock is only taken once for all of them.
+     *
+     * @param newLinkIndices the link indices
+     * @param newFrequencies the frequency of each link index (null if not available)
+     * @param newPositions the positions of each link index (null, or null entries, if not available)
+     * @param newLinkIndicesNum number of valid link indices in the array
+     */
+    public void addLinkIndices(long[] newLinkIndices, int[] newFrequencies, int[][] newPositions, int newLinkIndicesNum){
+        addLinkIndices(newLinkIndices, newFrequencies, newPositions, null, newLinkIndicesNum);
+    }
+
+    /**
+     * Add several link indices at once, along with the frequency and positions of the word in each of them and the
+     * version of each document. Link indices that already exist are skipped, but their frequency, positions and
+     * version are replaced (the document was recrawled).
+     * The write lock is only taken once for all of them.
+     *
+     * @param newLinkIndices the link indices
+     * @param newFrequencies the frequency of each link index (null if not available)
+     * @param newPositions the positions of each link index (null, or null entries, if not available)
+     * @param newVersions the document version of each link index (null if all are 0)
+     * @param newLinkIndicesNum number of valid link indices in the array
+     */
+    public void addLinkIndices(long[] newLinkIndices, int[] newFrequencies, int[][] newPositions, int[] newVersions, int newLinkIndicesNum){
+        lock.writeLock().lock();
+        try{
+            HashMap<Long, Integer> existingLinkIndices = new HashMap<>(linkIndices.size() * 2);
+            for(int i = 0; i < linkIndices.size(); i++) existingLinkIndices.put(linkIndices.get(i), i);
+            for(int i = 0; i < newLinkIndicesNum; i++){
+                if(!isValidLinkIndex(newLinkIndices[i])) continue;
+                Integer index = existingLinkIndices.get(newLinkIndices[i]);
+                if(index == null){
+                    index = linkIndices.size();
+                    existingLinkIndices.put(newLinkIndices[i], index);
+                    linkIndices.add(newLinkIndices[i]);
+                }
+                if(newFrequencies != null) setFrequencyAt(index, newFrequencies[i]);
+                if(newVersions != null && (newVersions[i] != 0 || versions != null)) setVersionAt(index, newVersions[i]);
+                if(newPositions != null && newPositions[i] != null){
+                    if(positions == null) positions = new HashMap<>();
+                    positions.put(newLinkIndices[i], encodePositions(newPositions[i]));
+                }
+            }
+            sortedPostings = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Set the frequency of the link index at the provided index of the list. Must be called with the write lock held.
+     * @param index index in the link indices list
+     * @param frequency the frequency
+     */
+    private void setFrequencyAt(int index, int frequency){
+        if(frequencies == null) frequencies = new int[Math.max(index + 1, 4)];
+        else if(index >= frequencies.length) frequencies = Arrays.copyOf(frequencies, Math.max(index + 1, frequencies.length * 2));
+        frequencies[index] = frequency;
+    }
+
+    /**
+     * Set the document version of the link index at the provided index of the list. Must be called with the write lock held.
+     * @param index index in the link indices list
+     * @param version the version
+     */
+    private void setVersionAt(int index, int version){
+        if(versions == null) versions = new int[Math.max(index + 1, 4)];
+        else if(index >= versions.length) versions = Arrays.copyOf(versions, Math.max(index + 1, versions.length * 2));
+        versions[index] = version;
+    }
+
+    /**
+     * Set the versions array, aligned with the link indices (used when upgrading a node).
+     *
+     * @param versions the versions
+     */
+    public void setVersions(int[] versions){
+        lock.writeLock().lock();
+        this.versions = versions;
+        this.sortedPostings = null;
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * Set the frequency of the word in a document, adding the link index if it doesn't exist.
+     *
+     * @param linkIndex the link index of the document
+     * @param frequency the frequency
+     */
+    public void setFrequency(long linkIndex, int frequency){
+        if(!isValidLinkIndex(linkIndex)) return;
+        lock.writeLock().lock();
+        try{
+            int index = linkIndices.indexOf(linkIndex);
+            if(index < 0){
+                index = linkIndices.size();
+                linkIndices.add(linkIndex);
+            }
+            setFrequencyAt(index, frequency);
+            sortedPostings = null;
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Set the frequencies array, aligned with the link indices (used when upgrading or importing a node).
+     *
+     * @param frequencies the frequencies
+     */
+    public void setFrequencies(int[] frequencies){
+        lock.writeLock().lock();
+        this.frequencies = frequencies;
+        this.sortedPostings = null;
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * Get the frequency of the link index at the provided index of the link indices list.
+     *
+     * @param index index in the link indices list
+     * @return the frequency (1 if unknown)
+     */
+    public int getFrequencyAt(int index){
+        lock.readLock().lock();
+        try{
+            if(frequencies == null || index >= frequencies.length || frequencies[index] <= 0) return 1;
+            return frequencies[index];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the postings of the word sorted by link index, along with the frequency, positions and version of each document.
+     * The sorted copy is cached until the node is modified, so repeated searches don't sort it again.
+     *
+     * @return the postings (must not be modified)
+     */
+    public Postings getPostings(){
+        Postings postings = sortedPostings;
+        if(postings != null) return postings;
+
+        lock.readLock().lock();
+        try{
+            postings = Postings.sortedOf(linkIndices, frequencies, positions, versions);
+            sortedPostings = postings; // under the read lock, so it can't overwrite the invalidation of a concurrent write
+        } finally {
+            lock.readLock().unlock();
+        }
+        return postings;
+    }
+
+    /**
+     * Get the number of documents of the word, without building the postings.
+     * Used to plan the searches, the rarest words are read first.
+     *
+     * @return the document frequency
+     */
+    public int getDocumentFrequency(){
+        lock.readLock().lock();
+        try{
+            return linkIndices.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Set the positions of the word in a document.
+     *
+     * @param linkIndex the link index of the document
+     * @param newPositions the positions (ascending)
+     */
+    public void setPositions(long linkIndex, int[] newPositions){
+        if(!isValidLinkIndex(linkIndex) || newPositions == null) return;
+        byte[] encodedPositions = encodePositions(newPositions);
+        lock.writeLock().lock();
+        try{
+            if(positions == null) positions = new HashMap<>();
+            positions.put(linkIndex, encodedPositions);
+            sortedPostings = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the positions of the word in a document.
+     *
+     * @param linkIndex the link index of the document
+     * @return the positions (ascending), or null if they are unknown
+     */
+    public int[] getPositions(long linkIndex){
+        byte[] encodedPositions;
+        lock.readLock().lock();
+        try{
+            if(positions == null) return null;
+            encodedPositions = positions.get(linkIndex);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return encodedPositions == null ? null : decodePositions(encodedPositions);
+    }
+
+    /**
+     * Set the encoded positions map (used when upgrading or importing a node).
+     *
+     * @param positions the encoded positions of each link index
+     */
+    public void setPositionsMap(HashMap<Long, byte[]> positions){
+        lock.writeLock().lock();
+        this.positions = positions;
+        this.sortedPostings = null;
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * Get a copy of the encoded positions map.
+     *
+     * @return the encoded positions of each link index (empty if there are none)
+     */
+    public HashMap<Long, byte[]> getPositionsMap(){
+        lock.readLock().lock();
+        try{
+            return positions == null ? new HashMap<>() : new HashMap<>(positions);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Encode ascending positions as the varints of the gaps between them.
+     *
+     * @param positions the positions
+     * @return the encoded positions
+     */
+    static byte[] encodePositions(int[] positions){
+        byte[] bytes = new byte[positions.length * 5];
+        int length = 0;
+        int previous = 0;
+        for(int position : positions){
+            int gap = position - previous;
+            previous = position;
+            while((gap & ~0x7F) != 0){
+                bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Decode positions encoded by {@link #encodePositions(int[])}.
+     *
+     * @param bytes the encoded positions
+     * @return the positions
+     */
+    static int[] decodePositions(byte[] bytes){
+        int[] positions = new int[bytes.length]; // at least one byte per position
+        int count = 0;
+        int previous = 0;
+        int i = 0;
+        while(i < bytes.length){
+            int gap = 0;
+            for(int shift = 0; i < bytes.length; shift += 7){
+                byte b = bytes[i++];
+                gap |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) break;
+            }
+            previous += gap;
+            positions[count++] = previous;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
     /**
      * Set link indices.
      *
@@ -123,6 +458,7 @@ public abstract class Node{
         if(linkIndices == null) return;
         lock.writeLock().lock();
         this.linkIndices = linkIndices;
+        this.sortedPostings = null;
         lock.writeLock().unlock();
     }
 
@@ -36,6 +36,9 @@ public class Node48 extends Node {
         }
 
         newNode.setLinkIndices(this.linkIndices); // set the link indices
+        newNode.setFrequencies(this.frequencies); // set the frequencies of the word in each document
+        newNode.setPositionsMap(this.positions); // set the positions of the word in each document
+        newNode.setVersions(this.versions); // set the version of each document
         if (this.isFinalWord) newNode.setIsFinalWord(true); // set the final word flag
         return newNode; // return upgraded node
     }
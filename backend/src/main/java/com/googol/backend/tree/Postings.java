@@ -0,0 +1,241 @@
+package com.googol.backend.tree;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.LongToIntFunction;
+
+/**
+ * Immutable snapshot of the postings of a word: the link indices where it appears, sorted ascending, the
+ * frequency of the word in each of them, the version of each document and, when the positional index is enabled,
+ * its encoded positions.
+ * <p>
+ * Kept as primitive arrays so the ranking can walk and intersect them without boxing or allocating.
+ * Serializable so the replicas can send each other the postings of the words they disagree on.
+ */
+public class Postings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Maximum frequency kept in a snapshot, higher ones are clamped (the scores saturate long before it)
+     */
+    static final int MAX_FREQUENCY = (1 << 20) - 1;
+
+    /**
+     * Link indices, sorted ascending
+     */
+    public final long[] linkIndices;
+    /**
+     * Frequency of the word in each link index (at least 1)
+     */
+    public final int[] frequencies;
+    /**
+     * Number of link indices (the document frequency of the word)
+     */
+    public final int size;
+    /**
+     * Encoded positions of the word in each link index (null if none were stored, null entries if unknown)
+     */
+    public final byte[][] positions;
+    /**
+     * Version of each document the word was indexed from (null if all are 0)
+     */
+    public final int[] versions;
+
+
+    /**
+     * Instantiates a new Postings.
+     *
+     * @param linkIndices the link indices, sorted ascending
+     * @param frequencies the frequencies
+     */
+    public Postings(long[] linkIndices, int[] frequencies){
+        this(linkIndices, frequencies, null);
+    }
+
+
+    /**
+     * Instantiates a new Postings with the encoded positions of each link index.
+     *
+     * @param linkIndices the link indices, sorted ascending
+     * @param frequencies the frequencies
+     * @param positions   the encoded positions (or null)
+     */
+    public Postings(long[] linkIndices, int[] frequencies, byte[][] positions){
+        this(linkIndices, frequencies, positions, null);
+    }
+
+
+    /**
+     * Instantiates a new Postings with the encoded positions and the version of each link index.
+     *
+     * @param linkIndices the link indices, sorted ascending
+     * @param frequencies the frequencies
+     * @param positions   the encoded positions (or null)
+     * @param versions    the document versions (or null)
+     */
+    public Postings(long[] linkIndices, int[] frequencies, byte[][] positions, int[] versions){
+        if(linkIndices.length != frequencies.length) throw new IllegalArgumentException("Every link index must have its frequency.");
+        if(positions != null && positions.length != linkIndices.length) throw new IllegalArgumentException("Every link index must have its positions.");
+        if(versions != null && versions.length != linkIndices.length) throw new IllegalArgumentException("Every link index must have its version.");
+        this.linkIndices = linkIndices;
+        this.frequencies = frequencies;
+        this.positions = positions;
+        this.versions = versions;
+        this.size = linkIndices.length;
+    }
+
+
+    /**
+     * Find the index of a link index.
+     *
+     * @param linkIndex the link index
+     * @return its index, or a negative value if it's not in the postings
+     */
+    public int indexOf(long linkIndex){
+        return Arrays.binarySearch(linkIndices, 0, size, linkIndex);
+    }
+
+
+    /**
+     * Get the positions of the word in the link index at the provided index.
+     *
+     * @param index the index
+     * @return the positions (ascending), or null if they are unknown
+     */
+    public int[] getPositions(int index){
+        if(positions == null || positions[index] == null) return null;
+        return Node.decodePositions(positions[index]);
+    }
+
+
+    /**
+     * Get the version of the document at the provided index.
+     *
+     * @param index the index
+     * @return the version
+     */
+    public int getVersion(int index){
+        return versions == null ? 0 : versions[index];
+    }
+
+
+    /**
+     * Keep only the postings of the current version of each document, dropping the ones left by older crawls.
+     *
+     * @param currentVersions the current version of each link index
+     * @return the live postings (this same object if all of them are live)
+     */
+    public Postings liveOnly(LongToIntFunction currentVersions){
+        boolean[] isLive = new boolean[size];
+        int live = 0;
+        for(int i = 0; i < size; i++){
+            isLive[i] = getVersion(i) >= currentVersions.applyAsInt(linkIndices[i]); // a newer version is live, the stats may lag behind
+            if(isLive[i]) live++;
+        }
+        if(live == size) return this;
+
+        long[] liveLinkIndices = new long[live];
+        int[] liveFrequencies = new int[live];
+        byte[][] livePositions = positions == null ? null : new byte[live][];
+        int[] liveVersions = versions == null ? null : new int[live];
+        int j = 0;
+        for(int i = 0; i < size; i++){
+            if(!isLive[i]) continue;
+            liveLinkIndices[j] = linkIndices[i];
+            liveFrequencies[j] = frequencies[i];
+            if(livePositions != null) livePositions[j] = positions[i];
+            if(liveVersions != null) liveVersions[j] = versions[i];
+            j++;
+        }
+        return new Postings(liveLinkIndices, liveFrequencies, livePositions, liveVersions);
+    }
+
+
+    /**
+     * Merge the postings of the same word coming from two parts of the index.
+     * When a link index is on both, the newer one wins (the document was recrawled).
+     *
+     * @param newer the postings of the newer part (or null)
+     * @param older the postings of the older part (or null)
+     * @return the merged postings
+     */
+    public static Postings merge(Postings newer, Postings older){
+        if(older == null || older.size == 0) return newer;
+        if(newer == null || newer.size == 0) return older;
+
+        int capacity = newer.size + older.size;
+        long[] mergedLinkIndices = new long[capacity];
+        int[] mergedFrequencies = new int[capacity];
+        byte[][] mergedPositions = newer.positions == null && older.positions == null ? null : new byte[capacity][];
+        int[] mergedVersions = newer.versions == null && older.versions == null ? null : new int[capacity];
+        int i = 0, j = 0, size = 0;
+        while(i < newer.size || j < older.size){
+            boolean takeNewer = j == older.size || (i < newer.size && newer.linkIndices[i] <= older.linkIndices[j]);
+            if(takeNewer){
+                if(j < older.size && older.linkIndices[j] == newer.linkIndices[i]) j++; // shadowed by the newer one
+                mergedLinkIndices[size] = newer.linkIndices[i];
+                mergedFrequencies[size] = newer.frequencies[i];
+                if(mergedPositions != null && newer.positions != null) mergedPositions[size] = newer.positions[i];
+                if(mergedVersions != null) mergedVersions[size] = newer.getVersion(i);
+                i++;
+            } else {
+                mergedLinkIndices[size] = older.linkIndices[j];
+                mergedFrequencies[size] = older.frequencies[j];
+                if(mergedPositions != null && older.positions != null) mergedPositions[size] = older.positions[j];
+                if(mergedVersions != null) mergedVersions[size] = older.getVersion(j);
+                j++;
+            }
+            size++;
+        }
+        if(size == capacity) return new Postings(mergedLinkIndices, mergedFrequencies, mergedPositions, mergedVersions);
+        return new Postings(Arrays.copyOf(mergedLinkIndices, size), Arrays.copyOf(mergedFrequencies, size),
+                mergedPositions == null ? null : Arrays.copyOf(mergedPositions, size),
+                mergedVersions == null ? null : Arrays.copyOf(mergedVersions, size));
+    }
+
+
+    /**
+     * Build a sorted snapshot of the link indices and frequencies of a node.
+     * Each pair is packed in a single long (link index on the high bits) so a primitive sort orders both at once.
+     *
+     * @param linkIndices the link indices
+     * @param frequencies the frequencies aligned with the link indices (null, missing or 0 entries count as 1)
+     * @param positions   the encoded positions of each link index (or null)
+     * @param versions    the document versions aligned with the link indices (null or missing entries are 0)
+     * @return the postings
+     */
+    static Postings sortedOf(ArrayList<Long> linkIndices, int[] frequencies, HashMap<Long, byte[]> positions, int[] versions){
+        long[] packed = new long[linkIndices.size()];
+        int size = 0;
+        for(int i = 0; i < linkIndices.size(); i++){
+            Long linkIndex = linkIndices.get(i);
+            if(linkIndex == null || linkIndex < 0) continue;
+            if(linkIndex >= (1L << 43)) throw new IllegalStateException("Link index too large to be packed: " + linkIndex);
+            int frequency = frequencies == null || i >= frequencies.length || frequencies[i] <= 0 ? 1 : Math.min(frequencies[i], MAX_FREQUENCY);
+            packed[size++] = (linkIndex << 20) | frequency;
+        }
+        Arrays.sort(packed, 0, size);
+
+        HashMap<Long, Integer> versionOf = null; // the sort loses the alignment with the versions, only needed after a recrawl
+        if(versions != null){
+            versionOf = new HashMap<>();
+            for(int i = 0; i < Math.min(versions.length, linkIndices.size()); i++){
+                if(versions[i] != 0 && linkIndices.get(i) != null) versionOf.put(linkIndices.get(i), versions[i]);
+            }
+        }
+
+        long[] sortedLinkIndices = new long[size];
+        int[] sortedFrequencies = new int[size];
+        byte[][] sortedPositions = positions == null || positions.isEmpty() ? null : new byte[size][];
+        int[] sortedVersions = versionOf == null || versionOf.isEmpty() ? null : new int[size];
+        for(int i = 0; i < size; i++){
+            sortedLinkIndices[i] = packed[i] >>> 20;
+            sortedFrequencies[i] = (int) (packed[i] & MAX_FREQUENCY);
+            if(sortedPositions != null) sortedPositions[i] = positions.get(sortedLinkIndices[i]);
+            if(sortedVersions != null) sortedVersions[i] = versionOf.getOrDefault(sortedLinkIndices[i], 0);
+        }
+        return new Postings(sortedLinkIndices, sortedFrequencies, sortedPositions, sortedVersions);
+    }
+}
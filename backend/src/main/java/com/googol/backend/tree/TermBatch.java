@@ -0,0 +1,212 @@
+package com.googol.backend.tree;
+
+import java.util.Arrays;
+
+/**
+ * Batch of (term, link index) pairs to be inserted in the tree at once, optionally with the frequency and the
+ * positions of the term in the document, and the version of the document they were crawled from.
+ * <p>
+ * The pairs are gathered from many documents and sorted by the term bytes before the insertion, so the
+ * tree can walk the shared prefixes of consecutive terms only once (see {@link AdaptiveRadixTree#insertBatch(TermBatch)}).
+ */
+public class TermBatch {
+    /**
+     * Bytes of the terms, in the same encoding used by the single word insert
+     */
+    private byte[][] terms;
+    /**
+     * Link index of each term
+     */
+    private long[] linkIndices;
+    /**
+     * Positions of each term in its document (null entries when not provided)
+     */
+    private int[][] positions;
+    /**
+     * Frequency of each term in its document
+     */
+    private int[] frequencies;
+    /**
+     * Version of the document of each term
+     */
+    private int[] versions;
+    /**
+     * Number of pairs in the batch
+     */
+    private int size = 0;
+    /**
+     * Insertion order of the pairs, sorted by term when the batch is sorted
+     */
+    private Integer[] order;
+
+
+    /**
+     * Instantiates a new Term batch.
+     *
+     * @param initialCapacity the initial capacity
+     */
+    public TermBatch(int initialCapacity){
+        if(initialCapacity <= 0) initialCapacity = 16;
+        this.terms = new byte[initialCapacity][];
+        this.linkIndices = new long[initialCapacity];
+        this.positions = new int[initialCapacity][];
+        this.frequencies = new int[initialCapacity];
+        this.versions = new int[initialCapacity];
+    }
+
+
+    /**
+     * Add a pair to the batch.
+     *
+     * @param term      the term
+     * @param linkIndex the link index
+     */
+    public void add(String term, long linkIndex){
+        add(term, linkIndex, null);
+    }
+
+
+    /**
+     * Add a pair to the batch, with the positions of the term in the document.
+     *
+     * @param term      the term
+     * @param linkIndex the link index
+     * @param positions the positions (ascending), or null if not available
+     */
+    public void add(String term, long linkIndex, int[] positions){
+        add(term, linkIndex, positions == null ? 1 : Math.max(positions.length, 1), positions);
+    }
+
+
+    /**
+     * Add a pair to the batch, with the frequency and the positions of the term in the document.
+     *
+     * @param term      the term
+     * @param linkIndex the link index
+     * @param frequency the number of occurrences of the term in the document
+     * @param positions the positions (ascending), or null if not available
+     */
+    public void add(String term, long linkIndex, int frequency, int[] positions){
+        add(term, linkIndex, frequency, positions, 0);
+    }
+
+
+    /**
+     * Add a pair to the batch, with the frequency and the positions of the term in a version of the document.
+     *
+     * @param term      the term
+     * @param linkIndex the link index
+     * @param frequency the number of occurrences of the term in the document
+     * @param positions the positions (ascending), or null if not available
+     * @param version   the version of the document (incremented on every recrawl)
+     */
+    public void add(String term, long linkIndex, int frequency, int[] positions, int version){
+        if(term == null) throw new NullPointerException("Term cannot be null.");
+        if(linkIndex < 0) throw new IllegalArgumentException("Link index cannot be negative.");
+
+        if(size == terms.length){
+            terms = Arrays.copyOf(terms, size * 2);
+            linkIndices = Arrays.copyOf(linkIndices, size * 2);
+            this.positions = Arrays.copyOf(this.positions, size * 2);
+            frequencies = Arrays.copyOf(frequencies, size * 2);
+            versions = Arrays.copyOf(versions, size * 2);
+        }
+        terms[size] = term.getBytes();
+        linkIndices[size] = linkIndex;
+        this.positions[size] = positions;
+        frequencies[size] = Math.max(frequency, 1);
+        versions[size] = Math.max(version, 0);
+        size++;
+        order = null;
+    }
+
+
+    /**
+     * Sort the pairs by term (unsigned byte order, the same order of the tree keys) and then by link index.
+     */
+    void sort(){
+        if(order != null) return;
+        order = new Integer[size];
+        for(int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> {
+            int comparison = Arrays.compareUnsigned(terms[a], terms[b]);
+            return comparison != 0 ? comparison : Long.compare(linkIndices[a], linkIndices[b]);
+        });
+    }
+
+
+    /**
+     * Get the term bytes of the i-th pair in sorted order.
+     *
+     * @param i the position
+     * @return the term bytes
+     */
+    byte[] termAt(int i){
+        return terms[order[i]];
+    }
+
+
+    /**
+     * Get the link index of the i-th pair in sorted order.
+     *
+     * @param i the position
+     * @return the link index
+     */
+    long linkIndexAt(int i){
+        return linkIndices[order[i]];
+    }
+
+
+    /**
+     * Get the positions of the i-th pair in sorted order.
+     *
+     * @param i the position
+     * @return the positions, or null if not provided
+     */
+    int[] positionsAt(int i){
+        return positions[order[i]];
+    }
+
+
+    /**
+     * Get the frequency of the i-th pair in sorted order.
+     *
+     * @param i the position
+     * @return the frequency
+     */
+    int frequencyAt(int i){
+        return frequencies[order[i]];
+    }
+
+
+    /**
+     * Get the document version of the i-th pair in sorted order.
+     *
+     * @param i the position
+     * @return the version
+     */
+    int versionAt(int i){
+        return versions[order[i]];
+    }
+
+
+    /**
+     * Get the number of pairs in the batch.
+     *
+     * @return the size
+     */
+    public int size(){
+        return size;
+    }
+
+
+    /**
+     * Clear the batch, keeping the allocated capacity.
+     */
+    public void clear(){
+        Arrays.fill(terms, 0, size, null);
+        Arrays.fill(positions, 0, size, null);
+        size = 0;
+        order = null;
+    }
+}
@@ -0,0 +1,77 @@
+package com.googol.backend.gateway;
+
+import com.googol.backend.storage.IndexStorageBarrelRemote;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Barrel stubs test.
+ */
+public class BarrelStubsTest {
+
+    /**
+     * Test that a stub is looked up once and reused, and only looked up again after a call through it fails, with
+     * the call retried on the new stub.
+     */
+    @Test
+    public void testStubIsCachedAndRefreshedOnFailure() throws RemoteException {
+        AtomicInteger lookups = new AtomicInteger(0);
+        AtomicBoolean isFirstStubDead = new AtomicBoolean(false);
+        BarrelStubs stubs = new BarrelStubs(endpoint -> {
+            int lookup = lookups.incrementAndGet();
+            return stub(lookup == 1 ? isFirstStubDead : new AtomicBoolean(false), lookup);
+        });
+
+        assertEquals(1.0, (double) stubs.call("barrel", IndexStorageBarrelRemote::getAvailability));
+        assertEquals(1.0, (double) stubs.call("barrel", IndexStorageBarrelRemote::getAvailability));
+        assertEquals(1, lookups.get());
+
+        isFirstStubDead.set(true); // the barrel restarted
+        assertEquals(2.0, (double) stubs.call("barrel", IndexStorageBarrelRemote::getAvailability));
+        assertEquals(2, lookups.get());
+        assertEquals(1, stubs.size());
+    }
+
+
+    /**
+     * Test that a barrel is only considered dead after the given number of failed probes in a row, and that a lookup
+     * failure counts as a failed probe.
+     */
+    @Test
+    public void testProbeFailsAfterConsecutiveFailures(){
+        AtomicBoolean isBound = new AtomicBoolean(true);
+        AtomicBoolean isDead = new AtomicBoolean(false);
+        BarrelStubs stubs = new BarrelStubs(endpoint -> {
+            if(!isBound.get()) throw new NotBoundException(endpoint);
+            return stub(isDead, 1);
+        });
+
+        isDead.set(true);
+        assertTrue(stubs.probe("barrel", 3));
+        assertTrue(stubs.probe("barrel", 3));
+        isDead.set(false);
+        assertTrue(stubs.probe("barrel", 3)); // answered, the count starts over
+
+        isDead.set(true);
+        isBound.set(false);
+        assertTrue(stubs.probe("barrel", 3));
+        assertTrue(stubs.probe("barrel", 3));
+        assertFalse(stubs.probe("barrel", 3));
+    }
+
+
+    private static IndexStorageBarrelRemote stub(AtomicBoolean isDead, double availability){
+        return (IndexStorageBarrelRemote) Proxy.newProxyInstance(IndexStorageBarrelRemote.class.getClassLoader(), new Class<?>[]{IndexStorageBarrelRemote.class}, (proxy, method, args) -> {
+            if(isDead.get()) throw new RemoteException("Connection refused");
+            if(method.getName().equals("getAvailability")) return availability;
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
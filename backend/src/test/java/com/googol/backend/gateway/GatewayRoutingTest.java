@@ -0,0 +1,86 @@
+package com.googol.backend.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Gateway routing test.
+ */
+public class GatewayRoutingTest {
+
+    /**
+     * Test that the words of a search spanning several partitions are grouped by the most available owner of each
+     * partition, and that the search fails if a partition has no owner online.
+     */
+    @Test
+    public void testWordsAreGroupedByMostAvailableOwner(){
+        HashMap<String, BarrelMetrics> metrics = new HashMap<>();
+        metrics.put("barrelA", metrics(0.9, 0, 1));
+        metrics.put("barrelB", metrics(0.5, 1, 2));
+        metrics.put("barrelC", metrics(0.7, 2));
+        List<String> barrels = List.of("barrelA", "barrelB", "barrelC", "evicted"); // evicted has no metrics anymore
+
+        assertEquals("barrelA", Gateway.getMostAvailableOwner(1, barrels, metrics));
+        assertEquals("barrelC", Gateway.getMostAvailableOwner(2, barrels, metrics));
+        assertNull(Gateway.getMostAvailableOwner(3, barrels, metrics));
+
+        HashMap<Integer, ArrayList<String>> wordsByPartition = new HashMap<>();
+        wordsByPartition.put(0, new ArrayList<>(List.of("lisbon")));
+        wordsByPartition.put(1, new ArrayList<>(List.of("porto", "coimbra")));
+        wordsByPartition.put(2, new ArrayList<>(List.of("faro")));
+        HashMap<String, ArrayList<String>> wordsByBarrel = Gateway.groupWordsByOwner(wordsByPartition, barrels, metrics);
+        assertEquals(2, wordsByBarrel.size());
+        ArrayList<String> barrelAWords = wordsByBarrel.get("barrelA");
+        barrelAWords.sort(null);
+        assertEquals(List.of("coimbra", "lisbon", "porto"), barrelAWords);
+        assertEquals(List.of("faro"), wordsByBarrel.get("barrelC"));
+
+        wordsByPartition.put(3, new ArrayList<>(List.of("braga")));
+        assertNull(Gateway.groupWordsByOwner(wordsByPartition, barrels, metrics));
+    }
+
+
+    /**
+     * Test that the pages gathered from several barrels are intersected, adding the scores of their words, and that a
+     * word without pages, or no page with every word, means no results.
+     */
+    @Test
+    public void testScoresAreIntersected(){
+        ArrayList<HashMap<Long, Double>> barrelAScores = new ArrayList<>();
+        barrelAScores.add(scores(Map.of(1L, 1.0, 2L, 2.0, 3L, 3.0)));
+        barrelAScores.add(scores(Map.of(2L, 0.5, 3L, 0.5, 4L, 0.5)));
+        ArrayList<HashMap<Long, Double>> barrelBScores = new ArrayList<>();
+        barrelBScores.add(scores(Map.of(3L, 1.0, 2L, 0.25, 9L, 1.0)));
+
+        HashMap<Long, Double> commonScores = Gateway.intersectScores(null, barrelAScores);
+        assertEquals(scores(Map.of(2L, 2.5, 3L, 3.5)), commonScores);
+        commonScores = Gateway.intersectScores(commonScores, barrelBScores);
+        assertEquals(scores(Map.of(2L, 2.75, 3L, 4.5)), commonScores);
+
+        ArrayList<HashMap<Long, Double>> disjointScores = new ArrayList<>();
+        disjointScores.add(scores(Map.of(7L, 1.0)));
+        assertNull(Gateway.intersectScores(commonScores, disjointScores));
+        ArrayList<HashMap<Long, Double>> emptyScores = new ArrayList<>();
+        emptyScores.add(new HashMap<>());
+        assertNull(Gateway.intersectScores(scores(Map.of(2L, 1.0)), emptyScores));
+    }
+
+
+    private static BarrelMetrics metrics(double availability, Integer... partitions){
+        BarrelMetrics barrelMetrics = new BarrelMetrics();
+        barrelMetrics.setAvailability(availability);
+        barrelMetrics.setOwnedPartitions(List.of(partitions));
+        return barrelMetrics;
+    }
+
+
+    private static HashMap<Long, Double> scores(Map<Long, Double> scores){
+        return new HashMap<>(scores);
+    }
+}
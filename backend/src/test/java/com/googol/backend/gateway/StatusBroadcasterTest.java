@@ -0,0 +1,140 @@
+package com.googol.backend.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Status broadcaster test.
+ */
+public class StatusBroadcasterTest {
+    private static final long INTERVAL = 10;
+    private static final long DEADLINE_SECONDS = 10;
+
+    /**
+     * Test that a burst of published changes is coalesced into a single broadcast of the latest status, and that
+     * publishing doesn't wait for the broadcasts.
+     */
+    @Test
+    public void testBurstIsCoalesced() throws InterruptedException {
+        AtomicInteger version = new AtomicInteger(0);
+        CountDownLatch burstPublished = new CountDownLatch(1);
+        AtomicBoolean isFirstBuild = new AtomicBoolean(true);
+        StatusBroadcaster broadcaster = new StatusBroadcaster(() -> {
+            if(isFirstBuild.getAndSet(false)) await(burstPublished); // the rest of the burst is published meanwhile
+            return status(version.get());
+        }, INTERVAL, 1000);
+        ArrayList<String> received = new ArrayList<>();
+        CountDownLatch lastVersion = new CountDownLatch(1);
+        broadcaster.register(message -> {
+            synchronized (received){
+                received.add(message.get(0).get(0));
+            }
+            if(message.get(0).get(0).equals("100")) lastVersion.countDown();
+        });
+        broadcaster.start();
+
+        for(int i = 1; i <= 100; i++){
+            version.set(i);
+            broadcaster.publish(); // returns even while the first broadcast is stuck building the status
+        }
+        burstPublished.countDown();
+        assertTrue(lastVersion.await(DEADLINE_SECONDS, TimeUnit.SECONDS), "The latest status must be broadcast");
+        assertTrue(broadcaster.getBroadcastsNum() <= 2, "Broadcasts: " + broadcaster.getBroadcastsNum());
+        synchronized (received){
+            assertEquals("100", received.get(received.size() - 1));
+        }
+    }
+
+
+    /**
+     * Test that a callback that doesn't answer in time, or fails, is dropped without delaying the other clients.
+     */
+    @Test
+    public void testUnresponsiveCallbacksAreDropped() throws InterruptedException {
+        StatusBroadcaster broadcaster = new StatusBroadcaster(() -> status(1), INTERVAL, 1000);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean hasStuckReturned = new AtomicBoolean(false);
+        AtomicBoolean wasStuckRunning = new AtomicBoolean(false);
+        CountDownLatch healthyUpdate = new CountDownLatch(1);
+        broadcaster.register(message -> {
+            try {
+                release.await(); // stuck until the test ends, or the delivery is cancelled
+            } catch (InterruptedException ignored) {
+            } finally {
+                hasStuckReturned.set(true);
+            }
+        });
+        broadcaster.register(message -> { throw new RemoteException("Connection refused"); });
+        broadcaster.register(message -> {
+            wasStuckRunning.set(!hasStuckReturned.get());
+            healthyUpdate.countDown();
+        });
+        broadcaster.start();
+
+        broadcaster.publish();
+        assertTrue(healthyUpdate.await(DEADLINE_SECONDS, TimeUnit.SECONDS));
+        assertTrue(wasStuckRunning.get(), "The healthy client must not wait for the stuck one");
+        assertTrue(awaitCondition(() -> broadcaster.getCallbacksNum() == 1), "Callbacks: " + broadcaster.getCallbacksNum());
+        release.countDown();
+    }
+
+
+    /**
+     * Test that a status that couldn't be built is retried, instead of the change being lost.
+     */
+    @Test
+    public void testFailedStatusIsRetried() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger(0);
+        StatusBroadcaster broadcaster = new StatusBroadcaster(() -> {
+            if(attempts.incrementAndGet() == 1) throw new IllegalStateException("Concurrent modification");
+            return status(attempts.get());
+        }, INTERVAL, 1000);
+        CountDownLatch update = new CountDownLatch(1);
+        broadcaster.register(message -> update.countDown());
+        broadcaster.start();
+
+        broadcaster.publish();
+        assertTrue(update.await(DEADLINE_SECONDS, TimeUnit.SECONDS), "The failed broadcast must be retried");
+        assertEquals(2, attempts.get());
+        assertTrue(awaitCondition(() -> broadcaster.getBroadcastsNum() == 2), "Broadcasts: " + broadcaster.getBroadcastsNum());
+    }
+
+
+    private static ArrayList<ArrayList<String>> status(int version){
+        ArrayList<ArrayList<String>> status = new ArrayList<>();
+        status.add(new ArrayList<>(List.of(String.valueOf(version))));
+        return status;
+    }
+
+
+    private static void await(CountDownLatch latch){
+        try {
+            latch.await(DEADLINE_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Wait until the condition holds, or the deadline passes.
+     */
+    private static boolean awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DEADLINE_SECONDS);
+        while(!condition.getAsBoolean()){
+            if(System.nanoTime() > deadline) return false;
+            Thread.sleep(INTERVAL);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package com.googol.backend.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Url id table test.
+ */
+public class UrlIdTableTest {
+
+    /**
+     * Test that the ids are assigned in order, that a url keeps its id as the table grows, and that both the ids and
+     * the numbering survive reopening the table.
+     */
+    @Test
+    public void testIdsAreStableAndSurviveRestarts() throws IOException {
+        File directory = Files.createTempDirectory("gateway").toFile();
+        directory.deleteOnExit();
+        File file = new File(directory, "url_ids.table");
+        file.deleteOnExit();
+
+        try(UrlIdTable table = new UrlIdTable(file, 16)){
+            for(int i = 1; i <= 1000; i++) assertEquals((long) i, table.getOrAssign("https://example.com/" + i)); // resized several times
+            assertEquals(7L, table.getOrAssign("https://example.com/7"));
+            assertEquals(1000L, table.size());
+        }
+
+        try(UrlIdTable table = new UrlIdTable(file, 16)){
+            assertEquals(1000L, table.getLastId());
+            for(int i = 1; i <= 1000; i++) assertEquals((long) i, table.getOrAssign("https://example.com/" + i));
+            assertEquals(1001L, table.getOrAssign("https://example.com/new"));
+        }
+        assertFalse(new File(directory, "url_ids.table.tmp").exists());
+    }
+}
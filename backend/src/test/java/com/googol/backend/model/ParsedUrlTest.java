@@ -0,0 +1,48 @@
+package com.googol.backend.model;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * The type Parsed url test.
+ */
+public class ParsedUrlTest {
+
+    /**
+     * Test that father urls are only counted once, also after the set grows.
+     */
+    @Test
+    public void testAddFatherUrlIgnoresDuplicates(){
+        ParsedUrl parsedUrl = new ParsedUrl("https://example.com", 1L, null, null, null);
+        for(int round = 0; round < 2; round++){
+            for(long id = 0; id < 1000; id++){
+                parsedUrl.addFatherUrl(id * 7);
+            }
+        }
+
+        assertEquals(1000, parsedUrl.getFatherUrlsCount());
+        ArrayList<Long> fatherUrls = parsedUrl.getFatherUrls();
+        assertEquals(1000, fatherUrls.size());
+        assertEquals(1000, new HashSet<>(fatherUrls).size());
+        assertTrue(fatherUrls.contains(0L) && fatherUrls.contains(999L * 7));
+    }
+
+
+    /**
+     * Test the primitive set contains and negative values.
+     */
+    @Test
+    public void testLongOpenHashSet(){
+        LongOpenHashSet set = new LongOpenHashSet();
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertFalse(set.contains(-1));
+        assertThrows(IllegalArgumentException.class, () -> set.add(-1));
+        assertEquals(1, set.size());
+    }
+}
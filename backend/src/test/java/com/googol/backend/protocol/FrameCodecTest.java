@@ -0,0 +1,217 @@
+package com.googol.backend.protocol;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The type Frame codec test.
+ */
+public class FrameCodecTest {
+
+    private ArrayList<Frame> encodeAndDecode(Frame frame) throws IOException {
+        ArrayList<Frame> decodedFrames = new ArrayList<>();
+        new FrameCodec().encode(frame, (data, length) -> decodedFrames.add(FrameCodec.decode(Arrays.copyOf(data, length), length)));
+        return decodedFrames;
+    }
+
+
+    /**
+     * Test page frame round trip, including delimiter characters and non ascii text.
+     */
+    @Test
+    public void testPageRoundTrip() throws IOException {
+        String[] terms = {"hello", "wo|rld", "coração", "😀"};
+        ArrayList<Frame> frames = encodeAndDecode(Frame.page("https://example.com/a|b", "Ti|tle", "Descrição", terms));
+
+        assertEquals(1, frames.size());
+        Frame frame = frames.get(0);
+        assertEquals(Frame.PAGE, frame.type);
+        assertTrue(frame.isLastPart);
+        assertEquals("https://example.com/a|b", frame.url);
+        assertEquals("Ti|tle", frame.title);
+        assertEquals("Descrição", frame.description);
+        assertArrayEquals(terms, Arrays.copyOf(frame.entries, frame.entriesNum));
+    }
+
+
+    /**
+     * Test that the positions of the page terms survive the round trip, and that frames without them decode with null.
+     */
+    @Test
+    public void testPagePositionsRoundTrip() throws IOException {
+        String[] terms = {"hello", "world"};
+        int[][] positions = {{0, 2, 300}, {1}};
+        ArrayList<Frame> frames = encodeAndDecode(Frame.page("https://example.com", "Title", "Description", terms, positions));
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(positions[0], frames.get(0).positions[0]);
+        assertArrayEquals(positions[1], frames.get(0).positions[1]);
+
+        frames = encodeAndDecode(Frame.page("https://example.com", "Title", "Description", terms));
+        assertNull(frames.get(0).positions);
+    }
+
+
+    /**
+     * Test that the term frequencies, the document length and the text survive the round trip.
+     */
+    @Test
+    public void testPageFrequenciesRoundTrip() throws IOException {
+        String[] terms = {"hello", "world"};
+        int[] frequencies = {3, 1};
+        Frame page = Frame.page("https://example.com", "Title", "Description", terms, frequencies, null, 4);
+        page.text = "Hello, hello world hello!";
+        ArrayList<Frame> frames = encodeAndDecode(page);
+
+        assertEquals(1, frames.size());
+        assertEquals("Hello, hello world hello!", frames.get(0).text);
+        assertArrayEquals(frequencies, frames.get(0).frequencies);
+        assertEquals(4, frames.get(0).documentLength);
+        assertNull(frames.get(0).positions);
+    }
+
+
+    /**
+     * Test father urls frame round trip.
+     */
+    @Test
+    public void testFatherUrlsRoundTrip() throws IOException {
+        String[] childUrls = {"https://example.com/1", "https://example.com/2"};
+        ArrayList<Frame> frames = encodeAndDecode(Frame.fatherUrls("https://example.com", childUrls));
+
+        assertEquals(1, frames.size());
+        assertEquals(Frame.FATHER_URLS, frames.get(0).type);
+        assertNull(frames.get(0).title);
+        assertArrayEquals(childUrls, Arrays.copyOf(frames.get(0).entries, frames.get(0).entriesNum));
+    }
+
+
+    /**
+     * Test that a document larger than a datagram is split into parts, with the title only on the first one.
+     */
+    @Test
+    public void testLargePageIsSplitIntoParts() throws IOException {
+        String[] terms = new String[30000];
+        for(int i = 0; i < terms.length; i++) terms[i] = "term" + i;
+
+        Frame page = Frame.page("https://example.com", "title", "description", terms);
+        page.crawlVersion = 1700000000000L;
+        ArrayList<Frame> frames = encodeAndDecode(page);
+
+        assertTrue(frames.size() > 1);
+        int termIndex = 0;
+        for(int i = 0; i < frames.size(); i++){
+            Frame frame = frames.get(i);
+            assertEquals(i, frame.partIndex);
+            assertEquals(i == frames.size() - 1, frame.isLastPart);
+            assertEquals(i == 0 ? "title" : null, frame.title);
+            assertEquals(1700000000000L, frame.crawlVersion);
+            for(int j = 0; j < frame.entriesNum; j++){
+                assertEquals(terms[termIndex++], frame.entries[j]);
+            }
+        }
+        assertEquals(terms.length, termIndex);
+    }
+
+
+    /**
+     * Test that a long title is truncated without splitting a surrogate pair, and that an entry too large for any
+     * datagram is skipped and counted.
+     */
+    @Test
+    public void testOversizedValuesAreTruncatedOrSkipped() throws IOException {
+        String title = "a" + "😀".repeat(5000);
+        String[] terms = {"hello", "x".repeat(FrameCodec.MAX_PACKET_SIZE), "world"};
+        ArrayList<Frame> frames = new ArrayList<>();
+        int skippedEntries = new FrameCodec().encode(Frame.page("https://example.com", title, "description", terms),
+                (data, length) -> frames.add(FrameCodec.decode(Arrays.copyOf(data, length), length)));
+
+        assertEquals(1, skippedEntries);
+        String decodedTitle = frames.get(0).title;
+        assertTrue(title.startsWith(decodedTitle));
+        assertFalse(Character.isHighSurrogate(decodedTitle.charAt(decodedTitle.length() - 1)));
+        assertFalse(decodedTitle.contains("?"));
+        ArrayList<String> decodedTerms = new ArrayList<>();
+        for(Frame frame : frames) decodedTerms.addAll(Arrays.asList(frame.entries).subList(0, frame.entriesNum));
+        assertEquals(Arrays.asList("hello", "world"), decodedTerms);
+    }
+
+
+    /**
+     * Test that large fields share the header budget, truncating the text first, and that an entry that doesn't fit
+     * next to them goes to a continuation part instead of being skipped.
+     */
+    @Test
+    public void testLargeFieldsContinueInNextPart() throws IOException {
+        String title = "t".repeat(16000);
+        String description = "d".repeat(16000);
+        String url = "https://example.com/" + "u".repeat(16000);
+        String entry = "e".repeat(40000);
+        Frame page = Frame.page(url, title, description, new String[]{"hello", entry, "world"});
+        page.text = "x".repeat(16000);
+        ArrayList<Integer> lengths = new ArrayList<>();
+        ArrayList<Frame> frames = new ArrayList<>();
+        int skippedEntries = new FrameCodec().encode(page, (data, length) -> {
+            lengths.add(length);
+            frames.add(FrameCodec.decode(Arrays.copyOf(data, length), length));
+        });
+
+        assertEquals(0, skippedEntries);
+        for(int length : lengths) assertTrue(length <= FrameCodec.MAX_PACKET_SIZE);
+        Frame first = frames.get(0);
+        assertEquals(url, first.url);
+        assertTrue(title.startsWith(first.title));
+        assertTrue(description.startsWith(first.description));
+        assertTrue(first.text.length() < page.text.length(), "The text must be truncated first");
+        ArrayList<String> decodedTerms = new ArrayList<>();
+        for(Frame frame : frames) decodedTerms.addAll(Arrays.asList(frame.entries).subList(0, frame.entriesNum));
+        assertEquals(Arrays.asList("hello", entry, "world"), decodedTerms);
+    }
+
+
+    /**
+     * Test that every datagram gets the sender id and the next sequence number.
+     */
+    @Test
+    public void testSequenceNumbersAreStamped() throws IOException {
+        FrameCodec codec = new FrameCodec(42L, 5000);
+        ArrayList<byte[]> datagrams = new ArrayList<>();
+        FrameCodec.PacketSink sink = (data, length) -> datagrams.add(Arrays.copyOf(data, length));
+        codec.encode(Frame.fatherUrls("https://example.com", new String[]{"https://example.com/1"}), sink);
+        codec.encode(Frame.page("https://example.com", "title", "description", new String[]{"word"}), sink);
+
+        assertEquals(2, datagrams.size());
+        for(int i = 0; i < datagrams.size(); i++){
+            byte[] datagram = datagrams.get(i);
+            assertEquals(42L, FrameCodec.peekSenderId(datagram));
+            assertEquals(i, FrameCodec.peekSequence(datagram));
+            assertEquals(5000, FrameCodec.peekNackPort(datagram));
+            assertEquals(i, FrameCodec.decode(datagram, datagram.length).sequence);
+        }
+    }
+
+
+    /**
+     * Test NACK round trip, and that NACKs are not mistaken for frames.
+     */
+    @Test
+    public void testNackRoundTrip(){
+        byte[] nack = FrameCodec.encodeNack(42L, 10, 20);
+        assertFalse(FrameCodec.isFrame(nack, nack.length));
+        assertArrayEquals(new long[]{42L, 10, 20}, FrameCodec.decodeNack(nack, nack.length));
+    }
+
+
+    /**
+     * Test that invalid datagrams are rejected.
+     */
+    @Test
+    public void testInvalidFrame(){
+        byte[] data = "https://example.com|title|description|word".getBytes();
+        assertThrows(FrameCodec.FrameFormatException.class, () -> FrameCodec.decode(data, data.length));
+    }
+}
@@ -0,0 +1,25 @@
+package com.googol.backend.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Hashing test.
+ */
+public class HashingTest {
+
+    /**
+     * Test that the hashes don't change, as the url id tables and the replicas comparison depend on them, and that a
+     * string is hashed as its UTF-8 bytes.
+     */
+    @Test
+    public void testHashIsStable(){
+        assertEquals(0x8f5f009dc2b94c1cL, Hashing.hash("https://example.com"));
+        assertEquals(Hashing.hash("coração".getBytes(StandardCharsets.UTF_8)), Hashing.hash("coração"));
+        assertNotEquals(Hashing.hash("https://example.com/a"), Hashing.hash("https://example.com/b"));
+        assertEquals(0, Hashing.hash((String) null));
+    }
+}
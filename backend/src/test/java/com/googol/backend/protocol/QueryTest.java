@@ -0,0 +1,89 @@
+package com.googol.backend.protocol;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+/**
+ * The type Query test.
+ */
+public class QueryTest {
+
+    /**
+     * Test that OR binds tighter than the implicit AND, and that groups, phrases and exclusions are kept.
+     */
+    @Test
+    public void testParse() {
+        assertEquals("a (b OR c)", Query.parse("a b OR c").toString());
+        assertEquals("((a b) OR c) -d", Query.parse("(a b) OR c -d").toString());
+        assertEquals("a -\"b c\"", Query.parse("a -\"b c\"").toString());
+        assertEquals("\"hello world\" -(x OR y)", Query.parse("\"Hello, World\" -(x OR y)").toString());
+        assertEquals("\"e mail\"", Query.parse("E-mail").toString());
+        assertEquals("\"new york\"~3 museum", Query.parse("\"New York\"~3 museum").toString());
+        assertEquals("york", Query.parse("\"York\"~3").toString()); // a single word has no window
+        assertEquals(Query.NEAR, Query.parse("\"new york\"~3").getOperator(2));
+        assertEquals(3, Query.parse("\"new york\"~3").getDistance(2));
+
+        Query query = Query.parse("a (b OR c) -b");
+        assertEquals(List.of("a", "b", "c", "b"), query.getTerms());
+        assertEquals(List.of("a", "b", "c"), query.getMatchedTerms());
+        assertEquals(List.of("a", "c"), Query.parse("a -b c").getMatchedTerms());
+    }
+
+
+    /**
+     * Test that only the queries made of words are recognized as plain searches.
+     */
+    @Test
+    public void testConjunctiveTerms() {
+        assertEquals(List.of("googol"), Query.parse("googol").getConjunctiveTerms());
+        assertEquals(List.of("search", "engine"), Query.parse("Search  engine").getConjunctiveTerms());
+        assertNull(Query.parse("search -engine").getConjunctiveTerms());
+        assertNull(Query.parse("\"search engine\"").getConjunctiveTerms());
+    }
+
+
+    /**
+     * Test that only the queries that are an OR of words are disjunctive.
+     */
+    @Test
+    public void testDisjunctiveTerms() {
+        assertEquals(List.of("lisbon", "porto", "faro"), Query.parse("lisbon OR porto OR faro").getDisjunctiveTerms());
+        assertNull(Query.parse("googol").getDisjunctiveTerms());
+        assertNull(Query.parse("lisbon OR porto museum").getDisjunctiveTerms());
+        assertNull(Query.parse("lisbon OR \"porto wine\"").getDisjunctiveTerms());
+    }
+
+
+    /**
+     * Test that queries without words to match are rejected.
+     */
+    @Test
+    public void testInvalidQueries() {
+        assertThrows(IllegalArgumentException.class, () -> Query.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("\"new york\"~0"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("\"new york\"~"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("-a -b"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("a OR -b"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("(a b"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("a) b"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("OR a"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("site:example.com"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("a -site:example.com"));
+    }
+
+
+    /**
+     * Test that the sites restrict the whole query, without adding words to it.
+     */
+    @Test
+    public void testSites() {
+        Query query = Query.parse("Lisbon site:Example.com (museum OR site:visit.pt park)");
+
+        assertArrayEquals(new String[]{"example.com", "visit.pt"}, query.getSites());
+        assertEquals(List.of("lisbon", "museum", "park"), query.getTerms());
+        assertEquals("lisbon (museum park) site:example.com site:visit.pt", query.toString());
+        assertEquals(List.of("lisbon"), Query.parse("lisbon site:a.com").getConjunctiveTerms());
+    }
+}
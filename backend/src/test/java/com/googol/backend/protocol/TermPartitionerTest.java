@@ -0,0 +1,46 @@
+package com.googol.backend.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Term partitioner test.
+ */
+public class TermPartitionerTest {
+
+    /**
+     * Test that a term always falls in the same partition, within the range, and that an unsharded index has a
+     * single partition.
+     */
+    @Test
+    public void testPartitionIsStableAndInRange(){
+        String[] terms = {"lisbon", "porto", "coimbra", "coração", "", "😀", "Aa", "BB"}; // "Aa" and "BB" share a hash code
+        for(int partitionsNum = 2; partitionsNum <= 7; partitionsNum++){
+            for(String term : terms){
+                int partition = TermPartitioner.partitionOf(term, partitionsNum);
+                assertTrue(partition >= 0 && partition < partitionsNum, term + " -> " + partition);
+                assertEquals(partition, TermPartitioner.partitionOf(new String(term), partitionsNum));
+            }
+        }
+        assertEquals(Math.floorMod("lisbon".hashCode(), 4), TermPartitioner.partitionOf("lisbon", 4)); // same in every JVM
+        assertEquals(TermPartitioner.partitionOf("Aa", 5), TermPartitioner.partitionOf("BB", 5));
+
+        for(String term : terms){
+            assertEquals(0, TermPartitioner.partitionOf(term, 1));
+            assertEquals(0, TermPartitioner.partitionOf(term, 0));
+        }
+        assertThrows(NullPointerException.class, () -> TermPartitioner.partitionOf(null, 4));
+    }
+
+
+    /**
+     * Test that the terms are spread over all the partitions.
+     */
+    @Test
+    public void testTermsAreSpread(){
+        int[] counts = new int[4];
+        for(int i = 0; i < 4000; i++) counts[TermPartitioner.partitionOf("term" + i, 4)]++;
+        for(int count : counts) assertTrue(count > 500, "Partition with " + count + " of 4000 terms");
+    }
+}
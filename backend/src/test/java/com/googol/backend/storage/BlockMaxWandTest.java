@@ -0,0 +1,117 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.Postings;
+import com.googol.backend.tree.TermBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Block max wand test.
+ */
+public class BlockMaxWandTest {
+
+    /**
+     * Test that the ranked OR returns the same pages as scoring the whole union, while scoring fewer pages, with
+     * the postings split between a segment and the write buffer and a recrawled page.
+     */
+    @Test
+    public void testTopKMatchesFullUnion() throws IOException {
+        File directory = Files.createTempDirectory("index").toFile();
+        directory.deleteOnExit();
+        SegmentedIndex index = new SegmentedIndex(directory, 100000, 10, 1, null);
+        DocumentStats documentStats = new DocumentStats();
+        String[] words = {"lisbon", "porto", "museum"};
+        int documentsNum = 4000;
+        TermBatch batch = new TermBatch(documentsNum);
+        for(long id = 0; id < documentsNum; id++){
+            if(id == 3000){ // the next ones stay in the write buffer
+                index.insertBatch(batch);
+                index.flush();
+                batch.clear();
+            }
+            if(id % 2 == 0) batch.add("lisbon", id, (int) (id % 4) + 1, null);
+            if(id % 3 == 0) batch.add("porto", id, (int) (id % 5) + 1, null);
+            if(id % 50 == 0) batch.add("museum", id, 2, null);
+            documentStats.setLength(id, (int) (id * 13 % 400) + 50);
+            documentStats.setInlinks(id, id % 997 == 0 ? 500 : (int) (id % 3));
+        }
+        index.insertBatch(batch);
+        documentStats.setVersion(0, 1); // recrawled without the words
+
+        Bm25Scorer scorer = new Bm25Scorer(1.2, 0.75, 1.0);
+        double averageLength = documentStats.getAverageLength();
+        HashMap<Long, Double> union = new HashMap<>();
+        PostingBlocks[] blocks = new PostingBlocks[words.length];
+        PostingBlocks.Cursor[] cursors = new PostingBlocks.Cursor[words.length];
+        for(int w = 0; w < words.length; w++){
+            Postings postings = index.getPostings(words[w]);
+            double idf = scorer.idf(postings.size, documentsNum);
+            for(int i = 0; i < postings.size; i++){
+                long id = postings.linkIndices[i];
+                if(id == 0) continue;
+                union.merge(id, scorer.termScore(postings.frequencies[i], documentStats.getLength(id), averageLength, idf), Double::sum);
+            }
+            blocks[w] = index.getPostingBlocks(words[w]);
+            cursors[w] = blocks[w].cursor(null, idf, scorer, documentStats);
+        }
+        TopKCollector expected = new TopKCollector(10);
+        union.forEach((id, score) -> expected.offer(id, score + scorer.inlinkScore(documentStats.getInlinks(id))));
+
+        TopKCollector actual = new TopKCollector(10);
+        int scored = BlockMaxWand.collectTopK(cursors, actual, scorer, documentStats);
+        for(PostingBlocks wordBlocks : blocks) wordBlocks.close();
+
+        assertArrayEquals(expected.drainDescending(), actual.drainDescending());
+        assertTrue(scored < union.size() / 2, "Most of the union must be skipped, scored " + scored + " of " + union.size());
+        index.close();
+    }
+
+
+    /**
+     * Test that a cursor walks the live pages of every part of the index in order, adding the field boosts and
+     * bounding the blocks ahead of it.
+     */
+    @Test
+    public void testCursorMergesParts() throws IOException {
+        File directory = Files.createTempDirectory("index").toFile();
+        directory.deleteOnExit();
+        SegmentedIndex index = new SegmentedIndex(directory, 100000, 10, 1, null);
+        DocumentStats documentStats = new DocumentStats();
+        TermBatch batch = new TermBatch(4);
+        batch.add("googol", 2, 1, null);
+        batch.add("googol", 4, 5, null);
+        batch.add("googol", 6, 1, null);
+        index.insertBatch(batch);
+        index.flush();
+        batch.clear();
+        batch.add("googol", 3, 2, null);
+        batch.add("googol", 6, 7, null, 1); // recrawled
+        index.insertBatch(batch);
+        documentStats.setVersion(6, 1);
+
+        Bm25Scorer scorer = new Bm25Scorer(1.2, 0.75, 1.0);
+        Postings fieldBoosts = new Postings(new long[]{3, 9}, new int[]{3, 3});
+        try(PostingBlocks blocks = index.getPostingBlocks("googol")){
+            PostingBlocks.Cursor cursor = blocks.cursor(fieldBoosts, 1.0, scorer, documentStats);
+            assertEquals(scorer.maxTermScore(7 + 3, 1.0), cursor.maxScore());
+            assertEquals(scorer.maxTermScore(7 + 3, 1.0), cursor.shallowAdvance(4)); // both parts have a block over 4
+            assertEquals(6, cursor.getShallowEnd());
+            assertEquals(scorer.maxTermScore(3, 1.0), cursor.shallowAdvance(7)); // only the fields can have it
+
+            long[] expectedIds = {2, 3, 4, 6, 9};
+            int[] expectedFrequencies = {1, 5, 5, 7, 3};
+            for(int i = 0; i < expectedIds.length; i++){
+                assertEquals(expectedIds[i], cursor.nextDoc());
+                assertEquals(scorer.termScore(expectedFrequencies[i], 0, 0, 1.0), cursor.score());
+            }
+            assertEquals(PostingIterator.NO_MORE_DOCS, cursor.nextDoc());
+        }
+        index.close();
+    }
+}
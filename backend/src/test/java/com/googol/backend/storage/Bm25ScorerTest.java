@@ -0,0 +1,24 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Bm25 scorer test.
+ */
+public class Bm25ScorerTest {
+
+    /**
+     * Test that BM25 ranks higher the documents with more occurrences of a term and shorter documents.
+     */
+    @Test
+    public void testBm25Ordering(){
+        Bm25Scorer scorer = new Bm25Scorer(1.2, 0.75, 1.0);
+        double idf = scorer.idf(10, 1000);
+        assertTrue(idf > scorer.idf(500, 1000), "Rare terms must weigh more.");
+        assertTrue(scorer.termScore(5, 100, 100, idf) > scorer.termScore(1, 100, 100, idf));
+        assertTrue(scorer.termScore(2, 50, 100, idf) > scorer.termScore(2, 400, 100, idf));
+        assertTrue(scorer.idf(10, 0) > 0, "Idf must stay positive without document lengths.");
+        assertEquals(0.0, scorer.inlinkScore(0));
+    }
+}
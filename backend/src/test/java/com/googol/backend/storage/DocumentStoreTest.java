@@ -0,0 +1,70 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The type Document store test.
+ */
+public class DocumentStoreTest {
+
+    private File createTempFile() throws IOException {
+        File file = File.createTempFile("documents", ".dat");
+        file.deleteOnExit();
+        return file;
+    }
+
+
+    /**
+     * Test that documents are read back from the pending block, from written blocks and after reopening the store.
+     */
+    @Test
+    public void testPutGetAndReopen() throws IOException {
+        File file = createTempFile();
+        DocumentStore store = new DocumentStore(file.getPath(), 64, 2);
+        for(int id = 0; id < 20; id++) store.put(id, "document " + id + " coração");
+        store.put(3, "recrawled document");
+
+        assertTrue(store.getBlocksNum() > 2, "Small blocks must have been written.");
+        assertEquals("document 0 coração", store.get(0));
+        assertEquals("recrawled document", store.get(3));
+        assertEquals("document 19 coração", store.get(19));
+        assertNull(store.get(20));
+        store.close();
+
+        DocumentStore reopenedStore = new DocumentStore(file.getPath(), 64, 2);
+        assertEquals("document 7 coração", reopenedStore.get(7));
+        assertEquals("recrawled document", reopenedStore.get(3));
+        reopenedStore.close();
+    }
+
+
+    /**
+     * Test that a partially written block at the end of the file is discarded when the store is opened.
+     */
+    @Test
+    public void testTruncatedTailIsDiscarded() throws IOException {
+        File file = createTempFile();
+        DocumentStore store = new DocumentStore(file.getPath(), 1024, 2);
+        store.put(1, "first block");
+        store.flush();
+        store.put(2, "second block");
+        store.close();
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+            raf.setLength(raf.length() - 3);
+        }
+
+        DocumentStore reopenedStore = new DocumentStore(file.getPath(), 1024, 2);
+        assertEquals(1, reopenedStore.getBlocksNum());
+        assertEquals("first block", reopenedStore.get(1));
+        assertNull(reopenedStore.get(2));
+        reopenedStore.put(2, "rewritten");
+        assertEquals("rewritten", reopenedStore.get(2));
+        reopenedStore.close();
+    }
+}
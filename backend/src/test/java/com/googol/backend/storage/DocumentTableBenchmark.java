@@ -0,0 +1,148 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.model.ParsedUrl;
+import com.googol.backend.model.ParsedUrlIdPair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the document table with the Java serialization of the three document maps (the .ser files of the barrel),
+ * writing and loading the same documents with both.
+ * <p>
+ * The cold times are the first run in a fresh JVM (interpreted code, empty class caches), the warm times are the
+ * median of the runs after the warm up. Both formats read files that were just written, so they come from the page
+ * cache. Not a test, run with {@code gradle documentTableBenchmark -PbenchmarkArgs="documents threads"}.
+ */
+public class DocumentTableBenchmark {
+    private static final int WARM_UP_RUNS = 5;
+    private static final int MEASURED_RUNS = 7;
+
+    private static ConcurrentHashMap<ParsedUrlIdPair, ParsedUrl> parsedUrlsMap;
+    private static ConcurrentHashMap<String, ParsedUrlIdPair> urlToUrlKeyPairMap;
+    private static ConcurrentHashMap<Long, ParsedUrlIdPair> idToUrlKeyPairMap;
+
+
+    public static void main(String[] args) throws Exception {
+        int documentsNum = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        buildDocuments(documentsNum);
+
+        File directory = Files.createTempDirectory("documentTableBenchmark").toFile();
+        File tableFile = new File(directory, "documentTable.bin");
+        File[] serFiles = {new File(directory, "parsedUrlsMap.ser"), new File(directory, "urlToUrlKeyPairMap.ser"), new File(directory, "idToUrlKeyPairMap.ser")};
+        try{
+            System.out.println(documentsNum + " documents, " + threads + " decoding threads");
+            long[] serTimes = new long[4];
+            long[] tableTimes = new long[4];
+            serTimes[0] = time(() -> writeSer(serFiles));
+            tableTimes[0] = time(() -> DocumentTable.write(tableFile, parsedUrlsMap.values()));
+            serTimes[1] = time(() -> readSer(serFiles));
+            tableTimes[1] = time(() -> readTable(tableFile, threads));
+
+            serTimes[2] = median(() -> writeSer(serFiles));
+            tableTimes[2] = median(() -> DocumentTable.write(tableFile, parsedUrlsMap.values()));
+            serTimes[3] = median(() -> readSer(serFiles));
+            tableTimes[3] = median(() -> readTable(tableFile, threads));
+
+            long serSize = serFiles[0].length() + serFiles[1].length() + serFiles[2].length();
+            System.out.printf("%-16s %12s %12s %12s %12s %12s%n", "", "size (KB)", "write cold", "load cold", "write warm", "load warm");
+            System.out.printf("%-16s %12d %10dms %10dms %10dms %10dms%n", ".ser maps", serSize / 1024, serTimes[0], serTimes[1], serTimes[2], serTimes[3]);
+            System.out.printf("%-16s %12d %10dms %10dms %10dms %10dms%n", "document table", tableFile.length() / 1024, tableTimes[0], tableTimes[1], tableTimes[2], tableTimes[3]);
+        } finally {
+            for(File file : serFiles) file.delete();
+            tableFile.delete();
+            directory.delete();
+        }
+    }
+
+
+    /**
+     * Build documents similar to the crawled ones: urls sharing their hosts, titles, descriptions and a few father urls.
+     */
+    private static void buildDocuments(int documentsNum){
+        parsedUrlsMap = new ConcurrentHashMap<>();
+        urlToUrlKeyPairMap = new ConcurrentHashMap<>();
+        idToUrlKeyPairMap = new ConcurrentHashMap<>();
+        for(long id = 0; id < documentsNum; id++){
+            String url = "https://www.site" + (id % 500) + ".com/articles/" + id + "/page-about-something";
+            ParsedUrl parsedUrl = new ParsedUrl(url, id, "Title of the article number " + id, "A description of the article number " + id + " with a few more words", null);
+            parsedUrl.documentLength = (int) (id % 2000);
+            parsedUrl.crawlVersion = 1700000000000L + id;
+            for(int i = 1; i <= id % 8; i++) parsedUrl.addFatherUrl((id * 31 + i * 7919) % documentsNum);
+            ParsedUrlIdPair pair = new ParsedUrlIdPair(url, id);
+            parsedUrlsMap.put(pair, parsedUrl);
+            urlToUrlKeyPairMap.put(url, pair);
+            idToUrlKeyPairMap.put(id, pair);
+        }
+    }
+
+
+    private static void writeSer(File[] files) throws IOException {
+        Object[] maps = {parsedUrlsMap, urlToUrlKeyPairMap, idToUrlKeyPairMap};
+        for(int i = 0; i < files.length; i++){
+            try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(files[i])))){
+                out.writeObject(maps[i]);
+            }
+        }
+    }
+
+
+    private static void readSer(File[] files) throws IOException, ClassNotFoundException {
+        for(File file : files){
+            try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))){
+                if(in.readObject() == null) throw new IOException("Empty map");
+            }
+        }
+    }
+
+
+    /**
+     * Load the table and rebuild the three maps, like the barrel does.
+     */
+    private static void readTable(File file, int threads) throws IOException {
+        try(DocumentTable.Reader reader = new DocumentTable.Reader(file)){
+            int capacity = (int) (reader.getDocumentsNum() * 4 / 3 + 16);
+            ConcurrentHashMap<ParsedUrlIdPair, ParsedUrl> parsedUrls = new ConcurrentHashMap<>(capacity);
+            ConcurrentHashMap<String, ParsedUrlIdPair> urlToPair = new ConcurrentHashMap<>(capacity);
+            ConcurrentHashMap<Long, ParsedUrlIdPair> idToPair = new ConcurrentHashMap<>(capacity);
+            reader.forEach(threads, parsedUrl -> {
+                ParsedUrlIdPair pair = new ParsedUrlIdPair(parsedUrl.url, parsedUrl.id);
+                parsedUrls.put(pair, parsedUrl);
+                urlToPair.put(parsedUrl.url, pair);
+                idToPair.put(parsedUrl.id, pair);
+            });
+            if(parsedUrls.size() != parsedUrlsMap.size()) throw new IOException("Missing documents");
+        }
+    }
+
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+
+    private static long time(Run run) throws Exception {
+        long start = System.nanoTime();
+        run.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+
+    private static long median(Run run) throws Exception {
+        for(int i = 0; i < WARM_UP_RUNS; i++) run.run();
+        long[] times = new long[MEASURED_RUNS];
+        for(int i = 0; i < MEASURED_RUNS; i++) times[i] = time(run);
+        Arrays.sort(times);
+        return times[MEASURED_RUNS / 2];
+    }
+}
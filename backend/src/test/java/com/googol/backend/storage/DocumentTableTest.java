@@ -0,0 +1,80 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.model.ParsedUrl;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The type Document table test.
+ */
+public class DocumentTableTest {
+
+    private File createTempFile() throws IOException {
+        File file = File.createTempFile("documentTable", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+
+    /**
+     * Test that every field of the documents survives the round trip, with the chunks decoded in parallel.
+     */
+    @Test
+    public void testWriteAndReadInParallel() throws IOException {
+        ArrayList<ParsedUrl> documents = new ArrayList<>();
+        int documentsNum = DocumentTable.CHUNK_DOCUMENTS * 2 + 10; // three chunks
+        for(long id = 0; id < documentsNum; id++){
+            ParsedUrl document = new ParsedUrl("https://example.com/" + id, id, id % 2 == 0 ? "Título " + id : null, "description", null);
+            document.documentLength = (int) id;
+            document.crawlVersion = 1700000000000L + id;
+            document.version = (int) (id % 3);
+            document.addFatherUrl(id + 5);
+            document.addFatherUrl(id / 2);
+            documents.add(document);
+        }
+        File file = createTempFile();
+        assertEquals(documentsNum, DocumentTable.write(file, documents));
+
+        ConcurrentHashMap<Long, ParsedUrl> readDocuments = new ConcurrentHashMap<>();
+        try(DocumentTable.Reader reader = new DocumentTable.Reader(file)){
+            assertEquals(documentsNum, reader.getDocumentsNum());
+            reader.forEach(4, document -> readDocuments.put(document.id, document));
+        }
+        assertEquals(documentsNum, readDocuments.size());
+
+        ParsedUrl document = readDocuments.get(4100L);
+        assertEquals("https://example.com/4100", document.url);
+        assertEquals("Título 4100", document.title);
+        assertEquals("description", document.description);
+        assertNull(document.text);
+        assertEquals(4100, document.documentLength);
+        assertEquals(1700000004100L, document.crawlVersion);
+        assertEquals(2, document.version);
+        assertEquals(List.of(2050L, 4105L), document.getFatherUrls().stream().sorted().toList());
+        assertEquals(2, document.getFatherUrlsCount());
+        assertNull(readDocuments.get(4101L).title);
+    }
+
+
+    /**
+     * Test that a truncated table is rejected instead of loading part of the documents.
+     */
+    @Test
+    public void testTruncatedTable() throws IOException {
+        ArrayList<ParsedUrl> documents = new ArrayList<>();
+        for(long id = 0; id < 100; id++) documents.add(new ParsedUrl("https://example.com/" + id, id, "title", "description", null));
+        File file = createTempFile();
+        DocumentTable.write(file, documents);
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")){
+            randomAccessFile.setLength(randomAccessFile.length() - 3);
+        }
+        assertThrows(IOException.class, () -> new DocumentTable.Reader(file));
+    }
+}
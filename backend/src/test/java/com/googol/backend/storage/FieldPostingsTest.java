@@ -0,0 +1,61 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.Postings;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Field postings test.
+ */
+public class FieldPostingsTest {
+
+    /**
+     * Test that the fields are merged by page, adding their boosts to the body frequency and keeping the body positions.
+     */
+    @Test
+    public void testBoostMergesFields(){
+        byte[] positions1 = {1};
+        byte[] positions5 = {5};
+        Postings body = new Postings(new long[]{1, 5}, new int[]{2, 4}, new byte[][]{positions1, positions5});
+        Postings title = new Postings(new long[]{3, 5}, new int[]{1, 1});
+        Postings description = new Postings(new long[]{1, 3, 9}, new int[]{1, 1, 1});
+
+        Postings merged = FieldPostings.boost(body, title, 3, description, 1);
+
+        assertArrayEquals(new long[]{1, 3, 5, 9}, merged.linkIndices);
+        assertArrayEquals(new int[]{3, 4, 7, 1}, merged.frequencies);
+        assertSame(positions1, merged.positions[0]);
+        assertNull(merged.positions[1]); // only in the title and description, no positions
+        assertSame(positions5, merged.positions[2]);
+    }
+
+
+    /**
+     * Test that a word without field postings keeps its body postings, and a word only in the fields still matches.
+     */
+    @Test
+    public void testBoostWithMissingFields(){
+        Postings body = new Postings(new long[]{2}, new int[]{1});
+        assertSame(body, FieldPostings.boost(body, null, 3, null, 1));
+        assertNull(FieldPostings.boost(null, null, 3, null, 1));
+
+        Postings titleOnly = FieldPostings.boost(null, new Postings(new long[]{4}, new int[]{1}), 3, null, 1);
+        assertArrayEquals(new long[]{4}, titleOnly.linkIndices);
+        assertArrayEquals(new int[]{3}, titleOnly.frequencies);
+        assertNull(titleOnly.positions);
+    }
+
+
+    /**
+     * Test that the field words are normalized like the body words, without repetitions, and prefixed by their field.
+     */
+    @Test
+    public void testWordsAndTerms(){
+        assertArrayEquals(new String[]{"lisbon", "city", "of", "e", "mail"}, FieldPostings.words("Lisbon, city of Lisbon: e-mail"));
+        assertEquals(0, FieldPostings.words(null).length);
+        assertEquals(0, FieldPostings.words(" -- ").length);
+        assertNotEquals(FieldPostings.term(FieldPostings.TITLE, "lisbon"), FieldPostings.term(FieldPostings.DESCRIPTION, "lisbon"));
+        assertTrue(FieldPostings.term(FieldPostings.TITLE, "lisbon").endsWith("lisbon"));
+    }
+}
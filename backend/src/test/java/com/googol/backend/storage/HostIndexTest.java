@@ -0,0 +1,47 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Host index test.
+ */
+public class HostIndexTest {
+
+    /**
+     * Test that the documents of a site include the ones of its subdomains, sorted, and only them.
+     */
+    @Test
+    public void testSiteDocuments(){
+        HostIndex hostIndex = new HostIndex();
+        hostIndex.add(7, "https://www.example.com/a");
+        hostIndex.add(2, "https://example.com/b");
+        hostIndex.add(5, "https://blog.example.com:8080/c");
+        hostIndex.add(3, "https://notexample.com/d");
+        hostIndex.add(4, "https://other.org/e");
+
+        assertEquals(5, hostIndex.getHostsNum());
+        assertArrayEquals(new long[]{2, 5, 7}, hostIndex.getSiteDocuments(new String[]{"example.com"}));
+        assertArrayEquals(new long[]{3, 4}, hostIndex.getSiteDocuments(new String[]{"other.org", "notexample.com"}));
+        assertArrayEquals(new long[0], hostIndex.getSiteDocuments(new String[]{"missing.com"}));
+        assertNotEquals(hostIndex.getHost(2), hostIndex.getHost(7));
+        assertEquals(-1, hostIndex.getHost(100));
+        assertEquals("blog.example.com", HostIndex.hostOf("https://Blog.Example.com:8080/c"));
+    }
+
+
+    /**
+     * Test that the site filter accepts the documents of the sites, checked in ascending order.
+     */
+    @Test
+    public void testSiteFilter(){
+        HostIndex.SiteFilter filter = new HostIndex.SiteFilter(new long[]{2, 5, 7});
+
+        assertFalse(filter.accepts(1));
+        assertTrue(filter.accepts(2));
+        assertFalse(filter.accepts(4));
+        assertTrue(filter.accepts(7));
+        assertFalse(filter.accepts(9));
+    }
+}
@@ -0,0 +1,72 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+
+/**
+ * The type Ingest queue test.
+ */
+public class IngestQueueTest {
+
+    /**
+     * Test that messages are taken in order, also after the ring wraps around.
+     */
+    @Test
+    public void testFifoOrderAcrossWrapAround() throws InterruptedException {
+        IngestQueue queue = new IngestQueue(3, IngestQueue.OverflowPolicy.BLOCK);
+        for(int round = 0; round < 3; round++){
+            queue.put(new byte[]{1});
+            queue.put(new byte[]{2});
+            assertEquals(1, queue.take()[0]);
+            assertEquals(2, queue.take()[0]);
+        }
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getLagMillis());
+    }
+
+
+    /**
+     * Test that the drop policy discards new messages when full and counts them.
+     */
+    @Test
+    public void testDropPolicy() throws InterruptedException {
+        IngestQueue queue = new IngestQueue(2, IngestQueue.OverflowPolicy.DROP);
+        assertTrue(queue.put(new byte[]{1}));
+        assertTrue(queue.put(new byte[]{2}));
+        assertTrue(queue.isFull());
+        assertFalse(queue.put(new byte[]{3}));
+        assertEquals(1, queue.getDroppedMessages());
+
+        ArrayList<byte[]> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained, 10));
+        assertEquals(1, drained.get(0)[0]);
+        assertEquals(2, drained.get(1)[0]);
+    }
+
+
+    /**
+     * Test that the block policy waits for free space instead of dropping.
+     */
+    @Test
+    public void testBlockPolicy() throws InterruptedException {
+        IngestQueue queue = new IngestQueue(1, IngestQueue.OverflowPolicy.BLOCK);
+        queue.put(new byte[]{1});
+
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(new byte[]{2});
+            } catch (InterruptedException ignored) {}
+        });
+        producer.start();
+        Thread.sleep(50);
+        assertTrue(producer.isAlive(), "Producer should be waiting for free space.");
+
+        assertEquals(1, queue.take()[0]);
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(2, queue.take()[0]);
+        assertEquals(0, queue.getDroppedMessages());
+    }
+}
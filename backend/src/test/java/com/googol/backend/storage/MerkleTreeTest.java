@@ -0,0 +1,79 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Merkle tree test.
+ */
+public class MerkleTreeTest {
+
+    /**
+     * Test that two trees with the same entries, added in different orders, don't diverge.
+     */
+    @Test
+    public void testSameEntriesInAnyOrder(){
+        MerkleTree tree = new MerkleTree();
+        MerkleTree otherTree = new MerkleTree();
+        for(long key = 0; key < 10000; key++){
+            tree.add(key, key * 31);
+            otherTree.add(9999 - key, (9999 - key) * 31);
+        }
+        tree.seal();
+        otherTree.seal();
+
+        assertArrayEquals(new int[0], tree.findDivergentLeaves(otherTree::getHashes));
+        assertEquals(10000, tree.getEntriesNum());
+    }
+
+
+    /**
+     * Test that the comparison only descends into the nodes over the different entries, down to their leaves.
+     */
+    @Test
+    public void testFindsOnlyTheDivergentLeaves(){
+        MerkleTree tree = new MerkleTree();
+        MerkleTree otherTree = new MerkleTree();
+        for(long key = 0; key < 10000; key++){
+            tree.add(key, key);
+            if(key != 42) otherTree.add(key, key == 7 ? -7 : key); // 42 is missing and 7 differs
+        }
+        tree.seal();
+        otherTree.seal();
+
+        int[] requestedNodes = new int[MerkleTree.DEPTH + 1];
+        int[] leaves = tree.findDivergentLeaves((level, nodes) -> {
+            requestedNodes[level] += nodes.length;
+            return otherTree.getHashes(level, nodes);
+        });
+
+        int[] expected = {MerkleTree.leafOf(7), MerkleTree.leafOf(42)};
+        Arrays.sort(expected);
+        assertArrayEquals(expected, leaves);
+        for(int level = 1; level <= MerkleTree.DEPTH; level++){
+            assertTrue(requestedNodes[level] <= 2 * MerkleTree.FAN_OUT, "Only the children of the divergent nodes are requested");
+        }
+    }
+
+
+    /**
+     * Test that the children of the nodes are the next level nodes under them, and that the trees must be sealed
+     * before they're compared.
+     */
+    @Test
+    public void testChildrenAndSealing(){
+        int[] children = MerkleTree.children(new int[]{0, 2});
+        assertEquals(2 * MerkleTree.FAN_OUT, children.length);
+        assertEquals(0, children[0]);
+        assertEquals(2 * MerkleTree.FAN_OUT, children[MerkleTree.FAN_OUT]);
+
+        MerkleTree tree = new MerkleTree();
+        tree.add(1, 1);
+        assertThrows(IllegalStateException.class, () -> tree.getHashes(0, new int[]{0}));
+        tree.seal();
+        assertThrows(IllegalStateException.class, () -> tree.add(2, 2));
+    }
+}
@@ -0,0 +1,88 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.Postings;
+import com.googol.backend.tree.TermBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Posting blocks test.
+ */
+public class PostingBlocksTest {
+
+    /**
+     * Test that stopping at the blocks that can't beat the k-th document ranks the same documents as scoring all of
+     * them, with the postings split between a segment and the write buffer and some documents only in the title.
+     */
+    @Test
+    public void testTopKMatchesExhaustiveRanking() throws IOException {
+        File directory = Files.createTempDirectory("index").toFile();
+        directory.deleteOnExit();
+        SegmentedIndex index = new SegmentedIndex(directory, 100000, 10, 1, null);
+        DocumentStats documentStats = new DocumentStats();
+        int documentsNum = 3000;
+        TermBatch batch = new TermBatch(documentsNum);
+        for(long id = 0; id < documentsNum; id++){
+            if(id == 2000){ // the next ones stay in the write buffer
+                index.insertBatch(batch);
+                index.flush();
+                batch.clear();
+            }
+            batch.add("common", id, (int) (id * 7 % 5) + 1, null);
+            documentStats.setLength(id, (int) (id * 13 % 400) + 50);
+            documentStats.setInlinks(id, id < 64 || id % 1000 == 999 ? (int) (id * 37 % 900) + 100 : (int) (id % 3));
+        }
+        index.insertBatch(batch);
+        documentStats.setVersion(5, 1); // recrawled without the word
+        Postings fieldBoosts = new Postings(new long[]{3, 1500, 5000}, new int[]{3, 3, 3}); // 5000 is only in the title
+        documentStats.setLength(5000, 60);
+        documentStats.setInlinks(5000, 800);
+
+        Bm25Scorer scorer = new Bm25Scorer(1.2, 0.75, 1.0);
+        double idf = scorer.idf(documentsNum + 1, documentsNum + 1);
+        TopKCollector expected = new TopKCollector(10);
+        Postings postings = index.getPostings("common");
+        for(int i = 0; i < postings.size; i++){
+            long id = postings.linkIndices[i];
+            if(id == 5) continue;
+            int boost = fieldBoosts.indexOf(id) >= 0 ? 3 : 0;
+            expected.offer(id, scorer.termScore(postings.frequencies[i] + boost, documentStats.getLength(id), documentStats.getAverageLength(), idf) + scorer.inlinkScore(documentStats.getInlinks(id)));
+        }
+        expected.offer(5000, scorer.termScore(3, 60, documentStats.getAverageLength(), idf) + scorer.inlinkScore(800));
+
+        TopKCollector actual = new TopKCollector(10);
+        try(PostingBlocks blocks = index.getPostingBlocks("common")){
+            assertEquals(documentsNum, blocks.getDocumentsNum());
+            assertEquals(-1, blocks.collectTopK(actual, fieldBoosts, idf, scorer, documentStats), "The blocks of the unlinked documents must be skipped.");
+        }
+        assertArrayEquals(expected.drainDescending(), actual.drainDescending());
+        index.close();
+    }
+
+
+    /**
+     * Test that the inlinks bound of a range of ids covers every document of the range, across both granularities.
+     */
+    @Test
+    public void testInlinksBoundCoversTheRange(){
+        DocumentStats documentStats = new DocumentStats();
+        documentStats.setInlinks(10, 5);
+        documentStats.setInlinks(70, 9);
+        documentStats.setInlinks(9000, 40);
+        documentStats.setInlinks(20000, 7);
+
+        assertEquals(5, documentStats.getMaxInlinks(0, 63));
+        assertEquals(9, documentStats.getMaxInlinks(0, 100));
+        assertEquals(0, documentStats.getMaxInlinks(128, 8191));
+        assertEquals(40, documentStats.getMaxInlinks(100, 19999));
+        assertEquals(40, documentStats.getMaxInlinks(0, 50000));
+        assertEquals(7, documentStats.getMaxInlinks(12000, 1L << 40));
+        assertEquals(0, documentStats.getMaxInlinks(30, 10));
+        assertTrue(documentStats.getMaxInlinks(64, 64) >= documentStats.getInlinks(64));
+    }
+}
@@ -0,0 +1,76 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.protocol.Query;
+import com.googol.backend.tree.TermBatch;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The type Posting iterator test.
+ */
+public class PostingIteratorTest {
+
+    /**
+     * Index the pages, one array of words per page (the page id is its index).
+     */
+    private SegmentedIndex createIndex(String[][] pages) throws IOException {
+        File directory = Files.createTempDirectory("index").toFile();
+        directory.deleteOnExit();
+        SegmentedIndex index = new SegmentedIndex(directory, 100, 4, 1, null);
+        TermBatch batch = new TermBatch(16);
+        for(int id = 0; id < pages.length; id++){
+            for(int position = 0; position < pages[id].length; position++){
+                batch.add(pages[id][position], id, 1, new int[]{position});
+            }
+        }
+        index.insertBatch(batch);
+        return index;
+    }
+
+
+    private List<Long> evaluate(SegmentedIndex index, String query){
+        PostingIterator iterator = PostingIterator.of(Query.parse(query), index::getPostings, new Bm25Scorer(1.2, 0.75, 0), new DocumentStats());
+        ArrayList<Long> documents = new ArrayList<>();
+        for(long id = iterator.nextDoc(); id != PostingIterator.NO_MORE_DOCS; id = iterator.nextDoc()){
+            assertTrue(iterator.score() > 0);
+            documents.add(id);
+        }
+        return documents;
+    }
+
+
+    /**
+     * Test the evaluation of the operators over the postings.
+     */
+    @Test
+    public void testOperators() throws IOException {
+        SegmentedIndex index = createIndex(new String[][]{
+                {"fast", "search", "engine"},
+                {"search", "fast"},
+                {"slow", "engine"},
+                {"fast", "car"},
+                {"search", "engine", "car"}
+        });
+
+        assertEquals(List.of(0L, 1L, 4L), evaluate(index, "search"));
+        assertEquals(List.of(0L, 1L), evaluate(index, "search fast"));
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L), evaluate(index, "fast OR engine OR car"));
+        assertEquals(List.of(0L, 4L), evaluate(index, "search (engine OR car)"));
+        assertEquals(List.of(1L, 4L), evaluate(index, "search -(fast engine)"));
+        assertEquals(List.of(0L, 4L), evaluate(index, "\"search engine\""));
+        assertEquals(List.of(4L), evaluate(index, "\"search engine\" -fast"));
+        assertEquals(List.of(), evaluate(index, "\"engine search\""));
+        assertEquals(List.of(0L, 4L), evaluate(index, "\"engine search\"~1"));
+        assertEquals(List.of(0L), evaluate(index, "\"fast engine\"~2"));
+        assertEquals(List.of(), evaluate(index, "\"fast engine\"~1"));
+        assertEquals(List.of(), evaluate(index, "search missing"));
+        assertEquals(List.of(0L, 1L, 4L), evaluate(index, "search OR missing"));
+        index.close();
+    }
+}
@@ -0,0 +1,36 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Query planner test.
+ */
+public class QueryPlannerTest {
+
+    /**
+     * Test that the words are ordered from the rarest to the most common, and that the very common ones become filters.
+     */
+    @Test
+    public void testPlan() {
+        QueryPlanner planner = new QueryPlanner(0.9);
+        QueryPlanner.Plan plan = planner.plan(new long[]{500, 3, 995, 40}, 1000);
+        assertFalse(plan.isEmpty());
+        assertArrayEquals(new int[]{1, 3, 0}, plan.scoredWords);
+        assertArrayEquals(new int[]{2}, plan.filterWords);
+
+        // the rarest word is scored even when every word is common
+        plan = planner.plan(new long[]{990, 950}, 1000);
+        assertArrayEquals(new int[]{1}, plan.scoredWords);
+        assertArrayEquals(new int[]{0}, plan.filterWords);
+    }
+
+
+    /**
+     * Test that a word that isn't indexed empties the plan.
+     */
+    @Test
+    public void testMissingWord() {
+        assertTrue(new QueryPlanner(0.9).plan(new long[]{10, 0, 20}, 100).isEmpty());
+    }
+}
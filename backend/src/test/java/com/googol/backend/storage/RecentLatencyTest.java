@@ -0,0 +1,43 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Recent latency test.
+ */
+public class RecentLatencyTest {
+
+    /**
+     * Test that the first search sets the latency and the next ones move it by their weight, so a change of load shows
+     * after a few searches.
+     */
+    @Test
+    public void testRecentSearchesWeighMore(){
+        RecentLatency latency = new RecentLatency();
+        assertEquals(0L, latency.getMillis());
+
+        latency.record(10_000_000);
+        assertEquals(10L, latency.getMillis());
+        latency.record(60_000_000);
+        assertEquals(20L, latency.getMillis());
+
+        for(int i = 0; i < 30; i++) latency.record(100_000_000);
+        assertEquals(100L, latency.getMillis());
+    }
+
+
+    /**
+     * Test that a reset forgets the previous searches, so the next one sets the latency again.
+     */
+    @Test
+    public void testResetForgetsPreviousSearches(){
+        RecentLatency latency = new RecentLatency();
+        for(int i = 0; i < 10; i++) latency.record(500_000_000);
+        latency.reset();
+        assertEquals(0L, latency.getMillis());
+        latency.record(10_000_000);
+        assertEquals(10L, latency.getMillis());
+    }
+}
@@ -0,0 +1,37 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Recovery status test.
+ */
+public class RecoveryStatusTest {
+
+    /**
+     * Test that the steps are shown in the order they started, with their progress while running and their time once
+     * finished, and that the recovery only finishes when every step does.
+     */
+    @Test
+    public void testStepsProgressAndFinish(){
+        AtomicLong clock = new AtomicLong(0);
+        RecoveryStatus status = new RecoveryStatus(clock::get);
+        assertEquals("warming", status.toString());
+
+        status.start("index");
+        status.start("documents");
+        status.progress("documents", 40000, 100000);
+        assertEquals("index: running, documents: 40000/100000", status.toString());
+        assertFalse(status.isFinished());
+
+        clock.set(1200);
+        status.finish("index");
+        status.fail("documents");
+        status.progress("documents", 50000, 100000); // ignored once finished
+        assertEquals("index: done in 1.2s, documents: failed in 1.2s", status.toString());
+        assertTrue(status.isFinished());
+    }
+}
@@ -0,0 +1,87 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Search snapshots test.
+ */
+public class SearchSnapshotsTest {
+
+    /**
+     * Test that following the cursors returns the same documents, in the same order, as ranking all of them at once.
+     */
+    @Test
+    public void testPagesFollowTheRanking(){
+        double[] scores = {0.5, 3.0, 1.0, 2.0, 3.0, 0.1, 2.0, 1.0};
+        long[] ids = {10, 11, 12, 13, 14, 15, 16, 17};
+        SearchSnapshots.Snapshot snapshot = new SearchSnapshots.Snapshot(ids, scores, ids.length);
+
+        TopKCollector all = new TopKCollector(ids.length);
+        snapshot.collectAfter(null, all);
+        long[] expected = all.drainDescending();
+
+        ArrayList<Long> paged = new ArrayList<>();
+        SearchSnapshots.Cursor cursor = null;
+        int remaining;
+        do{
+            TopKCollector page = new TopKCollector(3);
+            remaining = snapshot.collectAfter(cursor, page);
+            double[] pageScores = new double[page.size()];
+            long[] pageIds = page.drainDescending(pageScores);
+            for(long id : pageIds) paged.add(id);
+            int last = pageIds.length - 1;
+            cursor = SearchSnapshots.Cursor.parse(new SearchSnapshots.Cursor(7, pageScores[last], pageIds[last]).toString());
+        } while(remaining > 3);
+
+        assertEquals(expected.length, paged.size());
+        for(int i = 0; i < expected.length; i++) assertEquals(expected[i], (long) paged.get(i));
+    }
+
+
+    /**
+     * Test the cursor encoding, keeping the exact score.
+     */
+    @Test
+    public void testCursorRoundTrip(){
+        SearchSnapshots.Cursor cursor = new SearchSnapshots.Cursor(-5, 0.1 + 0.2, 42);
+        SearchSnapshots.Cursor parsed = SearchSnapshots.Cursor.parse(cursor.toString());
+
+        assertEquals(-5, parsed.snapshotId);
+        assertEquals(0.1 + 0.2, parsed.score);
+        assertEquals(42, parsed.docId);
+        assertNull(SearchSnapshots.Cursor.parse("not a cursor"));
+        assertNull(SearchSnapshots.Cursor.parse("1:zz:3"));
+    }
+
+
+    /**
+     * Test that the snapshots expire, are evicted when over the budget and only match their own query.
+     */
+    @Test
+    public void testExpirationAndEviction(){
+        AtomicLong now = new AtomicLong(0);
+        SearchSnapshots snapshots = new SearchSnapshots(10, 1000, now::get);
+        SearchSnapshots.Snapshot small = new SearchSnapshots.Snapshot(new long[4], new double[4], 4);
+
+        long first = snapshots.put("a", small);
+        long second = snapshots.put("b", small);
+        assertSame(small, snapshots.get(first, "a"));
+        assertNull(snapshots.get(first, "b"));
+
+        snapshots.put("c", small); // over the budget, the least recently used (b) is evicted
+        assertNull(snapshots.get(second, "b"));
+        assertSame(small, snapshots.get(first, "a"));
+
+        snapshots.put("d", new SearchSnapshots.Snapshot(new long[11], new double[11], 11)); // bigger than the budget, not kept
+        assertEquals(2, snapshots.size());
+
+        now.set(1000);
+        assertNull(snapshots.get(first, "a"));
+        assertEquals(0, snapshots.size());
+    }
+}
@@ -0,0 +1,235 @@
+package com.googol.backend.storage;
+
+import com.googol.backend.tree.Postings;
+import com.googol.backend.tree.TermBatch;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The type Segmented index test.
+ */
+public class SegmentedIndexTest {
+
+    private File createTempDirectory() throws IOException {
+        File directory = Files.createTempDirectory("index").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+
+    /**
+     * Test that the postings of a word are combined from the write buffer and the flushed segments,
+     * and that they survive reopening the index.
+     */
+    @Test
+    public void testSearchAcrossSegmentsAndReopen() throws IOException {
+        File directory = createTempDirectory();
+        SegmentedIndex index = new SegmentedIndex(directory, 4, 10, 1, null);
+        for(long id = 0; id < 10; id++){
+            TermBatch batch = new TermBatch(4);
+            batch.add("googol", id, 2, new int[]{1, 5});
+            batch.add(id % 2 == 0 ? "even" : "odd", id, 1, new int[]{3});
+            index.insertBatch(batch);
+        }
+        index.flush();
+        assertTrue(index.getSegmentsNum() >= 3, "The write buffer must have been flushed several times.");
+        index.insert("googol", 42);
+
+        Postings postings = index.getPostings("googol");
+        assertEquals(11, postings.size);
+        assertEquals(0, postings.linkIndices[0]);
+        assertEquals(42, postings.linkIndices[10]);
+        assertEquals(2, postings.frequencies[3]);
+        assertArrayEquals(new int[]{1, 5}, postings.getPositions(postings.indexOf(7)));
+        assertEquals(5, index.getPostings("odd").size);
+        assertNull(index.getPostings("missing"));
+        index.close();
+
+        SegmentedIndex reopenedIndex = new SegmentedIndex(directory, 4, 10, 1, null);
+        assertEquals(11, reopenedIndex.getPostings("googol").size);
+        assertEquals(5, reopenedIndex.getPostings("even").size);
+        reopenedIndex.close();
+    }
+
+
+    /**
+     * Test that the background merges compact the segments, keeping the newest postings of a recrawled document.
+     */
+    @Test
+    public void testMergeKeepsNewestPostings() throws IOException {
+        SegmentedIndex index = new SegmentedIndex(createTempDirectory(), 1, 2, 2, null);
+        TermBatch batch = new TermBatch(1);
+        batch.add("page", 1, 1, new int[]{0});
+        index.insertBatch(batch);
+        batch.clear();
+        batch.add("page", 1, 3, new int[]{0, 4, 9}); // recrawled
+        index.insertBatch(batch);
+        for(long id = 2; id < 8; id++){
+            batch.clear();
+            batch.add("page", id, 1, null);
+            index.insertBatch(batch);
+        }
+        index.flush();
+        index.awaitMerges();
+
+        assertTrue(index.getSegmentsNum() < 8, "The segments must have been merged.");
+        Postings postings = index.getPostings("page");
+        assertEquals(7, postings.size);
+        assertEquals(3, postings.frequencies[postings.indexOf(1)]);
+        assertArrayEquals(new int[]{0, 4, 9}, postings.getPositions(postings.indexOf(1)));
+        assertNull(postings.getPositions(postings.indexOf(5)));
+        index.close();
+    }
+
+
+    /**
+     * Test that the postings of an older version of a recrawled document stop matching,
+     * and that the merges drop them from the segments.
+     */
+    @Test
+    public void testRecrawlMasksOldVersion() throws IOException {
+        DocumentStats documentStats = new DocumentStats();
+        File directory = createTempDirectory();
+        SegmentedIndex index = new SegmentedIndex(directory, 100, 2, 1, documentStats::getVersion);
+        TermBatch batch = new TermBatch(2);
+        batch.add("removed", 1, 1, null, 0);
+        batch.add("kept", 1, 1, null, 0);
+        index.insertBatch(batch);
+        batch.clear();
+        batch.add("removed", 2, 1, null, 0);
+        index.insertBatch(batch);
+        index.flush();
+        assertEquals(2, index.getPostings("removed").size);
+
+        // document 1 is recrawled without the word "removed"
+        documentStats.setVersion(1, 1);
+        batch.clear();
+        batch.add("kept", 1, 2, null, 1);
+        index.insertBatch(batch);
+        index.flush();
+
+        Postings removed = index.getPostings("removed");
+        assertEquals(1, removed.size);
+        assertEquals(2, removed.linkIndices[0]);
+        assertEquals(2, index.getPostings("kept").frequencies[0]);
+
+        index.awaitMerges();
+        assertEquals(1, index.getSegmentsNum());
+        index.close();
+
+        // without the current versions every posting left in the segments matches
+        SegmentedIndex reopenedIndex = new SegmentedIndex(directory, 100, 2, 1, null);
+        assertEquals(1, reopenedIndex.getPostings("removed").size);
+        assertEquals(1, reopenedIndex.getPostings("kept").size);
+        reopenedIndex.close();
+    }
+
+
+    /**
+     * Test that the document frequency is estimated from every part of the index, and that the documents of a
+     * common word are checked without its postings, skipping the postings of older versions.
+     */
+    @Test
+    public void testDocumentFrequencyAndMatchDocuments() throws IOException {
+        DocumentStats documentStats = new DocumentStats();
+        SegmentedIndex index = new SegmentedIndex(createTempDirectory(), 100, 10, 1, documentStats::getVersion);
+        TermBatch batch = new TermBatch(8);
+        for(long id = 0; id < 6; id++) batch.add("the", id, 1, null, 0);
+        index.insertBatch(batch);
+        index.flush();
+        batch.clear();
+        batch.add("the", 8, 1, null, 0);
+        index.insertBatch(batch);
+
+        assertEquals(7, index.getDocumentFrequency("the"));
+        assertEquals(0, index.getDocumentFrequency("missing"));
+
+        // document 3 was recrawled without the word
+        documentStats.setVersion(3, 1);
+        long[] candidates = {1, 3, 7, 8};
+        assertArrayEquals(new boolean[]{true, false, false, true}, index.matchDocuments("the", candidates, 4));
+        assertArrayEquals(new boolean[]{false, false}, index.matchDocuments("missing", candidates, 2));
+        index.close();
+    }
+
+
+    /**
+     * Test that a snapshot exported by an index replaces the whole content of another one.
+     */
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        SegmentedIndex source = new SegmentedIndex(createTempDirectory(), 2, 4, 1, null);
+        for(long id = 0; id < 5; id++) source.insert("word", id);
+        byte[] snapshot = source.exportSnapshot();
+        source.close();
+
+        SegmentedIndex target = new SegmentedIndex(createTempDirectory(), 2, 4, 1, null);
+        target.insert("stale", 99);
+        target.importSnapshot(snapshot);
+        assertEquals(5, target.getPostings("word").size);
+        assertNull(target.getPostings("stale"));
+        assertEquals(1, target.getSegmentsNum());
+        target.close();
+    }
+
+
+    /**
+     * Test that the terms of every part of the index are walked in order, once each, with their live postings, and
+     * that the filtered out terms are skipped.
+     */
+    @Test
+    public void testForEachTermMergesParts() throws IOException {
+        DocumentStats documentStats = new DocumentStats();
+        SegmentedIndex index = new SegmentedIndex(createTempDirectory(), 100, 10, 1, documentStats::getVersion);
+        TermBatch batch = new TermBatch(4);
+        batch.add("porto", 1, 1, null, 0);
+        batch.add("lisbon", 1, 1, null, 0);
+        index.insertBatch(batch);
+        index.flush();
+        batch.clear();
+        batch.add("porto", 2, 3, null, 0);
+        batch.add("braga", 3, 1, null, 0);
+        batch.add("lisbon", 1, 2, null, 1); // recrawled
+        index.insertBatch(batch);
+        documentStats.setVersion(1, 1);
+
+        ArrayList<String> terms = new ArrayList<>();
+        ArrayList<Postings> postings = new ArrayList<>();
+        index.forEachTerm(term -> term[0] != 'b', (term, termPostings) -> {
+            terms.add(new String(term));
+            postings.add(termPostings);
+        });
+
+        assertEquals(List.of("lisbon", "porto"), terms);
+        assertEquals(1, postings.get(0).size);
+        assertEquals(2, postings.get(0).frequencies[0]);
+        assertArrayEquals(new long[]{2}, postings.get(1).linkIndices); // document 1 was recrawled without the word
+        index.close();
+    }
+
+
+    /**
+     * Test that the segments version only changes when the segments do, so the summaries of the index can be reused.
+     */
+    @Test
+    public void testSegmentsVersionFollowsTheSegments() throws IOException {
+        SegmentedIndex index = new SegmentedIndex(createTempDirectory(), 100, 10, 1, null);
+        long version = index.getSegmentsVersion();
+        index.flush();
+        assertEquals(version, index.getSegmentsVersion(), "Flushing an empty buffer doesn't add a segment.");
+
+        index.insert("googol", 1);
+        index.flush();
+        assertNotEquals(version, index.getSegmentsVersion());
+        version = index.getSegmentsVersion();
+        index.clear();
+        assertNotEquals(version, index.getSegmentsVersion());
+        index.close();
+    }
+}
@@ -0,0 +1,112 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+
+/**
+ * The type Sender sequence tracker test.
+ */
+public class SenderSequenceTrackerTest {
+    private SenderSequenceTracker tracker;
+    private InetAddress address;
+
+    /**
+     * Sets up.
+     */
+    @BeforeEach
+    public void setUp(){
+        tracker = new SenderSequenceTracker(16);
+        address = InetAddress.getLoopbackAddress();
+    }
+
+
+    /**
+     * Test that duplicated datagrams are dropped.
+     */
+    @Test
+    public void testDuplicatesAreDropped(){
+        assertTrue(tracker.accept(1L, 0, address, 5000));
+        assertTrue(tracker.accept(1L, 1, address, 5000));
+        assertFalse(tracker.accept(1L, 1, address, 5000));
+        assertTrue(tracker.accept(1L, 3, address, 5000));
+        assertFalse(tracker.accept(1L, 3, address, 5000));
+        assertEquals(2, tracker.getDuplicatedDatagrams());
+    }
+
+
+    /**
+     * Test that a gap is requested and closed once the missing datagram arrives.
+     */
+    @Test
+    public void testGapIsRequestedUntilFilled(){
+        tracker.accept(1L, 0, address, 5000);
+        tracker.accept(1L, 3, address, 5000);
+
+        ArrayList<SenderSequenceTracker.Nack> nacks = tracker.collectNacks(5);
+        assertEquals(1, nacks.size());
+        assertEquals(1, nacks.get(0).fromSequence);
+        assertEquals(2, nacks.get(0).toSequence);
+        assertEquals(5000, nacks.get(0).port);
+
+        assertTrue(tracker.accept(1L, 1, address, 5000));
+        assertTrue(tracker.accept(1L, 2, address, 5000));
+        assertTrue(tracker.collectNacks(5).isEmpty());
+        assertEquals(0, tracker.getLostDatagrams());
+    }
+
+
+    /**
+     * Test that a gap is given up on after the maximum number of attempts.
+     */
+    @Test
+    public void testGapIsGivenUpAfterMaxAttempts(){
+        tracker.accept(1L, 0, address, 5000);
+        tracker.accept(1L, 4, address, 5000);
+
+        assertEquals(1, tracker.collectNacks(2).size());
+        assertEquals(1, tracker.collectNacks(2).size());
+        assertTrue(tracker.collectNacks(2).isEmpty());
+        assertEquals(3, tracker.getLostDatagrams());
+        assertFalse(tracker.accept(1L, 2, address, 5000)); // too late
+    }
+
+
+    /**
+     * Test that a gap is given up on when the reorder window is full.
+     */
+    @Test
+    public void testGapIsGivenUpWhenWindowIsFull(){
+        tracker.accept(1L, 0, address, 5000);
+        for(long sequence = 2; sequence <= 18; sequence++){
+            assertTrue(tracker.accept(1L, sequence, address, 5000));
+        }
+        assertEquals(1, tracker.getLostDatagrams());
+        assertTrue(tracker.collectNacks(5).isEmpty());
+    }
+
+
+    /**
+     * Test that the idle senders are expired with their pending gaps counted as lost, and that a datagram of an
+     * expired sender starts it again.
+     */
+    @Test
+    public void testIdleSendersAreExpired(){
+        assertTrue(tracker.accept(1L, 0, address, 5000));
+        assertTrue(tracker.accept(1L, 3, address, 5000));
+        assertTrue(tracker.accept(2L, 0, address, 5000));
+        assertEquals(0, tracker.expireIdleSenders(60000));
+        assertEquals(2, tracker.getSendersNum());
+
+        assertEquals(2, tracker.expireIdleSenders(0));
+        assertEquals(0, tracker.getSendersNum());
+        assertEquals(2, tracker.getLostDatagrams());
+
+        assertTrue(tracker.accept(1L, 4, address, 5000));
+        assertEquals(1, tracker.getSendersNum());
+        assertTrue(tracker.collectNacks(5).isEmpty());
+    }
+}
@@ -0,0 +1,35 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+/**
+ * The type Snippet builder test.
+ */
+public class SnippetBuilderTest {
+
+    /**
+     * Test that the window with the most distinct query words is chosen and that those words are highlighted.
+     */
+    @Test
+    public void testBestWindowIsHighlighted(){
+        String text = "alpha beta gamma delta epsilon. Search engines rank Pages quickly zeta eta theta";
+        String snippet = SnippetBuilder.build(text, List.of("search", "pages"), 5);
+
+        String start = String.valueOf(SnippetBuilder.HIGHLIGHT_START);
+        String end = String.valueOf(SnippetBuilder.HIGHLIGHT_END);
+        assertEquals("..." + start + "Search" + end + " engines rank " + start + "Pages" + end + " quickly...", snippet);
+    }
+
+
+    /**
+     * Test that a text without query words starts the snippet at the beginning of the text.
+     */
+    @Test
+    public void testNoMatchesStartsAtBeginning(){
+        assertEquals("one two...", SnippetBuilder.build("one two three", List.of("four"), 2));
+        assertNull(SnippetBuilder.build("   ", List.of("four"), 2));
+    }
+}
@@ -0,0 +1,30 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Tiered merge policy test.
+ */
+public class TieredMergePolicyTest {
+
+    /**
+     * Test that only complete runs of adjacent segments of the same tier are merged, the cheapest first.
+     */
+    @Test
+    public void testFindMerge() {
+        TieredMergePolicy policy = new TieredMergePolicy(3, 100);
+        assertEquals(0, policy.tierOf(100));
+        assertEquals(1, policy.tierOf(301));
+        assertEquals(2, policy.tierOf(901));
+
+        long[] sizes = {1000, 400, 350, 80, 100, 90};
+        assertArrayEquals(new int[]{3, 6}, policy.findMerge(sizes, new boolean[6]));
+
+        boolean[] merging = {false, false, false, false, true, false};
+        assertNull(policy.findMerge(sizes, merging));
+
+        long[] tierOneSizes = {400, 350, 320, 100};
+        assertArrayEquals(new int[]{0, 3}, policy.findMerge(tierOneSizes, new boolean[4]));
+    }
+}
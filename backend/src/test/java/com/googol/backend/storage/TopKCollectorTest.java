@@ -0,0 +1,41 @@
+package com.googol.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The type Top k collector test.
+ */
+public class TopKCollectorTest {
+
+    /**
+     * Test that only the k best documents are kept, ordered from the best to the worst, with ties broken by id.
+     */
+    @Test
+    public void testKeepsBestDocumentsInOrder(){
+        TopKCollector topK = new TopKCollector(3);
+        double[] scores = {0.5, 3.0, 1.0, 2.0, 3.0, 0.1};
+        for(int id = 0; id < scores.length; id++) topK.offer(id, scores[id]);
+
+        assertEquals(3, topK.size());
+        assertArrayEquals(new long[]{1, 4, 3}, topK.drainDescending());
+        assertEquals(0, topK.size());
+    }
+
+
+    /**
+     * Test that at most the maximum number of documents of each group are kept, the best ones of the group.
+     */
+    @Test
+    public void testCapsDocumentsPerGroup(){
+        TopKCollector topK = new TopKCollector(3, 2, id -> id < 10 ? 0 : (int) id);
+        topK.offer(1, 5.0);
+        topK.offer(2, 4.0);
+        topK.offer(3, 6.0); // replaces 2, the worst of its group
+        topK.offer(4, 1.0); // worse than all the documents of its full group
+        topK.offer(10, 2.0);
+        topK.offer(11, 3.0); // replaces 10, the worst of all
+
+        assertArrayEquals(new long[]{3, 1, 11}, topK.drainDescending());
+    }
+}
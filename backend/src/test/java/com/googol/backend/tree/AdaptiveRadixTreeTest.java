@@ -197,6 +197,105 @@ public class AdaptiveRadixTreeTest {
     }
 
 
+    /**
+     * Test batch insert, including node upgrades and repeated words.
+     */
+    @Test
+    public void testInsertBatch(){
+        final int childrenNum = 300; // enough words under the same prefix to upgrade the node up to Node256
+        String prefix = "a";
+        String[] words = generateWordsWithSharedPrefix(prefix, childrenNum);
+
+        TermBatch batch = new TermBatch(4);
+        for(int i=childrenNum-1; i>=0; i--){ // insert in reverse order, the batch must sort them
+            batch.add(words[i], i);
+            batch.add(words[i], i + 1000L);
+            batch.add(words[i], i); // repeated pair
+        }
+        batch.add(prefix, 7L);
+        art.insertBatch(batch);
+
+        assertInstanceOf(Node256.class, art.findNode(prefix));
+        assertEquals(List.of(7L), art.find(prefix));
+        for(int i=0; i<childrenNum; i++){
+            ArrayList<Long> linkIndices = art.find(words[i]);
+            assertNotNull(linkIndices, "Batch inserted word should be found.");
+            assertEquals(2, linkIndices.size(), "Repeated pairs should only be inserted once.");
+            assertTrue(linkIndices.contains((long) i) && linkIndices.contains(i + 1000L));
+        }
+    }
+
+
+    /**
+     * Test that a batch insert gives the same result as inserting the words one by one.
+     */
+    @Test
+    public void testInsertBatchMatchesSingleInserts(){
+        String[] words = {"hello", "hell", "help", "world", "word", "w", "hello", "zebra", "he"};
+        AdaptiveRadixTree singleArt = new AdaptiveRadixTree();
+        TermBatch batch = new TermBatch(words.length);
+        for(int i=0; i<words.length; i++){
+            singleArt.insert(words[i], i);
+            batch.add(words[i], i);
+        }
+        singleArt.insert("hello", 0); // existing link index
+        art.insert("hello", 0); // the batch must not duplicate link indices that already exist in the tree
+        art.insertBatch(batch);
+
+        for(String word: words){
+            assertEquals(new HashSet<>(singleArt.find(word)), new HashSet<>(art.find(word)));
+            assertEquals(singleArt.find(word).size(), art.find(word).size());
+        }
+        assertNull(art.find("hel"), "Prefixes of inserted words should not be final words.");
+    }
+
+
+    /**
+     * Test that the postings are sorted by link index with the frequency of each one, and that a recrawl replaces the frequency.
+     */
+    @Test
+    public void testPostingsFrequencies(){
+        TermBatch batch = new TermBatch(4);
+        batch.add("word", 7, 3, null);
+        batch.add("word", 2, 1, null);
+        art.insertBatch(batch);
+        art.insert("word", 5);
+        art.insert("word", 7, 4, null);
+
+        Postings postings = art.findNode("word").getPostings();
+        assertEquals(3, postings.size);
+        assertArrayEquals(new long[]{2, 5, 7}, postings.linkIndices);
+        assertArrayEquals(new int[]{1, 1, 4}, postings.frequencies);
+    }
+
+
+    /**
+     * Test that the positions of a word survive node upgrades and the exportation and importation of the tree.
+     */
+    @Test
+    public void testPositionsSurviveUpgradeAndExport() throws IOException {
+        TermBatch batch = new TermBatch(8);
+        batch.add("ab", 1, new int[]{3, 10, 400});
+        batch.add("ab", 2, null);
+        art.insertBatch(batch);
+        for(char c = 'c'; c < 'c' + 20; c++) art.insert("ab" + c, 3); // upgrade the node of "ab" up to a Node48
+
+        assertArrayEquals(new int[]{3, 10, 400}, art.findNode("ab").getPositions(1));
+        assertNull(art.findNode("ab").getPositions(2));
+
+        java.io.File file = java.io.File.createTempFile("art", ".bin");
+        file.deleteOnExit();
+        art.setFilename(file.getAbsolutePath());
+        art.exportART();
+        AdaptiveRadixTree importedArt = new AdaptiveRadixTree();
+        importedArt.importART(Files.readAllBytes(file.toPath()));
+
+        assertEquals(new HashSet<>(art.find("ab")), new HashSet<>(importedArt.find("ab")));
+        assertArrayEquals(new int[]{3, 10, 400}, importedArt.findNode("ab").getPositions(1));
+        assertNull(importedArt.findNode("ab").getPositions(2));
+    }
+
+
     /**
      * Test insert duplicate word different link index.
      */
@@ -10,7 +10,6 @@ import com.googol.backend.gateway.GatewayRemote;
 import com.googol.frontend.rmi.Gateway;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Optional;
 
 @RestController
@@ -28,26 +27,21 @@ public class SearchController {
     public ArrayList<ArrayList<String>> search(@RequestParam("query") String query,
                                                @RequestParam(defaultValue = "0") int page,
                                                @RequestParam(defaultValue = "10") int pageSize,
-                                               @RequestParam(defaultValue = "true") boolean isFreshSearch
+                                               @RequestParam(defaultValue = "true") boolean isFreshSearch,
+                                               @RequestParam(required = false) String cursor
                                                ) {
         Optional<GatewayRemote> gatewayRemote = gateway.getOrReconnect();
 
         return gatewayRemote.map(remote -> {
             try{
-                String[] splitQuery = query.split(" ");
-                if(splitQuery.length > 1){
-                    return remote.searchWordSet(new ArrayList<>(Arrays.asList(splitQuery)),
-                            page,
-                            pageSize,
-                            isFreshSearch
-                    );
-                } else {
-                    return remote.searchWord(splitQuery[0],
-                            page,
-                            pageSize,
-                            isFreshSearch
-                    );
-                }
+                // the query (words, OR, -word, parentheses, quoted phrases and sites) is parsed by the gateway
+                // the first page and the pages reached with a cursor continue the search, the others are searched by number
+                if(page == 0 || cursor != null) return remote.searchAfter(query, cursor, pageSize, isFreshSearch);
+                return remote.search(query,
+                        page,
+                        pageSize,
+                        isFreshSearch
+                );
             } catch (Exception e){
                 System.out.println("[ERROR] Failed to search: " + e.getMessage());
                 return null;
@@ -55,6 +55,12 @@ async function processWebsocketMessage(data){
             barrelAvailability.textContent = `Load: ${barrelInfo[2]}`;
             let barrelRequestCount = document.createElement('p');
             barrelRequestCount.textContent = `Request Count: ${barrelInfo[3]}`;
+            let barrelIngestQueue = document.createElement('p');
+            barrelIngestQueue.textContent = `Ingest Queue: ${barrelInfo[4]} (Dropped: ${barrelInfo[5]}, Lag: ${barrelInfo[6]})`;
+            let barrelStatus = document.createElement('p');
+            barrelStatus.textContent = `Status: ${barrelInfo[7]}`;
+            let barrelRecentLatency = document.createElement('p');
+            barrelRecentLatency.textContent = `Recent Latency: ${barrelInfo[8]}`;
 
             // append details to the main barrel info div
             barrelInfoDiv.append(barrelName);
@@ -62,6 +68,9 @@ async function processWebsocketMessage(data){
             barrelInfoDiv.append(barrelResponseTime);
             barrelInfoDiv.append(barrelAvailability);
             barrelInfoDiv.append(barrelRequestCount);
+            barrelInfoDiv.append(barrelIngestQueue);
+            barrelInfoDiv.append(barrelStatus);
+            barrelInfoDiv.append(barrelRecentLatency);
 
             /*
             // add donut div that represents each barrel load
@@ -4,10 +4,32 @@ let isFreshSearch = true;
 let currentPageElement = document.getElementById('currentPage');
 let lastPageElement = document.getElementById('lastPage');
 let lastPage = 0;
+// cursor of each page reached by following the pages from the first one (which has none)
+let cursors = [null];
 
 // TODO implement a more sophisticated page navigation system where a button disappears if its not possible to go further or backwards
 
 
+// the query words in the snippets come wrapped between these control characters
+const HIGHLIGHT_START = '\u0002';
+const HIGHLIGHT_END = '\u0003';
+
+function appendSnippet(element, snippet){
+    snippet.split(HIGHLIGHT_START).forEach(function(part, index){
+        if(index === 0){
+            element.append(part);
+            return;
+        }
+        // the part starts with a highlighted word, followed by plain text
+        const [highlighted, rest] = part.split(HIGHLIGHT_END);
+        const mark = document.createElement('mark');
+        mark.textContent = highlighted;
+        element.appendChild(mark);
+        if(rest) element.append(rest);
+    });
+}
+
+
 function displaySearchResults(data){
     // clear existing results
     $('#searchResults').empty();
@@ -31,10 +53,11 @@ function displaySearchResults(data){
         paragraph2.textContent = urlInfo[1];
         paragraph2.href = urlInfo[0];
 
-        // create the third paragraph element
+        // create the third paragraph element (the snippet of the page when the barrel has its text, otherwise the description)
         const paragraph3 = document.createElement('p');
         paragraph3.className = 'text-base';
-        paragraph3.textContent = urlInfo[2];
+        if(urlInfo.length > 3 && urlInfo[3]) appendSnippet(paragraph3, urlInfo[3]);
+        else paragraph3.textContent = urlInfo[2];
 
         /*
         const aiContextButton = document.createElement('div');
@@ -88,7 +111,12 @@ async function getSearchAnalysis(serializedQuery){
 
 
 function performSearch() {
+    if (isFreshSearch) {
+        page = 0; // a fresh search starts on the first page, with no cursors
+        cursors = [null];
+    }
     let formData = $('#operationForm').serialize() + '&page=' + page + '&pageSize=' + pageSize + '&isFreshSearch=' + isFreshSearch;
+    if (page < cursors.length && cursors[page] !== null) formData += '&cursor=' + encodeURIComponent(cursors[page]);
     $.ajax({
         type: 'GET',
         url: '/api/search',
@@ -102,13 +130,14 @@ function performSearch() {
             }
 
             // get the last page that comes in the response from the backend
-            lastPage = parseInt(data.pop()[0], 10);
+            const lastRow = data.pop();
+            lastPage = parseInt(lastRow[0], 10);
+            if (lastRow.length > 1 && page + 1 === cursors.length) cursors.push(lastRow[1]); // cursor of the next page
             lastPageElement.innerHTML = (lastPage + 1).toString();
 
             displaySearchResults(data);
 
             if (isFreshSearch) {
-                page = 0; // reset to first page if it's a fresh search
                 getSearchAnalysis($('#operationForm').serialize());
                 fetchHackerNews($('#operationForm').serialize());
             }